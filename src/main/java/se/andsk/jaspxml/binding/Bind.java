@@ -0,0 +1,38 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.binding;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import se.andsk.jaspxml.parser.TypeConverter;
+
+/**
+ * Binds a field, or a setter method with one parameter, to an attribute or to the text of an element in a record. See
+ * {@link Unmarshaller} for the syntax of the path.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.METHOD })
+public @interface Bind
+{
+	/**
+	 * The path from the record element, e.g. {@code @id}, {@code price}, {@code price/@currency} or {@code text()}.
+	 *
+	 * @return the path
+	 */
+	String value();
+
+	/**
+	 * A converter with a public no-argument constructor that converts the value to the type of the field. By default
+	 * the value is converted by a built-in converter for the type.
+	 *
+	 * @return the converter class
+	 */
+	@SuppressWarnings("rawtypes")
+	Class<? extends TypeConverter> converter() default TypeConverter.class;
+}
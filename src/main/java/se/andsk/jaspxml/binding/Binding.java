@@ -0,0 +1,52 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.binding;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.exceptions.TypeConversionException;
+
+/**
+ * Converts a value found on a path and stores it in a target, e.g. a field of a record or a row of a column.
+ */
+abstract class Binding
+{
+	final String description;
+
+	/**
+	 * @param description the destination of the value, for error messages
+	 */
+	Binding(String description)
+	{
+		this.description = description;
+	}
+
+	final void bind(Object target, CharSequence value) throws ParsingException
+	{
+		try
+		{
+			set(target, value);
+		}
+		catch (TypeConversionException e)
+		{
+			throw new ParsingException(new TypeConversionException("Can't bind " + description + ": " + e.getMessage()));
+		}
+		catch (ParsingException | RuntimeException | Error e)
+		{
+			throw e;
+		}
+		catch (Throwable t)
+		{
+			throw new ParsingException(new IllegalStateException(t));
+		}
+	}
+
+	/**
+	 * Convert and store a value.
+	 *
+	 * @param target the target
+	 * @param value the value, which is only valid during the call
+	 * @throws Throwable
+	 */
+	abstract void set(Object target, CharSequence value) throws Throwable;
+}
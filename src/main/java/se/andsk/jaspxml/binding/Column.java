@@ -0,0 +1,142 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.binding;
+
+import se.andsk.jaspxml.parser.TypeConverter;
+
+/**
+ * A column that is filled by a {@link ColumnExtractor}: a name, the path of the value from the record element, in the
+ * syntax described by {@link Unmarshaller}, and the type of the column.
+ */
+public final class Column
+{
+	/**
+	 * The type of a column and the storage of its values in a {@link ColumnBatch}
+	 */
+	public enum Type
+	{
+		/**
+		 * Stored in an {@code int[]}
+		 */
+		INT,
+
+		/**
+		 * Stored in a {@code long[]}
+		 */
+		LONG,
+
+		/**
+		 * Stored in a {@code double[]}
+		 */
+		DOUBLE,
+
+		/**
+		 * Stored in a {@code boolean[]}
+		 */
+		BOOLEAN,
+
+		/**
+		 * Dictionary encoded, stored as codes in an {@code int[]}
+		 */
+		STRING
+	}
+
+	private final String name;
+	private final String path;
+	private final Type type;
+
+	/**
+	 * The converter of a primitive column, or null for strings
+	 */
+	private final Object converter;
+
+	private Column(String name, String path, Type type, Object converter)
+	{
+		this.name = name;
+		this.path = path;
+		this.type = type;
+		this.converter = converter;
+	}
+
+	public static Column ofInt(String name, String path)
+	{
+		return ofInt(name, path, TypeConverter.ParseInt);
+	}
+
+	public static Column ofInt(String name, String path, TypeConverter.ToInt converter)
+	{
+		return new Column(name, path, Type.INT, converter);
+	}
+
+	public static Column ofLong(String name, String path)
+	{
+		return ofLong(name, path, TypeConverter.ParseLong);
+	}
+
+	/**
+	 * A long column with a converter, e.g. {@link TypeConverter#IsoEpochMillis} for timestamps.
+	 *
+	 * @param name the name of the column
+	 * @param path the path of the value
+	 * @param converter the converter
+	 * @return the column
+	 */
+	public static Column ofLong(String name, String path, TypeConverter.ToLong converter)
+	{
+		return new Column(name, path, Type.LONG, converter);
+	}
+
+	public static Column ofDouble(String name, String path)
+	{
+		return ofDouble(name, path, TypeConverter.ParseDouble);
+	}
+
+	public static Column ofDouble(String name, String path, TypeConverter.ToDouble converter)
+	{
+		return new Column(name, path, Type.DOUBLE, converter);
+	}
+
+	public static Column ofBoolean(String name, String path)
+	{
+		return new Column(name, path, Type.BOOLEAN, TypeConverter.ParseBoolean);
+	}
+
+	/**
+	 * A dictionary encoded string column, for values with few distinct strings.
+	 *
+	 * @param name the name of the column
+	 * @param path the path of the value
+	 * @return the column
+	 */
+	public static Column ofString(String name, String path)
+	{
+		return new Column(name, path, Type.STRING, null);
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public String getPath()
+	{
+		return path;
+	}
+
+	public Type getType()
+	{
+		return type;
+	}
+
+	Object getConverter()
+	{
+		return converter;
+	}
+
+	@Override
+	public String toString()
+	{
+		return name + " " + type + " " + path;
+	}
+}
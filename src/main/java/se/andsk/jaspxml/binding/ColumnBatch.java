@@ -0,0 +1,270 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.binding;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A batch of rows in columnar form, filled by a {@link ColumnExtractor}.
+ * <p>
+ * Each column is stored in a primitive array with one entry for each row up to the capacity of the batch, and has a
+ * bitmap with a set bit for each row where the value is missing. Strings are dictionary encoded: the array holds a code
+ * for each row, and the dictionary of the column, which is local to the batch, holds the distinct strings in the order
+ * they were first seen.
+ * <p>
+ * The extractor reuses the same batch, and the same arrays, for all batches, so the contents are only valid until the
+ * consumer returns.
+ */
+public final class ColumnBatch
+{
+	private final Column[] columns;
+	private final int capacity;
+	private final Object[] values;
+	private final long[][] nulls;
+	private final StringDictionary[] dictionaries;
+	private int rows = 0;
+
+	ColumnBatch(Column[] columns, int capacity)
+	{
+		this.columns = columns;
+		this.capacity = capacity;
+		this.values = new Object[columns.length];
+		this.nulls = new long[columns.length][(capacity + 63) / 64];
+		this.dictionaries = new StringDictionary[columns.length];
+
+		for (int i = 0; i < columns.length; ++i)
+		{
+			switch (columns[i].getType())
+			{
+				case INT:
+					values[i] = new int[capacity];
+					break;
+				case LONG:
+					values[i] = new long[capacity];
+					break;
+				case DOUBLE:
+					values[i] = new double[capacity];
+					break;
+				case BOOLEAN:
+					values[i] = new boolean[capacity];
+					break;
+				case STRING:
+					values[i] = new int[capacity];
+					dictionaries[i] = new StringDictionary();
+					break;
+			}
+		}
+
+		clear();
+	}
+
+	/**
+	 * Remove all rows.
+	 */
+	void clear()
+	{
+		rows = 0;
+
+		for (int i = 0; i < columns.length; ++i)
+		{
+			Arrays.fill(nulls[i], -1L);
+
+			if (dictionaries[i] != null)
+				dictionaries[i].clear();
+		}
+	}
+
+	/**
+	 * Complete the current row, after its values have been set.
+	 */
+	void endRow()
+	{
+		++rows;
+	}
+
+	boolean isFull()
+	{
+		return rows == capacity;
+	}
+
+	private void present(int column)
+	{
+		nulls[column][rows >>> 6] &= ~(1L << rows);
+	}
+
+	void setInt(int column, int value)
+	{
+		((int[]) values[column])[rows] = value;
+		present(column);
+	}
+
+	void setLong(int column, long value)
+	{
+		((long[]) values[column])[rows] = value;
+		present(column);
+	}
+
+	void setDouble(int column, double value)
+	{
+		((double[]) values[column])[rows] = value;
+		present(column);
+	}
+
+	void setBoolean(int column, boolean value)
+	{
+		((boolean[]) values[column])[rows] = value;
+		present(column);
+	}
+
+	void setString(int column, CharSequence value)
+	{
+		((int[]) values[column])[rows] = dictionaries[column].code(value);
+		present(column);
+	}
+
+	/**
+	 * Returns the number of rows in this batch.
+	 *
+	 * @return the number of rows
+	 */
+	public int getRowCount()
+	{
+		return rows;
+	}
+
+	/**
+	 * Returns the maximum number of rows in a batch, which is also the length of the arrays.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public int getColumnCount()
+	{
+		return columns.length;
+	}
+
+	public Column getColumn(int column)
+	{
+		return columns[column];
+	}
+
+	/**
+	 * Returns the index of a column.
+	 *
+	 * @param name the name of the column
+	 * @return the index, or -1 if there is no such column
+	 */
+	public int indexOf(String name)
+	{
+		for (int i = 0; i < columns.length; ++i)
+		{
+			if (columns[i].getName().equals(name))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns true if a value is missing, i.e. if the path of the column didn't match anything in the record.
+	 *
+	 * @param column the index of the column
+	 * @param row the row
+	 * @return true if the value is missing
+	 */
+	public boolean isNull(int column, int row)
+	{
+		return (nulls[column][row >>> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * Returns the bitmap of missing values of a column, where bit {@code row % 64} of word {@code row / 64} is set if
+	 * the value of that row is missing.
+	 *
+	 * @param column the index of the column
+	 * @return the bitmap
+	 */
+	public long[] getNulls(int column)
+	{
+		return nulls[column];
+	}
+
+	private Object values(int column, Column.Type type)
+	{
+		if (columns[column].getType() != type)
+			throw new IllegalArgumentException("Column " + columns[column] + " is not of type " + type);
+
+		return values[column];
+	}
+
+	public int[] getInts(int column)
+	{
+		return (int[]) values(column, Column.Type.INT);
+	}
+
+	public long[] getLongs(int column)
+	{
+		return (long[]) values(column, Column.Type.LONG);
+	}
+
+	public double[] getDoubles(int column)
+	{
+		return (double[]) values(column, Column.Type.DOUBLE);
+	}
+
+	public boolean[] getBooleans(int column)
+	{
+		return (boolean[]) values(column, Column.Type.BOOLEAN);
+	}
+
+	/**
+	 * Returns the dictionary codes of a string column.
+	 *
+	 * @param column the index of the column
+	 * @return the codes, which are indexes in {@link #getDictionary(int)}
+	 */
+	public int[] getCodes(int column)
+	{
+		return (int[]) values(column, Column.Type.STRING);
+	}
+
+	/**
+	 * Returns the distinct strings of a string column in this batch.
+	 *
+	 * @param column the index of the column
+	 * @return the strings, indexed by their codes
+	 */
+	public List<String> getDictionary(int column)
+	{
+		values(column, Column.Type.STRING);
+		return dictionaries[column].asList();
+	}
+
+	/**
+	 * Returns the value of a string column.
+	 *
+	 * @param column the index of the column
+	 * @param row the row
+	 * @return the string, or null if the value is missing
+	 */
+	public String getString(int column, int row)
+	{
+		int[] codes = getCodes(column);
+
+		if (row >= rows)
+			throw new IndexOutOfBoundsException("Row " + row + " out of bounds for " + rows + " rows");
+
+		return isNull(column, row) ? null : dictionaries[column].get(codes[row]);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ColumnBatch[rows=" + rows + ", columns=" + Arrays.toString(columns) + "]";
+	}
+}
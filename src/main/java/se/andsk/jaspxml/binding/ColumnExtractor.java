@@ -0,0 +1,161 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.binding;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.xml.namespace.QName;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.parser.Element;
+import se.andsk.jaspxml.parser.TypeConverter;
+import se.andsk.jaspxml.parser.XMLParser;
+
+/**
+ * Extracts values from records into columns, for analytics loads.
+ * <p>
+ * Each {@link Column} has a path from the record element, with the same syntax as the paths of an
+ * {@link Unmarshaller}, and the values are parsed directly into the primitive arrays of a {@link ColumnBatch} with
+ * the primitive and {@link CharSequence} accessors of {@link Element}, without creating attribute maps or, with
+ * {@link se.andsk.jaspxml.parser.XMLParserUTF8}, strings for numbers. The parser only steps down into elements that
+ * are on a path. When a batch is full it is passed to a consumer, and then reused for the next rows.
+ * <p>
+ * An extractor is immutable and can be used by any number of threads, each with its own parser.
+ */
+public final class ColumnExtractor
+{
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+
+	private final Column[] columns;
+	private final QName recordName;
+	private final Node root;
+	private final int batchSize;
+
+	/**
+	 * Create an extractor for columns without namespace prefixes, where all elements are records, with batches of
+	 * {@link #DEFAULT_BATCH_SIZE} rows.
+	 *
+	 * @param columns the columns
+	 * @throws IllegalArgumentException if a path is invalid or bound twice
+	 */
+	public ColumnExtractor(List<Column> columns)
+	{
+		this(null, columns, Collections.<String, String> emptyMap(), DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param recordName the name of the record elements, or null if all elements are records
+	 * @param columns the columns
+	 * @param namespaces namespace URIs for the prefixes that are used in the paths
+	 * @param batchSize the number of rows in each batch
+	 * @throws IllegalArgumentException if a path is invalid or bound twice
+	 */
+	public ColumnExtractor(QName recordName, List<Column> columns, Map<String, String> namespaces, int batchSize)
+	{
+		if (batchSize < 1)
+			throw new IllegalArgumentException("The batch size must be at least 1");
+
+		this.columns = columns.toArray(new Column[columns.size()]);
+		this.recordName = recordName;
+		this.batchSize = batchSize;
+		this.root = new Node(null);
+
+		for (int i = 0; i < this.columns.length; ++i)
+		{
+			Column column = this.columns[i];
+			root.bind(column.getPath(), new ColumnBinding(i, column), namespaces, "column " + column.getName());
+		}
+
+		root.freeze();
+	}
+
+	/**
+	 * Extract the rest of the records at the current depth of a parser. Text, and elements with another name than the
+	 * record name, are skipped. Each full batch, and the last batch if it has any rows, is passed to the consumer.
+	 *
+	 * @param parser the parser
+	 * @param consumer receives the batches, which are only valid until it returns
+	 * @return the number of records
+	 * @throws ParsingException if the document is invalid or a value can't be converted
+	 */
+	public long extract(XMLParser parser, Consumer<? super ColumnBatch> consumer) throws ParsingException
+	{
+		ColumnBatch batch = new ColumnBatch(columns, batchSize);
+		long count = 0;
+		Element element;
+
+		while ((element = parser.next()) != null)
+		{
+			if (element.isText() || (recordName != null && !recordName.equals(element.getName())))
+				continue;
+
+			Node.read(parser, element, root, batch);
+			batch.endRow();
+			++count;
+
+			if (batch.isFull())
+			{
+				consumer.accept(batch);
+				batch.clear();
+			}
+		}
+
+		if (batch.getRowCount() > 0)
+			consumer.accept(batch);
+
+		return count;
+	}
+
+	public List<Column> getColumns()
+	{
+		return Collections.unmodifiableList(Arrays.asList(columns));
+	}
+
+	/**
+	 * Stores a value in the current row of a column.
+	 */
+	private static final class ColumnBinding extends Binding
+	{
+		private final int index;
+		private final Column.Type type;
+		private final Object converter;
+
+		ColumnBinding(int index, Column column)
+		{
+			super("column " + column.getName());
+			this.index = index;
+			this.type = column.getType();
+			this.converter = column.getConverter();
+		}
+
+		@Override
+		void set(Object target, CharSequence value) throws Throwable
+		{
+			ColumnBatch batch = (ColumnBatch) target;
+
+			switch (type)
+			{
+				case INT:
+					batch.setInt(index, ((TypeConverter.ToInt) converter).convert(value));
+					break;
+				case LONG:
+					batch.setLong(index, ((TypeConverter.ToLong) converter).convert(value));
+					break;
+				case DOUBLE:
+					batch.setDouble(index, ((TypeConverter.ToDouble) converter).convert(value));
+					break;
+				case BOOLEAN:
+					batch.setBoolean(index, ((TypeConverter.ToBoolean) converter).convert(value));
+					break;
+				case STRING:
+					batch.setString(index, value);
+					break;
+			}
+		}
+	}
+}
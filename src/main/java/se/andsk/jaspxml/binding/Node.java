@@ -0,0 +1,238 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.binding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.parser.Element;
+import se.andsk.jaspxml.parser.XMLParser;
+
+/**
+ * An element on the bound paths, with the bindings of its attributes and text and the elements below it. The paths of
+ * a record are merged into a tree of nodes, with the record element as the root, and the tree is frozen before it is
+ * used.
+ */
+final class Node
+{
+	final QName name;
+
+	QName[] attributeNames = new QName[0];
+	Binding[] attributes = new Binding[0];
+	Binding text;
+
+	private List<Node> childList = new ArrayList<Node>();
+	private Node[] children;
+
+	/**
+	 * True if the parser needs to step down into the element
+	 */
+	private boolean descend;
+
+	Node(QName name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * Add a binding for a path from this node.
+	 *
+	 * @param path the path, in the syntax described by {@link Unmarshaller}
+	 * @param binding the binding
+	 * @param namespaces namespace URIs for the prefixes in the path
+	 * @param owner the owner of the path, for error messages
+	 * @throws IllegalArgumentException if the path is invalid or already bound
+	 */
+	void bind(String path, Binding binding, Map<String, String> namespaces, Object owner)
+	{
+		String[] steps = path.trim().split("/", -1);
+		Node node = this;
+
+		for (int i = 0; i < steps.length - 1; ++i)
+			node = node.add(name(steps[i].trim(), namespaces, owner));
+
+		String last = steps[steps.length - 1].trim();
+
+		if (last.startsWith("@"))
+		{
+			node.attribute(name(last.substring(1), namespaces, owner), binding);
+		}
+		else
+		{
+			if (!last.equals("text()"))
+				node = node.add(name(last, namespaces, owner));
+
+			if (node.text != null)
+				throw new IllegalArgumentException("The path " + path + " is bound twice in " + owner);
+
+			node.text = binding;
+		}
+	}
+
+	private Node add(QName childName)
+	{
+		for (Node child : childList)
+		{
+			if (child.name.equals(childName))
+				return child;
+		}
+
+		Node child = new Node(childName);
+		childList.add(child);
+		return child;
+	}
+
+	private void attribute(QName attribute, Binding binding)
+	{
+		for (QName existing : attributeNames)
+		{
+			if (existing.equals(attribute))
+				throw new IllegalArgumentException("The attribute " + attribute + " is bound twice");
+		}
+
+		int count = attributeNames.length;
+		QName[] names = new QName[count + 1];
+		Binding[] bindings = new Binding[count + 1];
+		System.arraycopy(attributeNames, 0, names, 0, count);
+		System.arraycopy(attributes, 0, bindings, 0, count);
+		names[count] = attribute;
+		bindings[count] = binding;
+		attributeNames = names;
+		attributes = bindings;
+	}
+
+	void freeze()
+	{
+		children = childList.toArray(new Node[childList.size()]);
+		childList = null;
+		descend = text != null || children.length > 0;
+
+		for (Node child : children)
+			child.freeze();
+	}
+
+	private Node child(QName childName)
+	{
+		for (Node child : children)
+		{
+			if (child.name.equals(childName))
+				return child;
+		}
+		return null;
+	}
+
+	/**
+	 * Bind the values on the paths below an element. The parser only steps down into elements that are on a path, and
+	 * is left at the element, as before the call.
+	 *
+	 * @param parser the parser, positioned at the element
+	 * @param element the element
+	 * @param node the node of the element
+	 * @param target the target of the bindings
+	 * @throws ParsingException
+	 */
+	static void read(XMLParser parser, Element element, Node node, Object target) throws ParsingException
+	{
+		for (int i = 0; i < node.attributeNames.length; ++i)
+		{
+			CharSequence value = element.getAttributeSequence(node.attributeNames[i]);
+
+			if (value != null)
+				node.attributes[i].bind(target, value);
+		}
+
+		if (!node.descend || !element.hasChildren())
+			return;
+
+		parser.down();
+
+		// Text that is split, e.g. by CDATA sections, is joined before it is converted
+		Element first = null;
+		StringBuilder text = null;
+		Element child;
+
+		while ((child = parser.next()) != null)
+		{
+			if (child.isText())
+			{
+				if (node.text == null)
+					continue;
+
+				if (first == null)
+				{
+					first = child.snapshot();
+				}
+				else
+				{
+					if (text == null)
+						text = new StringBuilder(first.getText());
+
+					text.append(child.getTextSequence());
+				}
+			}
+			else
+			{
+				Node next = node.child(child.getName());
+
+				if (next != null)
+					read(parser, child, next, target);
+			}
+		}
+
+		parser.up();
+
+		if (text != null)
+			node.text.bind(target, text);
+		else if (first != null)
+			node.text.bind(target, first.getTextSequence());
+	}
+
+	/**
+	 * Parse a name in a path.
+	 *
+	 * @param name the name, as {@code name}, {@code prefix:name} or {@code {uri}name}
+	 * @param namespaces namespace URIs for the prefixes
+	 * @param owner the owner of the path, for error messages
+	 * @return the name
+	 * @throws IllegalArgumentException if the name is invalid or has an unknown prefix
+	 */
+	static QName name(String name, Map<String, String> namespaces, Object owner)
+	{
+		if (name.startsWith("{"))
+		{
+			int end = name.indexOf('}');
+
+			if (end < 0)
+				throw new IllegalArgumentException("Expected } in " + name + " in " + owner);
+
+			return check(new QName(name.substring(1, end), name.substring(end + 1)), owner);
+		}
+
+		int colon = name.indexOf(':');
+
+		if (colon < 0)
+			return check(new QName(name), owner);
+
+		String uri = namespaces.get(name.substring(0, colon));
+
+		if (uri == null)
+			throw new IllegalArgumentException("Unknown namespace prefix in " + name + " in " + owner);
+
+		return check(new QName(uri, name.substring(colon + 1)), owner);
+	}
+
+	private static QName check(QName name, Object owner)
+	{
+		String local = name.getLocalPart();
+
+		if (local.isEmpty() || local.indexOf('@') >= 0 || local.indexOf('(') >= 0 || local.indexOf('*') >= 0)
+			throw new IllegalArgumentException("Invalid name " + local + " in a path in " + owner);
+
+		return name;
+	}
+}
@@ -0,0 +1,34 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.binding;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Optional settings for a class that is bound by an {@link Unmarshaller}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Record
+{
+	/**
+	 * The name of the record elements, as {@code name}, {@code prefix:name} or {@code {uri}name}. Other elements are
+	 * skipped by {@link Unmarshaller#next(se.andsk.jaspxml.parser.XMLParser)}. By default all elements are records.
+	 *
+	 * @return the name
+	 */
+	String name() default "";
+
+	/**
+	 * The namespace prefixes that are used in the name and in the paths, as {@code prefix=uri}.
+	 *
+	 * @return the namespace declarations
+	 */
+	String[] namespaces() default {};
+}
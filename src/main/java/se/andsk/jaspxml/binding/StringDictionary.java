@@ -0,0 +1,130 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.binding;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Assigns codes to distinct strings, in the order they are added. Strings are looked up by their characters, so a
+ * string is only created the first time a value is seen.
+ */
+final class StringDictionary
+{
+	private String[] strings = new String[16];
+	private int[] hashes = new int[16];
+	private int size = 0;
+
+	/**
+	 * Open addressing hash table of codes plus one, where 0 is an empty slot
+	 */
+	private int[] table = new int[32];
+
+	private static int hash(CharSequence s)
+	{
+		int h = 0;
+
+		for (int i = 0; i < s.length(); ++i)
+			h = 31 * h + s.charAt(i);
+
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean equal(String string, CharSequence s)
+	{
+		int length = string.length();
+
+		if (s.length() != length)
+			return false;
+
+		for (int i = 0; i < length; ++i)
+		{
+			if (string.charAt(i) != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the code of a string, adding it if it is new.
+	 *
+	 * @param s the string
+	 * @return the code
+	 */
+	int code(CharSequence s)
+	{
+		int h = hash(s);
+		int mask = table.length - 1;
+
+		for (int i = h & mask;; i = (i + 1) & mask)
+		{
+			int entry = table[i];
+
+			if (entry == 0)
+			{
+				if (size == strings.length)
+				{
+					strings = Arrays.copyOf(strings, 2 * size);
+					hashes = Arrays.copyOf(hashes, 2 * size);
+				}
+
+				strings[size] = s.toString();
+				hashes[size] = h;
+				table[i] = ++size;
+
+				if (2 * size > table.length)
+					rehash();
+
+				return size - 1;
+			}
+
+			int code = entry - 1;
+
+			if (hashes[code] == h && equal(strings[code], s))
+				return code;
+		}
+	}
+
+	private void rehash()
+	{
+		table = new int[2 * table.length];
+		int mask = table.length - 1;
+
+		for (int code = 0; code < size; ++code)
+		{
+			int i = hashes[code] & mask;
+
+			while (table[i] != 0)
+				i = (i + 1) & mask;
+
+			table[i] = code + 1;
+		}
+	}
+
+	String get(int code)
+	{
+		if (code < 0 || code >= size)
+			throw new IndexOutOfBoundsException("No string with code " + code);
+
+		return strings[code];
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	List<String> asList()
+	{
+		return Collections.unmodifiableList(Arrays.asList(strings).subList(0, size));
+	}
+
+	void clear()
+	{
+		Arrays.fill(table, 0);
+		Arrays.fill(strings, 0, size, null);
+		size = 0;
+	}
+}
@@ -0,0 +1,455 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.binding;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.xml.namespace.QName;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.exceptions.TypeConversionException;
+import se.andsk.jaspxml.parser.Element;
+import se.andsk.jaspxml.parser.RecordMapper;
+import se.andsk.jaspxml.parser.TypeConverter;
+import se.andsk.jaspxml.parser.XMLParser;
+
+/**
+ * Reads records into instances of a class whose fields are annotated with {@link Bind}, e.g.
+ *
+ * <pre>
+ * class Trade
+ * {
+ * 	&#64;Bind("@id") long id;
+ * 	&#64;Bind("price") double price;
+ * 	&#64;Bind("price/&#64;currency") String currency;
+ * }
+ * </pre>
+ *
+ * A path is a list of child element names from the record element, separated by {@code /}, and ends with an attribute
+ * {@code @name} or with {@code text()}. A path that ends with an element name binds the text of that element, so
+ * {@code price} is the same as {@code price/text()}. Names are written as {@code name}, {@code prefix:name} with a
+ * prefix that is declared with {@link Record#namespaces()}, or {@code {uri}name}. If a path matches several elements,
+ * the last one is bound, and fields whose path doesn't match anything are left unchanged.
+ * <p>
+ * The class is analyzed once, when the unmarshaller is created. The paths are merged into a tree, the class is
+ * instantiated through a {@link Supplier} generated by {@link LambdaMetafactory}, and each field is set through a
+ * {@link MethodHandle} that takes the primitive value directly for primitive types. Values are parsed with the
+ * primitive and {@link CharSequence} accessors of {@link Element}, so no attribute maps and, with
+ * {@link se.andsk.jaspxml.parser.XMLParserUTF8}, no intermediate strings are created for numbers and dates. The parser
+ * only steps down into elements that are on a path, so the rest of each record is skipped.
+ * <p>
+ * Fields of the primitive types, their wrappers, {@link String}, {@link BigDecimal}, enums, {@link Instant},
+ * {@link OffsetDateTime}, {@link LocalDateTime} and {@link LocalDate} are converted by default, using the converters in
+ * {@link TypeConverter}. Other types need a converter in the annotation. The class needs a no-argument constructor, and
+ * the bound fields can't be final. An unmarshaller is immutable and can be used by any number of threads, e.g. as the
+ * mapper of an {@link se.andsk.jaspxml.parser.XMLParallelParser}.
+ *
+ * @param <T> the type of the records
+ */
+public final class Unmarshaller<T> implements RecordMapper<T>
+{
+	private final Class<T> type;
+	private final Supplier<T> factory;
+	private final QName recordName;
+	private final Node root;
+
+	private Unmarshaller(Class<T> type, MethodHandles.Lookup lookup)
+	{
+		this.type = type;
+
+		Record record = type.getAnnotation(Record.class);
+		Map<String, String> namespaces = new HashMap<String, String>();
+
+		if (record != null)
+		{
+			for (String declaration : record.namespaces())
+			{
+				int equals = declaration.indexOf('=');
+
+				if (equals < 0)
+					throw new IllegalArgumentException("Invalid namespace declaration " + declaration + " in " + type);
+
+				namespaces.put(declaration.substring(0, equals).trim(), declaration.substring(equals + 1).trim());
+			}
+		}
+
+		this.recordName = record == null || record.name().isEmpty() ? null : Node.name(record.name(), namespaces, type);
+		this.factory = factory(type, lookup);
+		this.root = new Node(null);
+
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass())
+		{
+			for (Field field : c.getDeclaredFields())
+				add(field, lookup, namespaces);
+
+			for (Method method : c.getDeclaredMethods())
+				add(method, lookup, namespaces);
+		}
+
+		root.freeze();
+	}
+
+	/**
+	 * Create an unmarshaller for a class. The class must be accessible to this library, e.g. on the class path or in
+	 * a module that is open to it.
+	 *
+	 * @param type the class of the records
+	 * @return the unmarshaller
+	 * @throws IllegalArgumentException if the annotations are invalid or the class can't be accessed
+	 */
+	public static <T> Unmarshaller<T> of(Class<T> type)
+	{
+		try
+		{
+			return of(type, MethodHandles.privateLookupIn(type, MethodHandles.lookup()));
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new IllegalArgumentException("Can't access " + type, e);
+		}
+	}
+
+	/**
+	 * Create an unmarshaller for a class, accessing its members with a given lookup, e.g. {@code MethodHandles.lookup()}
+	 * in the class itself.
+	 *
+	 * @param type the class of the records
+	 * @param lookup a lookup with access to the constructor and the bound members
+	 * @return the unmarshaller
+	 * @throws IllegalArgumentException if the annotations are invalid or the members can't be accessed
+	 */
+	public static <T> Unmarshaller<T> of(Class<T> type, MethodHandles.Lookup lookup)
+	{
+		return new Unmarshaller<T>(type, lookup);
+	}
+
+	/**
+	 * Read the next record at the current depth of a parser. Text, and elements with another name than the one given
+	 * by {@link Record#name()}, are skipped.
+	 *
+	 * @param parser the parser
+	 * @return the record, or null if there are no more records at this depth
+	 * @throws ParsingException if the document is invalid or a value can't be converted
+	 */
+	public T next(XMLParser parser) throws ParsingException
+	{
+		Element element;
+
+		while ((element = parser.next()) != null)
+		{
+			if (!element.isText() && (recordName == null || recordName.equals(element.getName())))
+				return map(parser, element);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Read a record. The parser is left at the record element, as before the call.
+	 *
+	 * @param parser the parser, positioned at the record
+	 * @param record the record element
+	 * @return the record
+	 * @throws ParsingException if the document is invalid or a value can't be converted
+	 */
+	@Override
+	public T map(XMLParser parser, Element record) throws ParsingException
+	{
+		T target = factory.get();
+		Node.read(parser, record, root, target);
+		return target;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Unmarshaller[" + type.getName() + "]";
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Supplier<T> factory(Class<T> type, MethodHandles.Lookup lookup)
+	{
+		MethodHandle constructor;
+
+		try
+		{
+			constructor = lookup.findConstructor(type, MethodType.methodType(void.class));
+		}
+		catch (NoSuchMethodException | IllegalAccessException e)
+		{
+			throw new IllegalArgumentException(type + " needs an accessible no-argument constructor", e);
+		}
+
+		try
+		{
+			CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+					MethodType.methodType(Object.class), constructor, MethodType.methodType(type));
+
+			return (Supplier<T>) site.getTarget().invokeExact();
+		}
+		catch (LambdaConversionException e)
+		{
+			// The lookup doesn't allow a lambda to be defined, so call the constructor through its handle instead
+			MethodHandle generic = constructor.asType(MethodType.methodType(Object.class));
+
+			return () -> {
+				try
+				{
+					return (T) generic.invokeExact();
+				}
+				catch (Throwable t)
+				{
+					throw rethrow(t);
+				}
+			};
+		}
+		catch (Throwable t)
+		{
+			throw rethrow(t);
+		}
+	}
+
+	private static RuntimeException rethrow(Throwable t)
+	{
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		else if (t instanceof Error)
+			throw (Error) t;
+		else
+			throw new IllegalStateException(t);
+	}
+
+	/**
+	 * Add a binding for an annotated field or setter method.
+	 */
+	private void add(AccessibleObject member, MethodHandles.Lookup lookup, Map<String, String> namespaces)
+	{
+		Bind bind = member.getAnnotation(Bind.class);
+
+		if (bind == null)
+			return;
+
+		int modifiers = ((Member) member).getModifiers();
+
+		if (Modifier.isStatic(modifiers))
+			throw new IllegalArgumentException("Bound members can't be static: " + member);
+
+		Class<?> valueType;
+		MethodHandle setter;
+
+		try
+		{
+			if (member instanceof Field)
+			{
+				if (Modifier.isFinal(modifiers))
+					throw new IllegalArgumentException("Bound fields can't be final: " + member);
+
+				valueType = ((Field) member).getType();
+				setter = lookup.unreflectSetter((Field) member);
+			}
+			else
+			{
+				if (((Method) member).getParameterCount() != 1)
+					throw new IllegalArgumentException("Bound methods must have one parameter: " + member);
+
+				valueType = ((Method) member).getParameterTypes()[0];
+				setter = lookup.unreflect((Method) member);
+			}
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new IllegalArgumentException("Can't access " + member, e);
+		}
+
+		String description = ((Member) member).getDeclaringClass().getName() + "." + ((Member) member).getName();
+		root.bind(bind.value(), binding(valueType, setter, bind, description), namespaces, type);
+	}
+
+	/**
+	 * Create a binding that converts values to {@code valueType} and passes them to {@code setter}.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Binding binding(Class<?> valueType, MethodHandle setter, Bind bind, String description)
+	{
+		if (bind.converter() != TypeConverter.class)
+		{
+			TypeConverter<String, ?> converter;
+
+			try
+			{
+				converter = bind.converter().getDeclaredConstructor().newInstance();
+			}
+			catch (ReflectiveOperationException e)
+			{
+				throw new IllegalArgumentException("Can't create " + bind.converter() + " for " + description, e);
+			}
+
+			return new ObjectBinding(setter, d -> converter.convert(d.toString()), description);
+		}
+
+		if (valueType == int.class || valueType == Integer.class)
+			return new IntBinding(setter, TypeConverter.ParseInt, description);
+		else if (valueType == long.class || valueType == Long.class)
+			return new LongBinding(setter, TypeConverter.ParseLong, description);
+		else if (valueType == double.class || valueType == Double.class)
+			return new DoubleBinding(setter, TypeConverter.ParseDouble, description);
+		else if (valueType == boolean.class || valueType == Boolean.class)
+			return new BooleanBinding(setter, TypeConverter.ParseBoolean, description);
+		else if (valueType == float.class || valueType == Float.class)
+			return new ObjectBinding(setter, d -> TypeConverter.StringToFloat.convert(d.toString()), description);
+		else if (valueType == String.class || valueType == CharSequence.class)
+			return new ObjectBinding(setter, d -> d.toString(), description);
+		else if (valueType == BigDecimal.class)
+			return new ObjectBinding(setter, Unmarshaller::toBigDecimal, description);
+		else if (valueType == Instant.class)
+			return new ObjectBinding(setter, TypeConverter.IsoInstant, description);
+		else if (valueType == OffsetDateTime.class)
+			return new ObjectBinding(setter, TypeConverter.IsoOffsetDateTime, description);
+		else if (valueType == LocalDateTime.class)
+			return new ObjectBinding(setter, TypeConverter.IsoLocalDateTime, description);
+		else if (valueType == LocalDate.class)
+			return new ObjectBinding(setter, TypeConverter.IsoLocalDate, description);
+		else if (valueType.isEnum())
+			return new ObjectBinding(setter, d -> toEnum((Class) valueType, d), description);
+
+		throw new IllegalArgumentException("No converter for " + valueType.getName() + " in " + description);
+	}
+
+	private static BigDecimal toBigDecimal(CharSequence d) throws TypeConversionException
+	{
+		try
+		{
+			return new BigDecimal(d.toString().trim());
+		}
+		catch (NumberFormatException e)
+		{
+			throw new TypeConversionException(e);
+		}
+	}
+
+	private static <E extends Enum<E>> E toEnum(Class<E> type, CharSequence d) throws TypeConversionException
+	{
+		try
+		{
+			return Enum.valueOf(type, d.toString().trim());
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new TypeConversionException(e);
+		}
+	}
+
+	private static final class IntBinding extends Binding
+	{
+		private final MethodHandle setter;
+		private final TypeConverter.ToInt converter;
+
+		IntBinding(MethodHandle setter, TypeConverter.ToInt converter, String description)
+		{
+			super(description);
+			this.setter = setter.asType(MethodType.methodType(void.class, Object.class, int.class));
+			this.converter = converter;
+		}
+
+		@Override
+		void set(Object target, CharSequence value) throws Throwable
+		{
+			setter.invokeExact(target, converter.convert(value));
+		}
+	}
+
+	private static final class LongBinding extends Binding
+	{
+		private final MethodHandle setter;
+		private final TypeConverter.ToLong converter;
+
+		LongBinding(MethodHandle setter, TypeConverter.ToLong converter, String description)
+		{
+			super(description);
+			this.setter = setter.asType(MethodType.methodType(void.class, Object.class, long.class));
+			this.converter = converter;
+		}
+
+		@Override
+		void set(Object target, CharSequence value) throws Throwable
+		{
+			setter.invokeExact(target, converter.convert(value));
+		}
+	}
+
+	private static final class DoubleBinding extends Binding
+	{
+		private final MethodHandle setter;
+		private final TypeConverter.ToDouble converter;
+
+		DoubleBinding(MethodHandle setter, TypeConverter.ToDouble converter, String description)
+		{
+			super(description);
+			this.setter = setter.asType(MethodType.methodType(void.class, Object.class, double.class));
+			this.converter = converter;
+		}
+
+		@Override
+		void set(Object target, CharSequence value) throws Throwable
+		{
+			setter.invokeExact(target, converter.convert(value));
+		}
+	}
+
+	private static final class BooleanBinding extends Binding
+	{
+		private final MethodHandle setter;
+		private final TypeConverter.ToBoolean converter;
+
+		BooleanBinding(MethodHandle setter, TypeConverter.ToBoolean converter, String description)
+		{
+			super(description);
+			this.setter = setter.asType(MethodType.methodType(void.class, Object.class, boolean.class));
+			this.converter = converter;
+		}
+
+		@Override
+		void set(Object target, CharSequence value) throws Throwable
+		{
+			setter.invokeExact(target, converter.convert(value));
+		}
+	}
+
+	private static final class ObjectBinding extends Binding
+	{
+		private final MethodHandle setter;
+		private final TypeConverter<CharSequence, ?> converter;
+
+		ObjectBinding(MethodHandle setter, TypeConverter<CharSequence, ?> converter, String description)
+		{
+			super(description);
+			this.setter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+			this.converter = converter;
+		}
+
+		@Override
+		void set(Object target, CharSequence value) throws Throwable
+		{
+			setter.invokeExact(target, converter.convert(value));
+		}
+	}
+}
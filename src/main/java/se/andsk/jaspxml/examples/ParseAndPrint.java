@@ -6,6 +6,7 @@ package se.andsk.jaspxml.examples;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
@@ -17,94 +18,17 @@ import javax.xml.stream.XMLStreamException;
 
 import se.andsk.jaspxml.exceptions.ParsingException;
 import se.andsk.jaspxml.parser.Element;
+import se.andsk.jaspxml.parser.Elements;
 import se.andsk.jaspxml.parser.XMLParser;
 import se.andsk.jaspxml.parser.XMLParserStAX;
+import se.andsk.jaspxml.parser.XMLParserUTF8;
+import se.andsk.jaspxml.parser.XMLParsers;
 
 /**
- * This example application iterates through each element in an XML file and prints its contents. Two methods for doing this is shown; one using an {@link Iterator} and one using a loop.
+ * This example application iterates through each element in an XML file and prints its contents. Two methods for doing this is shown; one using an {@link Iterator} from {@link Elements} and one using a loop.
  */
 public class ParseAndPrint
 {
-	/**
-	 * An example implementation of a Java Iterator using JaspXML. The iterator has to do some additional work since JaspXML does not have a {@code hasNext} method.
-	 */
-	static class XMLIterator implements Iterator<Element>
-	{
-		private XMLParser parser;
-		private boolean foundNext = false;
-		
-		public XMLIterator(XMLParser parser)
-		{
-			this.parser = parser;
-		}
-
-		@Override
-		public boolean hasNext()
-		{
-			if(parser.getElement() == null)
-				findNextElement();
-
-			return foundNext;
-		}
-
-		@Override
-		public Element next()
-		{
-			if(!hasNext())
-			{
-				return null;
-			}
-			else
-			{
-				Element result = parser.getElement();
-				findNextElement();
-				return result;
-			}
-		}
-		
-		private void findNextElement()
-		{			
-			try
-			{
-				if(parser.getElement() != null && parser.getElement().hasChildren())
-					parser.down();
-				
-				while(true)
-				{
-					parser.next();
-
-					if(parser.getElement() != null)
-					{
-						foundNext = true;
-						return;
-					}
-					else
-					{
-						if(parser.getDepth() == 0)
-						{
-							foundNext = false;
-							return;
-						}
-						else
-						{
-							parser.up();
-						}
-					}
-				}
-			}
-			catch (ParsingException e)
-			{
-				throw new RuntimeException(e);
-			}
-		}
-
-		@Override
-		public void remove()
-		{
-			throw new RuntimeException("Can't remove from a read only iterator");
-		}
-		
-	}
 	public static void main(String[] args) throws ParsingException, IOException, XMLStreamException
 	{
 		if(args.length == 0 || args.length > 3)
@@ -115,6 +39,7 @@ public class ParseAndPrint
 		}
 		
 		boolean compressed = false;
+		boolean stax = false;
 		String fileName = null;
 		
 		for(String arg : args)
@@ -126,6 +51,9 @@ public class ParseAndPrint
 			} else if(arg.equals("-c"))
 			{
 				compressed = true;
+			} else if(arg.equals("-s"))
+			{
+				stax = true;
 			} else
 			{
 				if(fileName == null)
@@ -148,19 +76,30 @@ public class ParseAndPrint
 			System.exit(1);
 		}
 						
-		InputStream in = new FileInputStream(fileName);
-		
-		if(compressed)
+		if(stax)
 		{
-			in = new GZIPInputStream(in);
+			// The StAX parser reads any encoding that the StAX implementation supports
+			try(InputStream file = new FileInputStream(fileName); InputStream in = compressed ? new GZIPInputStream(file) : file)
+			{
+				XMLEventReader eventReader = XMLInputFactory.newInstance().createXMLEventReader(in);
+				print(new XMLParserStAX(eventReader));
+				eventReader.close();
+			}
 		}
-		
-		XMLInputFactory factory = XMLInputFactory.newInstance();
-		XMLEventReader eventReader = factory.createXMLEventReader(in);
+		else
+		{
+			// Compressed files are decompressed on a separate thread while they are parsed, and uncompressed files are
+			// memory mapped and parsed without copying. Either way the parser must be closed.
+			try(XMLParserUTF8 parser = compressed ? XMLParsers.openCompressed(Paths.get(fileName)) : XMLParsers.open(Paths.get(fileName)))
+			{
+				print(parser);
+			}
+		}
+	}
 
-		XMLParserStAX parser = new XMLParserStAX(eventReader);
-		
-		XMLIterator itr = new XMLIterator(parser);
+	private static void print(XMLParser parser) throws ParsingException
+	{
+		Iterator<Element> itr = Elements.depthFirst(parser);
 		
 		//Parse using iterator
 		while(itr.hasNext())
@@ -177,7 +116,7 @@ public class ParseAndPrint
 	 * @throws ParsingException
 	 */
 	@SuppressWarnings("unused")
-	private static void parseSiblings(XMLParserStAX parser) throws ParsingException
+	private static void parseSiblings(XMLParser parser) throws ParsingException
 	{
 		Element e;
 		while((e = parser.next()) != null)
@@ -229,8 +168,9 @@ public class ParseAndPrint
 		System.out.println("");
 		System.out.println("-h	Show this help message");
 		System.out.println("-c	The input file is compressed using Gzip");
+		System.out.println("-s	Use the StAX parser, which is needed for files that are not UTF-8 or ASCII");
 		System.out.println("--------------------------------------------------------------------------------");
-		System.out.println("parseandprint [-h] [-c] FILE");
+		System.out.println("parseandprint [-h] [-c] [-s] FILE");
 		System.out.println("--------------------------------------------------------------------------------");
 	}
 }
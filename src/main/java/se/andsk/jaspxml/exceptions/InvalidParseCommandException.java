@@ -17,4 +17,8 @@ public class InvalidParseCommandException extends ParsingException {
 		super(msg, line, column);
 	}
 
+	public InvalidParseCommandException(String msg, long offset) {
+		super(msg, offset);
+	}
+
 }
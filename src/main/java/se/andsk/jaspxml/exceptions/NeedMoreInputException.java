@@ -0,0 +1,26 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.exceptions;
+
+/**
+ * Thrown by a push parser when it has not been fed enough input to complete a command. The parser is left as it was
+ * before the command, so the command can be repeated once more input has been fed.
+ * <p>
+ * This is an expected condition rather than an error, so no stack trace is recorded.
+ */
+public class NeedMoreInputException extends ParsingException
+{
+	private static final long serialVersionUID = -3458163540926417925L;
+
+	public NeedMoreInputException(long offset)
+	{
+		super("More input is needed", offset);
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace()
+	{
+		return this;
+	}
+}
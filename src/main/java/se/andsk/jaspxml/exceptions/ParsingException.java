@@ -15,6 +15,11 @@ public class ParsingException extends Exception
 		super(msg + " at " + line + ":" + column);
 	}
 
+	public ParsingException(String msg, long offset)
+	{
+		super(msg + " at byte " + offset);
+	}
+
 	public ParsingException(Exception e)
 	{
 		super(e);
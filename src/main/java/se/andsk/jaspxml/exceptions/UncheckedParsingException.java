@@ -0,0 +1,23 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.exceptions;
+
+/**
+ * Wraps a {@link ParsingException} where checked exceptions can't be thrown, e.g. from an {@link java.util.Iterator}.
+ */
+public class UncheckedParsingException extends RuntimeException
+{
+	private static final long serialVersionUID = -3358405227436171372L;
+
+	public UncheckedParsingException(ParsingException e)
+	{
+		super(e);
+	}
+
+	@Override
+	public ParsingException getCause()
+	{
+		return (ParsingException) super.getCause();
+	}
+}
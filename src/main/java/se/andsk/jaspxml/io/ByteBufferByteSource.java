@@ -0,0 +1,42 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link ByteSource} for a document that is already held in memory. No bytes are copied, the parser reads directly
+ * from slices of the given buffer.
+ */
+public class ByteBufferByteSource implements ByteSource
+{
+	private ByteBuffer document;
+
+	/**
+	 * @param document the document, from its position to its limit
+	 */
+	public ByteBufferByteSource(ByteBuffer document)
+	{
+		this.document = document.slice();
+	}
+
+	public ByteBufferByteSource(byte[] document)
+	{
+		this(ByteBuffer.wrap(document));
+	}
+
+	@Override
+	public ByteBuffer read(long offset, int available)
+	{
+		ByteBuffer window = document.duplicate();
+		window.position((int) Math.min(offset, document.limit()));
+		return window.slice().order(ByteOrder.nativeOrder());
+	}
+
+	@Override
+	public void close()
+	{
+	}
+}
@@ -0,0 +1,46 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A source of raw document bytes for the byte level parsers.
+ * <p>
+ * The parser reads the document through a window. Each call to {@code read} moves the start of the window forward to
+ * {@code offset} and asks for more bytes after the ones that the parser has already seen. All bytes before
+ * {@code offset} may be discarded by the source, and buffers returned by earlier calls may be reused or overwritten.
+ */
+public interface ByteSource extends Closeable
+{
+	/**
+	 * Returns a buffer with the document content starting at byte {@code offset} of the document. Index 0 of the
+	 * returned buffer holds the byte at {@code offset} and its limit is the number of valid bytes. The position of the
+	 * buffer is ignored.
+	 * <p>
+	 * The caller has already seen {@code available} bytes starting at {@code offset}. The returned buffer must contain
+	 * more bytes than that, unless the end of the input has been reached. The offset is never smaller than the offset
+	 * of a previous call, but it may be larger than the end of the bytes that have been returned so far.
+	 * 
+	 * @param offset the offset in the document of the first byte to return
+	 * @param available the number of bytes after {@code offset} that the caller has already seen
+	 * @return a buffer holding the bytes starting at {@code offset}
+	 * @throws IOException
+	 */
+	public ByteBuffer read(long offset, int available) throws IOException;
+
+	/**
+	 * Returns true if all input is available, so that a call to {@code read} that returns no new bytes means the end of
+	 * the document. A source that is fed while it is parsed returns false until the last bytes have been fed, and the
+	 * parser then waits for more input instead of ending the document.
+	 * 
+	 * @return true if no more input will be added
+	 */
+	public default boolean isFinished()
+	{
+		return true;
+	}
+}
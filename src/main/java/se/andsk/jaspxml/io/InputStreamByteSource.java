@@ -0,0 +1,116 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link ByteSource} that reads from an {@link InputStream} into a single growing buffer. The buffer only grows when
+ * a single token is larger than the buffer.
+ */
+public class InputStreamByteSource implements ByteSource
+{
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private InputStream in;
+	private byte[] data;
+	private ByteBuffer buffer;
+
+	/**
+	 * Offset in the document of the first byte in the buffer
+	 */
+	private long base = 0;
+	private int filled = 0;
+
+	public InputStreamByteSource(InputStream in)
+	{
+		this(in, DEFAULT_BUFFER_SIZE);
+	}
+
+	public InputStreamByteSource(InputStream in, int bufferSize)
+	{
+		this.in = in;
+		this.data = new byte[Math.max(bufferSize, 16)];
+		this.buffer = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+	}
+
+	@Override
+	public ByteBuffer read(long offset, int available) throws IOException
+	{
+		long end = base + filled;
+
+		if (offset <= end)
+		{
+			// Keep the bytes from offset and move them to the start of the buffer
+			int keep = (int) (end - offset);
+			System.arraycopy(data, filled - keep, data, 0, keep);
+			filled = keep;
+		}
+		else
+		{
+			skip(offset - end);
+			filled = 0;
+		}
+
+		base = offset;
+
+		if (filled > available)
+			return window();
+
+		if (filled == data.length)
+		{
+			byte[] larger = new byte[data.length * 2];
+			System.arraycopy(data, 0, larger, 0, filled);
+			data = larger;
+			buffer = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+		}
+
+		while (filled <= available)
+		{
+			int count = in.read(data, filled, data.length - filled);
+
+			if (count < 0)
+				break;
+
+			filled += count;
+		}
+
+		return window();
+	}
+
+	private void skip(long count) throws IOException
+	{
+		while (count > 0)
+		{
+			long skipped = in.skip(count);
+
+			if (skipped <= 0)
+			{
+				// InputStream.skip may refuse to skip without being at the end of the stream
+				if (in.read() < 0)
+					return;
+
+				skipped = 1;
+			}
+
+			count -= skipped;
+		}
+	}
+
+	private ByteBuffer window()
+	{
+		buffer.clear();
+		buffer.limit(filled);
+		return buffer;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+}
@@ -0,0 +1,79 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link ByteSource} that memory maps a file. The parser reads directly from the mapped memory, so the bytes are
+ * never copied and the operating system's page cache does the buffering.
+ * <p>
+ * Since a single mapping can't be larger than 2 GB, the file is mapped in windows that are moved forward as the parser
+ * proceeds. A new window starts at the first byte that the parser still needs, so tokens are never split between
+ * windows. Mappings are released by the garbage collector once they are no longer used.
+ */
+public class MappedFileByteSource implements ByteSource
+{
+	public static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+	private FileChannel channel;
+	private long size;
+	private int windowSize;
+
+	private MappedByteBuffer window;
+	private long windowStart = 0;
+	private long windowEnd = 0;
+
+	public MappedFileByteSource(Path file) throws IOException
+	{
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * @param file file to read
+	 * @param windowSize the number of bytes to map at a time
+	 * @throws IOException
+	 */
+	public MappedFileByteSource(Path file, int windowSize) throws IOException
+	{
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.windowSize = windowSize;
+	}
+
+	@Override
+	public ByteBuffer read(long offset, int available) throws IOException
+	{
+		offset = Math.min(offset, size);
+
+		if (window == null || offset < windowStart || (offset + available >= windowEnd && windowEnd < size))
+		{
+			// Map a new window, large enough to hold more than what the parser has already seen
+			long length = Math.min(size - offset, Math.max(windowSize, 2L * available + 1));
+			length = Math.min(length, Integer.MAX_VALUE);
+
+			window = channel.map(MapMode.READ_ONLY, offset, length);
+			windowStart = offset;
+			windowEnd = offset + length;
+		}
+
+		ByteBuffer result = window.duplicate();
+		result.position((int) (offset - windowStart));
+		return result.slice().order(ByteOrder.nativeOrder());
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		window = null;
+		channel.close();
+	}
+}
@@ -0,0 +1,641 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a gzip file that consists of several concatenated members, e.g. a file written by bgzip or by concatenating
+ * gzip files, and inflates the members in parallel. The inflated bytes are returned in order.
+ * <p>
+ * Member boundaries can't be found without inflating the members, except in BGZF files where each header holds the
+ * size of the member. Otherwise the file is scanned for byte sequences that look like gzip headers, and a member is
+ * inflated speculatively from each of them. When a member has been inflated its end is known, and any speculative
+ * members that started inside it are discarded. Scanning only starts once the first member has ended before the end of
+ * the file, so a file with only one member is inflated on a single background thread without reading it twice.
+ * <p>
+ * Each member is inflated into a small queue of chunks, so the memory used is bounded regardless of the size of the
+ * members. The chunk buffers, and the buffers that the compressed bytes are read into, are returned to a pool when they
+ * have been used, so they are only allocated while the pool is warming up.
+ */
+public class ParallelGzipInputStream extends InputStream
+{
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final int CHUNKS_PER_MEMBER = 16;
+	private static final int SCAN_BLOCK_SIZE = 1024 * 1024;
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private final FileChannel channel;
+	private final long size;
+	private final ExecutorService executor;
+	private final int maxPending;
+
+	/**
+	 * Buffers of {@link #CHUNK_SIZE} bytes that are not in use
+	 */
+	private final ConcurrentLinkedQueue<Chunk> free = new ConcurrentLinkedQueue<Chunk>();
+
+	/**
+	 * The member that is being read, or null at the end of the file
+	 */
+	private Member current;
+	private Chunk chunk;
+	private int chunkPos = 0;
+
+	/**
+	 * Members that have been started after the current member, by start offset
+	 */
+	private TreeMap<Long, Member> pending = new TreeMap<Long, Member>();
+
+	/**
+	 * The offset where scanning for headers continues. In a BGZF file this is the start of the next member.
+	 */
+	private long scanPos;
+	private boolean bgzf;
+	private byte[] scanBlock;
+
+	/**
+	 * True once the file is known to have more than one member, either from the BGZF headers or because a member has
+	 * ended before the end of the file. Until then, nothing is started speculatively.
+	 */
+	private boolean speculate;
+
+	private long members = 0;
+	private long discarded = 0;
+	private boolean closed = false;
+
+	public ParallelGzipInputStream(Path file) throws IOException
+	{
+		this(file, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param file the file to read
+	 * @param threads the number of threads that inflate members
+	 * @throws IOException
+	 */
+	public ParallelGzipInputStream(Path file, int threads) throws IOException
+	{
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+
+		try
+		{
+			size = channel.size();
+
+			if (!isHeader(0))
+				throw new ZipException("Not in GZIP format");
+
+			bgzf = getBlockSize(0) > 0;
+			scanPos = bgzf ? getBlockSize(0) : 1;
+			speculate = bgzf;
+		}
+		catch (IOException e)
+		{
+			channel.close();
+			throw e;
+		}
+
+		executor = Executors.newFixedThreadPool(Math.max(threads, 1), runnable -> {
+			Thread thread = new Thread(runnable, "JaspXML inflate");
+			thread.setDaemon(true);
+			return thread;
+		});
+		maxPending = 2 * Math.max(threads, 1);
+
+		current = start(0);
+		fill();
+	}
+
+	/**
+	 * A buffer from the pool, with the number of bytes in it.
+	 */
+	private static final class Chunk
+	{
+		final byte[] data = new byte[CHUNK_SIZE];
+		int length;
+	}
+
+	private Chunk allocate()
+	{
+		Chunk chunk = free.poll();
+		return chunk != null ? chunk : new Chunk();
+	}
+
+	/**
+	 * A member that is being inflated, starting at an offset that may or may not be the start of a real member.
+	 */
+	private class Member implements Runnable
+	{
+		final long start;
+
+		/**
+		 * Chunks of inflated bytes, followed by either the end offset of the member or the exception that stopped it
+		 */
+		final BlockingQueue<Object> output = new ArrayBlockingQueue<Object>(CHUNKS_PER_MEMBER);
+
+		volatile boolean cancelled = false;
+
+		Member(long start)
+		{
+			this.start = start;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				try
+				{
+					put(Long.valueOf(inflate()));
+				}
+				catch (IOException e)
+				{
+					put(e);
+				}
+				catch (RuntimeException e)
+				{
+					put(new IOException(e));
+				}
+			}
+			catch (InterruptedException e)
+			{
+				// Cancelled
+			}
+		}
+
+		/**
+		 * Wait for room in the queue. The thread is never interrupted, since that would close the shared channel.
+		 */
+		private void put(Object item) throws InterruptedException
+		{
+			while (!output.offer(item, 100, TimeUnit.MILLISECONDS))
+			{
+				if (cancelled)
+					throw new InterruptedException();
+			}
+		}
+
+		/**
+		 * @return the offset after the trailer of the member
+		 */
+		private long inflate() throws IOException, InterruptedException
+		{
+			Chunk input = allocate();
+			byte[] in = input.data;
+			int count = read(in, start);
+			int headerLength = getHeaderLength(in, count);
+			long inputEnd = start + count;
+
+			Inflater inflater = new Inflater(true);
+			CRC32 crc = new CRC32();
+			long inflated = 0;
+
+			try
+			{
+				inflater.setInput(in, headerLength, count - headerLength);
+
+				Chunk chunk = allocate();
+				byte[] out = chunk.data;
+				int filled = 0;
+
+				while (!inflater.finished())
+				{
+					if (cancelled)
+						throw new InterruptedException();
+
+					if (inflater.needsInput())
+					{
+						count = read(in, inputEnd);
+
+						if (count <= 0)
+							throw new EOFException("Unexpected end of member at byte " + start);
+
+						inflater.setInput(in, 0, count);
+						inputEnd += count;
+					}
+
+					int n;
+
+					try
+					{
+						n = inflater.inflate(out, filled, out.length - filled);
+					}
+					catch (DataFormatException e)
+					{
+						throw new ZipException(e.getMessage());
+					}
+
+					if (n == 0 && inflater.needsDictionary())
+						throw new ZipException("Member at byte " + start + " needs a dictionary");
+
+					crc.update(out, filled, n);
+					filled += n;
+					inflated += n;
+
+					if (filled == out.length)
+					{
+						chunk.length = filled;
+						put(chunk);
+						chunk = allocate();
+						out = chunk.data;
+						filled = 0;
+					}
+				}
+
+				if (filled > 0)
+				{
+					chunk.length = filled;
+					put(chunk);
+				}
+				else
+				{
+					free.add(chunk);
+				}
+
+				long end = inputEnd - inflater.getRemaining();
+				byte[] trailer = new byte[8];
+
+				if (read(trailer, end) < 8)
+					throw new EOFException("Unexpected end of member at byte " + start);
+
+				if (getInt(trailer, 0) != crc.getValue() || getInt(trailer, 4) != (inflated & 0xFFFFFFFFL))
+					throw new ZipException("Corrupt member at byte " + start);
+
+				return end + 8;
+			}
+			finally
+			{
+				inflater.end();
+				free.add(input);
+			}
+		}
+	}
+
+	/**
+	 * Start inflating a member.
+	 */
+	private Member start(long offset)
+	{
+		Member member = new Member(offset);
+		executor.execute(member);
+		++members;
+
+		return member;
+	}
+
+	/**
+	 * Start members for new headers until enough members are pending.
+	 */
+	private void fill() throws IOException
+	{
+		if (bgzf)
+		{
+			while (pending.size() < maxPending && scanPos < size)
+			{
+				long blockSize = isHeader(scanPos) ? getBlockSize(scanPos) : 0;
+
+				if (blockSize > 0)
+				{
+					pending.put(scanPos, start(scanPos));
+					scanPos += blockSize;
+				}
+				else
+				{
+					// Not BGZF after all, so fall back to scanning
+					bgzf = false;
+					break;
+				}
+			}
+
+			if (bgzf)
+				return;
+		}
+
+		if (!speculate || pending.size() >= maxPending || scanPos >= size)
+			return;
+
+		// Scan at most one block each time, so that the first bytes are returned quickly
+		if (scanBlock == null)
+			scanBlock = new byte[SCAN_BLOCK_SIZE];
+
+		int count = read(scanBlock, scanPos);
+
+		for (int i = 0; i < count - 10; ++i)
+		{
+			if (scanBlock[i] == 0x1F && isHeader(scanBlock, i))
+			{
+				pending.put(scanPos + i, start(scanPos + i));
+
+				if (pending.size() == maxPending)
+				{
+					scanPos += i + 1;
+					return;
+				}
+			}
+		}
+
+		scanPos += count <= 10 ? count : count - 10;
+	}
+
+	/**
+	 * Move to the member that starts at an offset, and discard the ones that start before it.
+	 */
+	private void advance(long offset) throws IOException
+	{
+		Iterator<Map.Entry<Long, Member>> i = pending.headMap(offset).entrySet().iterator();
+
+		while (i.hasNext())
+		{
+			i.next().getValue().cancelled = true;
+			i.remove();
+			++discarded;
+		}
+
+		current = pending.remove(offset);
+
+		if (current == null && offset < size && isHeader(offset))
+		{
+			// The scanner missed this member, or hasn't started yet. The members after it are discarded, since they
+			// could otherwise keep all threads waiting for their queues to be read while this member waits for a thread.
+			for (Member member : pending.values())
+				member.cancelled = true;
+
+			discarded += pending.size();
+			pending.clear();
+
+			current = start(offset);
+			scanPos = bgzf ? offset + getBlockSize(offset) : offset + 1;
+		}
+
+		if (current != null)
+			speculate = true;
+
+		// Anything that isn't a header after the last member is ignored, as by GZIPInputStream
+		fill();
+	}
+
+	/**
+	 * Make sure that there are bytes left in {@code chunk}.
+	 *
+	 * @return false at the end of the file
+	 */
+	private boolean nextChunk() throws IOException
+	{
+		while (chunk == null || chunkPos == chunk.length)
+		{
+			if (chunk != null)
+			{
+				free.add(chunk);
+				chunk = null;
+			}
+
+			if (current == null)
+				return false;
+
+			Object item;
+
+			try
+			{
+				item = current.output.take();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+
+			if (item instanceof Chunk)
+			{
+				chunk = (Chunk) item;
+				chunkPos = 0;
+				fill();
+			}
+			else if (item instanceof Long)
+			{
+				advance((Long) item);
+			}
+			else
+			{
+				throw new IOException("Failed to inflate member at byte " + current.start, (IOException) item);
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if (closed)
+			throw new IOException("Stream closed");
+
+		if (!nextChunk())
+			return -1;
+
+		return chunk.data[chunkPos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (closed)
+			throw new IOException("Stream closed");
+
+		if (len == 0)
+			return 0;
+
+		if (!nextChunk())
+			return -1;
+
+		int count = Math.min(len, chunk.length - chunkPos);
+		System.arraycopy(chunk.data, chunkPos, b, off, count);
+		chunkPos += count;
+
+		return count;
+	}
+
+	@Override
+	public int available()
+	{
+		return chunk == null ? 0 : chunk.length - chunkPos;
+	}
+
+	/**
+	 * Returns the number of members that have been inflated so far, including speculative members that turned out not
+	 * to be members.
+	 *
+	 * @return the number of members
+	 */
+	public long getMembers()
+	{
+		return members;
+	}
+
+	/**
+	 * Returns the number of speculative members that have been discarded because they started inside another member.
+	 *
+	 * @return the number of discarded members
+	 */
+	public long getDiscardedMembers()
+	{
+		return discarded;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+			return;
+
+		closed = true;
+
+		if (current != null)
+			current.cancelled = true;
+
+		for (Member member : pending.values())
+			member.cancelled = true;
+
+		executor.shutdown();
+		channel.close();
+	}
+
+	/**
+	 * Read as many bytes as possible at an offset.
+	 */
+	private int read(byte[] b, long offset) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(b);
+
+		while (buffer.hasRemaining() && offset + buffer.position() < size)
+		{
+			if (channel.read(buffer, offset + buffer.position()) < 0)
+				break;
+		}
+
+		return buffer.position();
+	}
+
+	private boolean isHeader(long offset) throws IOException
+	{
+		byte[] header = new byte[10];
+		return read(header, offset) == 10 && isHeader(header, 0);
+	}
+
+	/**
+	 * Returns true if a gzip header with plausible flags, extra flags and operating system starts at an index.
+	 */
+	private static boolean isHeader(byte[] b, int i)
+	{
+		int os = b[i + 9] & 0xFF;
+		int xfl = b[i + 8];
+
+		return b[i] == 0x1F && (b[i + 1] & 0xFF) == 0x8B && b[i + 2] == 8 && (b[i + 3] & 0xE0) == 0
+				&& (xfl == 0 || xfl == 2 || xfl == 4) && (os <= 13 || os == 255);
+	}
+
+	/**
+	 * Returns the size of a BGZF member from the BC field in its header, or 0 if there is no such field.
+	 */
+	private long getBlockSize(long offset) throws IOException
+	{
+		byte[] header = new byte[18];
+
+		if (read(header, offset) < 18 || (header[3] & FEXTRA) == 0)
+			return 0;
+
+		int xlen = getShort(header, 10);
+		byte[] extra = new byte[xlen];
+
+		if (read(extra, offset + 12) < xlen)
+			return 0;
+
+		for (int i = 0; i + 4 <= xlen; i += 4 + getShort(extra, i + 2))
+		{
+			if (extra[i] == 'B' && extra[i + 1] == 'C' && getShort(extra, i + 2) == 2 && i + 6 <= xlen)
+				return getShort(extra, i + 4) + 1;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Returns the length of the gzip header at the start of a buffer.
+	 */
+	private static int getHeaderLength(byte[] b, int count) throws IOException
+	{
+		if (count < 10 || !isHeader(b, 0))
+			throw new ZipException("Not in GZIP format");
+
+		int flags = b[3];
+		int pos = 10;
+
+		if ((flags & FEXTRA) != 0)
+		{
+			if (pos + 2 > count)
+				throw new ZipException("Header too long");
+
+			pos += 2 + getShort(b, pos);
+		}
+
+		if ((flags & FNAME) != 0)
+			pos = skipString(b, pos, count);
+
+		if ((flags & FCOMMENT) != 0)
+			pos = skipString(b, pos, count);
+
+		if ((flags & FHCRC) != 0)
+			pos += 2;
+
+		if (pos > count)
+			throw new ZipException("Header too long");
+
+		return pos;
+	}
+
+	private static int skipString(byte[] b, int pos, int count) throws ZipException
+	{
+		while (pos < count && b[pos] != 0)
+			++pos;
+
+		if (pos == count)
+			throw new ZipException("Header too long");
+
+		return pos + 1;
+	}
+
+	private static int getShort(byte[] b, int i)
+	{
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8;
+	}
+
+	private static long getInt(byte[] b, int i)
+	{
+		return (getShort(b, i) | (long) getShort(b, i + 2) << 16) & 0xFFFFFFFFL;
+	}
+}
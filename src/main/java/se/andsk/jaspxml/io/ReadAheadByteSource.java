@@ -0,0 +1,363 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A {@link ByteSource} that reads from an {@link InputStream} on a background thread, so that reading and e.g.
+ * decompression with a {@link java.util.zip.GZIPInputStream} overlap with parsing.
+ * <p>
+ * The background thread fills chunks from a fixed pool of direct buffers and queues them for the parser. When all
+ * chunks are queued the thread waits until the parser has consumed one, so no more than the pool is ever read ahead.
+ * The parser copies the chunks into its window as it needs them and returns each chunk to the pool once it has been
+ * consumed.
+ * <p>
+ * The queue statistics show where the time is spent. If the parser often has to wait for a chunk then reading is the
+ * bottleneck, and if the queue is usually full then parsing is.
+ */
+public class ReadAheadByteSource implements ByteSource
+{
+	public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+	public static final int DEFAULT_CHUNK_COUNT = 8;
+
+	/**
+	 * Queued after the last chunk
+	 */
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private final ReadableByteChannel in;
+	private final int chunkCount;
+	private final BlockingQueue<ByteBuffer> free;
+	private final BlockingQueue<ByteBuffer> full;
+
+	private Thread thread;
+	private volatile boolean closed = false;
+	private volatile IOException error;
+
+	/**
+	 * The chunk that is being copied into the window, or null
+	 */
+	private ByteBuffer chunk;
+	private boolean endOfInput = false;
+
+	private ByteBuffer window;
+
+	/**
+	 * Offset in the document of the first byte in the window
+	 */
+	private long base = 0;
+	private int filled = 0;
+
+	/**
+	 * Statistics. The ones about reading are only updated by the background thread.
+	 */
+	private volatile long chunksRead = 0;
+	private volatile long readerWaits = 0;
+	private long chunksTaken = 0;
+	private long parserWaits = 0;
+	private long queuedChunks = 0;
+
+	public ReadAheadByteSource(InputStream in)
+	{
+		this(in, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_COUNT);
+	}
+
+	/**
+	 * @param in the stream to read
+	 * @param chunkSize the size of each chunk in bytes
+	 * @param chunkCount the number of chunks in the pool, i.e. how far ahead of the parser the stream is read
+	 */
+	public ReadAheadByteSource(InputStream in, int chunkSize, int chunkCount)
+	{
+		if (chunkCount < 1)
+			throw new IllegalArgumentException("At least one chunk is needed");
+
+		chunkSize = Math.max(chunkSize, 16);
+
+		this.in = Channels.newChannel(in);
+		this.chunkCount = chunkCount;
+		this.free = new ArrayBlockingQueue<ByteBuffer>(chunkCount);
+		this.full = new ArrayBlockingQueue<ByteBuffer>(chunkCount + 1);
+
+		for (int i = 0; i < chunkCount; ++i)
+			free.add(ByteBuffer.allocateDirect(chunkSize));
+
+		this.window = ByteBuffer.allocateDirect(2 * chunkSize).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Reads chunks until the end of the stream, or until the source is closed.
+	 */
+	private class Reader implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				while (!closed)
+				{
+					ByteBuffer buffer = free.poll();
+
+					if (buffer == null)
+					{
+						++readerWaits;
+						buffer = free.take();
+					}
+
+					buffer.clear();
+
+					while (buffer.hasRemaining() && in.read(buffer) >= 0)
+					{
+					}
+
+					buffer.flip();
+
+					if (buffer.hasRemaining())
+					{
+						++chunksRead;
+						full.put(buffer);
+					}
+
+					if (buffer.limit() < buffer.capacity())
+						break;
+				}
+			}
+			catch (IOException e)
+			{
+				error = e;
+			}
+			catch (InterruptedException e)
+			{
+				// Closed
+				return;
+			}
+
+			// There is always room for the end marker
+			full.add(END);
+		}
+	}
+
+	@Override
+	public ByteBuffer read(long offset, int available) throws IOException
+	{
+		if (thread == null)
+		{
+			thread = new Thread(new Reader(), "JaspXML read-ahead");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		long end = base + filled;
+
+		if (offset <= end)
+		{
+			// Keep the bytes from offset and move them to the start of the window
+			int keep = (int) (end - offset);
+			window.limit(filled);
+			window.position(filled - keep);
+			window.compact();
+			filled = keep;
+		}
+		else
+		{
+			skip(offset - end);
+			filled = 0;
+		}
+
+		base = offset;
+
+		if (filled > available)
+			return window();
+
+		if (filled == window.capacity())
+		{
+			ByteBuffer larger = ByteBuffer.allocateDirect(2 * window.capacity()).order(ByteOrder.nativeOrder());
+			window.clear();
+			window.limit(filled);
+			larger.put(window);
+			window = larger;
+		}
+
+		while (filled <= available && nextChunk())
+		{
+			int count = Math.min(chunk.remaining(), window.capacity() - filled);
+			ByteBuffer source = chunk.duplicate();
+			source.limit(source.position() + count);
+
+			window.clear();
+			window.position(filled);
+			window.put(source);
+
+			chunk.position(chunk.position() + count);
+			filled += count;
+		}
+
+		return window();
+	}
+
+	/**
+	 * Discard bytes that the parser doesn't need.
+	 */
+	private void skip(long count) throws IOException
+	{
+		while (count > 0 && nextChunk())
+		{
+			int skipped = (int) Math.min(chunk.remaining(), count);
+			chunk.position(chunk.position() + skipped);
+			count -= skipped;
+		}
+	}
+
+	/**
+	 * Make sure that {@code chunk} has bytes left, waiting for the background thread if necessary.
+	 *
+	 * @return false at the end of the input
+	 * @throws IOException if the background thread failed to read the input
+	 */
+	private boolean nextChunk() throws IOException
+	{
+		if (chunk != null && chunk.hasRemaining())
+			return true;
+
+		if (endOfInput)
+			return false;
+
+		if (chunk != null)
+		{
+			free.add(chunk);
+			chunk = null;
+		}
+
+		queuedChunks += getQueuedChunks();
+		++chunksTaken;
+
+		ByteBuffer next = full.poll();
+
+		try
+		{
+			if (next == null)
+			{
+				++parserWaits;
+				next = full.take();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+
+		if (next == END)
+		{
+			endOfInput = true;
+
+			if (error != null)
+				throw new IOException("Failed to read ahead", error);
+
+			return false;
+		}
+
+		chunk = next;
+		return true;
+	}
+
+	private ByteBuffer window()
+	{
+		window.clear();
+		window.limit(filled);
+		return window;
+	}
+
+	/**
+	 * Returns the number of chunks in the pool.
+	 *
+	 * @return the number of chunks
+	 */
+	public int getChunkCount()
+	{
+		return chunkCount;
+	}
+
+	/**
+	 * Returns the number of chunks that have been read so far by the background thread.
+	 *
+	 * @return the number of chunks read
+	 */
+	public long getChunksRead()
+	{
+		return chunksRead;
+	}
+
+	/**
+	 * Returns the number of chunks that are currently read but not yet used by the parser.
+	 *
+	 * @return the number of queued chunks
+	 */
+	public int getQueuedChunks()
+	{
+		int size = full.size();
+
+		// The end marker is always the last item in the queue
+		return size > 0 && full.contains(END) ? size - 1 : size;
+	}
+
+	/**
+	 * Returns the average number of queued chunks each time the parser needed a new chunk. A value close to the number
+	 * of chunks in the pool means that the parser is the bottleneck.
+	 *
+	 * @return the average queue length, or 0 if the parser hasn't needed a chunk yet
+	 */
+	public double getAverageQueuedChunks()
+	{
+		return chunksTaken == 0 ? 0 : (double) queuedChunks / chunksTaken;
+	}
+
+	/**
+	 * Returns the number of times that the parser had to wait for the background thread to read a chunk.
+	 *
+	 * @return the number of waits
+	 */
+	public long getParserWaits()
+	{
+		return parserWaits;
+	}
+
+	/**
+	 * Returns the number of times that the background thread had to wait for the parser to return a chunk to the pool.
+	 *
+	 * @return the number of waits
+	 */
+	public long getReaderWaits()
+	{
+		return readerWaits;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ReadAheadByteSource[chunks read=" + chunksRead + ", average queued=" + getAverageQueuedChunks()
+				+ ", parser waits=" + parserWaits + ", reader waits=" + readerWaits + "]";
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		closed = true;
+
+		if (thread != null)
+			thread.interrupt();
+
+		in.close();
+	}
+}
@@ -0,0 +1,324 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.xml.namespace.QName;
+
+import se.andsk.jaspxml.exceptions.TypeConversionException;
+
+/**
+ * Base class for elements. Implements the type conversion methods, {@code equals}, {@code hashCode} and
+ * {@code toString} in terms of the other methods in {@link Element}, so that elements from different parser
+ * implementations can be compared with each other.
+ */
+public abstract class AbstractElement implements Element
+{
+	@Override
+	public <To> To getAttribute(QName attribute, TypeConverter<? super String, To> converter) throws TypeConversionException
+	{
+		String a = getAttribute(attribute);
+
+		if (a != null)
+		{
+			return converter.convert(a);
+		}
+		else
+		{
+			return null;
+		}
+	}
+
+	@Override
+	public <To> Map<QName, To> getAllAttributes(TypeConverter<? super String, To> converter) throws TypeConversionException
+	{
+		Map<QName, To> result = new HashMap<QName, To>();
+
+		for (Entry<QName, String> entry : getAllAttributes().entrySet())
+		{
+			result.put(entry.getKey(), converter.convert(entry.getValue()));
+		}
+
+		return result;
+	}
+
+	@Override
+	public <To> To getText(TypeConverter<? super String, To> converter) throws TypeConversionException
+	{
+		if (!isText())
+			return null;
+		else
+			return converter.convert(getText());
+	}
+
+	@Override
+	public int getIntAttribute(QName attribute, int defaultValue) throws TypeConversionException
+	{
+		return getIntAttribute(attribute, TypeConverter.ParseInt, defaultValue);
+	}
+
+	@Override
+	public int getIntAttribute(QName attribute, TypeConverter.ToInt converter, int defaultValue) throws TypeConversionException
+	{
+		CharSequence a = getAttributeSequence(attribute);
+
+		if (a != null)
+			return converter.convert(a);
+		else
+			return defaultValue;
+	}
+
+	@Override
+	public int getIntText() throws TypeConversionException
+	{
+		return getIntText(TypeConverter.ParseInt);
+	}
+
+	@Override
+	public int getIntText(TypeConverter.ToInt converter) throws TypeConversionException
+	{
+		return converter.convert(textSequence());
+	}
+
+	@Override
+	public long getLongAttribute(QName attribute, long defaultValue) throws TypeConversionException
+	{
+		return getLongAttribute(attribute, TypeConverter.ParseLong, defaultValue);
+	}
+
+	@Override
+	public long getLongAttribute(QName attribute, TypeConverter.ToLong converter, long defaultValue) throws TypeConversionException
+	{
+		CharSequence a = getAttributeSequence(attribute);
+
+		if (a != null)
+			return converter.convert(a);
+		else
+			return defaultValue;
+	}
+
+	@Override
+	public long getLongText() throws TypeConversionException
+	{
+		return getLongText(TypeConverter.ParseLong);
+	}
+
+	@Override
+	public long getLongText(TypeConverter.ToLong converter) throws TypeConversionException
+	{
+		return converter.convert(textSequence());
+	}
+
+	@Override
+	public double getDoubleAttribute(QName attribute, double defaultValue) throws TypeConversionException
+	{
+		return getDoubleAttribute(attribute, TypeConverter.ParseDouble, defaultValue);
+	}
+
+	@Override
+	public double getDoubleAttribute(QName attribute, TypeConverter.ToDouble converter, double defaultValue) throws TypeConversionException
+	{
+		CharSequence a = getAttributeSequence(attribute);
+
+		if (a != null)
+			return converter.convert(a);
+		else
+			return defaultValue;
+	}
+
+	@Override
+	public double getDoubleText() throws TypeConversionException
+	{
+		return getDoubleText(TypeConverter.ParseDouble);
+	}
+
+	@Override
+	public double getDoubleText(TypeConverter.ToDouble converter) throws TypeConversionException
+	{
+		return converter.convert(textSequence());
+	}
+
+	@Override
+	public boolean getBooleanAttribute(QName attribute, boolean defaultValue) throws TypeConversionException
+	{
+		return getBooleanAttribute(attribute, TypeConverter.ParseBoolean, defaultValue);
+	}
+
+	@Override
+	public boolean getBooleanAttribute(QName attribute, TypeConverter.ToBoolean converter, boolean defaultValue) throws TypeConversionException
+	{
+		CharSequence a = getAttributeSequence(attribute);
+
+		if (a != null)
+			return converter.convert(a);
+		else
+			return defaultValue;
+	}
+
+	@Override
+	public boolean getBooleanText() throws TypeConversionException
+	{
+		return getBooleanText(TypeConverter.ParseBoolean);
+	}
+
+	@Override
+	public boolean getBooleanText(TypeConverter.ToBoolean converter) throws TypeConversionException
+	{
+		return converter.convert(textSequence());
+	}
+
+	private CharSequence textSequence() throws TypeConversionException
+	{
+		if (!isText())
+			throw new TypeConversionException("Not a text element: " + getName());
+
+		return getTextSequence();
+	}
+
+	@Override
+	public CharSequence getAttributeSequence(QName attribute)
+	{
+		return getAttribute(attribute);
+	}
+
+	@Override
+	public boolean attributeEquals(QName attribute, CharSequence value)
+	{
+		return matches(getAttributeSequence(attribute), value, false);
+	}
+
+	@Override
+	public boolean attributeStartsWith(QName attribute, CharSequence prefix)
+	{
+		return matches(getAttributeSequence(attribute), prefix, true);
+	}
+
+	@Override
+	public CharSequence getTextSequence()
+	{
+		return getText();
+	}
+
+	@Override
+	public boolean textEquals(CharSequence text)
+	{
+		return matches(getTextSequence(), text, false);
+	}
+
+	@Override
+	public boolean textStartsWith(CharSequence prefix)
+	{
+		return matches(getTextSequence(), prefix, true);
+	}
+
+	/**
+	 * Returns true if a sequence is equal to, or starts with, another sequence, comparing them character by
+	 * character.
+	 */
+	static boolean matches(CharSequence sequence, CharSequence s, boolean prefix)
+	{
+		if (sequence == null)
+			return false;
+
+		int length = s.length();
+
+		if (prefix ? sequence.length() < length : sequence.length() != length)
+			return false;
+
+		for (int i = 0; i < length; ++i)
+		{
+			if (sequence.charAt(i) != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public Element snapshot()
+	{
+		return this;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof Element))
+		{
+			return false;
+		}
+		else
+		{
+			Element i = (Element) o;
+
+			if (isText() != i.isText())
+			{
+				return false;
+			}
+
+			if (isText())
+			{
+				return i.getText().equals(getText());
+			}
+			else
+			{
+				return i.getAllAttributes().equals(getAllAttributes()) && i.getName().equals(getName())
+						&& i.hasChildren() == hasChildren();
+			}
+		}
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int result = 17;
+
+		if (isText())
+		{
+			result = 37 * result + getText().hashCode();
+		}
+		else
+		{
+			result = 37 * result + getName().hashCode();
+			result = 37 * result + getAllAttributes().hashCode();
+			result = 37 * result + (hasChildren() ? 0 : 1);
+		}
+
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder strB = new StringBuilder();
+
+		if (isText())
+		{
+			strB.append("Text Element\n");
+
+			strB.append("[");
+			strB.append(getText());
+			strB.append("]");
+		}
+		else
+		{
+			strB.append("Element <");
+			strB.append(getName());
+			strB.append(">\n");
+
+			for (Entry<QName, String> e : getAllAttributes().entrySet())
+			{
+				strB.append("[");
+				strB.append(e.getKey());
+				strB.append(":");
+				strB.append(e.getValue());
+				strB.append("] ");
+			}
+		}
+
+		return strB.toString();
+	}
+}
@@ -0,0 +1,53 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link CharSequence} view of raw bytes that are all ASCII characters, which don't need to be decoded.
+ */
+final class AsciiSequence implements CharSequence
+{
+	private final byte[] data;
+	private final int offset;
+	private final int length;
+
+	AsciiSequence(byte[] data, int offset, int length)
+	{
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	@Override
+	public int length()
+	{
+		return length;
+	}
+
+	@Override
+	public char charAt(int index)
+	{
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+
+		return (char) data[offset + index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end)
+	{
+		if (start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length " + length);
+
+		return new AsciiSequence(data, offset + start, end - start);
+	}
+
+	@Override
+	public String toString()
+	{
+		return new String(data, offset, length, StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,127 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+
+/**
+ * Decodes base64 text from a reader into a channel in small chunks, ignoring white space.
+ */
+final class Base64Decoder
+{
+	private static final int CHUNK_SIZE = 8192;
+
+	/**
+	 * The value of each base64 character, -1 for white space and -2 for other characters
+	 */
+	private static final byte[] VALUES = new byte[128];
+
+	static
+	{
+		Arrays.fill(VALUES, (byte) -2);
+
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+		for (int i = 0; i < alphabet.length(); ++i)
+			VALUES[alphabet.charAt(i)] = (byte) i;
+
+		VALUES[' '] = -1;
+		VALUES['\t'] = -1;
+		VALUES['\n'] = -1;
+		VALUES['\r'] = -1;
+	}
+
+	private Base64Decoder()
+	{
+	}
+
+	/**
+	 * Decode all text from a reader.
+	 *
+	 * @param offset offset in the document of the text, for error messages
+	 * @return the number of bytes written
+	 * @throws ParsingException if the text isn't valid base64
+	 * @throws IOException
+	 */
+	static long decode(Reader in, WritableByteChannel out, long offset) throws ParsingException, IOException
+	{
+		char[] chars = new char[CHUNK_SIZE];
+		ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+		long written = 0;
+
+		int bits = 0;
+		int sextets = 0;
+		int padding = 0;
+		int count;
+
+		while ((count = in.read(chars)) >= 0)
+		{
+			for (int i = 0; i < count; ++i)
+			{
+				char c = chars[i];
+				int value = c < 128 ? VALUES[c] : -2;
+
+				if (value == -1)
+					continue;
+
+				if (c == '=')
+				{
+					// Padding may only end a group with at least two characters
+					if (sextets < 2)
+						throw new ParsingException("Invalid base64 padding in text", offset);
+
+					++padding;
+					continue;
+				}
+
+				if (value < 0 || padding > 0)
+					throw new ParsingException("Invalid base64 character '" + c + "' in text", offset);
+
+				bits = (bits << 6) | value;
+
+				if (++sextets == 4)
+				{
+					if (bytes.remaining() < 3)
+						written += flush(bytes, out);
+
+					bytes.put((byte) (bits >> 16)).put((byte) (bits >> 8)).put((byte) bits);
+					bits = 0;
+					sextets = 0;
+				}
+			}
+		}
+
+		// A final group without padding is also accepted
+		if (sextets == 1 || padding > 2 || (padding > 0 && sextets + padding != 4))
+			throw new ParsingException("Truncated base64 text", offset);
+
+		if (bytes.remaining() < 2)
+			written += flush(bytes, out);
+
+		if (sextets == 2)
+			bytes.put((byte) (bits >> 4));
+		else if (sextets == 3)
+			bytes.put((byte) (bits >> 10)).put((byte) (bits >> 2));
+
+		return written + flush(bytes, out);
+	}
+
+	private static int flush(ByteBuffer bytes, WritableByteChannel out) throws IOException
+	{
+		bytes.flip();
+		int count = bytes.remaining();
+
+		while (bytes.hasRemaining())
+			out.write(bytes);
+
+		bytes.clear();
+		return count;
+	}
+}
@@ -0,0 +1,215 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import se.andsk.jaspxml.exceptions.TypeConversionException;
+
+/**
+ * A {@link TypeConverter} that remembers the results of another converter, for values with few distinct strings such
+ * as status or currency codes. A repeated string then returns the same result object instead of being converted
+ * again.
+ * <p>
+ * The cache holds a bounded number of strings and evicts with the CLOCK algorithm, an approximation of least recently
+ * used: a hit only marks its entry as referenced, and when the cache is full the clock hand sweeps over the entries,
+ * clearing the marks, until it finds one that hasn't been referenced since the last sweep. Hits are lock-free, so one
+ * converter can be shared by parsers in many threads. Misses are converted without holding a lock, so if several
+ * threads convert the same string at the same time, the result of the first one to finish is kept and returned to all.
+ * <p>
+ * Conversions that fail are not cached. The converter may return null, which is cached like any other result.
+ *
+ * @param <To> the type to convert to
+ */
+public class CachingConverter<To> implements TypeConverter<String, To>
+{
+	private static final class Entry<To>
+	{
+		final String key;
+		final To value;
+
+		/**
+		 * Set on each hit and cleared by the clock hand
+		 */
+		volatile boolean referenced = false;
+
+		Entry(String key, To value)
+		{
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private final TypeConverter<? super String, ? extends To> converter;
+	private final ConcurrentHashMap<String, Entry<To>> map;
+
+	/**
+	 * The clock, which is only changed while holding the lock of this object
+	 */
+	private final Entry<To>[] entries;
+	private int size = 0;
+	private int hand = 0;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private volatile long evictions = 0;
+
+	/**
+	 * @param converter the converter that is cached
+	 * @param capacity the maximum number of cached strings
+	 */
+	@SuppressWarnings("unchecked")
+	public CachingConverter(TypeConverter<? super String, ? extends To> converter, int capacity)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity must be at least 1");
+
+		this.converter = converter;
+		this.map = new ConcurrentHashMap<String, Entry<To>>(2 * capacity);
+		this.entries = (Entry<To>[]) new Entry<?>[capacity];
+	}
+
+	/**
+	 * Create a converter that canonicalizes strings, i.e. that returns the same string instance for equal strings, so
+	 * that values that are kept, e.g. in a list of records, don't take up memory for each copy.
+	 *
+	 * @param capacity the maximum number of cached strings
+	 * @return the converter
+	 */
+	public static CachingConverter<String> canonical(int capacity)
+	{
+		return new CachingConverter<String>(TypeConverter.Identity, capacity);
+	}
+
+	@Override
+	public To convert(String d) throws TypeConversionException
+	{
+		Entry<To> entry = map.get(d);
+
+		if (entry != null)
+		{
+			// Only write when needed, to keep the cache lines of popular entries shared between threads
+			if (!entry.referenced)
+				entry.referenced = true;
+
+			hits.increment();
+			return entry.value;
+		}
+
+		misses.increment();
+		return add(d, converter.convert(d));
+	}
+
+	/**
+	 * Add a converted string, evicting an entry if the cache is full.
+	 *
+	 * @return the cached result, which is the result of another thread if it added the same string first
+	 */
+	private synchronized To add(String key, To value)
+	{
+		Entry<To> entry = map.get(key);
+
+		if (entry != null)
+			return entry.value;
+
+		int index;
+
+		if (size < entries.length)
+		{
+			index = size++;
+		}
+		else
+		{
+			while (entries[hand].referenced)
+			{
+				entries[hand].referenced = false;
+				hand = (hand + 1) % entries.length;
+			}
+
+			index = hand;
+			hand = (hand + 1) % entries.length;
+
+			map.remove(entries[index].key);
+			++evictions;
+		}
+
+		entry = new Entry<To>(key, value);
+		entries[index] = entry;
+		map.put(key, entry);
+
+		return value;
+	}
+
+	/**
+	 * Returns the maximum number of cached strings.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity()
+	{
+		return entries.length;
+	}
+
+	/**
+	 * Returns the number of cached strings.
+	 *
+	 * @return the number of strings
+	 */
+	public int size()
+	{
+		return map.size();
+	}
+
+	/**
+	 * Returns the number of conversions that were answered from the cache.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of conversions that were passed on to the cached converter.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of strings that have been evicted to make room for new ones. A high number compared to the
+	 * misses means that the capacity is too small for the number of distinct values.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions()
+	{
+		return evictions;
+	}
+
+	/**
+	 * Returns the share of the conversions that were answered from the cache.
+	 *
+	 * @return the hit rate between 0 and 1, or 0 if nothing has been converted yet
+	 */
+	public double getHitRate()
+	{
+		long hits = getHits();
+		long total = hits + getMisses();
+
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "CachingConverter[size=" + size() + ", capacity=" + entries.length + ", hits=" + getHits() + ", misses="
+				+ getMisses() + ", evictions=" + evictions + "]";
+	}
+}
@@ -0,0 +1,146 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The position of an {@link XMLParserUTF8} in a document, from which a new parser can resume parsing. Created by
+ * {@link XMLParserUTF8#checkpoint()}.
+ * <p>
+ * A checkpoint holds the byte offset of the current element, the open ancestors and the namespace bindings that are in
+ * scope. A resumed parser behaves exactly like the parser did when the checkpoint was created, i.e. it has the same
+ * current element and returns the same elements from then on, so a long running job can save a checkpoint after each
+ * processed element and continue after the last one if it is restarted. The only difference is that {@code getDepth}
+ * may be lower after {@code up}, until {@code next} is called, since the resumed parser hasn't read the skipped part
+ * of the current element.
+ * <p>
+ * Checkpoints can be saved with {@link #toByteArray()} or {@link #write(DataOutput)}.
+ */
+public final class Checkpoint
+{
+	private static final int VERSION = 1;
+
+	private final long offset;
+	private final ParserContext context;
+
+	/**
+	 * True if the parser has a current element, which starts at {@code offset}
+	 */
+	private final boolean atElement;
+	private final boolean canStepDown;
+
+	Checkpoint(long offset, ParserContext context, boolean atElement, boolean canStepDown)
+	{
+		this.offset = offset;
+		this.context = context;
+		this.atElement = atElement;
+		this.canStepDown = canStepDown;
+	}
+
+	/**
+	 * Returns the offset in the document where parsing resumes.
+	 */
+	public long getOffset()
+	{
+		return offset;
+	}
+
+	/**
+	 * Returns the number of open ancestors.
+	 */
+	public int getDepth()
+	{
+		return context.getDepth();
+	}
+
+	ParserContext getContext()
+	{
+		return context;
+	}
+
+	boolean isAtElement()
+	{
+		return atElement;
+	}
+
+	boolean canStepDown()
+	{
+		return canStepDown;
+	}
+
+	/**
+	 * Read a checkpoint that was saved by {@link #write(DataOutput)}.
+	 *
+	 * @param in input
+	 * @return the checkpoint
+	 * @throws IOException
+	 */
+	public static Checkpoint read(DataInput in) throws IOException
+	{
+		if (in.readInt() != VERSION)
+			throw new IOException("Unknown checkpoint version");
+
+		long offset = in.readLong();
+		boolean atElement = in.readBoolean();
+		boolean canStepDown = in.readBoolean();
+
+		return new Checkpoint(offset, ParserContext.read(in), atElement, canStepDown);
+	}
+
+	/**
+	 * Save the checkpoint.
+	 *
+	 * @param out output
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException
+	{
+		out.writeInt(VERSION);
+		out.writeLong(offset);
+		out.writeBoolean(atElement);
+		out.writeBoolean(canStepDown);
+		context.write(out);
+	}
+
+	/**
+	 * Read a checkpoint that was saved by {@link #toByteArray()}.
+	 *
+	 * @param data saved checkpoint
+	 * @return the checkpoint
+	 * @throws IOException if the data isn't a valid checkpoint
+	 */
+	public static Checkpoint fromByteArray(byte[] data) throws IOException
+	{
+		return read(new DataInputStream(new ByteArrayInputStream(data)));
+	}
+
+	/**
+	 * Save the checkpoint as an array of bytes.
+	 *
+	 * @return the saved checkpoint
+	 */
+	public byte[] toByteArray()
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try
+		{
+			write(new DataOutputStream(bytes));
+		}
+		catch (IOException e)
+		{
+			// Can't happen with a ByteArrayOutputStream
+			throw new IllegalStateException(e);
+		}
+
+		return bytes.toByteArray();
+	}
+}
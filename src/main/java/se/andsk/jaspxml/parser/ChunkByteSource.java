@@ -0,0 +1,123 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+import se.andsk.jaspxml.io.ByteSource;
+
+/**
+ * A {@link ByteSource} that holds the chunks that have been fed to an {@link XMLPushParser}.
+ * <p>
+ * All bytes from the mark are kept, so that the parser can go back to it if it runs out of input. Bytes are never moved
+ * within an array that has been returned by {@code read}, since the parser may still be using the window. When more
+ * room is needed the kept bytes are copied to a new array instead.
+ */
+class ChunkByteSource implements ByteSource
+{
+	private static final int MIN_READ = 8192;
+
+	private byte[] data = new byte[MIN_READ];
+
+	/**
+	 * Offset in the document of {@code data[0]}
+	 */
+	private long start = 0;
+	private int size = 0;
+
+	private long mark = 0;
+	private boolean finished = false;
+
+	/**
+	 * Let the bytes before an offset be discarded. The parser never reads before the mark.
+	 */
+	void mark(long offset)
+	{
+		mark = offset;
+	}
+
+	/**
+	 * Signal that all input has been fed.
+	 */
+	void finish()
+	{
+		finished = true;
+	}
+
+	@Override
+	public boolean isFinished()
+	{
+		return finished;
+	}
+
+	/**
+	 * Returns the number of bytes that are kept.
+	 */
+	int getBufferedBytes()
+	{
+		return size;
+	}
+
+	/**
+	 * Append the remaining bytes of a chunk.
+	 */
+	void feed(ByteBuffer chunk)
+	{
+		int count = chunk.remaining();
+		reserve(count);
+		chunk.get(data, size, count);
+		size += count;
+	}
+
+	/**
+	 * Read the bytes that are available from a channel.
+	 *
+	 * @return the number of bytes read, or -1 at the end of the stream
+	 */
+	int feed(ReadableByteChannel channel) throws IOException
+	{
+		reserve(MIN_READ);
+
+		int count = channel.read(ByteBuffer.wrap(data, size, data.length - size));
+
+		if (count > 0)
+			size += count;
+
+		return count;
+	}
+
+	/**
+	 * Make room for more bytes after the ones that are kept.
+	 */
+	private void reserve(int count)
+	{
+		if (size + count <= data.length)
+			return;
+
+		int discard = (int) Math.max(0, Math.min(mark - start, size));
+		int kept = size - discard;
+		byte[] larger = new byte[Math.max(2 * kept, kept + Math.max(count, MIN_READ))];
+
+		System.arraycopy(data, discard, larger, 0, kept);
+		data = larger;
+		start += discard;
+		size = kept;
+	}
+
+	@Override
+	public ByteBuffer read(long offset, int available)
+	{
+		int index = (int) Math.min(Math.max(offset - start, 0), size);
+		return ByteBuffer.wrap(data, index, size - index).slice().order(ByteOrder.nativeOrder());
+	}
+
+	@Override
+	public void close()
+	{
+		data = null;
+	}
+}
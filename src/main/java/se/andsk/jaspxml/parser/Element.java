@@ -30,7 +30,7 @@ public interface Element
 	 * @return a map of all attributes and their values
 	 * @throws TypeConversionException when the attributes could not be converted to the specified type
 	 */
-	public <To> Map<QName, To> getAllAttributes(TypeConverter<String, To> converter) throws TypeConversionException;
+	public <To> Map<QName, To> getAllAttributes(TypeConverter<? super String, To> converter) throws TypeConversionException;
 
 	/**
 	 * Returns the name of the element. Text elements do not have true element names and will return null.
@@ -70,8 +70,61 @@ public interface Element
 	 * @return the value of the attribute, or null if no such attribute exists
 	 * @throws TypeConversionException when the attribute could not be converted to the specified type
 	 */
-	public <To> To getAttribute(QName attribute, TypeConverter<String, To> converter) throws TypeConversionException;
+	public <To> To getAttribute(QName attribute, TypeConverter<? super String, To> converter) throws TypeConversionException;
+
+	/**
+	 * Returns the ID of the name of the element in the {@link NameTable} of the parser.
+	 * 
+	 * @return the ID of the name, or -1 if this is a text element or if the parser has no name table
+	 * @see XMLParser#setNameTable(NameTable)
+	 */
+	public int getNameId();
+
+	/**
+	 * Returns true if this element has an attribute whose name has a given ID in the {@link NameTable} of the parser.
+	 * This is always false if the parser has no name table.
+	 * 
+	 * @param nameId ID of the name of an attribute
+	 * @return true if the attribute exists
+	 */
+	public boolean hasAttribute(int nameId);
+
+	/**
+	 * Returns the value of an attribute whose name has a given ID in the {@link NameTable} of the parser.
+	 * 
+	 * @param nameId ID of the name of the attribute to return
+	 * @return the value of the attribute, or null if no such attribute exists or if the parser has no name table
+	 */
+	public String getAttribute(int nameId);
 	
+	/**
+	 * Returns the value of an attribute as a {@link CharSequence}, which may be a view of data owned by the parser
+	 * instead of a new string. The view is only valid until the parser moves on, so use {@code toString} to keep it.
+	 * 
+	 * @param attribute name of the attribute to return
+	 * @return the value of the attribute, or null if no such attribute exists
+	 */
+	public CharSequence getAttributeSequence(QName attribute);
+
+	/**
+	 * Returns true if an attribute has a given value, without creating a string for the value when possible.
+	 * 
+	 * @param attribute name of the attribute
+	 * @param value the value to compare with
+	 * @return true if the attribute exists and its value is equal to {@code value}
+	 */
+	public boolean attributeEquals(QName attribute, CharSequence value);
+
+	/**
+	 * Returns true if the value of an attribute starts with a given prefix, without creating a string for the value
+	 * when possible.
+	 * 
+	 * @param attribute name of the attribute
+	 * @param prefix the prefix
+	 * @return true if the attribute exists and its value starts with {@code prefix}
+	 */
+	public boolean attributeStartsWith(QName attribute, CharSequence prefix);
+
 	/**
 	 * Returns true if this is a text element.
 	 * 
@@ -87,6 +140,32 @@ public interface Element
 	public <To> String getText();
 	
 	
+	/**
+	 * Returns the content of this element as a {@link CharSequence}, which may be a view of data owned by the parser
+	 * instead of a new string. The view is only valid until the parser moves on, so use {@code toString} to keep it.
+	 * 
+	 * @return the text in this element, or null if this is not a text element
+	 */
+	public CharSequence getTextSequence();
+
+	/**
+	 * Returns true if this is a text element with a given content, without creating a string for the content when
+	 * possible.
+	 * 
+	 * @param text the text to compare with
+	 * @return true if the text of this element is equal to {@code text}
+	 */
+	public boolean textEquals(CharSequence text);
+
+	/**
+	 * Returns true if this is a text element whose content starts with a given prefix, without creating a string for
+	 * the content when possible.
+	 * 
+	 * @param prefix the prefix
+	 * @return true if the text of this element starts with {@code prefix}
+	 */
+	public boolean textStartsWith(CharSequence prefix);
+
 	/**
 	 * Returns the content of this element, converted to type {@code To} using a {@link TypeConverter}.
 	 * 
@@ -94,5 +173,174 @@ public interface Element
 	 * @return the content of this element, or null if this is not a text element
 	 * @throws TypeConversionException when the contents could not be converted to the specified type
 	 */
-	public <To> To getText(TypeConverter<String, To> converter) throws TypeConversionException;
+	public <To> To getText(TypeConverter<? super String, To> converter) throws TypeConversionException;
+
+	/**
+	 * Returns the value of an attribute as {@code int}, parsed with {@link TypeConverter#ParseInt} without creating a
+	 * string or a boxed value when possible.
+	 * 
+	 * @param attribute name of the attribute to return
+	 * @param defaultValue the value to return if no such attribute exists
+	 * @return the value of the attribute, or {@code defaultValue} if no such attribute exists
+	 * @throws TypeConversionException when the attribute could not be converted
+	 */
+	public int getIntAttribute(QName attribute, int defaultValue) throws TypeConversionException;
+
+	/**
+	 * Returns the value of an attribute as {@code int}, converted with a {@link TypeConverter.ToInt}.
+	 * 
+	 * @param attribute name of the attribute to return
+	 * @param converter converter used to convert the value of the attribute
+	 * @param defaultValue the value to return if no such attribute exists
+	 * @return the value of the attribute, or {@code defaultValue} if no such attribute exists
+	 * @throws TypeConversionException when the attribute could not be converted
+	 */
+	public int getIntAttribute(QName attribute, TypeConverter.ToInt converter, int defaultValue) throws TypeConversionException;
+
+	/**
+	 * Returns the content of this text element as {@code int}, parsed with {@link TypeConverter#ParseInt} without
+	 * creating a string or a boxed value when possible.
+	 * 
+	 * @return the content of this element
+	 * @throws TypeConversionException when this is not a text element or the content could not be converted
+	 */
+	public int getIntText() throws TypeConversionException;
+
+	/**
+	 * Returns the content of this text element as {@code int}, converted with a {@link TypeConverter.ToInt}.
+	 * 
+	 * @param converter converter used to convert the content of this element
+	 * @return the content of this element
+	 * @throws TypeConversionException when this is not a text element or the content could not be converted
+	 */
+	public int getIntText(TypeConverter.ToInt converter) throws TypeConversionException;
+
+	/**
+	 * Returns the value of an attribute as {@code long}, parsed with {@link TypeConverter#ParseLong} without creating a
+	 * string or a boxed value when possible.
+	 * 
+	 * @param attribute name of the attribute to return
+	 * @param defaultValue the value to return if no such attribute exists
+	 * @return the value of the attribute, or {@code defaultValue} if no such attribute exists
+	 * @throws TypeConversionException when the attribute could not be converted
+	 */
+	public long getLongAttribute(QName attribute, long defaultValue) throws TypeConversionException;
+
+	/**
+	 * Returns the value of an attribute as {@code long}, converted with a {@link TypeConverter.ToLong}.
+	 * 
+	 * @param attribute name of the attribute to return
+	 * @param converter converter used to convert the value of the attribute
+	 * @param defaultValue the value to return if no such attribute exists
+	 * @return the value of the attribute, or {@code defaultValue} if no such attribute exists
+	 * @throws TypeConversionException when the attribute could not be converted
+	 */
+	public long getLongAttribute(QName attribute, TypeConverter.ToLong converter, long defaultValue) throws TypeConversionException;
+
+	/**
+	 * Returns the content of this text element as {@code long}, parsed with {@link TypeConverter#ParseLong} without
+	 * creating a string or a boxed value when possible.
+	 * 
+	 * @return the content of this element
+	 * @throws TypeConversionException when this is not a text element or the content could not be converted
+	 */
+	public long getLongText() throws TypeConversionException;
+
+	/**
+	 * Returns the content of this text element as {@code long}, converted with a {@link TypeConverter.ToLong}.
+	 * 
+	 * @param converter converter used to convert the content of this element
+	 * @return the content of this element
+	 * @throws TypeConversionException when this is not a text element or the content could not be converted
+	 */
+	public long getLongText(TypeConverter.ToLong converter) throws TypeConversionException;
+
+	/**
+	 * Returns the value of an attribute as {@code double}, parsed with {@link TypeConverter#ParseDouble} without creating a
+	 * string or a boxed value when possible.
+	 * 
+	 * @param attribute name of the attribute to return
+	 * @param defaultValue the value to return if no such attribute exists
+	 * @return the value of the attribute, or {@code defaultValue} if no such attribute exists
+	 * @throws TypeConversionException when the attribute could not be converted
+	 */
+	public double getDoubleAttribute(QName attribute, double defaultValue) throws TypeConversionException;
+
+	/**
+	 * Returns the value of an attribute as {@code double}, converted with a {@link TypeConverter.ToDouble}.
+	 * 
+	 * @param attribute name of the attribute to return
+	 * @param converter converter used to convert the value of the attribute
+	 * @param defaultValue the value to return if no such attribute exists
+	 * @return the value of the attribute, or {@code defaultValue} if no such attribute exists
+	 * @throws TypeConversionException when the attribute could not be converted
+	 */
+	public double getDoubleAttribute(QName attribute, TypeConverter.ToDouble converter, double defaultValue) throws TypeConversionException;
+
+	/**
+	 * Returns the content of this text element as {@code double}, parsed with {@link TypeConverter#ParseDouble} without
+	 * creating a string or a boxed value when possible.
+	 * 
+	 * @return the content of this element
+	 * @throws TypeConversionException when this is not a text element or the content could not be converted
+	 */
+	public double getDoubleText() throws TypeConversionException;
+
+	/**
+	 * Returns the content of this text element as {@code double}, converted with a {@link TypeConverter.ToDouble}.
+	 * 
+	 * @param converter converter used to convert the content of this element
+	 * @return the content of this element
+	 * @throws TypeConversionException when this is not a text element or the content could not be converted
+	 */
+	public double getDoubleText(TypeConverter.ToDouble converter) throws TypeConversionException;
+
+	/**
+	 * Returns the value of an attribute as {@code boolean}, parsed with {@link TypeConverter#ParseBoolean} without creating a
+	 * string or a boxed value when possible.
+	 * 
+	 * @param attribute name of the attribute to return
+	 * @param defaultValue the value to return if no such attribute exists
+	 * @return the value of the attribute, or {@code defaultValue} if no such attribute exists
+	 * @throws TypeConversionException when the attribute could not be converted
+	 */
+	public boolean getBooleanAttribute(QName attribute, boolean defaultValue) throws TypeConversionException;
+
+	/**
+	 * Returns the value of an attribute as {@code boolean}, converted with a {@link TypeConverter.ToBoolean}.
+	 * 
+	 * @param attribute name of the attribute to return
+	 * @param converter converter used to convert the value of the attribute
+	 * @param defaultValue the value to return if no such attribute exists
+	 * @return the value of the attribute, or {@code defaultValue} if no such attribute exists
+	 * @throws TypeConversionException when the attribute could not be converted
+	 */
+	public boolean getBooleanAttribute(QName attribute, TypeConverter.ToBoolean converter, boolean defaultValue) throws TypeConversionException;
+
+	/**
+	 * Returns the content of this text element as {@code boolean}, parsed with {@link TypeConverter#ParseBoolean} without
+	 * creating a string or a boxed value when possible.
+	 * 
+	 * @return the content of this element
+	 * @throws TypeConversionException when this is not a text element or the content could not be converted
+	 */
+	public boolean getBooleanText() throws TypeConversionException;
+
+	/**
+	 * Returns the content of this text element as {@code boolean}, converted with a {@link TypeConverter.ToBoolean}.
+	 * 
+	 * @param converter converter used to convert the content of this element
+	 * @return the content of this element
+	 * @throws TypeConversionException when this is not a text element or the content could not be converted
+	 */
+	public boolean getBooleanText(TypeConverter.ToBoolean converter) throws TypeConversionException;
+
+	/**
+	 * Returns an element with the same content that stays unchanged. Elements are normally immutable and return
+	 * themselves, but a parser that reuses its elements overwrites them as it moves on, so an element from such a
+	 * parser must be copied with this method to be kept.
+	 * 
+	 * @return an immutable element that is equal to this element
+	 */
+	public Element snapshot();
 }
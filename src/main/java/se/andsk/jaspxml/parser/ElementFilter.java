@@ -0,0 +1,160 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Decides which elements a parser should return, see {@link XMLParser#setFilter(ElementFilter)}. Elements that are
+ * rejected are skipped together with their children, as if the caller had called {@code next} again, but they are
+ * never created. Text can be skipped in the same way.
+ * <p>
+ * Names can be given for all depths, and for specific depths where the root element is at depth 0. The names for a
+ * specific depth replace the names for all depths. A filter without any names accepts all elements. A filter must not
+ * be changed while it is used by a parser.
+ */
+public class ElementFilter
+{
+	private Set<QName> names;
+	private List<Set<QName>> depthNames = new ArrayList<Set<QName>>();
+	private boolean skipText = false;
+
+	/**
+	 * UTF-8 encoded local names, for parsers that can reject elements before the names have been decoded
+	 */
+	private byte[][] localNames;
+	private List<byte[][]> depthLocalNames = new ArrayList<byte[][]>();
+
+	/**
+	 * Accept elements with the given names at all depths.
+	 *
+	 * @param names element names
+	 * @return this filter
+	 */
+	public ElementFilter accept(QName... names)
+	{
+		if (this.names == null)
+			this.names = new HashSet<QName>();
+
+		Collections.addAll(this.names, names);
+		localNames = encode(this.names);
+
+		return this;
+	}
+
+	/**
+	 * Accept elements with the given names at a specific depth.
+	 *
+	 * @param depth the depth, where the root element is at depth 0
+	 * @param names element names
+	 * @return this filter
+	 */
+	public ElementFilter acceptAt(int depth, QName... names)
+	{
+		while (depthNames.size() <= depth)
+		{
+			depthNames.add(null);
+			depthLocalNames.add(null);
+		}
+
+		Set<QName> set = depthNames.get(depth);
+
+		if (set == null)
+		{
+			set = new HashSet<QName>();
+			depthNames.set(depth, set);
+		}
+
+		Collections.addAll(set, names);
+		depthLocalNames.set(depth, encode(set));
+
+		return this;
+	}
+
+	/**
+	 * Skip all text elements.
+	 *
+	 * @return this filter
+	 */
+	public ElementFilter skipText()
+	{
+		skipText = true;
+
+		return this;
+	}
+
+	/**
+	 * Returns true if elements with a given name should be returned at a given depth.
+	 *
+	 * @param depth the depth, where the root element is at depth 0
+	 * @param name element name
+	 * @return true if the element is accepted
+	 */
+	public boolean accepts(int depth, QName name)
+	{
+		Set<QName> set = depth < depthNames.size() && depthNames.get(depth) != null ? depthNames.get(depth) : names;
+
+		return set == null || set.contains(name);
+	}
+
+	/**
+	 * Returns true if text elements should be returned.
+	 *
+	 * @return true if text is accepted
+	 */
+	public boolean acceptsText()
+	{
+		return !skipText;
+	}
+
+	/**
+	 * Returns the UTF-8 encoded local parts of the accepted names at a depth, or null if all names are accepted.
+	 */
+	byte[][] getLocalNames(int depth)
+	{
+		return depth < depthLocalNames.size() && depthLocalNames.get(depth) != null ? depthLocalNames.get(depth)
+				: localNames;
+	}
+
+	private static byte[][] encode(Set<QName> names)
+	{
+		Set<String> localParts = new HashSet<String>();
+
+		for (QName name : names)
+			localParts.add(name.getLocalPart());
+
+		byte[][] result = new byte[localParts.size()][];
+		int i = 0;
+
+		for (String localPart : localParts)
+			result[i++] = localPart.getBytes(UTF8.CHARSET);
+
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder builder = new StringBuilder("ElementFilter[");
+
+		builder.append(names == null ? "*" : names);
+
+		for (int depth = 0; depth < depthNames.size(); ++depth)
+		{
+			if (depthNames.get(depth) != null)
+				builder.append(", ").append(depth).append('=').append(depthNames.get(depth));
+		}
+
+		if (skipText)
+			builder.append(", no text");
+
+		return builder.append(']').toString();
+	}
+}
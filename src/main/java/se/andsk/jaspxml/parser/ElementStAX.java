@@ -3,24 +3,64 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 package se.andsk.jaspxml.parser;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.events.Attribute;
 
 import se.andsk.jaspxml.exceptions.TypeConversionException;
 
-public class ElementStAX implements Element {
-	private HashMap<QName, String> attributes = new HashMap<QName, String>();
+/**
+ * An element created by the StAX based parsers.
+ * <p>
+ * The attributes are kept in arrays and looked up with a linear scan, which is faster than hashing for the few
+ * attributes that most elements have. A map of the attributes is only created if {@code getAllAttributes} is called,
+ * or for lookups when there are many attributes.
+ */
+public class ElementStAX extends AbstractElement {
+	private static final QName[] NO_NAMES = new QName[0];
+	private static final String[] NO_VALUES = new String[0];
+
+	/**
+	 * Attributes are looked up in a map instead of with a linear scan when there are more than this many
+	 */
+	private static final int MAX_LINEAR_SCAN = 8;
+
 	private QName name;
 	private String text;
 	private boolean hasChildren;
+
+	private QName[] attributeNames;
+	private String[] attributeValues;
+	private int attributeCount;
+
+	/**
+	 * Attributes of a start element event that haven't been copied to the arrays yet, or null
+	 */
+	private Iterator<Attribute> pendingAttributes;
+
+	private Map<QName, String> attributeMap;
+
+	/**
+	 * The name table of the parser, the ID of the name and the IDs of the attribute names, which are only looked up
+	 * when an attribute is requested by ID
+	 */
+	private NameTable names;
+	private int nameId = -1;
+	private int[] attributeIds;
+	private boolean hasAttributeIds;
+
+	/**
+	 * True if the element is overwritten by the parser, see {@link XMLParserStAXCursor#setReuseElements(boolean)}
+	 */
+	private boolean reused;
 	
 	/**
-	 * Constructor for normal elements.
+	 * Constructor for normal elements. The attributes are read from the iterator the first time that they are
+	 * accessed, so the iterator must not depend on the state of a reader.
 	 * 
 	 * @param name element name
 	 * @param attributeIterator element attributes
@@ -30,12 +70,44 @@ public class ElementStAX implements Element {
 	{
 		this.name = name;
 		this.hasChildren = hasChildren;
-		
-		while(attributeIterator.hasNext())
-		{
-			Attribute a = attributeIterator.next();
-			attributes.put(a.getName(), a.getValue());
-		}
+		this.attributeNames = NO_NAMES;
+		this.attributeValues = NO_VALUES;
+		this.pendingAttributes = attributeIterator;
+	}
+
+	/**
+	 * Constructor for normal elements whose attributes have already been collected.
+	 *
+	 * @param name element name
+	 * @param attributes element attributes, the map is used as is and not copied
+	 * @param hasChildren true if this element has children
+	 */
+	public ElementStAX(QName name, HashMap<QName, String> attributes, boolean hasChildren)
+	{
+		this(name, attributes.keySet().toArray(new QName[attributes.size()]), new String[attributes.size()],
+				hasChildren);
+
+		for (int i = 0; i < attributeCount; ++i)
+			attributeValues[i] = attributes.get(attributeNames[i]);
+
+		attributeMap = attributes;
+	}
+
+	/**
+	 * Constructor for normal elements whose attributes have already been collected.
+	 *
+	 * @param name element name
+	 * @param attributeNames attribute names, the array is used as is and not copied
+	 * @param attributeValues attribute values in the same order as the names
+	 * @param hasChildren true if this element has children
+	 */
+	ElementStAX(QName name, QName[] attributeNames, String[] attributeValues, boolean hasChildren)
+	{
+		this.name = name;
+		this.hasChildren = hasChildren;
+		this.attributeNames = attributeNames;
+		this.attributeValues = attributeValues;
+		this.attributeCount = attributeNames.length;
 	}
 
 	/**
@@ -48,165 +120,261 @@ public class ElementStAX implements Element {
 		this.name = null;
 		this.text = text;
 		this.hasChildren = false;
+		this.attributeNames = NO_NAMES;
+		this.attributeValues = NO_VALUES;
 	}
-	
-	@Override
-	public boolean hasAttribute(QName attribute)
+
+	/**
+	 * Constructor for an element that is reused by a parser. It is empty until one of the setters is called.
+	 */
+	ElementStAX()
 	{
-		return attributes.containsKey(attribute);
+		this.attributeNames = NO_NAMES;
+		this.attributeValues = NO_VALUES;
+		this.reused = true;
 	}
-	
-	@Override
-	public String getAttribute(QName attribute)
+
+	/**
+	 * Make this a normal element without attributes.
+	 */
+	void setElement(QName name, boolean hasChildren)
 	{
-		return attributes.get(attribute);
+		this.name = name;
+		this.text = null;
+		this.hasChildren = hasChildren;
+		attributeCount = 0;
+		attributeMap = null;
+		names = null;
+		nameId = -1;
+		hasAttributeIds = false;
 	}
-	
-	@Override
-	public <To> To getAttribute(QName attribute, TypeConverter<String, To> converter) throws TypeConversionException
+
+	void putAttribute(QName name, String value)
 	{
-		String a = getAttribute(attribute);
-		
-		if(a != null)
+		if (attributeCount == attributeNames.length)
 		{
-			return converter.convert(a);
+			attributeNames = Arrays.copyOf(attributeNames, Math.max(8, 2 * attributeCount));
+			attributeValues = Arrays.copyOf(attributeValues, attributeNames.length);
 		}
-		else
+
+		attributeNames[attributeCount] = name;
+		attributeValues[attributeCount] = value;
+		++attributeCount;
+	}
+
+	void setHasChildren(boolean hasChildren)
+	{
+		this.hasChildren = hasChildren;
+	}
+
+	/**
+	 * Make this a text element.
+	 */
+	void setText(String text)
+	{
+		this.name = null;
+		this.text = text;
+		this.hasChildren = false;
+		attributeCount = 0;
+		attributeMap = null;
+		names = null;
+		nameId = -1;
+		hasAttributeIds = false;
+	}
+
+	/**
+	 * Replace the name with its canonical instance from a name table, and look up attributes by ID in the same table.
+	 */
+	void useNames(NameTable names)
+	{
+		this.names = names;
+		nameId = names.getId(name);
+		name = names.getName(nameId);
+	}
+
+	/**
+	 * Copy the pending attributes of a start element event to the arrays.
+	 */
+	private void readAttributes()
+	{
+		Iterator<Attribute> i = pendingAttributes;
+		pendingAttributes = null;
+
+		while (i.hasNext())
 		{
-			return null;
+			Attribute a = i.next();
+
+			if (attributeCount == attributeNames.length)
+			{
+				attributeNames = Arrays.copyOf(attributeNames, Math.max(4, 2 * attributeCount));
+				attributeValues = Arrays.copyOf(attributeValues, attributeNames.length);
+			}
+
+			attributeNames[attributeCount] = a.getName();
+			attributeValues[attributeCount] = a.getValue();
+			++attributeCount;
 		}
 	}
-	
-	@Override
-	public Map<QName, String> getAllAttributes()
+
+	private int indexOf(QName attribute)
 	{
-		return attributes;
+		for (int i = 0; i < attributeCount; ++i)
+		{
+			if (attributeNames[i].equals(attribute))
+				return i;
+		}
+		return -1;
 	}
-	
 
-	@Override
-	public <To> Map<QName, To> getAllAttributes(TypeConverter<String, To> converter) throws TypeConversionException
+	private int indexOf(int id)
 	{
-		Map<QName, To> result = new HashMap<QName, To>();
-		
-		for(Entry<QName, String> entry : attributes.entrySet())
+		if (names == null)
+			return -1;
+
+		if (pendingAttributes != null)
+			readAttributes();
+
+		if (!hasAttributeIds)
 		{
-			result.put(entry.getKey(), converter.convert(entry.getValue()));
+			if (attributeIds == null || attributeIds.length < attributeCount)
+				attributeIds = new int[attributeNames.length];
+
+			for (int i = 0; i < attributeCount; ++i)
+				attributeIds[i] = names.getId(attributeNames[i]);
+
+			hasAttributeIds = true;
 		}
-		
-		return result;
+
+		for (int i = 0; i < attributeCount; ++i)
+		{
+			if (attributeIds[i] == id)
+				return i;
+		}
+		return -1;
 	}
-	
+
 	@Override
-	public QName getName()
+	public Element snapshot()
 	{
-		if(isText())
-			return null;
-		else
-			return name;
+		if (!reused)
+			return this;
+		else if (isText())
+			return new ElementStAX(text);
+
+		ElementStAX copy = new ElementStAX(name, Arrays.copyOf(attributeNames, attributeCount),
+				Arrays.copyOf(attributeValues, attributeCount), hasChildren);
+		copy.names = names;
+		copy.nameId = nameId;
+
+		return copy;
 	}
-	
+
 	@Override
-	public boolean isText()
+	public int getNameId()
 	{
-		return text != null;
+		return nameId;
 	}
-	
 
 	@Override
-	public String getText()
+	public boolean hasAttribute(int nameId)
 	{
-		if(!isText())
-			return null;
-		else
-			return text;
+		return indexOf(nameId) >= 0;
 	}
-	
+
 	@Override
-	public <To> To getText(TypeConverter<String, To> converter) throws TypeConversionException
+	public String getAttribute(int nameId)
 	{
-		if(!isText())
-			return null;
-		else
-			return converter.convert(getText());
+		int index = indexOf(nameId);
+
+		return index < 0 ? null : attributeValues[index];
+	}
+
+	@Override
+	public boolean hasAttribute(QName attribute)
+	{
+		if (pendingAttributes != null)
+			readAttributes();
+
+		if (attributeCount > MAX_LINEAR_SCAN)
+			return getAllAttributes().containsKey(attribute);
+
+		return indexOf(attribute) >= 0;
 	}
 	
 	@Override
-	public boolean equals(Object o)
+	public String getAttribute(QName attribute)
 	{
-		if (!(o instanceof ElementStAX))
-		{
-			return false;
-		}
-		else
-		{
-			ElementStAX i = (ElementStAX) o;
-			
-			if(isText() != i.isText())
-			{
-				return false;
-			}
-			
-			if(isText())
-			{
-				return i.text.equals(this.text);
-			}
-			else
-			{
-				return i.attributes.equals(this.attributes) && i.name.equals(this.name) && i.hasChildren == hasChildren;
-			}
-		}
+		if (pendingAttributes != null)
+			readAttributes();
+
+		if (attributeCount > MAX_LINEAR_SCAN)
+			return getAllAttributes().get(attribute);
+
+		int index = indexOf(attribute);
+
+		return index < 0 ? null : attributeValues[index];
 	}
 	
 	@Override
-	public int hashCode()
+	public Map<QName, String> getAllAttributes()
 	{
-		int result = 17;
-		result = 37 * result + name.hashCode();
-		result = 37 * result + attributes.hashCode();
-		result = 37 * result + (hasChildren ? 0 : 1);
-		
-		if(isText())
+		if (pendingAttributes != null)
+			readAttributes();
+
+		if (attributeMap == null)
 		{
-			result = 37 * result + text.hashCode();
+			// A new map even without attributes, since callers may add to it
+			HashMap<QName, String> map = new HashMap<QName, String>(2 * attributeCount);
+
+			for (int i = 0; i < attributeCount; ++i)
+				map.put(attributeNames[i], attributeValues[i]);
+
+			attributeMap = map;
 		}
-		
-		return result;
+
+		return attributeMap;
 	}
-	
+
 	@Override
-	public String toString()
+	public <To> Map<QName, To> getAllAttributes(TypeConverter<? super String, To> converter) throws TypeConversionException
 	{
-		StringBuilder strB = new StringBuilder();
+		if (pendingAttributes != null)
+			readAttributes();
+
+		// Convert directly from the arrays instead of going through the map of strings
+		Map<QName, To> result = new HashMap<QName, To>(2 * attributeCount);
+
+		for (int i = 0; i < attributeCount; ++i)
+			result.put(attributeNames[i], converter.convert(attributeValues[i]));
+
+		return result;
+	}
 
-		
+	@Override
+	public QName getName()
+	{
 		if(isText())
-		{
-			strB.append("Text Element\n");
-			
-			strB.append("[");
-			strB.append(text);
-			strB.append("]");
-		}
+			return null;
 		else
-		{
-			strB.append("Element <");
-			strB.append(name);
-			strB.append(">\n");
-		
-			for(Entry<QName, String> e : attributes.entrySet())
-			{
-				strB.append("[");
-				strB.append(e.getKey());
-				strB.append(":");
-				strB.append(e.getValue());
-				strB.append("] ");
-			}
-		}
-
-		return strB.toString();
+			return name;
 	}
+	
+	@Override
+	public boolean isText()
+	{
+		return text != null;
+	}
+	
 
+	@Override
+	public String getText()
+	{
+		if(!isText())
+			return null;
+		else
+			return text;
+	}
+	
 	@Override
 	public boolean hasChildren()
 	{
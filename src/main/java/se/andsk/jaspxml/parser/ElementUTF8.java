@@ -0,0 +1,353 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+/**
+ * An element created by {@link XMLParserUTF8}.
+ * <p>
+ * The element keeps a private copy of the raw bytes of its attribute values or text. Entities and references are not
+ * decoded until a value is requested for the first time.
+ */
+public class ElementUTF8 extends AbstractElement
+{
+	private static final QName[] NO_NAMES = new QName[0];
+
+	private QName name;
+	private boolean hasChildren;
+
+	/**
+	 * Offset in the document of the start tag or text
+	 */
+	private long offset;
+
+	/**
+	 * Raw bytes of the attribute values, or of the text for text elements
+	 */
+	private byte[] data;
+
+	private QName[] attributeNames;
+
+	/**
+	 * Start and end of each attribute value in {@code data}
+	 */
+	private int[] valueBounds;
+
+	private String[] values;
+	private Map<QName, String> attributeMap;
+	private String text;
+
+	/**
+	 * The name table of the parser, the ID of the name and the IDs of the attribute names, which are only looked up
+	 * when an attribute is requested by ID
+	 */
+	private NameTable names;
+	private int nameId = -1;
+	private int[] attributeIds;
+
+	/**
+	 * Constructor for normal elements.
+	 *
+	 * @param offset offset of the start tag in the document
+	 * @param name element name
+	 * @param attributeNames names of the attributes
+	 * @param data raw attribute values
+	 * @param valueBounds start and end index in {@code data} of each attribute value
+	 * @param hasChildren true if this element has children
+	 */
+	ElementUTF8(long offset, QName name, QName[] attributeNames, byte[] data, int[] valueBounds, boolean hasChildren)
+	{
+		this.offset = offset;
+		this.name = name;
+		this.attributeNames = attributeNames;
+		this.data = data;
+		this.valueBounds = valueBounds;
+		this.values = new String[attributeNames.length];
+		this.hasChildren = hasChildren;
+	}
+
+	/**
+	 * Constructor for elements with attributes that have already been decoded.
+	 *
+	 * @param offset offset of the start tag in the document
+	 * @param name element name
+	 * @param attributes decoded attribute values
+	 * @param hasChildren true if this element has children
+	 */
+	ElementUTF8(long offset, QName name, Map<QName, String> attributes, boolean hasChildren)
+	{
+		this.offset = offset;
+		this.name = name;
+		this.attributeNames = attributes.keySet().toArray(new QName[attributes.size()]);
+		this.values = new String[attributeNames.length];
+		this.hasChildren = hasChildren;
+
+		for (int i = 0; i < attributeNames.length; ++i)
+			values[i] = attributes.get(attributeNames[i]);
+	}
+
+	/**
+	 * Constructor for text elements.
+	 *
+	 * @param offset offset of the text in the document
+	 * @param data raw character data
+	 */
+	ElementUTF8(long offset, byte[] data)
+	{
+		this.offset = offset;
+		this.name = null;
+		this.attributeNames = NO_NAMES;
+		this.data = data;
+		this.hasChildren = false;
+	}
+
+	long getOffset()
+	{
+		return offset;
+	}
+
+	/**
+	 * Replace the name with its canonical instance from a name table, and look up attributes by ID in the same table.
+	 */
+	void useNames(NameTable names)
+	{
+		this.names = names;
+		nameId = names.getId(name);
+		name = names.getName(nameId);
+	}
+
+	private int indexOf(int id)
+	{
+		if (names == null)
+			return -1;
+
+		if (attributeIds == null)
+		{
+			int[] ids = new int[attributeNames.length];
+
+			for (int i = 0; i < ids.length; ++i)
+				ids[i] = names.getId(attributeNames[i]);
+
+			attributeIds = ids;
+		}
+
+		for (int i = 0; i < attributeIds.length; ++i)
+		{
+			if (attributeIds[i] == id)
+				return i;
+		}
+		return -1;
+	}
+
+	private int indexOf(QName attribute)
+	{
+		for (int i = 0; i < attributeNames.length; ++i)
+		{
+			if (attributeNames[i].equals(attribute))
+				return i;
+		}
+		return -1;
+	}
+
+	private String value(int index)
+	{
+		String value = values[index];
+
+		if (value == null)
+		{
+			int start = valueBounds[2 * index];
+			value = UTF8.decodeAttribute(data, start, valueBounds[2 * index + 1] - start);
+			values[index] = value;
+		}
+
+		return value;
+	}
+
+	@Override
+	public boolean hasAttribute(QName attribute)
+	{
+		return indexOf(attribute) >= 0;
+	}
+
+	@Override
+	public String getAttribute(QName attribute)
+	{
+		int index = indexOf(attribute);
+
+		if (index < 0)
+			return null;
+		else
+			return value(index);
+	}
+
+	@Override
+	public int getNameId()
+	{
+		return nameId;
+	}
+
+	@Override
+	public boolean hasAttribute(int nameId)
+	{
+		return indexOf(nameId) >= 0;
+	}
+
+	@Override
+	public String getAttribute(int nameId)
+	{
+		int index = indexOf(nameId);
+
+		if (index < 0)
+			return null;
+		else
+			return value(index);
+	}
+
+	@Override
+	public CharSequence getAttributeSequence(QName attribute)
+	{
+		int index = indexOf(attribute);
+
+		if (index < 0)
+			return null;
+
+		if (values[index] == null)
+		{
+			int start = valueBounds[2 * index];
+			CharSequence view = UTF8.view(data, start, valueBounds[2 * index + 1] - start, true);
+
+			if (view != null)
+				return view;
+		}
+
+		return value(index);
+	}
+
+	@Override
+	public boolean attributeEquals(QName attribute, CharSequence value)
+	{
+		return matchesAttribute(attribute, value, false);
+	}
+
+	@Override
+	public boolean attributeStartsWith(QName attribute, CharSequence prefix)
+	{
+		return matchesAttribute(attribute, prefix, true);
+	}
+
+	private boolean matchesAttribute(QName attribute, CharSequence s, boolean prefix)
+	{
+		int index = indexOf(attribute);
+
+		if (index < 0)
+			return false;
+
+		if (values[index] == null)
+		{
+			int start = valueBounds[2 * index];
+			int result = UTF8.compare(data, start, valueBounds[2 * index + 1] - start, true, s, prefix);
+
+			if (result >= 0)
+				return result == 1;
+		}
+
+		return matches(value(index), s, prefix);
+	}
+
+	@Override
+	public CharSequence getTextSequence()
+	{
+		if (!isText())
+			return null;
+
+		if (text == null)
+		{
+			CharSequence view = UTF8.view(data, 0, data.length, false);
+
+			if (view != null)
+				return view;
+		}
+
+		return getText();
+	}
+
+	@Override
+	public boolean textEquals(CharSequence text)
+	{
+		return matchesText(text, false);
+	}
+
+	@Override
+	public boolean textStartsWith(CharSequence prefix)
+	{
+		return matchesText(prefix, true);
+	}
+
+	private boolean matchesText(CharSequence s, boolean prefix)
+	{
+		if (!isText())
+			return false;
+
+		if (text == null)
+		{
+			int result = UTF8.compare(data, 0, data.length, false, s, prefix);
+
+			if (result >= 0)
+				return result == 1;
+		}
+
+		return matches(getText(), s, prefix);
+	}
+
+	@Override
+	public Map<QName, String> getAllAttributes()
+	{
+		if (attributeMap == null)
+		{
+			// A new map even without attributes, since callers may add to it
+			HashMap<QName, String> map = new HashMap<QName, String>();
+
+			for (int i = 0; i < attributeNames.length; ++i)
+				map.put(attributeNames[i], value(i));
+
+			attributeMap = map;
+		}
+
+		return attributeMap;
+	}
+
+	@Override
+	public QName getName()
+	{
+		return name;
+	}
+
+	@Override
+	public boolean hasChildren()
+	{
+		return hasChildren;
+	}
+
+	@Override
+	public boolean isText()
+	{
+		return name == null;
+	}
+
+	@Override
+	public String getText()
+	{
+		if (!isText())
+			return null;
+
+		if (text == null)
+			text = UTF8.decodeText(data, 0, data.length);
+
+		return text;
+	}
+}
@@ -0,0 +1,254 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.exceptions.UncheckedParsingException;
+
+/**
+ * Iterators, spliterators and streams over the elements of an {@link XMLParser}.
+ * <p>
+ * All of them pull elements lazily from the parser, starting at its current position, and they never move the parser
+ * above the depth where they started. The parser must not be used by anything else while they are in use. Parsing
+ * errors are thrown as {@link UncheckedParsingException}. The spliterators are {@link Spliterator#ORDERED ORDERED} and
+ * {@link Spliterator#NONNULL NONNULL}, and they can't be split since a parser can only be read sequentially.
+ */
+public final class Elements
+{
+	private Elements()
+	{
+	}
+
+	/**
+	 * Returns an iterator over the rest of the elements at the current depth. Their children are skipped.
+	 *
+	 * @param parser the parser to read from
+	 * @return the iterator
+	 */
+	public static Iterator<Element> siblings(XMLParser parser)
+	{
+		return new Siblings(parser);
+	}
+
+	/**
+	 * Returns a spliterator over the rest of the elements at the current depth. Their children are skipped.
+	 *
+	 * @param parser the parser to read from
+	 * @return the spliterator
+	 */
+	public static Spliterator<Element> siblingSpliterator(XMLParser parser)
+	{
+		return new Siblings(parser);
+	}
+
+	/**
+	 * Returns a sequential stream of the rest of the elements at the current depth. Their children are skipped.
+	 *
+	 * @param parser the parser to read from
+	 * @return the stream
+	 */
+	public static Stream<Element> siblingStream(XMLParser parser)
+	{
+		return StreamSupport.stream(new Siblings(parser), false);
+	}
+
+	/**
+	 * Returns an iterator over the rest of the elements at the current depth and all their descendants, in document
+	 * order.
+	 *
+	 * @param parser the parser to read from
+	 * @return the iterator
+	 */
+	public static Iterator<Element> depthFirst(XMLParser parser)
+	{
+		return new DepthFirst(parser);
+	}
+
+	/**
+	 * Returns a spliterator over the rest of the elements at the current depth and all their descendants, in document
+	 * order.
+	 *
+	 * @param parser the parser to read from
+	 * @return the spliterator
+	 */
+	public static Spliterator<Element> depthFirstSpliterator(XMLParser parser)
+	{
+		return new DepthFirst(parser);
+	}
+
+	/**
+	 * Returns a sequential stream of the rest of the elements at the current depth and all their descendants, in
+	 * document order.
+	 *
+	 * @param parser the parser to read from
+	 * @return the stream
+	 */
+	public static Stream<Element> depthFirstStream(XMLParser parser)
+	{
+		return StreamSupport.stream(new DepthFirst(parser), false);
+	}
+
+	/**
+	 * Base class for cursors that are both iterators and spliterators, built on {@code hasNext} and {@code next}.
+	 */
+	private static abstract class Cursor implements Iterator<Element>, Spliterator<Element>
+	{
+		protected final XMLParser parser;
+
+		Cursor(XMLParser parser)
+		{
+			this.parser = parser;
+		}
+
+		protected abstract boolean advance() throws ParsingException;
+
+		protected abstract Element read() throws ParsingException;
+
+		@Override
+		public boolean hasNext()
+		{
+			try
+			{
+				return advance();
+			}
+			catch (ParsingException e)
+			{
+				throw new UncheckedParsingException(e);
+			}
+		}
+
+		@Override
+		public Element next()
+		{
+			try
+			{
+				if (!advance())
+					throw new NoSuchElementException();
+
+				return read();
+			}
+			catch (ParsingException e)
+			{
+				throw new UncheckedParsingException(e);
+			}
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Element> action)
+		{
+			if (!hasNext())
+				return false;
+
+			action.accept(next());
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super Element> action)
+		{
+			while (hasNext())
+				action.accept(next());
+		}
+
+		@Override
+		public Spliterator<Element> trySplit()
+		{
+			return null;
+		}
+
+		@Override
+		public long estimateSize()
+		{
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics()
+		{
+			return ORDERED | NONNULL;
+		}
+	}
+
+	private static class Siblings extends Cursor
+	{
+		Siblings(XMLParser parser)
+		{
+			super(parser);
+		}
+
+		@Override
+		protected boolean advance() throws ParsingException
+		{
+			return parser.hasNext();
+		}
+
+		@Override
+		protected Element read() throws ParsingException
+		{
+			return parser.next();
+		}
+	}
+
+	private static class DepthFirst extends Cursor
+	{
+		/**
+		 * The depth relative to where the iterator started
+		 */
+		private int depth = 0;
+
+		/**
+		 * True if the parser should step down into the last element before the next one is read
+		 */
+		private boolean descend = false;
+
+		DepthFirst(XMLParser parser)
+		{
+			super(parser);
+		}
+
+		@Override
+		protected boolean advance() throws ParsingException
+		{
+			if (descend)
+			{
+				descend = false;
+				parser.down();
+				++depth;
+			}
+
+			while (!parser.hasNext())
+			{
+				if (depth == 0)
+					return false;
+
+				parser.up();
+				--depth;
+			}
+
+			return true;
+		}
+
+		@Override
+		protected Element read() throws ParsingException
+		{
+			Element element = parser.next();
+			descend = element.hasChildren();
+
+			return element;
+		}
+	}
+}
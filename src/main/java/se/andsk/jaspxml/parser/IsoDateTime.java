@@ -0,0 +1,306 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+import se.andsk.jaspxml.exceptions.TypeConversionException;
+
+/**
+ * A parsed ISO-8601 date or date-time, in the format used by the XML Schema types {@code xs:date} and
+ * {@code xs:dateTime}: {@code [-]yyyy-MM-dd}, optionally followed by {@code Thh:mm[:ss[.fraction]]} and then, where
+ * an offset is allowed, by {@code Z} or {@code +hh:mm}. The time {@code 24:00:00} means the start of the next day.
+ * Whitespace around the value is ignored.
+ * <p>
+ * The fields are parsed by hand instead of with a {@link java.time.format.DateTimeFormatter}, which is much slower.
+ * Each value is parsed into a new instance, which doesn't escape the converters, so they are thread-safe.
+ */
+final class IsoDateTime
+{
+	private static final int SECONDS_PER_DAY = 86400;
+
+	/**
+	 * The number of days from year 0 to 1970
+	 */
+	private static final long DAYS_0000_TO_1970 = 719528;
+
+	int year;
+	int month;
+	int day;
+	int secondOfDay;
+	int nano;
+	int offsetSeconds;
+
+	private final CharSequence s;
+	private int position;
+	private final int end;
+
+	private IsoDateTime(CharSequence s)
+	{
+		this.s = s;
+
+		int start = 0;
+		int end = s.length();
+
+		while (start < end && isWhitespace(s.charAt(start)))
+			++start;
+
+		while (end > start && isWhitespace(s.charAt(end - 1)))
+			--end;
+
+		this.position = start;
+		this.end = end;
+	}
+
+	private static boolean isWhitespace(char c)
+	{
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+
+	/**
+	 * Parse a date or a date-time.
+	 *
+	 * @param s the text
+	 * @param time true if the time is required, false if it must not be present
+	 * @param offset true if the offset is required, false if it must not be present
+	 * @return the parsed value
+	 * @throws TypeConversionException
+	 */
+	static IsoDateTime parse(CharSequence s, boolean time, boolean offset) throws TypeConversionException
+	{
+		IsoDateTime value = new IsoDateTime(s);
+		value.parse(time, offset);
+		return value;
+	}
+
+	private void parse(boolean time, boolean offset) throws TypeConversionException
+	{
+		boolean negative = position < end && s.charAt(position) == '-';
+
+		if (negative)
+			++position;
+
+		int start = position;
+		year = digits(4, 9);
+
+		// Years with more than four digits can't have leading zeros
+		if (position - start > 4 && s.charAt(start) == '0')
+			throw invalid();
+
+		if (negative)
+			year = -year;
+
+		expect('-');
+		month = digits(2, 2);
+		expect('-');
+		day = digits(2, 2);
+
+		if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month))
+			throw invalid();
+
+		if (time)
+		{
+			expect('T');
+			int hour = digits(2, 2);
+			expect(':');
+			int minute = digits(2, 2);
+			int second = 0;
+
+			if (position < end && s.charAt(position) == ':')
+			{
+				++position;
+				second = digits(2, 2);
+
+				if (position < end && s.charAt(position) == '.')
+				{
+					++position;
+					start = position;
+
+					for (; position < end && isDigit(s.charAt(position)); ++position)
+					{
+						// Digits after nanoseconds are ignored
+						if (position - start < 9)
+							nano = 10 * nano + s.charAt(position) - '0';
+					}
+
+					if (position == start)
+						throw invalid();
+
+					for (int i = position - start; i < 9; ++i)
+						nano *= 10;
+				}
+			}
+
+			if (hour == 24 && minute == 0 && second == 0 && nano == 0)
+			{
+				// The end of the day
+				secondOfDay = SECONDS_PER_DAY;
+			}
+			else
+			{
+				if (hour > 23 || minute > 59 || second > 59)
+					throw invalid();
+
+				secondOfDay = 3600 * hour + 60 * minute + second;
+			}
+		}
+
+		if (offset)
+		{
+			if (position < end && s.charAt(position) == 'Z')
+			{
+				++position;
+			}
+			else if (position < end && (s.charAt(position) == '+' || s.charAt(position) == '-'))
+			{
+				int sign = s.charAt(position++) == '-' ? -1 : 1;
+				int hours = digits(2, 2);
+				expect(':');
+				int minutes = digits(2, 2);
+
+				if (hours > 18 || minutes > 59 || (hours == 18 && minutes > 0))
+					throw invalid();
+
+				offsetSeconds = sign * (3600 * hours + 60 * minutes);
+			}
+			else
+			{
+				throw invalid();
+			}
+		}
+
+		if (position != end)
+			throw invalid();
+	}
+
+	private static boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+
+	private int digits(int min, int max) throws TypeConversionException
+	{
+		int start = position;
+		int value = 0;
+
+		while (position < end && position - start < max && isDigit(s.charAt(position)))
+			value = 10 * value + s.charAt(position++) - '0';
+
+		if (position - start < min)
+			throw invalid();
+
+		return value;
+	}
+
+	private void expect(char c) throws TypeConversionException
+	{
+		if (position == end || s.charAt(position) != c)
+			throw invalid();
+
+		++position;
+	}
+
+	private TypeConversionException invalid()
+	{
+		return new TypeConversionException("Invalid ISO-8601 value: \"" + s + "\"");
+	}
+
+	private static boolean isLeapYear(long year)
+	{
+		return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	private static int lengthOfMonth(int year, int month)
+	{
+		switch (month)
+		{
+			case 2:
+				return isLeapYear(year) ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+
+	/**
+	 * Returns the number of days from 1970-01-01 to the date, like {@link LocalDate#toEpochDay()}.
+	 */
+	long epochDay()
+	{
+		long y = year;
+		long total = 365 * y;
+
+		if (y >= 0)
+			total += (y + 3) / 4 - (y + 99) / 100 + (y + 399) / 400;
+		else
+			total -= y / -4 - y / -100 + y / -400;
+
+		total += (367 * month - 362) / 12;
+		total += day - 1;
+
+		if (month > 2)
+		{
+			--total;
+
+			if (!isLeapYear(y))
+				--total;
+		}
+
+		return total - DAYS_0000_TO_1970;
+	}
+
+	long epochSecond()
+	{
+		return epochDay() * SECONDS_PER_DAY + secondOfDay - offsetSeconds;
+	}
+
+	/**
+	 * Returns the milliseconds since the epoch, which overflow a long for years beyond about 292 million.
+	 */
+	long epochMilli() throws TypeConversionException
+	{
+		try
+		{
+			return Math.addExact(Math.multiplyExact(epochSecond(), 1000L), nano / 1000000);
+		}
+		catch (ArithmeticException e)
+		{
+			throw new TypeConversionException("Value out of range for epoch milliseconds: \"" + s + "\"");
+		}
+	}
+
+	Instant toInstant()
+	{
+		return Instant.ofEpochSecond(epochSecond(), nano);
+	}
+
+	LocalDate toLocalDate()
+	{
+		return LocalDate.of(year, month, day);
+	}
+
+	LocalDateTime toLocalDateTime()
+	{
+		LocalDate date = LocalDate.of(year, month, day);
+
+		if (secondOfDay == SECONDS_PER_DAY)
+			return date.plusDays(1).atStartOfDay();
+
+		return LocalDateTime.of(date, LocalTime.ofNanoOfDay(secondOfDay * 1000000000L + nano));
+	}
+
+	OffsetDateTime toOffsetDateTime()
+	{
+		return OffsetDateTime.of(toLocalDateTime(), ZoneOffset.ofTotalSeconds(offsetSeconds));
+	}
+}
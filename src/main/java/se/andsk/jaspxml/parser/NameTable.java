@@ -0,0 +1,129 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+
+/**
+ * A symbol table that gives each distinct name a canonical {@link QName} instance and a stable integer ID, see
+ * {@link XMLParser#setNameTable(NameTable)}. Names that are equal get the same instance, so they can be compared by
+ * identity, and the same ID, so they can be dispatched on with a {@code switch}.
+ * <p>
+ * IDs are assigned in the order that names are first seen, starting at 0. The names that are given to the constructor
+ * get the IDs 0, 1, 2 and so on, so that the IDs can be declared as constants. Since {@link QName#equals(Object)}
+ * ignores the prefix, the canonical instance has the prefix of the first occurrence. A table can be shared between
+ * parsers on different threads.
+ */
+public class NameTable
+{
+	private final ConcurrentHashMap<QName, Integer> ids = new ConcurrentHashMap<QName, Integer>();
+
+	/**
+	 * The canonical names by ID. The array is replaced when it grows, and new names are only added under the lock.
+	 */
+	private volatile QName[] names = new QName[64];
+	private int size = 0;
+
+	/**
+	 * @param names names to register, which get the IDs 0, 1, 2 and so on in the given order
+	 */
+	public NameTable(QName... names)
+	{
+		for (QName name : names)
+			getId(name);
+	}
+
+	/**
+	 * Returns the ID of a name, registering it if it is new.
+	 *
+	 * @param name a name
+	 * @return the ID of the name
+	 */
+	public int getId(QName name)
+	{
+		Integer id = ids.get(name);
+
+		if (id != null)
+			return id;
+
+		return register(name);
+	}
+
+	private synchronized int register(QName name)
+	{
+		Integer id = ids.get(name);
+
+		if (id != null)
+			return id;
+
+		if (size == names.length)
+			names = Arrays.copyOf(names, 2 * size);
+
+		// The name is stored before the ID is published, so getName always finds it
+		names[size] = name;
+		ids.put(name, size);
+
+		return size++;
+	}
+
+	/**
+	 * Returns the ID of a name without registering it.
+	 *
+	 * @param name a name
+	 * @return the ID of the name, or -1 if it hasn't been registered
+	 */
+	public int lookup(QName name)
+	{
+		Integer id = ids.get(name);
+
+		return id != null ? id : -1;
+	}
+
+	/**
+	 * Returns the canonical instance of the name with a given ID.
+	 *
+	 * @param id an ID returned by this table
+	 * @return the name
+	 * @throws IndexOutOfBoundsException if no name has the ID
+	 */
+	public QName getName(int id)
+	{
+		QName name = id >= 0 && id < names.length ? names[id] : null;
+
+		if (name == null)
+			throw new IndexOutOfBoundsException("No name with ID " + id);
+
+		return name;
+	}
+
+	/**
+	 * Returns the canonical instance of a name, registering it if it is new.
+	 *
+	 * @param name a name
+	 * @return the canonical instance, which is equal to {@code name}
+	 */
+	public QName intern(QName name)
+	{
+		return getName(getId(name));
+	}
+
+	/**
+	 * Returns the number of registered names.
+	 *
+	 * @return the number of names
+	 */
+	public int size()
+	{
+		return ids.size();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "NameTable[" + size() + " names]";
+	}
+}
@@ -0,0 +1,92 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An immutable copy of the namespace bindings that are in scope at a given depth of a document, together with the
+ * depth at which each binding was declared.
+ */
+final class NamespaceSnapshot
+{
+	private final String[] prefixes;
+	private final String[] uris;
+
+	/**
+	 * The bindings for the children of an element at depth d are the ones before {@code marks[d + 1]}.
+	 */
+	private final int[] marks;
+
+	NamespaceSnapshot(String[] prefixes, String[] uris, int[] marks, int depth)
+	{
+		int count = marks[depth];
+
+		this.prefixes = Arrays.copyOf(prefixes, count);
+		this.uris = Arrays.copyOf(uris, count);
+		this.marks = Arrays.copyOf(marks, depth + 1);
+	}
+
+	private NamespaceSnapshot(String[] prefixes, String[] uris, int[] marks)
+	{
+		this.prefixes = prefixes;
+		this.uris = uris;
+		this.marks = marks;
+	}
+
+	/**
+	 * Read a snapshot that was written by {@link #write(DataOutput)}.
+	 */
+	static NamespaceSnapshot read(DataInput in) throws IOException
+	{
+		int count = in.readInt();
+		String[] prefixes = new String[count];
+		String[] uris = new String[count];
+
+		for (int i = 0; i < count; ++i)
+		{
+			prefixes[i] = in.readUTF();
+			uris[i] = in.readUTF();
+		}
+
+		int[] marks = new int[in.readInt()];
+
+		for (int i = 0; i < marks.length; ++i)
+			marks[i] = in.readInt();
+
+		return new NamespaceSnapshot(prefixes, uris, marks);
+	}
+
+	void write(DataOutput out) throws IOException
+	{
+		out.writeInt(prefixes.length);
+
+		for (int i = 0; i < prefixes.length; ++i)
+		{
+			out.writeUTF(prefixes[i]);
+			out.writeUTF(uris[i]);
+		}
+
+		out.writeInt(marks.length);
+
+		for (int mark : marks)
+			out.writeInt(mark);
+	}
+
+	int getDepth()
+	{
+		return marks.length - 1;
+	}
+
+	void restore(XMLParserUTF8 parser, int depth)
+	{
+		if (depth != getDepth())
+			throw new IllegalArgumentException("Namespace bindings are for depth " + getDepth() + ", not " + depth);
+
+		parser.setNamespaces(prefixes, uris, marks, depth);
+	}
+}
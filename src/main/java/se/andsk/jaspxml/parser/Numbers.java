@@ -0,0 +1,445 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.math.BigInteger;
+
+import se.andsk.jaspxml.exceptions.TypeConversionException;
+
+/**
+ * Parsing of primitive values straight from a {@link CharSequence}, without creating a string or a boxed value.
+ * Whitespace around the value is ignored, as for the XML Schema types.
+ */
+final class Numbers
+{
+	/**
+	 * The powers of ten that are exact as doubles
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private Numbers()
+	{
+	}
+
+	private static boolean isWhitespace(char c)
+	{
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+
+	private static int start(CharSequence s)
+	{
+		int start = 0;
+
+		while (start < s.length() && isWhitespace(s.charAt(start)))
+			++start;
+
+		return start;
+	}
+
+	private static int end(CharSequence s, int start)
+	{
+		int end = s.length();
+
+		while (end > start && isWhitespace(s.charAt(end - 1)))
+			--end;
+
+		return end;
+	}
+
+	private static TypeConversionException invalid(CharSequence s, String type)
+	{
+		return new TypeConversionException("Invalid " + type + " value: \"" + s + "\"");
+	}
+
+	static int parseInt(CharSequence s) throws TypeConversionException
+	{
+		return (int) parseInteger(s, Integer.MIN_VALUE, Integer.MAX_VALUE, "int");
+	}
+
+	static long parseLong(CharSequence s) throws TypeConversionException
+	{
+		return parseInteger(s, Long.MIN_VALUE, Long.MAX_VALUE, "long");
+	}
+
+	/**
+	 * Parse a decimal integer. Up to 18 digits can't overflow a long, so they are accumulated without any checks, and
+	 * only the digits after them are checked for overflow, like in {@link Long#parseLong(String)}. The value is
+	 * accumulated as a negative number, to include {@code Long.MIN_VALUE}.
+	 */
+	private static long parseInteger(CharSequence s, long min, long max, String type) throws TypeConversionException
+	{
+		int start = start(s);
+		int end = end(s, start);
+		int i = start;
+
+		boolean negative = false;
+
+		if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+			negative = s.charAt(i++) == '-';
+
+		if (i == end)
+			throw invalid(s, type);
+
+		long value = 0;
+		int fastEnd = Math.min(end, i + 18);
+
+		for (; i < fastEnd; ++i)
+		{
+			int digit = s.charAt(i) - '0';
+
+			if (digit < 0 || digit > 9)
+				throw invalid(s, type);
+
+			value = 10 * value - digit;
+		}
+
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+
+		for (; i < end; ++i)
+		{
+			int digit = s.charAt(i) - '0';
+
+			if (digit < 0 || digit > 9)
+				throw invalid(s, type);
+
+			if (value < limit / 10)
+				throw outOfRange(s, type);
+
+			value *= 10;
+
+			if (value < limit + digit)
+				throw outOfRange(s, type);
+
+			value -= digit;
+		}
+
+		if (!negative)
+			value = -value;
+
+		if (value < min || value > max)
+			throw outOfRange(s, type);
+
+		return value;
+	}
+
+	private static TypeConversionException outOfRange(CharSequence s, String type)
+	{
+		return new TypeConversionException("Value out of range for " + type + ": \"" + s + "\"");
+	}
+
+	/**
+	 * Parse a double.
+	 * <p>
+	 * The significant digits are accumulated in a long. Numbers with at most 2^53 as significand and a small exponent
+	 * are converted exactly with a single multiplication or division. Other numbers are converted with the algorithm
+	 * by Eisel and Lemire, which is exact but gives up in a few ambiguous cases. Only those cases, numbers that are
+	 * not decimal, and the special values fall back to {@link Double#parseDouble(String)}. The XML Schema spelling
+	 * {@code INF} of infinity is also accepted.
+	 */
+	static double parseDouble(CharSequence s) throws TypeConversionException
+	{
+		int start = start(s);
+		int end = end(s, start);
+		int i = start;
+
+		boolean negative = false;
+
+		if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+			negative = s.charAt(i++) == '-';
+
+		// Up to 19 significant digits, which may overflow into the sign bit but fit as an unsigned long
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean hasDigits = false;
+		boolean truncated = false;
+		char c = 0;
+
+		for (; i < end; ++i)
+		{
+			c = s.charAt(i);
+
+			if (c < '0' || c > '9')
+				break;
+
+			hasDigits = true;
+
+			if (digits == 19)
+			{
+				// The digits that don't fit only affect the rounding
+				++exponent;
+				truncated |= c != '0';
+			}
+			else if (mantissa != 0 || c != '0')
+			{
+				mantissa = 10 * mantissa + (c - '0');
+				++digits;
+			}
+		}
+
+		if (i < end && c == '.')
+		{
+			for (++i; i < end; ++i)
+			{
+				c = s.charAt(i);
+
+				if (c < '0' || c > '9')
+					break;
+
+				hasDigits = true;
+
+				if (digits == 19)
+				{
+					truncated |= c != '0';
+				}
+				else
+				{
+					--exponent;
+
+					if (mantissa != 0 || c != '0')
+					{
+						mantissa = 10 * mantissa + (c - '0');
+						++digits;
+					}
+				}
+			}
+		}
+
+		if (hasDigits && i < end && (c == 'e' || c == 'E'))
+		{
+			int j = i + 1;
+			boolean negativeExponent = false;
+
+			if (j < end && (s.charAt(j) == '-' || s.charAt(j) == '+'))
+				negativeExponent = s.charAt(j++) == '-';
+
+			int e = 0;
+			int first = j;
+
+			for (; j < end && (c = s.charAt(j)) >= '0' && c <= '9'; ++j)
+			{
+				// Any exponent this large gives zero or infinity
+				if (e < 100000)
+					e = 10 * e + (c - '0');
+			}
+
+			if (j > first)
+			{
+				exponent += negativeExponent ? -e : e;
+				i = j;
+			}
+		}
+
+		if (!hasDigits || i != end)
+			return parseDoubleSlow(s, start, end);
+
+		if (mantissa == 0)
+			return negative ? -0.0 : 0.0;
+
+		if (!truncated && mantissa > 0 && mantissa <= 1L << 53 && exponent >= -22 && exponent <= 22)
+		{
+			double value = mantissa;
+
+			if (exponent < 0)
+				value /= POWERS_OF_TEN[-exponent];
+			else
+				value *= POWERS_OF_TEN[exponent];
+
+			return negative ? -value : value;
+		}
+
+		long bits = eiselLemire(mantissa, exponent);
+
+		// The digits that were cut off are somewhere between the truncated and the next significand
+		if (truncated && bits >= 0 && bits != eiselLemire(mantissa + 1, exponent))
+			bits = -1;
+
+		if (bits < 0)
+			return parseDoubleSlow(s, start, end);
+
+		return Double.longBitsToDouble(negative ? bits | Long.MIN_VALUE : bits);
+	}
+
+	/**
+	 * The truncated 128 bit values of the powers of five from 5^-342 to 5^308, normalized so that the most significant
+	 * bit is set. They are computed when they are needed for the first time.
+	 */
+	private static final class PowersOfFive
+	{
+		static final int SMALLEST = -342;
+		static final int LARGEST = 308;
+
+		/**
+		 * The high and low 64 bits of each power
+		 */
+		static final long[] TABLE = new long[2 * (LARGEST - SMALLEST + 1)];
+
+		static
+		{
+			BigInteger five = BigInteger.valueOf(5);
+
+			for (int q = SMALLEST; q <= LARGEST; ++q)
+			{
+				BigInteger power;
+
+				if (q < 0)
+				{
+					// Rounded up reciprocals, with more precision than needed for the smallest powers
+					BigInteger reciprocal = five.pow(-q);
+					int z = reciprocal.bitLength();
+					int b = q >= -27 ? z + 127 : 2 * z + 128;
+					power = BigInteger.ONE.shiftLeft(b).divide(reciprocal).add(BigInteger.ONE);
+				}
+				else
+				{
+					power = five.pow(q);
+				}
+
+				int shift = power.bitLength() - 128;
+				power = shift > 0 ? power.shiftRight(shift) : power.shiftLeft(-shift);
+
+				int index = 2 * (q - SMALLEST);
+				TABLE[index] = power.shiftRight(64).longValue();
+				TABLE[index + 1] = power.longValue();
+			}
+		}
+	}
+
+	/**
+	 * The high 64 bits of the unsigned product of two longs
+	 */
+	private static long multiplyHigh(long a, long b)
+	{
+		return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+	}
+
+	/**
+	 * Convert {@code mantissa * 10^exponent} to the bits of the nearest positive double with the algorithm by Eisel
+	 * and Lemire.
+	 *
+	 * @param mantissa a positive significand
+	 * @param exponent the power of ten
+	 * @return the bits of the double, or -1 if the result can't be determined, including for subnormal numbers
+	 */
+	static long eiselLemire(long mantissa, int exponent)
+	{
+		if (exponent < PowersOfFive.SMALLEST)
+			return 0;
+
+		if (exponent > PowersOfFive.LARGEST)
+			return Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+
+		int index = 2 * (exponent - PowersOfFive.SMALLEST);
+		long factorHigh = PowersOfFive.TABLE[index];
+
+		// floor(exponent * log2(10)) plus the bias and the width of the significand
+		long binaryExponent = ((217706L * exponent) >> 16) + 1024 + 63;
+
+		int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+		long i = mantissa << leadingZeros;
+
+		long upper = multiplyHigh(i, factorHigh);
+		long lower = i * factorHigh;
+
+		// If the product is close to a rounding boundary, include the low 64 bits of the power
+		if ((upper & 0x1FF) == 0x1FF && Long.compareUnsigned(lower + i, lower) < 0)
+		{
+			long factorLow = PowersOfFive.TABLE[index + 1];
+			long productLow = i * factorLow;
+			long productMiddle = lower + multiplyHigh(i, factorLow);
+
+			if (Long.compareUnsigned(productMiddle, lower) < 0)
+				++upper;
+
+			if (productMiddle + 1 == 0 && (upper & 0x1FF) == 0x1FF && Long.compareUnsigned(productLow + i, productLow) < 0)
+				return -1;
+
+			lower = productMiddle;
+		}
+
+		int upperBit = (int) (upper >>> 63);
+		long significand = upper >>> (upperBit + 9);
+		leadingZeros += 1 ^ upperBit;
+
+		// Exactly halfway between two doubles, which needs round half to even
+		if (lower == 0 && (upper & 0x1FF) == 0 && (significand & 3) == 1)
+			return -1;
+
+		significand += significand & 1;
+		significand >>>= 1;
+
+		if (significand >= 1L << 53)
+		{
+			significand = 1L << 52;
+			--leadingZeros;
+		}
+
+		significand &= ~(1L << 52);
+		long realExponent = binaryExponent - leadingZeros;
+
+		if (realExponent < 1 || realExponent > 2046)
+			return -1;
+
+		return significand | realExponent << 52;
+	}
+
+	private static double parseDoubleSlow(CharSequence s, int start, int end) throws TypeConversionException
+	{
+		String value = s.subSequence(start, end).toString();
+
+		if (value.equals("INF") || value.equals("+INF"))
+			return Double.POSITIVE_INFINITY;
+		else if (value.equals("-INF"))
+			return Double.NEGATIVE_INFINITY;
+
+		try
+		{
+			return Double.parseDouble(value);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new TypeConversionException(e);
+		}
+	}
+
+	/**
+	 * Parse a boolean with the XML Schema spellings {@code true}, {@code false}, {@code 1} and {@code 0}.
+	 */
+	static boolean parseBoolean(CharSequence s) throws TypeConversionException
+	{
+		int start = start(s);
+		int length = end(s, start) - start;
+
+		if (length == 1)
+		{
+			char c = s.charAt(start);
+
+			if (c == '1')
+				return true;
+			else if (c == '0')
+				return false;
+		}
+		else if (length == 4 && regionEquals(s, start, "true"))
+		{
+			return true;
+		}
+		else if (length == 5 && regionEquals(s, start, "false"))
+		{
+			return false;
+		}
+
+		throw invalid(s, "boolean");
+	}
+
+	private static boolean regionEquals(CharSequence s, int start, String expected)
+	{
+		for (int i = 0; i < expected.length(); ++i)
+		{
+			if (s.charAt(start + i) != expected.charAt(i))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,136 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+/**
+ * What {@link XMLParserUTF8} needs to know to start parsing in the middle of a document: the open ancestors and the
+ * namespace bindings that are in scope.
+ * <p>
+ * The attributes of the ancestors are decoded when the context is created, so that a context can be shared between
+ * threads.
+ */
+final class ParserContext
+{
+	private final List<ElementUTF8> ancestors;
+	private final NamespaceSnapshot namespaces;
+
+	/**
+	 * @param ancestors the open ancestors, starting with the root element
+	 * @param namespaces the namespace bindings for the children of the last ancestor
+	 */
+	ParserContext(List<ElementUTF8> ancestors, NamespaceSnapshot namespaces)
+	{
+		for (ElementUTF8 ancestor : ancestors)
+			ancestor.getAllAttributes();
+
+		this.ancestors = Collections.unmodifiableList(ancestors);
+		this.namespaces = namespaces;
+	}
+
+	List<ElementUTF8> getAncestors()
+	{
+		return ancestors;
+	}
+
+	NamespaceSnapshot getNamespaces()
+	{
+		return namespaces;
+	}
+
+	int getDepth()
+	{
+		return ancestors.size();
+	}
+
+	/**
+	 * Read a context that was written by {@link #write(DataOutput)}.
+	 */
+	static ParserContext read(DataInput in) throws IOException
+	{
+		int depth = in.readInt();
+		List<ElementUTF8> ancestors = new ArrayList<ElementUTF8>(depth);
+
+		for (int i = 0; i < depth; ++i)
+		{
+			long offset = in.readLong();
+			QName name = readName(in);
+			int attributes = in.readInt();
+			Map<QName, String> attributeMap = new LinkedHashMap<QName, String>();
+
+			for (int j = 0; j < attributes; ++j)
+				attributeMap.put(readName(in), readString(in));
+
+			ancestors.add(new ElementUTF8(offset, name, attributeMap, true));
+		}
+
+		return new ParserContext(ancestors, NamespaceSnapshot.read(in));
+	}
+
+	void write(DataOutput out) throws IOException
+	{
+		out.writeInt(ancestors.size());
+
+		for (ElementUTF8 ancestor : ancestors)
+		{
+			Map<QName, String> attributes = ancestor.getAllAttributes();
+
+			out.writeLong(ancestor.getOffset());
+			writeName(out, ancestor.getName());
+			out.writeInt(attributes.size());
+
+			for (Map.Entry<QName, String> attribute : attributes.entrySet())
+			{
+				writeName(out, attribute.getKey());
+				writeString(out, attribute.getValue());
+			}
+		}
+
+		namespaces.write(out);
+	}
+
+	static void writeName(DataOutput out, QName name) throws IOException
+	{
+		out.writeUTF(name.getNamespaceURI());
+		out.writeUTF(name.getLocalPart());
+		out.writeUTF(name.getPrefix());
+	}
+
+	static QName readName(DataInput in) throws IOException
+	{
+		String namespaceURI = in.readUTF();
+		String localPart = in.readUTF();
+
+		return new QName(namespaceURI, localPart, in.readUTF());
+	}
+
+	/**
+	 * Attribute values may be longer than what {@link DataOutput#writeUTF(String)} can handle.
+	 */
+	private static void writeString(DataOutput out, String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(UTF8.CHARSET);
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInput in) throws IOException
+	{
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+
+		return new String(bytes, UTF8.CHARSET);
+	}
+}
@@ -0,0 +1,19 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+/**
+ * Receives the results created by a {@link RecordMapper}.
+ *
+ * @param <T> the type of the results
+ */
+public interface RecordConsumer<T>
+{
+	/**
+	 * Receive a result.
+	 *
+	 * @param result a result that isn't null
+	 */
+	void accept(T result);
+}
@@ -0,0 +1,25 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+
+/**
+ * Converts a record element to a result.
+ *
+ * @param <T> the type of the result
+ */
+public interface RecordMapper<T>
+{
+	/**
+	 * Convert a record to a result. The parser is positioned at the record, so {@code down} can be used to read its
+	 * children. It is not necessary to step back up to the record afterwards.
+	 *
+	 * @param parser the parser that read the record
+	 * @param record the record element
+	 * @return the result, or null if the record should be ignored
+	 * @throws ParsingException
+	 */
+	T map(XMLParser parser, Element record) throws ParsingException;
+}
@@ -3,6 +3,12 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 package se.andsk.jaspxml.parser;
 
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+
 import se.andsk.jaspxml.exceptions.TypeConversionException;
 
 /**
@@ -22,6 +28,238 @@ public interface TypeConverter<FromType, ToType>
 	 */
 	ToType convert(FromType d) throws TypeConversionException;
 	
+	/**
+	 * A function object used to convert text to an {@code int} without boxing.
+	 */
+	public interface ToInt
+	{
+		/**
+		 * Convert the text {@code d} to an {@code int}.
+		 * 
+		 * @param d text to be converted, which may be a view that is only valid during the call
+		 * @return the value
+		 * @throws TypeConversionException
+		 */
+		int convert(CharSequence d) throws TypeConversionException;
+	}
+
+	/**
+	 * A function object used to convert text to a {@code long} without boxing.
+	 */
+	public interface ToLong
+	{
+		/**
+		 * Convert the text {@code d} to a {@code long}.
+		 * 
+		 * @param d text to be converted, which may be a view that is only valid during the call
+		 * @return the value
+		 * @throws TypeConversionException
+		 */
+		long convert(CharSequence d) throws TypeConversionException;
+	}
+
+	/**
+	 * A function object used to convert text to a {@code double} without boxing.
+	 */
+	public interface ToDouble
+	{
+		/**
+		 * Convert the text {@code d} to a {@code double}.
+		 * 
+		 * @param d text to be converted, which may be a view that is only valid during the call
+		 * @return the value
+		 * @throws TypeConversionException
+		 */
+		double convert(CharSequence d) throws TypeConversionException;
+	}
+
+	/**
+	 * A function object used to convert text to a {@code boolean} without boxing.
+	 */
+	public interface ToBoolean
+	{
+		/**
+		 * Convert the text {@code d} to a {@code boolean}.
+		 * 
+		 * @param d text to be converted, which may be a view that is only valid during the call
+		 * @return the value
+		 * @throws TypeConversionException
+		 */
+		boolean convert(CharSequence d) throws TypeConversionException;
+	}
+
+	/**
+	 * Parses a decimal {@code int}. Whitespace around the number is ignored, unlike in {@link #StringToInt}.
+	 */
+	public static final ToInt ParseInt = new ToInt()
+	{
+		@Override
+		public int convert(CharSequence from) throws TypeConversionException
+		{
+			return Numbers.parseInt(from);
+		}
+	};
+
+	/**
+	 * Parses a decimal {@code long}. Whitespace around the number is ignored, unlike in {@link #StringToLong}.
+	 */
+	public static final ToLong ParseLong = new ToLong()
+	{
+		@Override
+		public long convert(CharSequence from) throws TypeConversionException
+		{
+			return Numbers.parseLong(from);
+		}
+	};
+
+	/**
+	 * Parses a {@code double} in the formats accepted by {@link Double#parseDouble(String)}, or {@code INF} and
+	 * {@code -INF}. Whitespace around the number is ignored.
+	 */
+	public static final ToDouble ParseDouble = new ToDouble()
+	{
+		@Override
+		public double convert(CharSequence from) throws TypeConversionException
+		{
+			return Numbers.parseDouble(from);
+		}
+	};
+
+	/**
+	 * Parses a {@code boolean} written as {@code true}, {@code false}, {@code 1} or {@code 0}. Whitespace around the
+	 * value is ignored.
+	 */
+	public static final ToBoolean ParseBoolean = new ToBoolean()
+	{
+		@Override
+		public boolean convert(CharSequence from) throws TypeConversionException
+		{
+			return Numbers.parseBoolean(from);
+		}
+	};
+
+	/**
+	 * Parses an ISO-8601 date-time with an offset, like {@code 2024-02-29T13:45:00.5+01:00} or
+	 * {@code 2024-02-29T12:45:00.5Z}, as an {@link Instant}. The seconds and the fraction are optional.
+	 */
+	public static final TypeConverter<CharSequence, Instant> IsoInstant = new TypeConverter<CharSequence, Instant>()
+	{
+		@Override
+		public Instant convert(CharSequence from) throws TypeConversionException
+		{
+			try
+			{
+				return IsoDateTime.parse(from, true, true).toInstant();
+			}
+			catch (DateTimeException e)
+			{
+				throw new TypeConversionException(e);
+			}
+		}
+	};
+
+	/**
+	 * Parses an ISO-8601 date-time with an offset, like {@code 2024-02-29T13:45:00+01:00}, as an
+	 * {@link OffsetDateTime}.
+	 */
+	public static final TypeConverter<CharSequence, OffsetDateTime> IsoOffsetDateTime = new TypeConverter<CharSequence, OffsetDateTime>()
+	{
+		@Override
+		public OffsetDateTime convert(CharSequence from) throws TypeConversionException
+		{
+			try
+			{
+				return IsoDateTime.parse(from, true, true).toOffsetDateTime();
+			}
+			catch (DateTimeException e)
+			{
+				throw new TypeConversionException(e);
+			}
+		}
+	};
+
+	/**
+	 * Parses an ISO-8601 date-time without an offset, like {@code 2024-02-29T13:45:00}, as a {@link LocalDateTime}.
+	 */
+	public static final TypeConverter<CharSequence, LocalDateTime> IsoLocalDateTime = new TypeConverter<CharSequence, LocalDateTime>()
+	{
+		@Override
+		public LocalDateTime convert(CharSequence from) throws TypeConversionException
+		{
+			try
+			{
+				return IsoDateTime.parse(from, true, false).toLocalDateTime();
+			}
+			catch (DateTimeException e)
+			{
+				throw new TypeConversionException(e);
+			}
+		}
+	};
+
+	/**
+	 * Parses an ISO-8601 date without an offset, like {@code 2024-02-29}, as a {@link LocalDate}.
+	 */
+	public static final TypeConverter<CharSequence, LocalDate> IsoLocalDate = new TypeConverter<CharSequence, LocalDate>()
+	{
+		@Override
+		public LocalDate convert(CharSequence from) throws TypeConversionException
+		{
+			try
+			{
+				return IsoDateTime.parse(from, false, false).toLocalDate();
+			}
+			catch (DateTimeException e)
+			{
+				throw new TypeConversionException(e);
+			}
+		}
+	};
+
+	/**
+	 * Parses an ISO-8601 date-time with an offset, like {@link #IsoInstant}, as milliseconds since the epoch, without
+	 * creating an {@link Instant}.
+	 */
+	public static final ToLong IsoEpochMillis = new ToLong()
+	{
+		@Override
+		public long convert(CharSequence from) throws TypeConversionException
+		{
+			return IsoDateTime.parse(from, true, true).epochMilli();
+		}
+	};
+
+	/**
+	 * Parses a decimal number of seconds since the epoch as an {@link Instant}.
+	 */
+	public static final TypeConverter<CharSequence, Instant> EpochSecondsToInstant = new TypeConverter<CharSequence, Instant>()
+	{
+		@Override
+		public Instant convert(CharSequence from) throws TypeConversionException
+		{
+			try
+			{
+				return Instant.ofEpochSecond(Numbers.parseLong(from));
+			}
+			catch (DateTimeException e)
+			{
+				throw new TypeConversionException(e);
+			}
+		}
+	};
+
+	/**
+	 * Parses a decimal number of milliseconds since the epoch as an {@link Instant}.
+	 */
+	public static final TypeConverter<CharSequence, Instant> EpochMillisToInstant = new TypeConverter<CharSequence, Instant>()
+	{
+		@Override
+		public Instant convert(CharSequence from) throws TypeConversionException
+		{
+			return Instant.ofEpochMilli(Numbers.parseLong(from));
+		}
+	};
+
 	public static final TypeConverter<String, Integer> StringToInt = new TypeConverter<String, Integer>()
 	{
 
@@ -0,0 +1,425 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Helper functions for scanning and decoding raw UTF-8 encoded XML.
+ * <p>
+ * Decoding works on raw character data as it appears in the document. Entity and character references, CDATA sections
+ * and line endings are resolved while decoding, so nothing has to be done to the data until it is actually needed.
+ */
+final class UTF8
+{
+	static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final byte[] CDATA_START = { '<', '!', '[', 'C', 'D', 'A', 'T', 'A', '[' };
+	private static final byte[] CDATA_END = { ']', ']', '>' };
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+	private UTF8()
+	{
+	}
+
+	static boolean isWhiteSpace(byte b)
+	{
+		return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+	}
+
+	/**
+	 * Find the first occurrence of {@code value} in {@code buffer} between {@code from} and {@code to}. Eight bytes are
+	 * tested at a time.
+	 *
+	 * @return the index of {@code value}, or -1 if it wasn't found
+	 */
+	static int indexOf(ByteBuffer buffer, int from, int to, byte value)
+	{
+		long pattern = ONES * (value & 0xFF);
+		boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+		int i = from;
+
+		for (; i + 8 <= to; i += 8)
+		{
+			long word = buffer.getLong(i) ^ pattern;
+			// Sets the high bit of every byte that is zero, i.e. every byte that matched. Unlike the usual
+			// (word - ONES) & ~word trick there are no false positives, so it works for both byte orders.
+			long found = ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+
+			if (found != 0)
+			{
+				int bit = bigEndian ? Long.numberOfLeadingZeros(found) : Long.numberOfTrailingZeros(found);
+				return i + (bit >>> 3);
+			}
+		}
+
+		for (; i < to; ++i)
+		{
+			if (buffer.get(i) == value)
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns true if the bytes at {@code index} start a CDATA section. At least 9 bytes must be available.
+	 */
+	static boolean isCDATAStart(ByteBuffer buffer, int index)
+	{
+		for (int i = 0; i < CDATA_START.length; ++i)
+		{
+			if (buffer.get(index + i) != CDATA_START[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copy bytes from a buffer to an array without changing the position of the buffer.
+	 */
+	static void copy(ByteBuffer buffer, int from, byte[] destination, int offset, int length)
+	{
+		if (buffer.hasArray())
+		{
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + from, destination, offset, length);
+		}
+		else
+		{
+			for (int i = 0; i < length; ++i)
+				destination[offset + i] = buffer.get(from + i);
+		}
+	}
+
+	/**
+	 * Decode a name, i.e. a string without any references.
+	 */
+	static String decodeName(ByteBuffer buffer, int from, int to)
+	{
+		int length = to - from;
+		char[] chars = new char[length];
+
+		// Most names are ASCII
+		for (int i = 0; i < length; ++i)
+		{
+			byte b = buffer.get(from + i);
+
+			if (b < 0)
+			{
+				byte[] bytes = new byte[length];
+				copy(buffer, from, bytes, 0, length);
+				return new String(bytes, CHARSET);
+			}
+
+			chars[i] = (char) b;
+		}
+
+		return new String(chars);
+	}
+
+	/**
+	 * Decode raw character data. References, CDATA sections and line endings are resolved.
+	 */
+	static String decodeText(byte[] data, int offset, int length)
+	{
+		int end = offset + length;
+
+		for (int i = offset; i < end; ++i)
+		{
+			byte b = data[i];
+
+			if (b == '&' || b == '\r' || b == '<')
+			{
+				byte[] resolved = new byte[length];
+				return new String(resolved, 0, resolve(data, offset, end, false, resolved), CHARSET);
+			}
+		}
+
+		return new String(data, offset, length, CHARSET);
+	}
+
+	/**
+	 * Decode a raw attribute value. References are resolved and white space characters are replaced by spaces.
+	 */
+	static String decodeAttribute(byte[] data, int offset, int length)
+	{
+		int end = offset + length;
+
+		for (int i = offset; i < end; ++i)
+		{
+			byte b = data[i];
+
+			if (b == '&' || b == '\r' || b == '\n' || b == '\t')
+			{
+				byte[] resolved = new byte[length];
+				return new String(resolved, 0, resolve(data, offset, end, true, resolved), CHARSET);
+			}
+		}
+
+		return new String(data, offset, length, CHARSET);
+	}
+
+	/**
+	 * Resolve references, CDATA sections and line endings in raw character data. The result is never longer than the
+	 * input.
+	 *
+	 * @return the number of bytes written to {@code out}
+	 */
+	private static int resolve(byte[] data, int offset, int end, boolean attribute, byte[] out)
+	{
+		int length = 0;
+		int i = offset;
+
+		while (i < end)
+		{
+			byte b = data[i];
+
+			if (b == '\r')
+			{
+				// Line endings are normalised to a single \n
+				out[length++] = attribute ? (byte) ' ' : (byte) '\n';
+				++i;
+
+				if (i < end && data[i] == '\n')
+					++i;
+			}
+			else if (attribute && (b == '\n' || b == '\t'))
+			{
+				out[length++] = ' ';
+				++i;
+			}
+			else if (b == '&')
+			{
+				int semicolon = i + 1;
+
+				while (semicolon < end && semicolon - i < 12 && data[semicolon] != ';')
+					++semicolon;
+
+				int code = semicolon < end && data[semicolon] == ';' ? reference(data, i + 1, semicolon) : -1;
+
+				if (code < 0)
+				{
+					// Unknown entities are kept as they are
+					out[length++] = b;
+					++i;
+				}
+				else
+				{
+					length = encode(code, out, length);
+					i = semicolon + 1;
+				}
+			}
+			else if (b == '<' && !attribute && startsWith(data, i, end, CDATA_START))
+			{
+				i += CDATA_START.length;
+
+				while (i < end && !startsWith(data, i, end, CDATA_END))
+				{
+					if (data[i] == '\r')
+					{
+						out[length++] = '\n';
+						++i;
+
+						if (i < end && data[i] == '\n')
+							++i;
+					}
+					else
+					{
+						out[length++] = data[i++];
+					}
+				}
+
+				i += CDATA_END.length;
+			}
+			else
+			{
+				out[length++] = b;
+				++i;
+			}
+		}
+
+		return length;
+	}
+
+	/**
+	 * Returns true if a byte of raw character data must be decoded, i.e. if it isn't an ASCII character that stands for
+	 * itself.
+	 */
+	private static boolean needsDecoding(byte b, boolean attribute)
+	{
+		return b < 0 || b == '&' || b == '\r' || (attribute ? b == '\n' || b == '\t' : b == '<');
+	}
+
+	/**
+	 * Returns a view of raw character data that doesn't need to be decoded.
+	 *
+	 * @param attribute true for an attribute value, false for text
+	 * @return the view, or null if the data must be decoded
+	 */
+	static CharSequence view(byte[] data, int offset, int length, boolean attribute)
+	{
+		int end = offset + length;
+
+		for (int i = offset; i < end; ++i)
+		{
+			if (needsDecoding(data[i], attribute))
+				return null;
+		}
+
+		return new AsciiSequence(data, offset, length);
+	}
+
+	/**
+	 * Compare raw character data with a string, without decoding the data as long as it only contains ASCII characters
+	 * that stand for themselves. The decoded data is never longer than the raw data.
+	 *
+	 * @param attribute true for an attribute value, false for text
+	 * @param prefix true to check if the data starts with {@code s}, false to check if it is equal to {@code s}
+	 * @return 1 if the data matches, 0 if it doesn't, or -1 if the data must be decoded to tell
+	 */
+	static int compare(byte[] data, int offset, int length, boolean attribute, CharSequence s, boolean prefix)
+	{
+		int count = s.length();
+
+		if (count > length)
+			return 0;
+
+		for (int i = 0; i < count; ++i)
+		{
+			byte b = data[offset + i];
+
+			if (needsDecoding(b, attribute))
+				return -1;
+
+			if (b != s.charAt(i))
+				return 0;
+		}
+
+		if (prefix || count == length)
+			return 1;
+
+		// The rest of the data could decode to nothing, e.g. an empty CDATA section
+		for (int i = offset + count; i < offset + length; ++i)
+		{
+			if (needsDecoding(data[i], attribute))
+				return -1;
+		}
+
+		return 0;
+	}
+
+	private static boolean startsWith(byte[] data, int offset, int end, byte[] prefix)
+	{
+		if (end - offset < prefix.length)
+			return false;
+
+		for (int i = 0; i < prefix.length; ++i)
+		{
+			if (data[offset + i] != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the code point of an entity or character reference, or -1 if it is unknown or malformed.
+	 *
+	 * @param from index of the first character after &amp;
+	 * @param to index of the semicolon
+	 */
+	static int reference(byte[] data, int from, int to)
+	{
+		int length = to - from;
+
+		if (length < 2)
+			return -1;
+
+		if (data[from] == '#')
+		{
+			int radix = 10;
+			int i = from + 1;
+
+			if (data[i] == 'x')
+			{
+				radix = 16;
+				++i;
+			}
+
+			if (i == to)
+				return -1;
+
+			int code = 0;
+
+			for (; i < to; ++i)
+			{
+				int digit = Character.digit(data[i], radix);
+
+				if (digit < 0 || code > 0x10FFFF)
+					return -1;
+
+				code = code * radix + digit;
+			}
+
+			return code <= 0x10FFFF ? code : -1;
+		}
+
+		if (length == 2 && data[from + 1] == 't')
+		{
+			if (data[from] == 'l')
+				return '<';
+			if (data[from] == 'g')
+				return '>';
+		}
+		else if (length == 3 && data[from] == 'a' && data[from + 1] == 'm' && data[from + 2] == 'p')
+		{
+			return '&';
+		}
+		else if (length == 4)
+		{
+			if (data[from] == 'q' && data[from + 1] == 'u' && data[from + 2] == 'o' && data[from + 3] == 't')
+				return '"';
+			if (data[from] == 'a' && data[from + 1] == 'p' && data[from + 2] == 'o' && data[from + 3] == 's')
+				return '\'';
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Write a code point as UTF-8.
+	 *
+	 * @return the new length of {@code out}
+	 */
+	private static int encode(int code, byte[] out, int length)
+	{
+		if (code < 0x80)
+		{
+			out[length++] = (byte) code;
+		}
+		else if (code < 0x800)
+		{
+			out[length++] = (byte) (0xC0 | (code >> 6));
+			out[length++] = (byte) (0x80 | (code & 0x3F));
+		}
+		else if (code < 0x10000)
+		{
+			out[length++] = (byte) (0xE0 | (code >> 12));
+			out[length++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+			out[length++] = (byte) (0x80 | (code & 0x3F));
+		}
+		else
+		{
+			out[length++] = (byte) (0xF0 | (code >> 18));
+			out[length++] = (byte) (0x80 | ((code >> 12) & 0x3F));
+			out[length++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+			out[length++] = (byte) (0x80 | (code & 0x3F));
+		}
+
+		return length;
+	}
+}
@@ -0,0 +1,404 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+
+/**
+ * An index of the byte offsets of the elements at a given depth of a UTF-8 encoded document, e.g. the records of a
+ * large data file. With the index, a parser can start at any indexed element without parsing anything before it.
+ * <p>
+ * Besides the offsets, the index holds the context that is needed to start parsing in the middle of the document: the
+ * ancestors of the indexed elements and the namespace bindings that are in scope. The context is stored once for each
+ * parent, so the index is small even for millions of elements. The index can be saved as a sidecar file next to the
+ * document, see {@link #load(Path, int, QName)}.
+ * <p>
+ * A parser that is opened at an indexed element behaves as if it had been moved there by calls to {@code next} and
+ * {@code down}, i.e. {@code next} returns the indexed element and {@code up} returns its parent. The rest of the
+ * document after the element can be parsed as usual.
+ */
+public class XMLIndex
+{
+	private static final int MAGIC = 0x4A584958;
+	private static final int VERSION = 1;
+
+	private long documentSize;
+	private int depth;
+	private QName elementName;
+
+	private long[] offsets = new long[1024];
+	private int size = 0;
+
+	/**
+	 * The index of the first element that each context applies to
+	 */
+	private int[] contextStarts = new int[16];
+	private List<ParserContext> contexts = new ArrayList<ParserContext>();
+
+	private XMLIndex(long documentSize, int depth, QName elementName)
+	{
+		this.documentSize = documentSize;
+		this.depth = depth;
+		this.elementName = elementName;
+	}
+
+	/**
+	 * Index all elements at a given depth.
+	 *
+	 * @param document a UTF-8 encoded document
+	 * @param depth the depth of the elements to index, where the root element is at depth 0
+	 * @return the index
+	 * @throws ParsingException
+	 * @throws IOException
+	 */
+	public static XMLIndex build(Path document, int depth) throws ParsingException, IOException
+	{
+		return build(document, depth, null);
+	}
+
+	/**
+	 * Index the elements with a given name at a given depth.
+	 *
+	 * @param document a UTF-8 encoded document
+	 * @param depth the depth of the elements to index, where the root element is at depth 0
+	 * @param elementName the name of the elements to index, or null to index all elements at the depth
+	 * @return the index
+	 * @throws ParsingException
+	 * @throws IOException
+	 */
+	public static XMLIndex build(Path document, int depth, QName elementName) throws ParsingException, IOException
+	{
+		XMLIndex index = new XMLIndex(Files.size(document), depth, elementName);
+		XMLParserUTF8 parser = XMLParsers.open(document);
+
+		try
+		{
+			index.scan(parser);
+		}
+		finally
+		{
+			parser.close();
+		}
+
+		return index;
+	}
+
+	/**
+	 * Returns the sidecar file that is used for the index of a document by {@link #load(Path, int, QName)}.
+	 */
+	public static Path getSidecar(Path document)
+	{
+		return document.resolveSibling(document.getFileName() + ".jxi");
+	}
+
+	/**
+	 * Read the index of a document from its sidecar file. If there is no sidecar file, or if it is out of date or was
+	 * built for other elements, the index is built and saved in the sidecar file.
+	 *
+	 * @param document a UTF-8 encoded document
+	 * @param depth the depth of the elements to index, where the root element is at depth 0
+	 * @param elementName the name of the elements to index, or null to index all elements at the depth
+	 * @return the index
+	 * @throws ParsingException
+	 * @throws IOException
+	 */
+	public static XMLIndex load(Path document, int depth, QName elementName) throws ParsingException, IOException
+	{
+		Path sidecar = getSidecar(document);
+
+		if (Files.exists(sidecar)
+				&& Files.getLastModifiedTime(sidecar).compareTo(Files.getLastModifiedTime(document)) >= 0)
+		{
+			XMLIndex index = read(sidecar);
+
+			if (index.documentSize == Files.size(document) && index.depth == depth
+					&& (elementName == null ? index.elementName == null : elementName.equals(index.elementName)))
+			{
+				return index;
+			}
+		}
+
+		XMLIndex index = build(document, depth, elementName);
+		index.write(sidecar);
+
+		return index;
+	}
+
+	/**
+	 * Walk through the document and add the elements at the indexed depth.
+	 */
+	private void scan(XMLParserUTF8 parser) throws ParsingException
+	{
+		boolean first = true;
+		Element e;
+
+		while ((e = parser.next()) != null)
+		{
+			if (e.isText())
+				continue;
+
+			if (parser.getLevel() == depth)
+			{
+				if (elementName == null || elementName.equals(e.getName()))
+				{
+					// The context is only needed for parents that have indexed children
+					if (first)
+					{
+						addContext(parser.getContext());
+						first = false;
+					}
+
+					add(parser.getElementOffset());
+				}
+			}
+			else if (e.hasChildren())
+			{
+				parser.down();
+				scan(parser);
+				parser.up();
+			}
+		}
+	}
+
+	private void add(long offset)
+	{
+		if (size == offsets.length)
+			offsets = Arrays.copyOf(offsets, 2 * size);
+
+		offsets[size++] = offset;
+	}
+
+	private void addContext(ParserContext context)
+	{
+		if (contexts.size() == contextStarts.length)
+			contextStarts = Arrays.copyOf(contextStarts, 2 * contexts.size());
+
+		contextStarts[contexts.size()] = size;
+		contexts.add(context);
+	}
+
+	/**
+	 * Returns the number of indexed elements.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the depth of the indexed elements.
+	 */
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	/**
+	 * Returns the name of the indexed elements, or null if all elements at the depth are indexed.
+	 */
+	public QName getElementName()
+	{
+		return elementName;
+	}
+
+	/**
+	 * Returns the offset in the document of the start tag of an indexed element.
+	 *
+	 * @param element the number of the element, starting at 0
+	 */
+	public long getOffset(int element)
+	{
+		if (element < 0 || element >= size)
+			throw new IndexOutOfBoundsException("Element " + element + " of " + size);
+
+		return offsets[element];
+	}
+
+	/**
+	 * Find the first indexed element that starts at or after an offset.
+	 *
+	 * @param offset offset in the document
+	 * @return the number of the element, or {@link #size()} if there is no such element
+	 */
+	public int find(long offset)
+	{
+		int i = Arrays.binarySearch(offsets, 0, size, offset);
+
+		return i >= 0 ? i : -i - 1;
+	}
+
+	/**
+	 * Open a parser at an indexed element.
+	 *
+	 * @param document the indexed document
+	 * @param element the number of the element, starting at 0
+	 * @return a parser that must be closed when it is no longer used
+	 * @throws ParsingException
+	 * @throws IOException if the document can't be read or has changed since it was indexed
+	 */
+	public XMLParserUTF8 open(Path document, int element) throws ParsingException, IOException
+	{
+		long offset = getOffset(element);
+
+		if (Files.size(document) != documentSize)
+			throw new IOException("The document " + document + " has changed since it was indexed");
+
+		int i = Arrays.binarySearch(contextStarts, 0, contexts.size(), element);
+		ParserContext context = contexts.get(i >= 0 ? i : -i - 2);
+
+		XMLParserUTF8 parser = XMLParsers.open(document);
+		parser.startAt(offset, context);
+
+		return parser;
+	}
+
+	/**
+	 * Open a parser at the first indexed element that starts at or after an offset.
+	 *
+	 * @param document the indexed document
+	 * @param offset offset in the document
+	 * @return a parser that must be closed when it is no longer used
+	 * @throws ParsingException
+	 * @throws IOException if the document can't be read or has changed since it was indexed
+	 */
+	public XMLParserUTF8 openAt(Path document, long offset) throws ParsingException, IOException
+	{
+		return open(document, find(offset));
+	}
+
+	/**
+	 * Save the index. Offsets are delta encoded, so the file is usually a few bytes per indexed element.
+	 *
+	 * @param file the index file
+	 * @throws IOException
+	 */
+	public void write(Path file) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(documentSize);
+			out.writeInt(depth);
+			out.writeBoolean(elementName != null);
+
+			if (elementName != null)
+				ParserContext.writeName(out, elementName);
+
+			out.writeInt(size);
+
+			long previous = 0;
+
+			for (int i = 0; i < size; ++i)
+			{
+				writeVarLong(out, offsets[i] - previous);
+				previous = offsets[i];
+			}
+
+			out.writeInt(contexts.size());
+
+			for (int i = 0; i < contexts.size(); ++i)
+			{
+				out.writeInt(contextStarts[i]);
+				contexts.get(i).write(out);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Read an index that was saved by {@link #write(Path)}.
+	 *
+	 * @param file the index file
+	 * @return the index
+	 * @throws IOException if the file can't be read or isn't an index file
+	 */
+	public static XMLIndex read(Path file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+
+		try
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(file + " is not an index file");
+
+			long documentSize = in.readLong();
+			int depth = in.readInt();
+			QName elementName = in.readBoolean() ? ParserContext.readName(in) : null;
+			XMLIndex index = new XMLIndex(documentSize, depth, elementName);
+
+			int size = in.readInt();
+			long offset = 0;
+
+			index.offsets = new long[Math.max(size, 1)];
+
+			for (int i = 0; i < size; ++i)
+			{
+				offset += readVarLong(in);
+				index.add(offset);
+			}
+
+			int contexts = in.readInt();
+
+			index.contextStarts = new int[Math.max(contexts, 1)];
+
+			for (int i = 0; i < contexts; ++i)
+			{
+				index.contextStarts[i] = in.readInt();
+				index.contexts.add(ParserContext.read(in));
+			}
+
+			return index;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static void writeVarLong(DataOutput out, long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInput in) throws IOException
+	{
+		long value = 0;
+
+		for (int shift = 0;; shift += 7)
+		{
+			byte b = in.readByte();
+			value |= (long) (b & 0x7F) << shift;
+
+			if (b >= 0)
+				return value;
+		}
+	}
+}
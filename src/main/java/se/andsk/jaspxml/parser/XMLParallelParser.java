@@ -0,0 +1,293 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.xml.namespace.QName;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.io.MappedFileByteSource;
+
+/**
+ * Parses the records of a single large document in parallel.
+ * <p>
+ * A record is an element with a given name at a given depth, e.g. the children of the root element in a file with
+ * millions of identical {@code <record>} elements. The part of the file that holds the records is split into byte
+ * ranges, and each range is parsed by its own {@link XMLParserUTF8} on a {@link ForkJoinPool}. A range starts at the
+ * first record start tag found in it and contains all records that start before the next range.
+ * <p>
+ * Ranges are found by searching for the raw record start tag, so this only works if the record tag doesn't appear in
+ * comments, CDATA sections or inside the records themselves. All records must have the same ancestors. The ancestors
+ * are read once from the start of the file, and their namespace declarations are propagated to every range.
+ */
+public class XMLParallelParser
+{
+	public static final long DEFAULT_RANGE_SIZE = 16 * 1024 * 1024;
+
+	private Path file;
+	private QName recordName;
+	private int depth;
+	private ForkJoinPool pool;
+	private long rangeSize;
+
+	/**
+	 * Create a parallel parser that uses the common pool, with ranges of {@link #DEFAULT_RANGE_SIZE} bytes.
+	 *
+	 * @param file a UTF-8 encoded document
+	 * @param recordName the name of the record elements
+	 * @param depth the depth of the record elements, where the root element is at depth 0
+	 */
+	public XMLParallelParser(Path file, QName recordName, int depth)
+	{
+		this(file, recordName, depth, ForkJoinPool.commonPool(), DEFAULT_RANGE_SIZE);
+	}
+
+	/**
+	 * @param file a UTF-8 encoded document
+	 * @param recordName the name of the record elements
+	 * @param depth the depth of the record elements, where the root element is at depth 0
+	 * @param pool the pool that parses the ranges
+	 * @param rangeSize the approximate number of bytes in each range
+	 */
+	public XMLParallelParser(Path file, QName recordName, int depth, ForkJoinPool pool, long rangeSize)
+	{
+		this.file = file;
+		this.recordName = recordName;
+		this.depth = depth;
+		this.pool = pool;
+		this.rangeSize = rangeSize;
+	}
+
+	/**
+	 * Parse all records. Each record is converted by {@code mapper} on one of the threads in the pool, and the results
+	 * are passed to {@code consumer} on the calling thread.
+	 * <p>
+	 * With ordered delivery the results are passed to the consumer in document order. Otherwise the results of a range
+	 * are delivered as soon as the range has been parsed, which uses less memory when some ranges are slower than
+	 * others.
+	 *
+	 * @param mapper converts records to results, must be thread safe
+	 * @param consumer receives the results
+	 * @param ordered true if the results should be delivered in document order
+	 * @throws ParsingException
+	 * @throws IOException
+	 */
+	public <T> void parse(final RecordMapper<T> mapper, RecordConsumer<? super T> consumer, boolean ordered)
+			throws ParsingException, IOException
+	{
+		final Start start = findFirstRecord();
+
+		if (start == null)
+			return;
+
+		long size = Files.size(file);
+		final List<Long> boundaries = new ArrayList<Long>();
+
+		boundaries.add(start.offset);
+
+		// There is only one root element, so then there is nothing to split
+		for (long offset = start.offset + rangeSize; offset < size && depth > 0; offset += rangeSize)
+			boundaries.add(offset);
+
+		boundaries.add(Long.MAX_VALUE);
+
+		// Only a limited number of ranges are parsed ahead of the consumer, to bound the memory use
+		int window = 2 * pool.getParallelism();
+		// Only unordered delivery takes the ranges from a completion queue, which would otherwise keep every result
+		CompletionService<List<T>> completion = ordered ? null : new ExecutorCompletionService<List<T>>(pool);
+		LinkedList<Future<List<T>>> pending = new LinkedList<Future<List<T>>>();
+		int submitted = 0;
+		int ranges = boundaries.size() - 1;
+
+		try
+		{
+			for (int delivered = 0; delivered < ranges; ++delivered)
+			{
+				while (submitted < ranges && submitted - delivered < window)
+				{
+					final int range = submitted++;
+
+					Callable<List<T>> task = new Callable<List<T>>()
+					{
+						@Override
+						public List<T> call() throws Exception
+						{
+							return parseRange(start, boundaries.get(range), boundaries.get(range + 1), range == 0,
+									mapper);
+						}
+					};
+
+					pending.add(ordered ? pool.submit(task) : completion.submit(task));
+				}
+
+				Future<List<T>> next;
+
+				if (ordered)
+				{
+					next = pending.removeFirst();
+				}
+				else
+				{
+					next = completion.take();
+					pending.remove(next);
+				}
+
+				for (T result : next.get())
+					consumer.accept(result);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new ParsingException(e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof ParsingException)
+				throw (ParsingException) e.getCause();
+			else if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			else if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+
+			throw new ParsingException(e);
+		}
+		finally
+		{
+			for (Future<List<T>> future : pending)
+				future.cancel(true);
+		}
+	}
+
+	/**
+	 * The position of the first record and the context that is needed to parse from it.
+	 */
+	private static class Start
+	{
+		long offset;
+		byte[] rawName;
+		ParserContext context;
+	}
+
+	/**
+	 * Parse the start of the document sequentially to find the first record.
+	 *
+	 * @return the start of the first record, or null if there are no records
+	 * @throws ParsingException
+	 * @throws IOException
+	 */
+	private Start findFirstRecord() throws ParsingException, IOException
+	{
+		XMLParserUTF8 parser = XMLParsers.open(file);
+
+		try
+		{
+			Element record = findFirstRecord(parser);
+
+			if (record == null)
+				return null;
+
+			Start start = new Start();
+			start.offset = parser.getElementOffset();
+			start.context = parser.getContext();
+
+			String prefix = record.getName().getPrefix();
+			String rawName = prefix.isEmpty() ? record.getName().getLocalPart() : prefix + ":"
+					+ record.getName().getLocalPart();
+			start.rawName = rawName.getBytes(UTF8.CHARSET);
+
+			return start;
+		}
+		finally
+		{
+			parser.close();
+		}
+	}
+
+	/**
+	 * Search the document depth first for the first record, without looking deeper than the record depth.
+	 */
+	private Element findFirstRecord(XMLParserUTF8 parser) throws ParsingException
+	{
+		Element e;
+
+		while ((e = parser.next()) != null)
+		{
+			if (e.isText())
+				continue;
+
+			if (parser.getLevel() == depth)
+			{
+				if (recordName.equals(e.getName()))
+					return e;
+			}
+			else if (e.hasChildren())
+			{
+				parser.down();
+				Element record = findFirstRecord(parser);
+
+				if (record != null)
+					return record;
+
+				parser.up();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Parse the records that start in a range.
+	 */
+	private <T> List<T> parseRange(Start start, long from, long to, boolean first, RecordMapper<T> mapper)
+			throws ParsingException, IOException
+	{
+		List<T> results = new ArrayList<T>();
+		XMLParserUTF8 parser = new XMLParserUTF8(new MappedFileByteSource(file));
+
+		try
+		{
+			parser.startAt(from, start.context);
+
+			if (!first && !parser.seekStartTag(start.rawName))
+				return results;
+
+			parser.stopAt(to, depth);
+
+			Element e;
+
+			while ((e = parser.next()) != null)
+			{
+				if (e.isText() || !recordName.equals(e.getName()))
+					continue;
+
+				T result = mapper.map(parser, e);
+
+				if (result != null)
+					results.add(result);
+
+				while (parser.getLevel() > depth)
+					parser.up();
+			}
+		}
+		finally
+		{
+			parser.close();
+		}
+
+		return results;
+	}
+}
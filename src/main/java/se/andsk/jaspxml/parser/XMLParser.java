@@ -3,6 +3,10 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 package se.andsk.jaspxml.parser;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import se.andsk.jaspxml.exceptions.ParsingException;
 
 /**
@@ -31,6 +35,104 @@ public interface XMLParser
 	 */
 	public Element next() throws ParsingException;
 
+	/**
+	 * Returns the element that the next call to {@code next} will return, without making it the current element. The
+	 * children of the current element are skipped, so it is not possible to call {@code down} after {@code peek} until
+	 * {@code next} has been called.
+	 * <p>
+	 * The default implementation throws {@link UnsupportedOperationException}.
+	 * 
+	 * @return the next element, or null if there are no more elements at this depth
+	 * @throws ParsingException
+	 */
+	public default Element peek() throws ParsingException
+	{
+		throw new UnsupportedOperationException("peek");
+	}
+
+	/**
+	 * Returns true if there are more elements at the current depth, i.e. if {@code peek} doesn't return null.
+	 * 
+	 * @return true if {@code next} will return an element
+	 * @throws ParsingException
+	 */
+	public default boolean hasNext() throws ParsingException
+	{
+		return peek() != null;
+	}
+
+	/**
+	 * Iterate up to {@code max} steps forward at the current level of the XML file, as if {@code next} had been called
+	 * repeatedly. If the batch is full, the last element that was added becomes the current element. Otherwise there
+	 * are no more elements at this depth, and the current element is null just as when {@code next} returns null.
+	 * 
+	 * @param max the maximum number of elements to read
+	 * @param batch the list that the elements are added to
+	 * @return the number of elements that were added, which is less than {@code max} only if there are no more elements
+	 *         at this depth
+	 * @throws ParsingException
+	 */
+	public default int nextBatch(int max, List<Element> batch) throws ParsingException
+	{
+		int count = 0;
+		Element element;
+
+		while (count < max && (element = next()) != null)
+		{
+			batch.add(element);
+			++count;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Iterate up to {@code max} steps forward at the current level of the XML file and read the children of each
+	 * element. For each element that is added to {@code batch}, a list of its children is added to {@code children}.
+	 * Only the children themselves are read, and their descendants are skipped. The current element is set as by
+	 * {@link #nextBatch(int, List)}, but it is not possible to step down into it since its children have been read.
+	 * 
+	 * @param max the maximum number of elements to read
+	 * @param batch the list that the elements are added to
+	 * @param children the list that the children of each element are added to
+	 * @return the number of elements that were added, which is less than {@code max} only if there are no more elements
+	 *         at this depth
+	 * @throws ParsingException
+	 */
+	public default int nextBatch(int max, List<Element> batch, List<List<Element>> children) throws ParsingException
+	{
+		int count = 0;
+		Element element;
+
+		while (count < max && (element = next()) != null)
+		{
+			List<Element> list;
+
+			if (element.hasChildren())
+			{
+				list = new ArrayList<Element>();
+				down();
+
+				Element child;
+
+				while ((child = next()) != null)
+					list.add(child);
+
+				up();
+			}
+			else
+			{
+				list = Collections.emptyList();
+			}
+
+			batch.add(element);
+			children.add(list);
+			++count;
+		}
+
+		return count;
+	}
+
 	/**
 	 * Returns the last element that was parsed using {@code next}. If there are no more elements available, or no
 	 * element has been parsed at the current depth, then it will return null.
@@ -64,4 +166,33 @@ public interface XMLParser
 	 * @throws ParsingException
 	 */
 	public int up() throws ParsingException;
+
+	/**
+	 * Only return the elements that are accepted by a filter. Other elements are skipped together with their children
+	 * without being created, so {@code next} returns the next accepted element at the current depth.
+	 * <p>
+	 * The default implementation only accepts null, and throws {@link UnsupportedOperationException} for a filter.
+	 * 
+	 * @param filter the filter, or null to return all elements
+	 */
+	public default void setFilter(ElementFilter filter)
+	{
+		if (filter != null)
+			throw new UnsupportedOperationException("setFilter");
+	}
+
+	/**
+	 * Use a name table for the names of elements and attributes. The names that are returned by the elements are then
+	 * the canonical instances from the table, and the IDs of the names are available from
+	 * {@link Element#getNameId()}. The table can be shared between parsers to get the same IDs everywhere.
+	 * <p>
+	 * The default implementation only accepts null, and throws {@link UnsupportedOperationException} for a table.
+	 * 
+	 * @param names the name table, or null to not use one
+	 */
+	public default void setNameTable(NameTable names)
+	{
+		if (names != null)
+			throw new UnsupportedOperationException("setNameTable");
+	}
 }
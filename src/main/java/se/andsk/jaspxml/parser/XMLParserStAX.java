@@ -5,8 +5,11 @@ package se.andsk.jaspxml.parser;
 
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
+import javax.xml.stream.Location;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.Attribute;
 import javax.xml.stream.events.Characters;
@@ -36,6 +39,19 @@ public class XMLParserStAX implements XMLParser
 	private LinkedList<ElementStAX> parseStack = new LinkedList<ElementStAX>();
 	private boolean canStepDown = false;
 
+	/**
+	 * The element that was read by {@code peek}, and whether it is possible to step down into it
+	 */
+	private ElementStAX peekedElement;
+	private boolean peekedCanStepDown = false;
+	private boolean hasPeeked = false;
+
+	private ElementFilter filter;
+	private NameTable names;
+
+	private long skippedElements = 0;
+	private long skippedBytes = 0;
+
 	public XMLParserStAX(XMLEventReader reader)
 	{
 		this.eventReader = reader;
@@ -119,22 +135,42 @@ public class XMLParserStAX implements XMLParser
 	{
 		try
 		{
+			if (currentDepth > targetDepth)
+				skipSubtrees();
+
 			while (true)
 			{
 				XMLEvent nextEvent = eventReader.peek();
 
 				if (nextEvent.isStartElement() || (nextEvent.isCharacters() && !nextEvent.asCharacters().isWhiteSpace()))
 				{
+					boolean isStart = nextEvent.isStartElement();
+
 					if(targetDepth == currentDepth)
 					{
-						if(!nextEvent.isCharacters())
+						if(isStart)
 							++currentDepth;
-						//Found what we were looking for
-						return true;
+
+						if (filter == null || (isStart ? filter.accepts(targetDepth, nextEvent.asStartElement()
+								.getName()) : filter.acceptsText()))
+						{
+							//Found what we were looking for
+							return true;
+						}
+
+						if (isStart)
+						{
+							// Skip the element without creating it
+							++skippedElements;
+							lastEvent = eventReader.nextEvent();
+							skipSubtrees();
+							continue;
+						}
 					}
-					
-					if(!nextEvent.isCharacters())
+					else if(isStart)
+					{
 						++currentDepth;
+					}
 				}
 				else if (nextEvent.isEndElement())
 				{
@@ -159,6 +195,73 @@ public class XMLParserStAX implements XMLParser
 		}
 	}
 
+	/**
+	 * Fast forward past the rest of the subtrees that the parser is inside, until it is back at the target depth. Only
+	 * start and end tags are inspected, character data is skipped without looking at it.
+	 * 
+	 * @throws XMLStreamException
+	 */
+	private void skipSubtrees() throws XMLStreamException
+	{
+		long startOffset = -1;
+
+		while (currentDepth > targetDepth)
+		{
+			XMLEvent nextEvent = eventReader.peek();
+			int eventType = nextEvent.getEventType();
+
+			if (startOffset < 0)
+				startOffset = nextEvent.getLocation().getCharacterOffset();
+
+			if (eventType == XMLStreamConstants.START_ELEMENT)
+			{
+				++currentDepth;
+				++skippedElements;
+			}
+			else if (eventType == XMLStreamConstants.END_ELEMENT)
+			{
+				--currentDepth;
+			}
+			else if (eventType == XMLStreamConstants.END_DOCUMENT)
+			{
+				break;
+			}
+
+			lastEvent = eventReader.nextEvent();
+		}
+
+		if (startOffset >= 0 && lastEvent != null)
+		{
+			Location location = lastEvent.getLocation();
+
+			if (location.getCharacterOffset() > startOffset)
+				skippedBytes += location.getCharacterOffset() - startOffset;
+		}
+	}
+
+	/**
+	 * Returns the number of elements that have been skipped without being parsed, i.e. all descendants of elements
+	 * whose children were never visited using {@code down}.
+	 * 
+	 * @return the number of skipped elements
+	 */
+	public long getSkippedElements()
+	{
+		return skippedElements;
+	}
+
+	/**
+	 * Returns the size of the content that has been skipped without being parsed. The size is measured using the
+	 * character offsets reported by the underlying reader, which for most StAX implementations counts characters
+	 * rather than bytes.
+	 * 
+	 * @return the size of the skipped content
+	 */
+	public long getSkippedBytes()
+	{
+		return skippedBytes;
+	}
+
 	@Override
 	public int getDepth()
 	{
@@ -173,6 +276,42 @@ public class XMLParserStAX implements XMLParser
 	
 	@Override
 	public Element next() throws ParsingException
+	{
+		if (hasPeeked)
+		{
+			hasPeeked = false;
+			currentElement = peekedElement;
+			canStepDown = peekedCanStepDown;
+
+			return currentElement;
+		}
+
+		return read();
+	}
+
+	@Override
+	public Element peek() throws ParsingException
+	{
+		if (!hasPeeked)
+		{
+			// The element is read as usual, but the current element is kept until next is called
+			ElementStAX current = currentElement;
+
+			peekedElement = read();
+			peekedCanStepDown = canStepDown;
+			hasPeeked = true;
+
+			currentElement = current;
+			canStepDown = false;
+		}
+
+		return peekedElement;
+	}
+
+	/**
+	 * Read the next element at the current depth.
+	 */
+	private ElementStAX read() throws ParsingException
 	{
 		canStepDown = false;
 		
@@ -213,6 +352,10 @@ public class XMLParserStAX implements XMLParser
 		@SuppressWarnings("unchecked")
 		ElementStAX element = new ElementStAX(start.getName(), (Iterator<Attribute>) start.getAttributes(),
 				hasChildren);
+
+		if (names != null)
+			element.useNames(names);
+
 		currentElement = element;
 
 		return currentElement;
@@ -259,8 +402,23 @@ public class XMLParserStAX implements XMLParser
 			currentElement = parseStack.pop();
 			--targetDepth;
 
+			// A peeked element is skipped like any other sibling
+			hasPeeked = false;
+
 			canStepDown = false;
 		}
 		return parseStack.size();
 	}
+
+	@Override
+	public void setFilter(ElementFilter filter)
+	{
+		this.filter = filter;
+	}
+
+	@Override
+	public void setNameTable(NameTable names)
+	{
+		this.names = names;
+	}
 }
@@ -0,0 +1,568 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import se.andsk.jaspxml.exceptions.InvalidParseCommandException;
+import se.andsk.jaspxml.exceptions.ParsingException;
+
+/**
+ * A StAX based implementation of JaspXML that uses the cursor API ({@link XMLStreamReader}) instead of the event API.
+ * <p>
+ * It behaves exactly like {@link XMLParserStAX}, but no event objects are created while stepping through the document.
+ * Objects are only allocated for the elements that are returned by {@code next}, which makes it considerably cheaper
+ * when large parts of a document are skipped.
+ * <p>
+ * The reader is always positioned on the next unconsumed event, i.e. the event that {@link XMLParserStAX} would get
+ * from {@code peek}.
+ */
+public class XMLParserStAXCursor implements XMLParser
+{
+	private int currentDepth = 0;
+	private int targetDepth = 0;
+
+	private ElementStAX currentElement;
+
+	private XMLStreamReader reader;
+
+	private LinkedList<ElementStAX> parseStack = new LinkedList<ElementStAX>();
+	private boolean canStepDown = false;
+
+	/**
+	 * The element that was read by {@code peek}, and whether it is possible to step down into it
+	 */
+	private ElementStAX peekedElement;
+	private boolean peekedCanStepDown = false;
+	private boolean hasPeeked = false;
+
+	private ElementFilter filter;
+	private NameTable names;
+
+	private long skippedElements = 0;
+	private long skippedBytes = 0;
+
+	/**
+	 * The reused elements, two for each depth so that an element can be peeked while the current element is kept
+	 */
+	private ElementStAX[] reusedElements;
+
+	public XMLParserStAXCursor(XMLStreamReader reader)
+	{
+		this.reader = reader;
+	}
+
+	/**
+	 * Returns true if the event type is character data of any kind.
+	 */
+	private static boolean isCharacters(int eventType)
+	{
+		return eventType == XMLStreamConstants.CHARACTERS || eventType == XMLStreamConstants.CDATA
+				|| eventType == XMLStreamConstants.SPACE;
+	}
+
+	/**
+	 * Consume the event that the reader is positioned on.
+	 *
+	 * @throws XMLStreamException
+	 */
+	private void consume() throws XMLStreamException
+	{
+		if (reader.hasNext())
+			reader.next();
+	}
+
+	/**
+	 * Check if the current element has any child elements. The start element must already have been consumed.
+	 *
+	 * @return True if the current element has children.
+	 * @throws ParsingException
+	 */
+	private boolean checkForChildren() throws ParsingException
+	{
+		int eventType;
+		try
+		{
+			while (true)
+			{
+				eventType = reader.getEventType();
+
+				if (isCharacters(eventType))
+				{
+					// Ignore empty content
+					if (reader.isWhiteSpace())
+					{
+						consume();
+					}
+					else
+					{
+						// The next element is text.
+						return true;
+					}
+				}
+				else
+				{
+					// Found something that isn't text.
+					break;
+				}
+			}
+		}
+		catch (XMLStreamException exception)
+		{
+			throw new ParsingException(exception);
+		}
+
+		// If the next event is an end event, then the current element is empty. Otherwise there is at least one
+		// child element.
+		return eventType != XMLStreamConstants.END_ELEMENT;
+	}
+
+	/**
+	 * Step forward to the next element at the target depth
+	 *
+	 * @throws ParsingException
+	 */
+	private boolean stepForward() throws ParsingException
+	{
+		try
+		{
+			if (currentDepth > targetDepth)
+				skipSubtrees();
+
+			while (true)
+			{
+				int eventType = reader.getEventType();
+
+				if (eventType == XMLStreamConstants.START_ELEMENT
+						|| (isCharacters(eventType) && !reader.isWhiteSpace()))
+				{
+					boolean isStart = eventType == XMLStreamConstants.START_ELEMENT;
+
+					if (targetDepth == currentDepth)
+					{
+						if (isStart)
+							++currentDepth;
+
+						if (filter == null || (isStart ? filter.accepts(targetDepth, reader.getName())
+								: filter.acceptsText()))
+						{
+							// Found what we were looking for
+							return true;
+						}
+
+						if (isStart)
+						{
+							// Skip the element without creating it
+							++skippedElements;
+							consume();
+							skipSubtrees();
+							continue;
+						}
+					}
+					else if (isStart)
+					{
+						++currentDepth;
+					}
+				}
+				else if (eventType == XMLStreamConstants.END_ELEMENT)
+				{
+					if (currentDepth == targetDepth)
+					{
+						return false;
+					}
+
+					--currentDepth;
+				}
+				else if (eventType == XMLStreamConstants.END_DOCUMENT)
+				{
+					return false;
+				}
+
+				consume();
+			}
+		}
+		catch (XMLStreamException e)
+		{
+			throw new ParsingException(e);
+		}
+	}
+
+	/**
+	 * Fast forward past the rest of the subtrees that the parser is inside, until it is back at the target depth. Only
+	 * start and end tags are counted, character data is skipped without looking at it.
+	 * 
+	 * @throws XMLStreamException
+	 */
+	private void skipSubtrees() throws XMLStreamException
+	{
+		int startOffset = reader.getLocation().getCharacterOffset();
+
+		while (currentDepth > targetDepth)
+		{
+			int eventType = reader.getEventType();
+
+			if (eventType == XMLStreamConstants.START_ELEMENT)
+			{
+				++currentDepth;
+				++skippedElements;
+			}
+			else if (eventType == XMLStreamConstants.END_ELEMENT)
+			{
+				--currentDepth;
+			}
+			else if (eventType == XMLStreamConstants.END_DOCUMENT)
+			{
+				break;
+			}
+
+			consume();
+		}
+
+		int endOffset = reader.getLocation().getCharacterOffset();
+
+		if (startOffset >= 0 && endOffset > startOffset)
+			skippedBytes += endOffset - startOffset;
+	}
+
+	/**
+	 * Returns the number of elements that have been skipped without being parsed, i.e. all descendants of elements
+	 * whose children were never visited using {@code down}.
+	 * 
+	 * @return the number of skipped elements
+	 */
+	public long getSkippedElements()
+	{
+		return skippedElements;
+	}
+
+	/**
+	 * Returns the size of the content that has been skipped without being parsed. The size is measured using the
+	 * character offsets reported by the underlying reader, which for most StAX implementations counts characters
+	 * rather than bytes.
+	 * 
+	 * @return the size of the skipped content
+	 */
+	public long getSkippedBytes()
+	{
+		return skippedBytes;
+	}
+
+	/**
+	 * Reuse the same element objects instead of creating a new element for each call to {@code next}. An element is
+	 * then only valid until the following call to {@code next} or {@code peek} at the same depth, after which it may be
+	 * overwritten, and {@link Element#snapshot()} must be used to keep it. The ancestors of the current element are not
+	 * overwritten until the parser has moved up past them. Elements that are added to lists by {@code nextBatch} are
+	 * always snapshots.
+	 * <p>
+	 * This avoids allocating an element and its attribute map for every element that is read.
+	 * 
+	 * @param reuse true to reuse elements
+	 */
+	public void setReuseElements(boolean reuse)
+	{
+		reusedElements = reuse ? new ElementStAX[16] : null;
+	}
+
+	/**
+	 * Returns the element to overwrite with the next element at the target depth, which is never the current element.
+	 */
+	private ElementStAX reusedElement()
+	{
+		int index = 2 * targetDepth;
+
+		if (index + 1 >= reusedElements.length)
+			reusedElements = Arrays.copyOf(reusedElements, 2 * (index + 2));
+
+		if (currentElement != null && reusedElements[index] == currentElement)
+			++index;
+
+		if (reusedElements[index] == null)
+			reusedElements[index] = new ElementStAX();
+
+		return reusedElements[index];
+	}
+
+	/**
+	 * Returns an element that can be kept by the caller.
+	 */
+	private Element keep(Element element)
+	{
+		return reusedElements != null ? element.snapshot() : element;
+	}
+
+	@Override
+	public int getDepth()
+	{
+		return currentDepth;
+	}
+
+	@Override
+	public Element getElement()
+	{
+		return currentElement;
+	}
+
+	@Override
+	public Element next() throws ParsingException
+	{
+		if (hasPeeked)
+		{
+			hasPeeked = false;
+			currentElement = peekedElement;
+			canStepDown = peekedCanStepDown;
+
+			return currentElement;
+		}
+
+		return read();
+	}
+
+	@Override
+	public Element peek() throws ParsingException
+	{
+		if (!hasPeeked)
+		{
+			// The element is read as usual, but the current element is kept until next is called
+			ElementStAX current = currentElement;
+
+			peekedElement = read();
+			peekedCanStepDown = canStepDown;
+			hasPeeked = true;
+
+			currentElement = current;
+			canStepDown = false;
+		}
+
+		return peekedElement;
+	}
+
+	/**
+	 * Read the next element at the current depth.
+	 */
+	private ElementStAX read() throws ParsingException
+	{
+		canStepDown = false;
+
+		if (!stepForward())
+		{
+			currentElement = null;
+			return null;
+		}
+
+		int eventType = reader.getEventType();
+
+		if (eventType == XMLStreamConstants.START_ELEMENT)
+		{
+			return createElement();
+		}
+		else if (isCharacters(eventType))
+		{
+			return createTextElement();
+		}
+
+		Location location = reader.getLocation();
+		throw new Error("Parser reached bad state! " + location.getLineNumber() + ":" + location.getColumnNumber());
+	}
+
+	@Override
+	public int nextBatch(int max, List<Element> batch) throws ParsingException
+	{
+		int count = 0;
+		Element element;
+
+		while (count < max && (element = next()) != null)
+		{
+			batch.add(keep(element));
+			++count;
+		}
+
+		return count;
+	}
+
+	@Override
+	public int nextBatch(int max, List<Element> batch, List<List<Element>> children) throws ParsingException
+	{
+		int count = 0;
+		Element element;
+
+		while (count < max && (element = next()) != null)
+		{
+			List<Element> list;
+
+			if (canStepDown)
+			{
+				list = new ArrayList<Element>();
+				down();
+
+				Element child;
+
+				while ((child = next()) != null)
+					list.add(keep(child));
+
+				up();
+			}
+			else
+			{
+				list = Collections.emptyList();
+			}
+
+			batch.add(keep(element));
+			children.add(list);
+			++count;
+		}
+
+		return count;
+	}
+
+	private ElementStAX createElement() throws ParsingException
+	{
+		// The name and attributes are only available while the reader is positioned on the start element
+		QName name = reader.getName();
+		int count = reader.getAttributeCount();
+		ElementStAX element = null;
+		QName[] attributeNames = null;
+		String[] attributeValues = null;
+
+		if (reusedElements != null)
+		{
+			element = reusedElement();
+			element.setElement(name, false);
+
+			if (names != null)
+				element.useNames(names);
+
+			for (int i = 0; i < count; ++i)
+				element.putAttribute(reader.getAttributeName(i), reader.getAttributeValue(i));
+		}
+		else
+		{
+			attributeNames = new QName[count];
+			attributeValues = new String[count];
+
+			for (int i = 0; i < count; ++i)
+			{
+				attributeNames[i] = reader.getAttributeName(i);
+				attributeValues[i] = reader.getAttributeValue(i);
+			}
+		}
+
+		try
+		{
+			consume();
+		}
+		catch (XMLStreamException e)
+		{
+			throw new ParsingException(e);
+		}
+
+		boolean hasChildren = checkForChildren();
+
+		if (hasChildren)
+			canStepDown = true;
+
+		if (element != null)
+			element.setHasChildren(hasChildren);
+		else
+		{
+			element = new ElementStAX(name, attributeNames, attributeValues, hasChildren);
+
+			if (names != null)
+				element.useNames(names);
+		}
+
+		currentElement = element;
+
+		return currentElement;
+	}
+
+	private ElementStAX createTextElement() throws ParsingException
+	{
+		String text = reader.getText();
+
+		try
+		{
+			consume();
+		}
+		catch (XMLStreamException e)
+		{
+			throw new ParsingException(e);
+		}
+
+		if (reusedElements != null)
+		{
+			ElementStAX element = reusedElement();
+			element.setText(text);
+			currentElement = element;
+		}
+		else
+		{
+			currentElement = new ElementStAX(text);
+		}
+
+		return currentElement;
+	}
+
+	@Override
+	public int down() throws ParsingException
+	{
+		if (!canStepDown)
+		{
+			Location location = reader.getLocation();
+			throw new InvalidParseCommandException("Can't step down. Element " + currentElement.getName()
+					+ " does not have any unparsed child elements", location.getLineNumber(),
+					location.getColumnNumber());
+		}
+
+		// Add the current element to the stack, then tell the parser that it should parse the children of this element
+		// next time.
+		parseStack.push(currentElement);
+		++targetDepth;
+		currentElement = null;
+
+		canStepDown = false;
+
+		return parseStack.size();
+	}
+
+	@Override
+	public int up() throws ParsingException
+	{
+		// In case stepUp is called too many times
+		if (!parseStack.isEmpty())
+		{
+			// Restore the last element (i.e. the parent of the current element), then tell the parser that it should
+			// parse the siblings of the parent next time.
+			currentElement = parseStack.pop();
+			--targetDepth;
+
+			// A peeked element is skipped like any other sibling
+			hasPeeked = false;
+
+			canStepDown = false;
+		}
+		return parseStack.size();
+	}
+
+	@Override
+	public void setFilter(ElementFilter filter)
+	{
+		this.filter = filter;
+	}
+
+	@Override
+	public void setNameTable(NameTable names)
+	{
+		this.names = names;
+	}
+}
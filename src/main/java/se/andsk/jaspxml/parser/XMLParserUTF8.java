@@ -0,0 +1,1855 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import se.andsk.jaspxml.exceptions.InvalidParseCommandException;
+import se.andsk.jaspxml.exceptions.NeedMoreInputException;
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.io.ByteBufferByteSource;
+import se.andsk.jaspxml.io.ByteSource;
+import se.andsk.jaspxml.io.InputStreamByteSource;
+
+/**
+ * An implementation of JaspXML with its own tokenizer that works directly on UTF-8 encoded bytes, without StAX.
+ * <p>
+ * Since JaspXML only moves forward and never has to report more than the current element, the tokenizer can be much
+ * simpler than a full StAX parser. Subtrees that are skipped are only scanned for tag boundaries, attributes are
+ * located in place and only the elements that are returned by {@code next} are decoded. Entities and references in
+ * attribute values and text are decoded the first time the value is requested.
+ * <p>
+ * The navigation behaves exactly like {@link XMLParserStAX} with a coalescing reader, i.e. adjacent text, references
+ * and CDATA sections are returned as a single text element. Only UTF-8 (and thus ASCII) encoded documents are
+ * supported. The document is not validated and DTDs are skipped, so entities declared in a DTD are kept as they are.
+ * Errors that don't interfere with the parsing are ignored, in the same way as for the StAX implementation.
+ */
+public class XMLParserUTF8 implements XMLParser, Closeable
+{
+	private static final byte[] COMMENT_END = { '-', '-', '>' };
+	private static final byte[] PI_END = { '?', '>' };
+	private static final byte[] CDATA_END = { ']', ']', '>' };
+	private static final byte[] NO_DATA = new byte[0];
+
+	private int currentDepth = 0;
+	private int targetDepth = 0;
+
+	private ElementUTF8 currentElement;
+
+	private LinkedList<ElementUTF8> parseStack = new LinkedList<ElementUTF8>();
+	private boolean canStepDown = false;
+
+	/**
+	 * The element that was read by {@code peek}, and whether it is possible to step down into it
+	 */
+	private ElementUTF8 peekedElement;
+	private boolean peekedCanStepDown = false;
+	private boolean hasPeeked = false;
+
+	private long skippedElements = 0;
+	private long skippedBytes = 0;
+
+	private ByteSource source;
+
+	/**
+	 * Window of the document. Index 0 is byte {@code base} of the document.
+	 */
+	private ByteBuffer buffer;
+	private long base = 0;
+	private int limit = 0;
+	private boolean endOfInput = false;
+
+	/**
+	 * Index of the next unconsumed byte
+	 */
+	private int pos = 0;
+
+	private boolean started = false;
+
+	private ElementFilter filter;
+	private NameTable names;
+
+	/**
+	 * Nothing that starts at or after {@code stopOffset} is returned at depth {@code stopDepth}.
+	 */
+	private long stopOffset = Long.MAX_VALUE;
+	private int stopDepth = -1;
+
+	/**
+	 * Offset in the document of the start of the current element
+	 */
+	private long elementOffset = -1;
+
+	/**
+	 * True if the last start tag was an empty element tag, i.e. there is an end tag that hasn't been consumed yet.
+	 */
+	private boolean pendingEnd = false;
+
+	/**
+	 * True if the parser stopped at a text node rather than at a start tag.
+	 */
+	private boolean atText = false;
+
+	/**
+	 * True if {@code read} should stream a text element instead of creating it, and the reader that streams the
+	 * current text, or null
+	 */
+	private boolean streamText = false;
+	private TextReader textReader;
+
+	/**
+	 * Namespace bindings in scope. The bindings for the children of an element at depth d are the ones before
+	 * {@code namespaceMarks[d + 1]}.
+	 */
+	private String[] namespacePrefixes = new String[8];
+	private String[] namespaceURIs = new String[8];
+	private int namespaceCount = 0;
+	private int[] namespaceMarks = new int[16];
+
+	/**
+	 * Start and end of the names and values of the attributes of the current start tag, relative to the start of the
+	 * tag.
+	 */
+	private int[] attributeBounds = new int[32];
+	private int attributeCount = 0;
+	private int nameLength = 0;
+
+	public XMLParserUTF8(ByteSource source)
+	{
+		this.source = source;
+	}
+
+	public XMLParserUTF8(InputStream in)
+	{
+		this(new InputStreamByteSource(in));
+	}
+
+	public XMLParserUTF8(ByteBuffer document)
+	{
+		this(new ByteBufferByteSource(document));
+	}
+
+	/**
+	 * Read more input. The bytes before index {@code keep} may be discarded, and all indices are moved down by the
+	 * returned amount. Check {@code limit} to see if any more bytes were made available.
+	 *
+	 * @return the number of positions that indices have moved
+	 * @throws ParsingException
+	 */
+	private int fill(int keep) throws ParsingException
+	{
+		if (endOfInput)
+			return 0;
+
+		int available = limit - keep;
+
+		try
+		{
+			buffer = source.read(base + keep, available);
+		}
+		catch (IOException e)
+		{
+			throw new ParsingException(e);
+		}
+
+		base += keep;
+		limit = buffer.limit();
+		pos -= keep;
+
+		if (limit <= available)
+		{
+			if (!source.isFinished())
+				throw new NeedMoreInputException(base + limit);
+
+			endOfInput = true;
+		}
+
+		return keep;
+	}
+
+	/**
+	 * Make sure that index {@code i} can be read, while keeping all bytes from {@code pos}.
+	 *
+	 * @return the index, which may have moved, or -1 if the end of the input was reached
+	 * @throws ParsingException
+	 */
+	private int need(int i) throws ParsingException
+	{
+		while (i >= limit)
+		{
+			if (endOfInput)
+				return -1;
+
+			i -= fill(pos);
+		}
+		return i;
+	}
+
+	/**
+	 * Make sure that index {@code i} can be read, while keeping all bytes from {@code pos}.
+	 *
+	 * @return the index, which may have moved
+	 * @throws ParsingException if the end of the input was reached
+	 */
+	private int require(int i) throws ParsingException
+	{
+		i = need(i);
+
+		if (i < 0)
+			throw new ParsingException("Unexpected end of document", base + limit);
+
+		return i;
+	}
+
+	/**
+	 * Returns true if at least {@code count} bytes are available from {@code pos}.
+	 *
+	 * @throws ParsingException
+	 */
+	private boolean request(int count) throws ParsingException
+	{
+		return need(pos + count - 1) >= 0;
+	}
+
+	/**
+	 * Move {@code pos} to the next occurrence of {@code value}, discarding everything before it.
+	 *
+	 * @return false if the end of the input was reached
+	 * @throws ParsingException
+	 */
+	private boolean seek(byte value) throws ParsingException
+	{
+		while (true)
+		{
+			int i = UTF8.indexOf(buffer, pos, limit, value);
+
+			if (i >= 0)
+			{
+				pos = i;
+				return true;
+			}
+
+			pos = limit;
+
+			if (endOfInput)
+				return false;
+
+			fill(pos);
+		}
+	}
+
+	/**
+	 * Move {@code pos} past the next occurrence of {@code terminator}.
+	 *
+	 * @throws ParsingException if the end of the input was reached
+	 */
+	private void skipPast(byte[] terminator) throws ParsingException
+	{
+		while (seek(terminator[0]))
+		{
+			if (!request(terminator.length))
+				break;
+
+			boolean found = true;
+
+			for (int i = 1; i < terminator.length && found; ++i)
+				found = buffer.get(pos + i) == terminator[i];
+
+			if (found)
+			{
+				pos += terminator.length;
+				return;
+			}
+
+			++pos;
+		}
+
+		throw new ParsingException("Unexpected end of document", base + pos);
+	}
+
+	/**
+	 * Skip a tag starting at {@code pos}.
+	 *
+	 * @return true if the tag was an empty element tag
+	 * @throws ParsingException
+	 */
+	private boolean skipTag() throws ParsingException
+	{
+		byte quote = 0;
+		byte previous = 0;
+		int i = pos + 1;
+
+		while (true)
+		{
+			if (i >= limit)
+			{
+				pos = i;
+				i = require(i);
+			}
+
+			byte b = buffer.get(i++);
+
+			if (quote != 0)
+			{
+				if (b == quote)
+					quote = 0;
+			}
+			else if (b == '"' || b == '\'')
+			{
+				quote = b;
+			}
+			else if (b == '>')
+			{
+				pos = i;
+				return previous == '/';
+			}
+
+			previous = b;
+		}
+	}
+
+	/**
+	 * Skip a markup declaration (a comment, a CDATA section or a DTD) starting at {@code pos}.
+	 *
+	 * @throws ParsingException
+	 */
+	private void skipDeclaration() throws ParsingException
+	{
+		if (request(4) && buffer.get(pos + 2) == '-' && buffer.get(pos + 3) == '-')
+		{
+			pos += 4;
+			skipPast(COMMENT_END);
+		}
+		else if (request(9) && UTF8.isCDATAStart(buffer, pos))
+		{
+			pos += 9;
+			skipPast(CDATA_END);
+		}
+		else
+		{
+			// A DTD, possibly with an internal subset that may contain '>'
+			byte quote = 0;
+			int brackets = 0;
+
+			while (true)
+			{
+				pos = require(pos);
+				byte b = buffer.get(pos++);
+
+				if (quote != 0)
+				{
+					if (b == quote)
+						quote = 0;
+				}
+				else if (b == '"' || b == '\'')
+				{
+					quote = b;
+				}
+				else if (b == '[')
+				{
+					++brackets;
+				}
+				else if (b == ']')
+				{
+					--brackets;
+				}
+				else if (b == '>' && brackets <= 0)
+				{
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handle the byte order mark and the XML declaration.
+	 *
+	 * @throws ParsingException
+	 */
+	private void start() throws ParsingException
+	{
+		started = true;
+
+		if (request(2))
+		{
+			int b0 = buffer.get(pos) & 0xFF;
+			int b1 = buffer.get(pos + 1) & 0xFF;
+
+			if ((b0 == 0xFE && b1 == 0xFF) || (b0 == 0xFF && b1 == 0xFE) || b0 == 0 || b1 == 0)
+				throw new ParsingException("Only UTF-8 encoded documents are supported", base + pos);
+
+			if (b0 == 0xEF && request(3))
+				pos += 3;
+		}
+
+		if (!request(6) || buffer.get(pos) != '<' || buffer.get(pos + 1) != '?' || buffer.get(pos + 2) != 'x'
+				|| buffer.get(pos + 3) != 'm' || buffer.get(pos + 4) != 'l' || !UTF8.isWhiteSpace(buffer.get(pos + 5)))
+		{
+			return;
+		}
+
+		int end = pos;
+
+		while (true)
+		{
+			end = require(end);
+
+			if (buffer.get(end) == '>')
+				break;
+
+			++end;
+		}
+
+		String declaration = UTF8.decodeName(buffer, pos, end);
+		int index = declaration.indexOf("encoding");
+
+		if (index >= 0)
+		{
+			int open = index + 8;
+
+			while (open < declaration.length() && declaration.charAt(open) != '"' && declaration.charAt(open) != '\'')
+				++open;
+
+			int close = open + 1 < declaration.length() ? declaration.indexOf(declaration.charAt(open), open + 1) : -1;
+
+			if (close > open)
+			{
+				String encoding = declaration.substring(open + 1, close);
+
+				if (!encoding.equalsIgnoreCase("UTF-8") && !encoding.equalsIgnoreCase("UTF8")
+						&& !encoding.equalsIgnoreCase("US-ASCII") && !encoding.equalsIgnoreCase("ASCII"))
+				{
+					throw new ParsingException("Unsupported encoding " + encoding, base + pos);
+				}
+			}
+		}
+
+		pos = end + 1;
+	}
+
+	/**
+	 * Returns the byte at {@code pos + offset}, reading more input if needed. All bytes from {@code pos} are kept, so
+	 * offsets relative to {@code pos} stay valid even if the buffer is refilled.
+	 *
+	 * @throws ParsingException if the end of the input was reached
+	 */
+	private byte peek(int offset) throws ParsingException
+	{
+		int i = pos + offset;
+
+		if (i >= limit)
+			i = require(i);
+
+		return buffer.get(i);
+	}
+
+	/**
+	 * Returns true if there is a CDATA section at {@code pos + offset}.
+	 *
+	 * @throws ParsingException
+	 */
+	private boolean isCDATAStart(int offset) throws ParsingException
+	{
+		// Check the second byte first, so that no more input than necessary is needed for other markup
+		int i = need(pos + offset + 1);
+
+		return i >= 0 && buffer.get(i) == '!' && need(pos + offset + 8) >= 0 && UTF8.isCDATAStart(buffer, pos + offset);
+	}
+
+	/**
+	 * Returns the length of the CDATA section at {@code pos + offset}.
+	 *
+	 * @throws ParsingException
+	 */
+	private int scanCDATA(int offset) throws ParsingException
+	{
+		int end = offset + 9;
+
+		while (peek(end) != ']' || peek(end + 1) != ']' || peek(end + 2) != '>')
+			++end;
+
+		return end + 3 - offset;
+	}
+
+	/**
+	 * Scan the character data starting at {@code pos}. White space, including CDATA sections with only white space,
+	 * is consumed. If any other character is found then {@code pos} is left at the start of the text.
+	 *
+	 * @return true if the text contains something other than white space
+	 * @throws ParsingException
+	 */
+	private boolean skipWhiteSpace() throws ParsingException
+	{
+		int offset = 0;
+
+		while (true)
+		{
+			if (need(pos + offset) < 0)
+			{
+				pos = limit;
+				return false;
+			}
+
+			byte b = buffer.get(pos + offset);
+
+			if (b == '<')
+			{
+				if (!isCDATAStart(offset))
+				{
+					pos += offset;
+					return false;
+				}
+
+				int end = offset + 9;
+
+				while (peek(end) != ']' || peek(end + 1) != ']' || peek(end + 2) != '>')
+				{
+					if (!UTF8.isWhiteSpace(buffer.get(pos + end)))
+						return true;
+
+					++end;
+				}
+
+				offset = end + 3;
+			}
+			else if (!UTF8.isWhiteSpace(b))
+			{
+				return true;
+			}
+			else
+			{
+				++offset;
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the end of the text starting at {@code pos}. The text ends at the first markup that isn't a
+	 * CDATA section.
+	 *
+	 * @throws ParsingException
+	 */
+	private int findTextEnd() throws ParsingException
+	{
+		int offset = 0;
+
+		while (true)
+		{
+			int lt = UTF8.indexOf(buffer, pos + offset, limit, (byte) '<');
+
+			if (lt < 0)
+			{
+				offset = limit - pos;
+
+				if (need(pos + offset) < 0)
+					return limit;
+
+				continue;
+			}
+
+			offset = lt - pos;
+
+			if (!isCDATAStart(offset))
+				return pos + offset;
+
+			offset += scanCDATA(offset);
+		}
+	}
+
+	/**
+	 * Fast forward past the rest of the subtrees that the parser is inside, until it is back at the target depth. Only
+	 * tags are scanned, character data is skipped by searching for the next '&lt;'.
+	 *
+	 * @throws ParsingException
+	 */
+	private void skipSubtrees() throws ParsingException
+	{
+		long start = base + pos;
+
+		while (currentDepth > targetDepth)
+		{
+			if (pendingEnd)
+			{
+				pendingEnd = false;
+				--currentDepth;
+				continue;
+			}
+
+			if (!seek((byte) '<'))
+				break;
+
+			byte b = peek(1);
+
+			if (b == '/')
+			{
+				--currentDepth;
+				skipTag();
+			}
+			else if (b == '!')
+			{
+				skipDeclaration();
+			}
+			else if (b == '?')
+			{
+				skipPast(PI_END);
+			}
+			else
+			{
+				++skippedElements;
+
+				if (!skipTag())
+					++currentDepth;
+			}
+		}
+
+		skippedBytes += base + pos - start;
+	}
+
+	/**
+	 * Step forward to the next element at the target depth
+	 *
+	 * @throws ParsingException
+	 */
+	private boolean stepForward() throws ParsingException
+	{
+		if (!started)
+			start();
+
+		if (currentDepth > targetDepth)
+			skipSubtrees();
+
+		while (true)
+		{
+			if (pendingEnd)
+			{
+				if (currentDepth == targetDepth)
+					return false;
+
+				pendingEnd = false;
+				--currentDepth;
+				continue;
+			}
+
+			if (!request(1))
+				return false;
+
+			boolean isText = buffer.get(pos) != '<';
+
+			if (!isText)
+			{
+				if (!request(2))
+					return false;
+
+				byte b = buffer.get(pos + 1);
+
+				if (b == '/')
+				{
+					if (currentDepth == targetDepth)
+						return false;
+
+					--currentDepth;
+					skipTag();
+					continue;
+				}
+				else if (b == '?')
+				{
+					skipPast(PI_END);
+					continue;
+				}
+				else if (b == '!')
+				{
+					if (!isCDATAStart(0))
+					{
+						skipDeclaration();
+						continue;
+					}
+
+					isText = true;
+				}
+			}
+
+			if (isText)
+			{
+				if (!skipWhiteSpace())
+					continue;
+
+				if (targetDepth == currentDepth)
+				{
+					if (isStopped())
+						return false;
+
+					if (filter == null || filter.acceptsText())
+					{
+						// Found what we were looking for
+						atText = true;
+						return true;
+					}
+				}
+
+				pos = findTextEnd();
+			}
+			else
+			{
+				if (targetDepth == currentDepth)
+				{
+					if (isStopped())
+						return false;
+
+					++currentDepth;
+
+					if (filter == null || !isFiltered())
+					{
+						// Found what we were looking for
+						atText = false;
+						return true;
+					}
+
+					// Skip the element without creating it
+					++skippedElements;
+
+					if (skipTag())
+						pendingEnd = true;
+
+					skipSubtrees();
+					continue;
+				}
+
+				++currentDepth;
+
+				if (skipTag())
+					pendingEnd = true;
+			}
+		}
+	}
+
+	@Override
+	public int getDepth()
+	{
+		return currentDepth;
+	}
+
+	@Override
+	public Element getElement()
+	{
+		return currentElement;
+	}
+
+	/**
+	 * Returns the number of elements that have been skipped without being parsed, i.e. all descendants of elements
+	 * whose children were never visited using {@code down}.
+	 *
+	 * @return the number of skipped elements
+	 */
+	public long getSkippedElements()
+	{
+		return skippedElements;
+	}
+
+	/**
+	 * Returns the number of bytes that have been skipped without being parsed.
+	 *
+	 * @return the number of skipped bytes
+	 */
+	public long getSkippedBytes()
+	{
+		return skippedBytes;
+	}
+
+	/**
+	 * Returns the offset in the document of the first byte of the last element returned by {@code next}, i.e. the
+	 * start of its start tag or text.
+	 *
+	 * @return the offset of the last returned element, or -1 if no element has been returned
+	 */
+	public long getElementOffset()
+	{
+		return elementOffset;
+	}
+
+	/**
+	 * Returns the offset in the document of the next byte that hasn't been consumed by the parser.
+	 *
+	 * @return the current byte offset
+	 */
+	public long getOffset()
+	{
+		return base + pos;
+	}
+
+	@Override
+	public Element next() throws ParsingException
+	{
+		if (hasPeeked)
+		{
+			hasPeeked = false;
+			currentElement = peekedElement;
+			canStepDown = peekedCanStepDown;
+
+			if (currentElement != null)
+				elementOffset = currentElement.getOffset();
+
+			return currentElement;
+		}
+
+		return read();
+	}
+
+	@Override
+	public Element peek() throws ParsingException
+	{
+		if (!hasPeeked)
+		{
+			// The element is read as usual, but the current element is kept until next is called
+			ElementUTF8 current = currentElement;
+			long offset = elementOffset;
+
+			peekedElement = read();
+			peekedCanStepDown = canStepDown;
+			hasPeeked = true;
+
+			currentElement = current;
+			canStepDown = false;
+			elementOffset = offset;
+		}
+
+		return peekedElement;
+	}
+
+	/**
+	 * Read the next element at the current depth.
+	 */
+	private ElementUTF8 read() throws ParsingException
+	{
+		canStepDown = false;
+
+		if (textReader != null)
+			textReader.skip();
+
+		while (stepForward())
+		{
+			elementOffset = base + pos;
+
+			if (atText)
+			{
+				if (!streamText)
+					return createTextElement();
+
+				currentElement = null;
+				textReader = new TextReader();
+				return null;
+			}
+
+			ElementUTF8 element = createElement();
+
+			// The filter has only checked the local name
+			if (filter == null || filter.accepts(targetDepth, element.getName()))
+				return element;
+
+			canStepDown = false;
+			++skippedElements;
+		}
+
+		currentElement = null;
+		return null;
+	}
+
+	/**
+	 * Iterate one step forward at the current depth like {@code next}, but if the next element is text then its content
+	 * is returned as a stream instead. The text is decoded as it is read, so any amount of text can be read with
+	 * constant memory. The current element is then null.
+	 * <p>
+	 * The reader is only valid until the parser is used again, and any text that hasn't been read is skipped. Errors in
+	 * the document are thrown as {@link IOException}s with the {@link ParsingException} as the cause.
+	 * 
+	 * @return a reader of the text, or null if the next element isn't text, in which case it is returned by
+	 *         {@code getElement} as if {@code next} had been called, or if there are no more elements at this depth
+	 * @throws ParsingException
+	 */
+	public Reader nextText() throws ParsingException
+	{
+		if (hasPeeked)
+		{
+			// The peeked text has already been read
+			ElementUTF8 element = (ElementUTF8) next();
+
+			if (element == null || !element.isText())
+				return null;
+
+			currentElement = null;
+			return new StringReader(element.getText());
+		}
+
+		streamText = true;
+
+		try
+		{
+			read();
+		}
+		finally
+		{
+			streamText = false;
+		}
+
+		return textReader;
+	}
+
+	/**
+	 * Iterate one step forward at the current depth like {@link #nextText()}, and decode the text as base64 into a
+	 * channel. White space in the text is ignored. The text is decoded in small chunks, so any amount of data can be
+	 * decoded with constant memory.
+	 * 
+	 * @param out the channel to write the decoded bytes to
+	 * @return the number of bytes written, or -1 if the next element isn't text or if there are no more elements at
+	 *         this depth
+	 * @throws ParsingException if the text isn't valid base64
+	 * @throws IOException if the bytes can't be written
+	 */
+	public long nextBase64(WritableByteChannel out) throws ParsingException, IOException
+	{
+		long offset = getOffset();
+		Reader reader = nextText();
+
+		if (reader == null)
+			return -1;
+
+		try
+		{
+			return Base64Decoder.decode(reader, out, offset);
+		}
+		catch (IOException e)
+		{
+			if (e.getCause() instanceof ParsingException)
+				throw (ParsingException) e.getCause();
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Decodes the text at {@code pos} as it is read, consuming it from the input. References, CDATA sections and line
+	 * endings are resolved in the same way as for text elements.
+	 */
+	private class TextReader extends Reader
+	{
+		private final byte[] reference = new byte[12];
+
+		private boolean inCDATA = false;
+		private boolean done = false;
+
+		/**
+		 * The low surrogate of a supplementary character, or 0
+		 */
+		private char pendingLow = 0;
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException
+		{
+			if (textReader != this)
+				throw new IOException("The parser has moved past the text");
+
+			try
+			{
+				return decode(cbuf, off, len);
+			}
+			catch (ParsingException e)
+			{
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+
+		private int decode(char[] cbuf, int off, int len) throws ParsingException
+		{
+			if (len == 0)
+				return 0;
+
+			int n = 0;
+
+			if (pendingLow != 0)
+			{
+				cbuf[off + n++] = pendingLow;
+				pendingLow = 0;
+			}
+
+			while (n < len && !done)
+			{
+				if (pos >= limit && !request(1))
+				{
+					if (inCDATA)
+						throw new ParsingException("Unexpected end of document", base + pos);
+
+					done = true;
+					break;
+				}
+
+				byte b = buffer.get(pos);
+
+				// Plain ASCII characters are copied directly
+				if (b > 0 && b != '<' && b != '&' && b != '\r' && b != ']')
+				{
+					cbuf[off + n++] = (char) b;
+					++pos;
+					continue;
+				}
+
+				if (b == '<' && !inCDATA)
+				{
+					if (isCDATAStart(0))
+					{
+						pos += 9;
+						inCDATA = true;
+						continue;
+					}
+
+					done = true;
+				}
+				else if (b == ']' && inCDATA && request(3) && buffer.get(pos + 1) == ']' && buffer.get(pos + 2) == '>')
+				{
+					pos += 3;
+					inCDATA = false;
+				}
+				else if (b == '\r')
+				{
+					// Line endings are normalised to a single '\n'
+					cbuf[off + n++] = '\n';
+					++pos;
+
+					if (request(1) && buffer.get(pos) == '\n')
+						++pos;
+				}
+				else if (b == '&' && !inCDATA)
+				{
+					n = emit(cbuf, off, n, len, resolveReference());
+				}
+				else if (b >= 0)
+				{
+					cbuf[off + n++] = (char) b;
+					++pos;
+				}
+				else
+				{
+					n = emit(cbuf, off, n, len, decodeCharacter(b));
+				}
+			}
+
+			return n == 0 && done ? -1 : n;
+		}
+
+		/**
+		 * Resolve the reference at {@code pos}. Unknown references are kept as they are.
+		 */
+		private int resolveReference() throws ParsingException
+		{
+			int length = 1;
+
+			while (length < reference.length && request(length + 1) && buffer.get(pos + length) != ';')
+				++length;
+
+			int code = -1;
+
+			if (length < reference.length && request(length + 1))
+			{
+				for (int i = 1; i < length; ++i)
+					reference[i] = buffer.get(pos + i);
+
+				code = UTF8.reference(reference, 1, length);
+			}
+
+			if (code < 0)
+			{
+				++pos;
+				return '&';
+			}
+
+			pos += length + 1;
+			return code;
+		}
+
+		/**
+		 * Decode the multi-byte UTF-8 sequence at {@code pos}. Malformed sequences are replaced by U+FFFD.
+		 */
+		private int decodeCharacter(byte b) throws ParsingException
+		{
+			int count = (b & 0xE0) == 0xC0 ? 2 : (b & 0xF0) == 0xE0 ? 3 : (b & 0xF8) == 0xF0 ? 4 : 1;
+			int code = count == 2 ? b & 0x1F : count == 3 ? b & 0x0F : b & 0x07;
+
+			if (count == 1 || !request(count))
+			{
+				++pos;
+				return 0xFFFD;
+			}
+
+			for (int i = 1; i < count; ++i)
+			{
+				int next = buffer.get(pos + i);
+
+				if ((next & 0xC0) != 0x80)
+				{
+					pos += i;
+					return 0xFFFD;
+				}
+
+				code = (code << 6) | (next & 0x3F);
+			}
+
+			pos += count;
+			return code;
+		}
+
+		/**
+		 * Add a code point to the buffer, keeping the low surrogate for later if there is no room for it.
+		 */
+		private int emit(char[] cbuf, int off, int n, int len, int code)
+		{
+			if (code < 0x10000)
+			{
+				cbuf[off + n++] = (char) code;
+			}
+			else
+			{
+				cbuf[off + n++] = Character.highSurrogate(code);
+
+				if (n < len)
+					cbuf[off + n++] = Character.lowSurrogate(code);
+				else
+					pendingLow = Character.lowSurrogate(code);
+			}
+
+			return n;
+		}
+
+		/**
+		 * Consume the rest of the text.
+		 */
+		void skip() throws ParsingException
+		{
+			char[] discarded = new char[1024];
+
+			while (decode(discarded, 0, discarded.length) >= 0)
+			{
+			}
+
+			textReader = null;
+		}
+
+		@Override
+		public void close()
+		{
+			// The rest of the text is skipped when the parser is used again
+		}
+	}
+
+	@Override
+	public int nextBatch(int max, List<Element> batch, List<List<Element>> children) throws ParsingException
+	{
+		int count = 0;
+		ElementUTF8 element;
+
+		while (count < max && (element = (ElementUTF8) next()) != null)
+		{
+			List<Element> list;
+
+			if (canStepDown)
+			{
+				// Read the children at the next depth without pushing the element onto the parse stack
+				list = new ArrayList<Element>();
+				++targetDepth;
+				canStepDown = false;
+
+				Element child;
+
+				while ((child = next()) != null)
+					list.add(child);
+
+				--targetDepth;
+				currentElement = element;
+				canStepDown = false;
+			}
+			else
+			{
+				list = Collections.emptyList();
+			}
+
+			batch.add(element);
+			children.add(list);
+			++count;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns true if the filter rejects the local name of the start tag at {@code pos}.
+	 *
+	 * @throws ParsingException
+	 */
+	private boolean isFiltered() throws ParsingException
+	{
+		byte[][] names = filter.getLocalNames(targetDepth);
+
+		if (names == null)
+			return false;
+
+		int offset = 1;
+		int localStart = 1;
+		byte b;
+
+		while (!UTF8.isWhiteSpace(b = peek(offset)) && b != '/' && b != '>')
+		{
+			if (b == ':')
+				localStart = offset + 1;
+
+			++offset;
+		}
+
+		int length = offset - localStart;
+
+		for (byte[] name : names)
+		{
+			if (name.length != length)
+				continue;
+
+			int i = 0;
+
+			while (i < length && buffer.get(pos + localStart + i) == name[i])
+				++i;
+
+			if (i == length)
+				return false;
+		}
+
+		return true;
+	}
+
+	@Override
+	public void setFilter(ElementFilter filter)
+	{
+		this.filter = filter;
+	}
+
+	@Override
+	public void setNameTable(NameTable names)
+	{
+		this.names = names;
+	}
+
+	/**
+	 * Add the bounds of an attribute, relative to the start of the tag.
+	 */
+	private void addAttribute(int nameStart, int nameEnd, int valueStart, int valueEnd)
+	{
+		if (4 * attributeCount + 4 > attributeBounds.length)
+			attributeBounds = Arrays.copyOf(attributeBounds, 2 * attributeBounds.length);
+
+		int index = 4 * attributeCount++;
+		attributeBounds[index] = nameStart;
+		attributeBounds[index + 1] = nameEnd;
+		attributeBounds[index + 2] = valueStart;
+		attributeBounds[index + 3] = valueEnd;
+	}
+
+	/**
+	 * Scan the start tag at {@code pos} and record the location of its name and attributes relative to {@code pos}.
+	 * Nothing is consumed.
+	 *
+	 * @return the length of the tag
+	 * @throws ParsingException
+	 */
+	private int scanStartTag() throws ParsingException
+	{
+		attributeCount = 0;
+
+		int offset = 1;
+		byte b;
+
+		while (!UTF8.isWhiteSpace(b = peek(offset)) && b != '/' && b != '>')
+			++offset;
+
+		nameLength = offset - 1;
+
+		while (true)
+		{
+			while (UTF8.isWhiteSpace(b = peek(offset)))
+				++offset;
+
+			if (b == '>')
+			{
+				pendingEnd = false;
+				break;
+			}
+			else if (b == '/')
+			{
+				// Make sure that the closing '>' has been read
+				peek(++offset);
+				pendingEnd = true;
+				break;
+			}
+
+			int nameStart = offset;
+
+			while ((b = peek(offset)) != '=' && !UTF8.isWhiteSpace(b) && b != '>' && b != '/')
+				++offset;
+
+			int nameEnd = offset;
+
+			while (UTF8.isWhiteSpace(b = peek(offset)))
+				++offset;
+
+			if (b != '=')
+				throw new ParsingException("Expected '=' after attribute name", base + pos + offset);
+
+			++offset;
+
+			byte quote;
+
+			while (UTF8.isWhiteSpace(quote = peek(offset)))
+				++offset;
+
+			if (quote != '"' && quote != '\'')
+				throw new ParsingException("Expected quoted attribute value", base + pos + offset);
+
+			int valueStart = ++offset;
+
+			while (true)
+			{
+				int end = UTF8.indexOf(buffer, pos + offset, limit, quote);
+
+				if (end >= 0)
+				{
+					offset = end - pos;
+					break;
+				}
+
+				offset = limit - pos;
+				peek(offset);
+			}
+
+			addAttribute(nameStart, nameEnd, valueStart, offset);
+			++offset;
+		}
+
+		return offset + 1;
+	}
+
+	/**
+	 * Returns true if the attribute with the given index is a namespace declaration.
+	 */
+	private boolean isNamespaceDeclaration(int index)
+	{
+		int start = pos + attributeBounds[4 * index];
+		int length = pos + attributeBounds[4 * index + 1] - start;
+
+		return length >= 5 && buffer.get(start) == 'x' && buffer.get(start + 1) == 'm' && buffer.get(start + 2) == 'l'
+				&& buffer.get(start + 3) == 'n' && buffer.get(start + 4) == 's' && (length == 5 || buffer.get(start + 5) == ':');
+	}
+
+	private void declareNamespace(String prefix, String uri)
+	{
+		if (namespaceCount == namespacePrefixes.length)
+		{
+			namespacePrefixes = Arrays.copyOf(namespacePrefixes, 2 * namespaceCount);
+			namespaceURIs = Arrays.copyOf(namespaceURIs, 2 * namespaceCount);
+		}
+
+		namespacePrefixes[namespaceCount] = prefix;
+		namespaceURIs[namespaceCount] = uri;
+		++namespaceCount;
+	}
+
+	/**
+	 * Returns the namespace URI bound to a prefix, or null if the prefix isn't bound.
+	 */
+	private String lookupNamespace(String prefix)
+	{
+		for (int i = namespaceCount - 1; i >= 0; --i)
+		{
+			if (namespacePrefixes[i].equals(prefix))
+				return namespaceURIs[i];
+		}
+
+		if (prefix.equals(XMLConstants.XML_NS_PREFIX))
+			return XMLConstants.XML_NS_URI;
+		else if (prefix.isEmpty())
+			return XMLConstants.NULL_NS_URI;
+		else
+			return null;
+	}
+
+	/**
+	 * Decode and resolve a prefixed name.
+	 *
+	 * @param from start of the name relative to {@code pos}
+	 * @param to end of the name relative to {@code pos}
+	 * @param isElement true for element names, which unlike attribute names use the default namespace
+	 * @throws ParsingException if the prefix isn't bound
+	 */
+	private QName resolveName(int from, int to, boolean isElement) throws ParsingException
+	{
+		from += pos;
+		to += pos;
+
+		int colon = from;
+
+		while (colon < to && buffer.get(colon) != ':')
+			++colon;
+
+		String prefix;
+		String localPart;
+
+		if (colon == to)
+		{
+			prefix = XMLConstants.DEFAULT_NS_PREFIX;
+			localPart = UTF8.decodeName(buffer, from, to);
+
+			if (!isElement)
+				return new QName(localPart);
+		}
+		else
+		{
+			prefix = UTF8.decodeName(buffer, from, colon);
+			localPart = UTF8.decodeName(buffer, colon + 1, to);
+		}
+
+		String uri = lookupNamespace(prefix);
+
+		if (uri == null)
+			throw new ParsingException("Unbound namespace prefix " + prefix, base + from);
+
+		return new QName(uri, localPart, prefix);
+	}
+
+	private ElementUTF8 createElement() throws ParsingException
+	{
+		// Nothing is consumed until the element has been created, so all positions are relative to the start of the
+		// tag at pos
+		int tagLength = scanStartTag();
+
+		// Copy the raw attribute values
+		byte[] data = NO_DATA;
+		int dataStart = 0;
+
+		if (attributeCount > 0)
+		{
+			dataStart = attributeBounds[2];
+			data = new byte[attributeBounds[4 * attributeCount - 1] - dataStart];
+			UTF8.copy(buffer, pos + dataStart, data, 0, data.length);
+		}
+
+		// Namespace declarations from earlier siblings are no longer in scope
+		int depth = targetDepth;
+
+		if (depth + 2 > namespaceMarks.length)
+			namespaceMarks = Arrays.copyOf(namespaceMarks, 2 * (depth + 2));
+
+		namespaceCount = namespaceMarks[depth];
+		int declarations = 0;
+
+		for (int i = 0; i < attributeCount; ++i)
+		{
+			if (isNamespaceDeclaration(i))
+			{
+				int nameStart = attributeBounds[4 * i];
+				int nameEnd = attributeBounds[4 * i + 1];
+				String prefix = nameEnd - nameStart == 5 ? XMLConstants.DEFAULT_NS_PREFIX : UTF8.decodeName(buffer,
+						pos + nameStart + 6, pos + nameEnd);
+				int valueStart = attributeBounds[4 * i + 2] - dataStart;
+				String uri = UTF8.decodeAttribute(data, valueStart, attributeBounds[4 * i + 3] - dataStart - valueStart);
+
+				declareNamespace(prefix, uri);
+				++declarations;
+			}
+		}
+
+		namespaceMarks[depth + 1] = namespaceCount;
+
+		QName name = resolveName(1, 1 + nameLength, true);
+		QName[] attributeNames = new QName[attributeCount - declarations];
+		int[] valueBounds = new int[2 * attributeNames.length];
+
+		for (int i = 0, j = 0; i < attributeCount; ++i)
+		{
+			if (declarations > 0 && isNamespaceDeclaration(i))
+				continue;
+
+			attributeNames[j] = resolveName(attributeBounds[4 * i], attributeBounds[4 * i + 1], false);
+			valueBounds[2 * j] = attributeBounds[4 * i + 2] - dataStart;
+			valueBounds[2 * j + 1] = attributeBounds[4 * i + 3] - dataStart;
+			++j;
+		}
+
+		pos += tagLength;
+
+		boolean hasChildren = !pendingEnd && checkForChildren();
+
+		if (hasChildren)
+			canStepDown = true;
+
+		currentElement = new ElementUTF8(elementOffset, name, attributeNames, data, valueBounds, hasChildren);
+
+		if (names != null)
+			currentElement.useNames(names);
+
+		return currentElement;
+	}
+
+	/**
+	 * Check if the current element has any child elements. The start tag must already have been consumed.
+	 *
+	 * @return True if the current element has children.
+	 * @throws ParsingException
+	 */
+	private boolean checkForChildren() throws ParsingException
+	{
+		while (true)
+		{
+			if (!request(2))
+				return false;
+
+			if (buffer.get(pos) != '<' || isCDATAStart(0))
+			{
+				if (skipWhiteSpace())
+				{
+					// The next element is text.
+					return true;
+				}
+			}
+			else
+			{
+				// If the next tag is an end tag, then the current element is empty. Otherwise there is at least one
+				// child element.
+				return buffer.get(pos + 1) != '/';
+			}
+		}
+	}
+
+	private ElementUTF8 createTextElement() throws ParsingException
+	{
+		int end = findTextEnd();
+		byte[] data = new byte[end - pos];
+		UTF8.copy(buffer, pos, data, 0, data.length);
+		pos = end;
+
+		currentElement = new ElementUTF8(elementOffset, data);
+
+		return currentElement;
+	}
+
+	@Override
+	public int down() throws ParsingException
+	{
+		if (!canStepDown)
+		{
+			throw new InvalidParseCommandException("Can't step down. Element " + currentElement.getName()
+					+ " does not have any unparsed child elements", base + pos);
+		}
+
+		// Add the current element to the stack, then tell the parser that it should parse the children of this element
+		// next time.
+		parseStack.push(currentElement);
+		++targetDepth;
+		currentElement = null;
+
+		canStepDown = false;
+
+		return parseStack.size();
+	}
+
+	@Override
+	public int up() throws ParsingException
+	{
+		// In case stepUp is called too many times
+		if (!parseStack.isEmpty())
+		{
+			// Restore the last element (i.e. the parent of the current element), then tell the parser that it should
+			// parse the siblings of the parent next time.
+			currentElement = parseStack.pop();
+			--targetDepth;
+
+			// A peeked element is skipped like any other sibling
+			hasPeeked = false;
+
+			canStepDown = false;
+		}
+		return parseStack.size();
+	}
+
+	private boolean isStopped()
+	{
+		return targetDepth == stopDepth && base + pos >= stopOffset;
+	}
+
+	/**
+	 * Create a checkpoint that can be used to resume parsing from the current position with a new parser, e.g. after a
+	 * crash. The resumed parser has the same current element and depth as this parser.
+	 *
+	 * @return the checkpoint
+	 * @throws ParsingException
+	 * @see #resume(ByteSource, Checkpoint)
+	 */
+	public Checkpoint checkpoint() throws ParsingException
+	{
+		if (!started)
+			start();
+
+		if (textReader != null)
+			textReader.skip();
+
+		if (currentElement != null)
+			return new Checkpoint(currentElement.getOffset(), getContext(), true, canStepDown);
+		else if (hasPeeked && peekedElement != null)
+			return new Checkpoint(peekedElement.getOffset(), getContext(), false, false);
+		else
+			return new Checkpoint(base + pos, getContext(), false, false);
+	}
+
+	/**
+	 * Create a parser that resumes parsing from a checkpoint. The source must contain the same document as the one that
+	 * the checkpoint was created from, but only the part after the checkpoint is read.
+	 *
+	 * @param source the document
+	 * @param checkpoint the checkpoint to resume from
+	 * @return the resumed parser
+	 * @throws ParsingException
+	 */
+	public static XMLParserUTF8 resume(ByteSource source, Checkpoint checkpoint) throws ParsingException
+	{
+		XMLParserUTF8 parser = new XMLParserUTF8(source);
+		parser.startAt(checkpoint.getOffset(), checkpoint.getContext());
+
+		if (checkpoint.isAtElement())
+		{
+			// Parse the current element again
+			parser.next();
+			parser.canStepDown = checkpoint.canStepDown();
+		}
+
+		return parser;
+	}
+
+	/**
+	 * Start parsing at a given offset instead of at the start of the document, as if the parser had already stepped
+	 * down to the children of the last ancestor. Must be called before anything has been parsed.
+	 *
+	 * @param offset offset in the document of the first child to parse
+	 * @param context the ancestors and namespace bindings at the offset
+	 * @throws ParsingException
+	 */
+	void startAt(long offset, ParserContext context) throws ParsingException
+	{
+		int depth = context.getDepth();
+
+		started = true;
+		base = offset;
+		pos = 0;
+		limit = 0;
+		fill(0);
+
+		for (ElementUTF8 ancestor : context.getAncestors())
+			parseStack.push(ancestor);
+
+		currentDepth = depth;
+		targetDepth = depth;
+
+		context.getNamespaces().restore(this, depth);
+	}
+
+	/**
+	 * Stop returning elements at {@code depth} that start at or after {@code offset}. The parser behaves as if the
+	 * parent had no more children.
+	 */
+	void stopAt(long offset, int depth)
+	{
+		stopOffset = offset;
+		stopDepth = depth;
+	}
+
+	/**
+	 * Move forward to the next start tag with the given raw (prefixed) name, without parsing anything on the way. This
+	 * is only safe when the tag can't appear in comments or CDATA sections. The depth is not changed.
+	 *
+	 * @param name the raw name of the tag
+	 * @return false if the end of the input was reached
+	 * @throws ParsingException
+	 */
+	boolean seekStartTag(byte[] name) throws ParsingException
+	{
+		while (seek((byte) '<'))
+		{
+			if (!request(name.length + 2))
+				return false;
+
+			boolean found = true;
+
+			for (int i = 0; i < name.length && found; ++i)
+				found = buffer.get(pos + 1 + i) == name[i];
+
+			byte b = buffer.get(pos + 1 + name.length);
+
+			if (found && (UTF8.isWhiteSpace(b) || b == '/' || b == '>'))
+				return true;
+
+			++pos;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of ancestors of the elements at the current depth, i.e. the number of times that
+	 * {@code down} has been called without a matching {@code up}.
+	 */
+	int getLevel()
+	{
+		return parseStack.size();
+	}
+
+	/**
+	 * Returns the ancestors and namespace bindings of the elements at the current depth.
+	 */
+	ParserContext getContext()
+	{
+		List<ElementUTF8> ancestors = new ArrayList<ElementUTF8>(parseStack.size());
+		Iterator<ElementUTF8> i = parseStack.descendingIterator();
+
+		while (i.hasNext())
+			ancestors.add(i.next());
+
+		return new ParserContext(ancestors, new NamespaceSnapshot(namespacePrefixes, namespaceURIs, namespaceMarks,
+				targetDepth));
+	}
+
+	/**
+	 * Replace the namespace bindings for the elements at {@code depth} and above.
+	 */
+	void setNamespaces(String[] prefixes, String[] uris, int[] marks, int depth)
+	{
+		int count = marks[depth];
+
+		namespacePrefixes = Arrays.copyOf(prefixes, Math.max(count, 8));
+		namespaceURIs = Arrays.copyOf(uris, Math.max(count, 8));
+		namespaceMarks = Arrays.copyOf(marks, Math.max(depth + 2, 16));
+		namespaceCount = count;
+	}
+
+	/**
+	 * The parts of the parser state that can change while an element is read, so that a read that runs out of input
+	 * can be undone.
+	 */
+	static class State
+	{
+		private int currentDepth;
+		private int targetDepth;
+		private ElementUTF8 currentElement;
+		private boolean canStepDown;
+		private ElementUTF8 peekedElement;
+		private boolean peekedCanStepDown;
+		private boolean hasPeeked;
+		private long skippedElements;
+		private long skippedBytes;
+		private long offset;
+		private boolean started;
+		private long elementOffset;
+		private boolean pendingEnd;
+		private boolean atText;
+
+		/**
+		 * The namespace bindings that may be replaced by the children of the elements at the target depth
+		 */
+		private int namespaceCount;
+		private int namespaceMark;
+		private String[] namespacePrefixes = new String[8];
+		private String[] namespaceURIs = new String[8];
+	}
+
+	/**
+	 * Save the parser state. Only the input from the current offset is needed to restore it.
+	 */
+	void save(State state)
+	{
+		state.currentDepth = currentDepth;
+		state.targetDepth = targetDepth;
+		state.currentElement = currentElement;
+		state.canStepDown = canStepDown;
+		state.peekedElement = peekedElement;
+		state.peekedCanStepDown = peekedCanStepDown;
+		state.hasPeeked = hasPeeked;
+		state.skippedElements = skippedElements;
+		state.skippedBytes = skippedBytes;
+		state.offset = base + pos;
+		state.started = started;
+		state.elementOffset = elementOffset;
+		state.pendingEnd = pendingEnd;
+		state.atText = atText;
+
+		if (targetDepth + 2 > namespaceMarks.length)
+			namespaceMarks = Arrays.copyOf(namespaceMarks, 2 * (targetDepth + 2));
+
+		int from = namespaceMarks[targetDepth];
+		int count = namespaceCount - from;
+
+		if (count > state.namespacePrefixes.length)
+		{
+			state.namespacePrefixes = new String[count];
+			state.namespaceURIs = new String[count];
+		}
+
+		System.arraycopy(namespacePrefixes, from, state.namespacePrefixes, 0, count);
+		System.arraycopy(namespaceURIs, from, state.namespaceURIs, 0, count);
+		state.namespaceCount = namespaceCount;
+		state.namespaceMark = namespaceMarks[targetDepth + 1];
+	}
+
+	/**
+	 * Restore a saved state. The input is read again from the saved offset.
+	 */
+	void restore(State state)
+	{
+		currentDepth = state.currentDepth;
+		targetDepth = state.targetDepth;
+		currentElement = state.currentElement;
+		canStepDown = state.canStepDown;
+		peekedElement = state.peekedElement;
+		peekedCanStepDown = state.peekedCanStepDown;
+		hasPeeked = state.hasPeeked;
+		skippedElements = state.skippedElements;
+		skippedBytes = state.skippedBytes;
+		started = state.started;
+		elementOffset = state.elementOffset;
+		pendingEnd = state.pendingEnd;
+		atText = state.atText;
+
+		int from = namespaceMarks[targetDepth];
+		System.arraycopy(state.namespacePrefixes, 0, namespacePrefixes, from, state.namespaceCount - from);
+		System.arraycopy(state.namespaceURIs, 0, namespaceURIs, from, state.namespaceCount - from);
+		namespaceCount = state.namespaceCount;
+		namespaceMarks[targetDepth + 1] = state.namespaceMark;
+
+		// The window is read again the next time that input is needed
+		base = state.offset;
+		pos = 0;
+		limit = 0;
+	}
+
+	/**
+	 * Close the underlying source.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		source.close();
+	}
+}
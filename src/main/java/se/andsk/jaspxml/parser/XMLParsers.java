@@ -0,0 +1,89 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.io.MappedFileByteSource;
+import se.andsk.jaspxml.io.ParallelGzipInputStream;
+import se.andsk.jaspxml.io.ReadAheadByteSource;
+
+/**
+ * Factory methods for creating parsers.
+ */
+public final class XMLParsers
+{
+	private XMLParsers()
+	{
+	}
+
+	/**
+	 * Open a UTF-8 encoded file for parsing. The file is memory mapped and parsed directly from the mapped memory
+	 * without copying, in windows of {@link MappedFileByteSource#DEFAULT_WINDOW_SIZE} bytes.
+	 * 
+	 * @param file file to parse
+	 * @return a parser that must be closed when it is no longer used
+	 * @throws IOException
+	 */
+	public static XMLParserUTF8 open(Path file) throws IOException
+	{
+		return new XMLParserUTF8(new MappedFileByteSource(file));
+	}
+
+	/**
+	 * Open a UTF-8 encoded file for parsing. The file is memory mapped and parsed directly from the mapped memory
+	 * without copying.
+	 * 
+	 * @param file file to parse
+	 * @param windowSize the number of bytes to map at a time
+	 * @return a parser that must be closed when it is no longer used
+	 * @throws IOException
+	 */
+	public static XMLParserUTF8 open(Path file, int windowSize) throws IOException
+	{
+		return new XMLParserUTF8(new MappedFileByteSource(file, windowSize));
+	}
+
+	/**
+	 * Open a gzip compressed, UTF-8 encoded file for parsing. The file is decompressed on background threads by a
+	 * {@link ParallelGzipInputStream} while it is parsed. Files with several gzip members, e.g. BGZF files, are
+	 * decompressed in parallel. The decompressed bytes are read ahead into the pooled buffers of a
+	 * {@link ReadAheadByteSource}; create the parser from one directly to get its queue statistics.
+	 * 
+	 * @param file file to parse
+	 * @return a parser that must be closed when it is no longer used
+	 * @throws IOException
+	 */
+	public static XMLParserUTF8 openCompressed(Path file) throws IOException
+	{
+		return new XMLParserUTF8(new ReadAheadByteSource(new ParallelGzipInputStream(file)));
+	}
+
+	/**
+	 * Resume parsing a UTF-8 encoded file from a checkpoint. The file is memory mapped in the same way as by
+	 * {@link #open(Path)}.
+	 * 
+	 * @param file file to parse, which must not have changed since the checkpoint was created
+	 * @param checkpoint the checkpoint to resume from
+	 * @return a parser that must be closed when it is no longer used
+	 * @throws ParsingException
+	 * @throws IOException
+	 */
+	public static XMLParserUTF8 resume(Path file, Checkpoint checkpoint) throws ParsingException, IOException
+	{
+		MappedFileByteSource source = new MappedFileByteSource(file);
+
+		try
+		{
+			return XMLParserUTF8.resume(source, checkpoint);
+		}
+		catch (ParsingException e)
+		{
+			source.close();
+			throw e;
+		}
+	}
+}
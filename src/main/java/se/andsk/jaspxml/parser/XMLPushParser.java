@@ -0,0 +1,285 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+
+import se.andsk.jaspxml.exceptions.NeedMoreInputException;
+import se.andsk.jaspxml.exceptions.ParsingException;
+
+/**
+ * A non-blocking version of {@link XMLParserUTF8} that is fed with chunks of input instead of reading from a source,
+ * e.g. from a non-blocking channel. One thread can then serve many documents, by feeding each parser the input that is
+ * available and reading elements until it runs out.
+ * <p>
+ * The navigation is the same as for the other parsers. If a command can't be completed with the input that has been
+ * fed so far, it throws a {@link NeedMoreInputException} and the parser is left as it was before the command, so the
+ * same command can be repeated after more input has been fed. {@link #poll()} is a variant of {@code next} that reports
+ * this as a status instead. Call {@link #endOfInput()} when the whole document has been fed, after which the parser
+ * behaves exactly like {@link XMLParserUTF8} and never asks for more input.
+ * <p>
+ * The input is kept from the start of the command that is in progress, so skipping a large subtree buffers all of it
+ * until the end of the subtree has been fed. Commands that read several elements, like {@code nextBatch}, are also
+ * repeated as a whole.
+ */
+public class XMLPushParser implements XMLParser
+{
+	/**
+	 * The result of {@link XMLPushParser#poll()}
+	 */
+	public enum Status
+	{
+		/**
+		 * An element was read and is the current element
+		 */
+		ELEMENT,
+
+		/**
+		 * There are no more elements at the current depth
+		 */
+		END,
+
+		/**
+		 * More input must be fed before the next element can be read
+		 */
+		NEED_INPUT
+	}
+
+	private final ChunkByteSource source = new ChunkByteSource();
+	private final XMLParserUTF8 parser = new XMLParserUTF8(source);
+	private final XMLParserUTF8.State state = new XMLParserUTF8.State();
+
+	/**
+	 * Feed the remaining bytes of a chunk. The bytes are copied, so the chunk can be reused when this returns.
+	 *
+	 * @param chunk the next part of the document
+	 */
+	public void feed(ByteBuffer chunk)
+	{
+		checkOpen();
+		source.feed(chunk);
+	}
+
+	/**
+	 * Feed the bytes that can be read from a channel without blocking, if it is non-blocking. When the end of the
+	 * stream is reached the end of the input is signalled.
+	 *
+	 * @param channel the channel to read from
+	 * @return the number of bytes read, or -1 at the end of the stream
+	 * @throws IOException
+	 */
+	public int feed(ReadableByteChannel channel) throws IOException
+	{
+		checkOpen();
+		int count = source.feed(channel);
+
+		if (count < 0)
+			endOfInput();
+
+		return count;
+	}
+
+	/**
+	 * Signal that the whole document has been fed.
+	 */
+	public void endOfInput()
+	{
+		source.finish();
+	}
+
+	/**
+	 * Returns the number of bytes that are currently buffered by the parser.
+	 *
+	 * @return the number of buffered bytes
+	 */
+	public int getBufferedBytes()
+	{
+		return source.getBufferedBytes();
+	}
+
+	private void checkOpen()
+	{
+		if (source.isFinished())
+			throw new IllegalStateException("The end of the input has already been signalled");
+	}
+
+	/**
+	 * Iterate one step forward at the current level, if enough input has been fed.
+	 *
+	 * @return {@link Status#ELEMENT} if the current element is the next element, {@link Status#END} if there are no
+	 *         more elements at this depth, or {@link Status#NEED_INPUT} if the parser is unchanged and more input is
+	 *         needed
+	 * @throws ParsingException
+	 */
+	public Status poll() throws ParsingException
+	{
+		try
+		{
+			return next() != null ? Status.ELEMENT : Status.END;
+		}
+		catch (NeedMoreInputException e)
+		{
+			return Status.NEED_INPUT;
+		}
+	}
+
+	private void save()
+	{
+		parser.save(state);
+		source.mark(parser.getOffset());
+	}
+
+	/**
+	 * Undo a command that ran out of input.
+	 */
+	private void restore()
+	{
+		parser.restore(state);
+	}
+
+	/**
+	 * Let the bytes that have been consumed by a completed command be discarded.
+	 */
+	private void release()
+	{
+		source.mark(parser.getOffset());
+	}
+
+	@Override
+	public Element next() throws ParsingException
+	{
+		save();
+
+		try
+		{
+			Element element = parser.next();
+			release();
+
+			return element;
+		}
+		catch (NeedMoreInputException e)
+		{
+			restore();
+			throw e;
+		}
+	}
+
+	@Override
+	public Element peek() throws ParsingException
+	{
+		save();
+
+		try
+		{
+			Element element = parser.peek();
+			release();
+
+			return element;
+		}
+		catch (NeedMoreInputException e)
+		{
+			restore();
+			throw e;
+		}
+	}
+
+	@Override
+	public int nextBatch(int max, List<Element> batch) throws ParsingException
+	{
+		int size = batch.size();
+		save();
+
+		try
+		{
+			int count = parser.nextBatch(max, batch);
+			release();
+
+			return count;
+		}
+		catch (NeedMoreInputException e)
+		{
+			batch.subList(size, batch.size()).clear();
+			restore();
+			throw e;
+		}
+	}
+
+	@Override
+	public int nextBatch(int max, List<Element> batch, List<List<Element>> children) throws ParsingException
+	{
+		int size = batch.size();
+		save();
+
+		try
+		{
+			int count = parser.nextBatch(max, batch, children);
+			release();
+
+			return count;
+		}
+		catch (NeedMoreInputException e)
+		{
+			batch.subList(size, batch.size()).clear();
+			children.subList(size, children.size()).clear();
+			restore();
+			throw e;
+		}
+	}
+
+	@Override
+	public Element getElement()
+	{
+		return parser.getElement();
+	}
+
+	@Override
+	public int getDepth()
+	{
+		return parser.getDepth();
+	}
+
+	@Override
+	public int down() throws ParsingException
+	{
+		return parser.down();
+	}
+
+	@Override
+	public int up() throws ParsingException
+	{
+		return parser.up();
+	}
+
+	@Override
+	public void setFilter(ElementFilter filter)
+	{
+		parser.setFilter(filter);
+	}
+
+	@Override
+	public void setNameTable(NameTable names)
+	{
+		parser.setNameTable(names);
+	}
+
+	/**
+	 * Returns the number of elements that have been skipped without being parsed.
+	 *
+	 * @return the number of skipped elements
+	 * @see XMLParserUTF8#getSkippedElements()
+	 */
+	public long getSkippedElements()
+	{
+		return parser.getSkippedElements();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "XMLPushParser[offset=" + parser.getOffset() + ", buffered=" + source.getBufferedBytes() + "]";
+	}
+}
@@ -0,0 +1,277 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.query;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.parser.Element;
+import se.andsk.jaspxml.parser.XMLParser;
+
+/**
+ * A {@link Flow.Publisher} that publishes the matches of a {@link PathQuery}, or all elements at a given depth.
+ * <p>
+ * The parser is driven by tasks on an {@link Executor}, and only while the subscriber has outstanding demand, so the
+ * document is never parsed further ahead than requested. No thread is blocked while waiting for demand, and a task
+ * gives up its thread after a limited number of elements, so many documents can be parsed at the same time on a small
+ * thread pool, or on virtual threads.
+ * <p>
+ * Since a parser can only be read once, there can only be one subscriber. The parser is closed, if it is
+ * {@link Closeable}, when the matches have been published, when parsing fails or when the subscription is cancelled.
+ * The subscriber receives the matching elements, but not their children.
+ */
+public class ElementPublisher implements Flow.Publisher<Element>
+{
+	/**
+	 * The maximum number of elements that are published by one task before the thread is given up
+	 */
+	private static final int BATCH_SIZE = 256;
+
+	private final XMLParser parser;
+	private final PathQuery query;
+	private final Executor executor;
+
+	private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+	/**
+	 * @param parser the parser to read the matches from, starting at its current position
+	 * @param query the query
+	 * @param executor executor that runs the parsing
+	 */
+	public ElementPublisher(XMLParser parser, PathQuery query, Executor executor)
+	{
+		this.parser = parser;
+		this.query = query;
+		this.executor = executor;
+	}
+
+	/**
+	 * Create a publisher for all elements at a given depth, e.g. the records in a file with one record for each child
+	 * of the root element at depth 1.
+	 *
+	 * @param parser a new parser
+	 * @param depth the depth, where the root element is at depth 0
+	 * @param executor executor that runs the parsing
+	 * @return the publisher
+	 */
+	public static ElementPublisher atDepth(XMLParser parser, int depth, Executor executor)
+	{
+		StringBuilder path = new StringBuilder("*");
+
+		for (int i = 0; i < depth; ++i)
+			path.append("/*");
+
+		return new ElementPublisher(parser, PathQuery.compile(path.toString()), executor);
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super Element> subscriber)
+	{
+		if (subscriber == null)
+			throw new NullPointerException();
+
+		if (subscribed.compareAndSet(false, true))
+		{
+			subscriber.onSubscribe(new Subscription(subscriber));
+		}
+		else
+		{
+			subscriber.onSubscribe(new Flow.Subscription()
+			{
+				@Override
+				public void request(long n)
+				{
+				}
+
+				@Override
+				public void cancel()
+				{
+				}
+			});
+			subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+		}
+	}
+
+	private class Subscription implements Flow.Subscription
+	{
+		private final Flow.Subscriber<? super Element> subscriber;
+		private final PathMatcher matcher;
+
+		private final AtomicLong demand = new AtomicLong();
+
+		/**
+		 * The number of times that the subscription has been signalled since the last drain started. A drain task is
+		 * queued or running while this is greater than 0.
+		 */
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private volatile boolean cancelled = false;
+		private volatile Throwable invalidRequest;
+
+		/**
+		 * Set when nothing more will be published
+		 */
+		private volatile boolean done = false;
+
+		Subscription(Flow.Subscriber<? super Element> subscriber)
+		{
+			this.subscriber = subscriber;
+			this.matcher = query.matcher(parser);
+		}
+
+		@Override
+		public void request(long n)
+		{
+			if (n <= 0)
+			{
+				invalidRequest = new IllegalArgumentException("Requested " + n + " elements");
+				cancelled = true;
+			}
+			else
+			{
+				demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+			}
+
+			schedule();
+		}
+
+		@Override
+		public void cancel()
+		{
+			cancelled = true;
+			schedule();
+		}
+
+		private void schedule()
+		{
+			if (pending.getAndIncrement() == 0)
+				execute();
+		}
+
+		private void execute()
+		{
+			try
+			{
+				executor.execute(this::drain);
+			}
+			catch (RuntimeException e)
+			{
+				// No task is running, so it is safe to signal from this thread
+				if (!done)
+				{
+					finish();
+					subscriber.onError(e);
+				}
+			}
+		}
+
+		/**
+		 * Publish elements until the demand has been met, then give up the thread.
+		 */
+		private void drain()
+		{
+			int published = 0;
+
+			do
+			{
+				while (!done)
+				{
+					if (cancelled)
+					{
+						finish();
+
+						if (invalidRequest != null)
+							subscriber.onError(invalidRequest);
+
+						break;
+					}
+
+					if (demand.get() == 0)
+						break;
+
+					if (published == BATCH_SIZE)
+					{
+						// Let other tasks run before continuing. The pending count is kept, so no other task is
+						// started in the meantime.
+						execute();
+						return;
+					}
+
+					Element element;
+
+					try
+					{
+						element = matcher.next();
+					}
+					catch (ParsingException e)
+					{
+						finish();
+						subscriber.onError(e);
+						break;
+					}
+
+					if (element == null)
+					{
+						try
+						{
+							done = true;
+							close();
+						}
+						catch (IOException e)
+						{
+							subscriber.onError(e);
+							break;
+						}
+
+						subscriber.onComplete();
+						break;
+					}
+
+					demand.decrementAndGet();
+					++published;
+
+					try
+					{
+						subscriber.onNext(element);
+					}
+					catch (RuntimeException e)
+					{
+						// A subscriber that throws is treated as cancelled
+						finish();
+					}
+				}
+			}
+			while (pending.decrementAndGet() != 0);
+		}
+
+		/**
+		 * Stop publishing and close the parser, ignoring any errors.
+		 */
+		private void finish()
+		{
+			done = true;
+
+			try
+			{
+				close();
+			}
+			catch (IOException e)
+			{
+				// Ignored since nothing more is published
+			}
+		}
+
+		private void close() throws IOException
+		{
+			if (parser instanceof Closeable)
+				((Closeable) parser).close();
+		}
+	}
+}
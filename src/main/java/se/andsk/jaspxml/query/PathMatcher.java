@@ -0,0 +1,249 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.query;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import se.andsk.jaspxml.exceptions.InvalidParseCommandException;
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.exceptions.UncheckedParsingException;
+import se.andsk.jaspxml.parser.Element;
+import se.andsk.jaspxml.parser.XMLParser;
+
+/**
+ * Finds the matches of a {@link PathQuery} by driving an {@link XMLParser}.
+ * <p>
+ * The query is run as an automaton. For each open element the matcher keeps the set of steps that the children of the
+ * element can match, and it only steps down into an element if that set isn't empty for its children. When no more
+ * siblings can match, e.g. because a positional predicate has been passed, the rest of the siblings are skipped.
+ * <p>
+ * The parser is positioned at each match when it is returned, so the caller may read its children using {@code down},
+ * {@code next} and {@code up}, as long as the parser is back at the match before the matcher is used again. Matches
+ * nested inside a match whose children have been read by the caller are not found. The matcher never moves the parser
+ * above the depth where it started.
+ */
+public class PathMatcher
+{
+	/**
+	 * The active steps for the children of an open element.
+	 */
+	private static class Frame
+	{
+		final int[] steps;
+		final int[][] counters;
+
+		Frame(int[] steps, Step[] allSteps)
+		{
+			this.steps = steps;
+			this.counters = new int[steps.length][];
+
+			for (int i = 0; i < steps.length; ++i)
+				counters[i] = new int[allSteps[steps[i]].positionals];
+		}
+	}
+
+	private Step[] steps;
+	private XMLParser parser;
+
+	private List<Frame> frames = new ArrayList<Frame>();
+	private boolean[] active;
+
+	/**
+	 * The steps for the children of the last match, if the matcher should step down into it
+	 */
+	private int[] pending;
+
+	private boolean finished = false;
+
+	PathMatcher(Step[] steps, XMLParser parser)
+	{
+		this.steps = steps;
+		this.parser = parser;
+		this.active = new boolean[steps.length];
+
+		frames.add(new Frame(new int[] { 0 }, steps));
+	}
+
+	/**
+	 * Find the next match.
+	 *
+	 * @return the next matching element, or null if there are no more matches
+	 * @throws ParsingException
+	 */
+	public Element next() throws ParsingException
+	{
+		if (finished)
+			return null;
+
+		if (pending != null)
+		{
+			int[] children = pending;
+			pending = null;
+
+			try
+			{
+				parser.down();
+				frames.add(new Frame(children, steps));
+			}
+			catch (InvalidParseCommandException e)
+			{
+				// The caller has already read the children
+			}
+		}
+
+		while (true)
+		{
+			Frame frame = frames.get(frames.size() - 1);
+			Element e = isExhausted(frame) ? null : parser.next();
+
+			if (e == null)
+			{
+				if (frames.size() == 1)
+				{
+					finished = true;
+					return null;
+				}
+
+				frames.remove(frames.size() - 1);
+				parser.up();
+				continue;
+			}
+
+			if (e.isText())
+				continue;
+
+			boolean matched = false;
+			int count = 0;
+
+			for (int i = 0; i < frame.steps.length; ++i)
+			{
+				int index = frame.steps[i];
+				Step step = steps[index];
+
+				// A descendant step can also match further down
+				if (step.descendant && !active[index])
+				{
+					active[index] = true;
+					++count;
+				}
+
+				if (step.matches(e, frame.counters[i]))
+				{
+					if (index == steps.length - 1)
+					{
+						matched = true;
+					}
+					else if (!active[index + 1])
+					{
+						active[index + 1] = true;
+						++count;
+					}
+				}
+			}
+
+			int[] children = count > 0 ? collect(count) : null;
+
+			if (children != null && !e.hasChildren())
+				children = null;
+
+			if (matched)
+			{
+				pending = children;
+				return e;
+			}
+
+			if (children != null)
+			{
+				parser.down();
+				frames.add(new Frame(children, steps));
+			}
+		}
+	}
+
+	/**
+	 * Returns true if none of the siblings that are left can match or have matching descendants.
+	 */
+	private boolean isExhausted(Frame frame)
+	{
+		for (int i = 0; i < frame.steps.length; ++i)
+		{
+			Step step = steps[frame.steps[i]];
+
+			if (step.descendant || !step.isExhausted(frame.counters[i]))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Collect and clear the active steps.
+	 */
+	private int[] collect(int count)
+	{
+		int[] result = new int[count];
+
+		for (int i = 0, j = 0; j < count; ++i)
+		{
+			if (active[i])
+			{
+				active[i] = false;
+				result[j++] = i;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns an iterator over the remaining matches. Parsing errors are thrown as {@link UncheckedParsingException}.
+	 *
+	 * @return the iterator
+	 */
+	public Iterator<Element> iterator()
+	{
+		return new Iterator<Element>()
+		{
+			private Element next;
+
+			@Override
+			public boolean hasNext()
+			{
+				if (next == null)
+				{
+					try
+					{
+						next = PathMatcher.this.next();
+					}
+					catch (ParsingException e)
+					{
+						throw new UncheckedParsingException(e);
+					}
+				}
+
+				return next != null;
+			}
+
+			@Override
+			public Element next()
+			{
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				Element result = next;
+				next = null;
+				return result;
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,311 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import se.andsk.jaspxml.parser.Element;
+import se.andsk.jaspxml.parser.XMLParser;
+
+/**
+ * A compiled path query that finds elements while streaming through a document, e.g.
+ * {@code /catalog/book[@lang='en']//title} or {@code //p:item[2]}.
+ * <p>
+ * The query is evaluated by a {@link PathMatcher}, which drives an {@link XMLParser} directly. It only steps down into
+ * elements whose descendants can still match, so everything else is skipped by the parser without being parsed.
+ * <p>
+ * The supported syntax is a subset of XPath:
+ * <ul>
+ * <li>Child steps ({@code a/b}) and descendant steps ({@code a//b}).</li>
+ * <li>Name tests: {@code name}, {@code prefix:name}, {@code prefix:*}, {@code *} and {@code {uri}name}. Prefixes are
+ * resolved using the namespace map given to {@link #compile(String, Map)}, and names without a prefix are in no
+ * namespace, as in XPath.</li>
+ * <li>Attribute predicates: {@code [@name]}, {@code [@name='value']} and {@code [@name!='value']}.</li>
+ * <li>Positional predicates: {@code [n]}, which selects the n:th sibling that matches the name test and the predicates
+ * before it.</li>
+ * </ul>
+ * Paths are always evaluated from the current position of the parser, so the first step is matched against the
+ * elements that the next call to {@code next} returns. For a new parser these are the root element, so {@code /a/b} and
+ * {@code a/b} are the same query. A query is immutable and can be used by any number of matchers at the same time.
+ */
+public final class PathQuery
+{
+	private final String path;
+	private final Step[] steps;
+
+	private PathQuery(String path, Step[] steps)
+	{
+		this.path = path;
+		this.steps = steps;
+	}
+
+	/**
+	 * Compile a query that doesn't use any namespace prefixes.
+	 *
+	 * @param path the query
+	 * @return the compiled query
+	 * @throws IllegalArgumentException if the query is invalid
+	 */
+	public static PathQuery compile(String path)
+	{
+		return compile(path, Collections.<String, String> emptyMap());
+	}
+
+	/**
+	 * Compile a query.
+	 *
+	 * @param path the query
+	 * @param namespaces namespace URIs for the prefixes that are used in the query
+	 * @return the compiled query
+	 * @throws IllegalArgumentException if the query is invalid or uses an unknown prefix
+	 */
+	public static PathQuery compile(String path, Map<String, String> namespaces)
+	{
+		return new PathQuery(path, new Compiler(path, namespaces).compile());
+	}
+
+	/**
+	 * Create a matcher that finds the matches of this query, starting at the current position of a parser.
+	 *
+	 * @param parser the parser to use
+	 * @return the matcher
+	 */
+	public PathMatcher matcher(XMLParser parser)
+	{
+		return new PathMatcher(steps, parser);
+	}
+
+	/**
+	 * Returns an iterator over the matches of this query, starting at the current position of a parser.
+	 *
+	 * @param parser the parser to use
+	 * @return the iterator
+	 * @see PathMatcher#iterator()
+	 */
+	public Iterator<Element> select(XMLParser parser)
+	{
+		return matcher(parser).iterator();
+	}
+
+	@Override
+	public String toString()
+	{
+		return path;
+	}
+
+	/**
+	 * A recursive descent parser for paths.
+	 */
+	private static class Compiler
+	{
+		private String path;
+		private Map<String, String> namespaces;
+		private int pos = 0;
+
+		Compiler(String path, Map<String, String> namespaces)
+		{
+			this.path = path;
+			this.namespaces = namespaces;
+		}
+
+		Step[] compile()
+		{
+			List<Step> steps = new ArrayList<Step>();
+			boolean descendant = false;
+
+			if (accept('/'))
+				descendant = accept('/');
+
+			while (true)
+			{
+				steps.add(step(descendant));
+
+				if (pos == path.length())
+					break;
+
+				expect('/');
+				descendant = accept('/');
+			}
+
+			return steps.toArray(new Step[steps.size()]);
+		}
+
+		private Step step(boolean descendant)
+		{
+			String[] name = nameTest(true);
+			List<Step.Predicate> predicates = new ArrayList<Step.Predicate>();
+
+			while (accept('['))
+			{
+				skipWhiteSpace();
+
+				if (accept('@'))
+				{
+					String[] attribute = nameTest(false);
+					skipWhiteSpace();
+					QName attributeName = new QName(attribute[0], attribute[1]);
+
+					if (accept('!'))
+					{
+						expect('=');
+						predicates.add(new Step.Predicate(attributeName, literal(), false));
+					}
+					else if (accept('='))
+					{
+						predicates.add(new Step.Predicate(attributeName, literal(), true));
+					}
+					else
+					{
+						predicates.add(new Step.Predicate(attributeName, null, true));
+					}
+				}
+				else
+				{
+					predicates.add(new Step.Predicate(position()));
+				}
+
+				skipWhiteSpace();
+				expect(']');
+			}
+
+			return new Step(descendant, name[0], name[1], predicates.toArray(new Step.Predicate[predicates.size()]));
+		}
+
+		/**
+		 * @param wildcards true if {@code *} is allowed
+		 * @return namespace URI and local name, where null matches anything
+		 */
+		private String[] nameTest(boolean wildcards)
+		{
+			if (accept('{'))
+			{
+				int end = path.indexOf('}', pos);
+
+				if (end < 0)
+					throw error("Expected }");
+
+				String uri = path.substring(pos, end);
+				pos = end + 1;
+
+				return new String[] { uri, localName(wildcards) };
+			}
+
+			if (wildcards && accept('*'))
+				return new String[] { null, null };
+
+			String name = name();
+
+			if (accept(':'))
+			{
+				String uri = namespaces.get(name);
+
+				if (uri == null)
+					throw error("Unknown namespace prefix " + name);
+
+				return new String[] { uri, localName(wildcards) };
+			}
+
+			return new String[] { XMLConstants.NULL_NS_URI, name };
+		}
+
+		private String localName(boolean wildcards)
+		{
+			if (wildcards && accept('*'))
+				return null;
+
+			return name();
+		}
+
+		private String name()
+		{
+			int start = pos;
+
+			while (pos < path.length())
+			{
+				char c = path.charAt(pos);
+
+				if (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c > 0x7F)
+					++pos;
+				else
+					break;
+			}
+
+			if (pos == start)
+				throw error("Expected a name");
+
+			return path.substring(start, pos);
+		}
+
+		private String literal()
+		{
+			skipWhiteSpace();
+
+			if (pos == path.length() || (path.charAt(pos) != '\'' && path.charAt(pos) != '"'))
+				throw error("Expected a quoted value");
+
+			char quote = path.charAt(pos++);
+			int end = path.indexOf(quote, pos);
+
+			if (end < 0)
+				throw error("Unterminated value");
+
+			String value = path.substring(pos, end);
+			pos = end + 1;
+
+			return value;
+		}
+
+		private int position()
+		{
+			int start = pos;
+
+			while (pos < path.length() && path.charAt(pos) >= '0' && path.charAt(pos) <= '9')
+				++pos;
+
+			if (pos == start)
+				throw error("Expected an attribute or a position");
+
+			int position = Integer.parseInt(path.substring(start, pos));
+
+			if (position < 1)
+				throw error("Positions start at 1");
+
+			return position;
+		}
+
+		private void skipWhiteSpace()
+		{
+			while (pos < path.length() && Character.isWhitespace(path.charAt(pos)))
+				++pos;
+		}
+
+		private boolean accept(char c)
+		{
+			if (pos < path.length() && path.charAt(pos) == c)
+			{
+				++pos;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(char c)
+		{
+			if (!accept(c))
+				throw error("Expected " + c);
+		}
+
+		private IllegalArgumentException error(String message)
+		{
+			return new IllegalArgumentException(message + " at position " + pos + " in " + path);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.query;
+
+import javax.xml.namespace.QName;
+
+import se.andsk.jaspxml.parser.Element;
+
+/**
+ * One step of a {@link PathQuery}, i.e. a name test and a list of predicates.
+ */
+final class Step
+{
+	/**
+	 * A predicate on an attribute, or a position if {@code attribute} is null.
+	 */
+	static final class Predicate
+	{
+		final QName attribute;
+		final String value;
+		final boolean equal;
+		final int position;
+
+		/**
+		 * Attribute predicate.
+		 *
+		 * @param attribute the name of the attribute
+		 * @param value the value to compare with, or null to test if the attribute exists
+		 * @param equal true if the value should be equal, false if it should be different
+		 */
+		Predicate(QName attribute, String value, boolean equal)
+		{
+			this.attribute = attribute;
+			this.value = value;
+			this.equal = equal;
+			this.position = 0;
+		}
+
+		/**
+		 * Positional predicate.
+		 *
+		 * @param position the position among the siblings that have passed the previous predicates, starting at 1
+		 */
+		Predicate(int position)
+		{
+			this.attribute = null;
+			this.value = null;
+			this.equal = true;
+			this.position = position;
+		}
+
+		boolean isPositional()
+		{
+			return attribute == null;
+		}
+	}
+
+	/**
+	 * True for the descendant axis ({@code //}), false for the child axis ({@code /})
+	 */
+	final boolean descendant;
+
+	/**
+	 * Namespace URI and local name to match, where null matches anything
+	 */
+	final String namespaceURI;
+	final String localName;
+
+	final Predicate[] predicates;
+	final int positionals;
+
+	Step(boolean descendant, String namespaceURI, String localName, Predicate[] predicates)
+	{
+		this.descendant = descendant;
+		this.namespaceURI = namespaceURI;
+		this.localName = localName;
+		this.predicates = predicates;
+
+		int positionals = 0;
+
+		for (Predicate predicate : predicates)
+		{
+			if (predicate.isPositional())
+				++positionals;
+		}
+
+		this.positionals = positionals;
+	}
+
+	/**
+	 * Returns true if no more siblings can match this step, because a positional predicate has already been passed.
+	 */
+	boolean isExhausted(int[] counters)
+	{
+		int counter = 0;
+
+		for (Predicate predicate : predicates)
+		{
+			if (predicate.isPositional() && counters[counter++] >= predicate.position)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Test if an element matches this step.
+	 *
+	 * @param element the element to test
+	 * @param counters one counter for each positional predicate, counting the earlier siblings that have reached the
+	 *            predicate. Updated by this method.
+	 * @return true if the element matches
+	 */
+	boolean matches(Element element, int[] counters)
+	{
+		QName name = element.getName();
+
+		if (localName != null && !localName.equals(name.getLocalPart()))
+			return false;
+		if (namespaceURI != null && !namespaceURI.equals(name.getNamespaceURI()))
+			return false;
+
+		int counter = 0;
+
+		for (Predicate predicate : predicates)
+		{
+			if (predicate.isPositional())
+			{
+				if (++counters[counter++] != predicate.position)
+					return false;
+			}
+			else
+			{
+				String value = element.getAttribute(predicate.attribute);
+
+				if (value == null)
+					return false;
+				if (predicate.value != null && predicate.value.equals(value) != predicate.equal)
+					return false;
+			}
+		}
+
+		return true;
+	}
+}
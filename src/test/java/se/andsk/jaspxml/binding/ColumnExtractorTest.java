@@ -0,0 +1,152 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.binding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.parser.TypeConverter;
+import se.andsk.jaspxml.parser.XMLParser;
+import se.andsk.jaspxml.parser.XMLParserStAX;
+import se.andsk.jaspxml.parser.XMLParserUTF8;
+
+public class ColumnExtractorTest
+{
+	private static final String DOCUMENT = "<trades>"
+			+ "<trade id='1' side='BUY'><price>101.5</price><quantity>200</quantity><time>2024-03-01T09:00:00Z</time></trade>"
+			+ "<comment>not a trade</comment>"
+			+ "<trade id='2' side='SELL'><price>9.5</price></trade>"
+			+ "<trade id='3' side='BUY' cancelled='true'><quantity> 7 </quantity><extra><price>1</price></extra></trade>"
+			+ "</trades>";
+
+	private static List<XMLParser> parsers(String document) throws XMLStreamException
+	{
+		byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+		List<XMLParser> parsers = new ArrayList<XMLParser>();
+
+		parsers.add(new XMLParserUTF8(ByteBuffer.wrap(bytes)));
+		parsers.add(new XMLParserStAX(XMLInputFactory.newInstance().createXMLEventReader(new ByteArrayInputStream(bytes))));
+
+		return parsers;
+	}
+
+	@Test
+	public void testExtract01() throws ParsingException, XMLStreamException
+	{
+		List<Column> columns = Arrays.asList(Column.ofLong("id", "@id"), Column.ofString("side", "@side"),
+				Column.ofDouble("price", "price"), Column.ofInt("quantity", "quantity"),
+				Column.ofLong("time", "time", TypeConverter.IsoEpochMillis), Column.ofBoolean("cancelled", "@cancelled"));
+		ColumnExtractor extractor = new ColumnExtractor(new QName("trade"), columns, Collections.<String, String> emptyMap(), 2);
+
+		for (XMLParser parser : parsers(DOCUMENT))
+		{
+			final List<ColumnBatch> batches = new ArrayList<ColumnBatch>();
+			final List<Integer> rows = new ArrayList<Integer>();
+
+			parser.next();
+			parser.down();
+
+			long count = extractor.extract(parser, batch ->
+			{
+				batches.add(batch);
+				rows.add(batch.getRowCount());
+
+				if (rows.size() == 1)
+				{
+					assertEquals(2, batch.getCapacity());
+					assertArrayEquals(new long[] { 1, 2 }, batch.getLongs(0));
+					assertEquals("BUY", batch.getString(1, 0));
+					assertEquals("SELL", batch.getString(1, 1));
+					assertArrayEquals(new int[] { 0, 1 }, batch.getCodes(1));
+					assertArrayEquals(new double[] { 101.5, 9.5 }, batch.getDoubles(2), 0);
+					assertEquals(200, batch.getInts(3)[0]);
+					assertFalse(batch.isNull(3, 0));
+					assertTrue(batch.isNull(3, 1));
+					assertEquals(1709283600000L, batch.getLongs(4)[0]);
+					assertTrue(batch.isNull(4, 1));
+					assertTrue(batch.isNull(5, 0));
+				}
+				else
+				{
+					assertEquals(3, batch.getLongs(batch.indexOf("id"))[0]);
+					assertEquals(Arrays.asList("BUY"), batch.getDictionary(1));
+					assertEquals(0, batch.getCodes(1)[0]);
+					assertTrue(batch.isNull(2, 0));
+					assertEquals(7, batch.getInts(3)[0]);
+					assertTrue(batch.getBooleans(5)[0]);
+					assertFalse(batch.isNull(5, 0));
+				}
+			});
+
+			assertEquals(3, count);
+			assertEquals(Arrays.asList(2, 1), rows);
+			assertTrue(batches.get(0) == batches.get(1));
+			assertEquals(0, parser.up());
+		}
+	}
+
+	@Test
+	public void testError01() throws ParsingException, XMLStreamException
+	{
+		ColumnExtractor extractor = new ColumnExtractor(Arrays.asList(Column.ofInt("x", "@x")));
+
+		for (XMLParser parser : parsers("<points><point x='1'/><point x='one'/></points>"))
+		{
+			parser.next();
+			parser.down();
+
+			try
+			{
+				extractor.extract(parser, batch -> fail());
+				fail();
+			}
+			catch (ParsingException e)
+			{
+				assertTrue(e.getMessage(), e.getMessage().contains("column x"));
+			}
+		}
+	}
+
+	@Test
+	public void testInvalid01()
+	{
+		try
+		{
+			new ColumnExtractor(Arrays.asList(Column.ofInt("a", "a"), Column.ofString("b", "a/text()")));
+			fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Expected
+		}
+
+		try
+		{
+			new ColumnExtractor(null, Arrays.asList(Column.ofInt("a", "a")), Collections.<String, String> emptyMap(), 0);
+			fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Expected
+		}
+	}
+}
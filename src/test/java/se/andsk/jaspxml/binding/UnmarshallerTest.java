@@ -0,0 +1,227 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.binding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.exceptions.TypeConversionException;
+import se.andsk.jaspxml.parser.TypeConverter;
+import se.andsk.jaspxml.parser.XMLParser;
+import se.andsk.jaspxml.parser.XMLParserStAX;
+import se.andsk.jaspxml.parser.XMLParserUTF8;
+
+public class UnmarshallerTest
+{
+	enum Side
+	{
+		BUY, SELL
+	}
+
+	@Record(name = "t:trade", namespaces = "t=urn:trades")
+	static class Trade
+	{
+		@Bind("@id")
+		long id;
+
+		@Bind("@side")
+		Side side;
+
+		@Bind("@cancelled")
+		boolean cancelled;
+
+		@Bind("t:price")
+		double price;
+
+		@Bind("t:price/@currency")
+		String currency;
+
+		@Bind("t:quantity")
+		Integer quantity;
+
+		@Bind("t:time")
+		Instant time;
+
+		@Bind("t:settlement/t:date")
+		LocalDate settlement;
+
+		@Bind("t:note/text()")
+		String note;
+
+		@Bind("t:fee")
+		BigDecimal fee;
+
+		@Bind(value = "@venue", converter = LowerCase.class)
+		String venue;
+
+		String trader;
+
+		@Bind("t:trader/@name")
+		void setTrader(String trader)
+		{
+			this.trader = "trader " + trader;
+		}
+	}
+
+	public static class LowerCase implements TypeConverter<String, String>
+	{
+		@Override
+		public String convert(String d) throws TypeConversionException
+		{
+			return d.toLowerCase();
+		}
+	}
+
+	private static final String DOCUMENT = "<trades xmlns='urn:trades'>"
+			+ "<trade id='1' side='BUY' cancelled='false' venue='XSTO'>"
+			+ "<price currency='SEK'>101.5</price><quantity> 200 </quantity><time>2024-03-01T09:00:00Z</time>"
+			+ "<settlement><date>2024-03-05</date></settlement><note>split <![CDATA[by <cdata>]]> text</note>"
+			+ "<fee>0.10</fee><trader name='anna'/><ignored><price>1</price></ignored></trade>"
+			+ "<comment>not a trade</comment>"
+			+ "<trade id='2' side='SELL' cancelled='1'><price currency='EUR'>9.5</price></trade>"
+			+ "</trades>";
+
+	private static List<XMLParser> parsers(String document) throws XMLStreamException
+	{
+		byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+		List<XMLParser> parsers = new ArrayList<XMLParser>();
+
+		parsers.add(new XMLParserUTF8(ByteBuffer.wrap(bytes)));
+		parsers.add(new XMLParserStAX(XMLInputFactory.newInstance().createXMLEventReader(new ByteArrayInputStream(bytes))));
+
+		return parsers;
+	}
+
+	@Test
+	public void testBind01() throws ParsingException, XMLStreamException
+	{
+		Unmarshaller<Trade> unmarshaller = Unmarshaller.of(Trade.class);
+
+		for (XMLParser parser : parsers(DOCUMENT))
+		{
+			parser.next();
+			parser.down();
+
+			Trade trade = unmarshaller.next(parser);
+			assertEquals(1, trade.id);
+			assertEquals(Side.BUY, trade.side);
+			assertFalse(trade.cancelled);
+			assertEquals(101.5, trade.price, 0);
+			assertEquals("SEK", trade.currency);
+			assertEquals(Integer.valueOf(200), trade.quantity);
+			assertEquals(Instant.parse("2024-03-01T09:00:00Z"), trade.time);
+			assertEquals(LocalDate.of(2024, 3, 5), trade.settlement);
+			assertEquals("split by <cdata> text", trade.note);
+			assertEquals(new BigDecimal("0.10"), trade.fee);
+			assertEquals("xsto", trade.venue);
+			assertEquals("trader anna", trade.trader);
+
+			trade = unmarshaller.next(parser);
+			assertEquals(2, trade.id);
+			assertEquals(Side.SELL, trade.side);
+			assertTrue(trade.cancelled);
+			assertEquals(9.5, trade.price, 0);
+			assertEquals("EUR", trade.currency);
+			assertNull(trade.quantity);
+			assertNull(trade.note);
+
+			assertNull(unmarshaller.next(parser));
+			assertEquals(0, parser.up());
+		}
+	}
+
+	static class Point
+	{
+		@Bind("@x")
+		int x;
+
+		@Bind("@y")
+		int y;
+	}
+
+	@Test
+	public void testError01() throws ParsingException, XMLStreamException
+	{
+		for (XMLParser parser : parsers("<points><point x='1' y='2'/><point x='1' y='two'/></points>"))
+		{
+			Unmarshaller<Point> unmarshaller = Unmarshaller.of(Point.class);
+			parser.next();
+			parser.down();
+
+			assertEquals(2, unmarshaller.next(parser).y);
+
+			try
+			{
+				unmarshaller.next(parser);
+				fail();
+			}
+			catch (ParsingException e)
+			{
+				assertTrue(e.getMessage(), e.getMessage().contains("Point.y"));
+			}
+		}
+	}
+
+	static class Final
+	{
+		@Bind("@x")
+		final int x = 0;
+	}
+
+	static class Unsupported
+	{
+		@Bind("@x")
+		Object x;
+	}
+
+	static class Twice
+	{
+		@Bind("a")
+		String a;
+
+		@Bind("a/text()")
+		String b;
+	}
+
+	static class UnknownPrefix
+	{
+		@Bind("p:a")
+		String a;
+	}
+
+	@Test
+	public void testInvalid01()
+	{
+		for (Class<?> type : new Class<?>[] { Final.class, Unsupported.class, Twice.class, UnknownPrefix.class })
+		{
+			try
+			{
+				Unmarshaller.of(type);
+				fail(type.getName());
+			}
+			catch (IllegalArgumentException e)
+			{
+				// Expected
+			}
+		}
+	}
+}
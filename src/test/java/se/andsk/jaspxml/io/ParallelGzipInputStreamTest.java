@@ -0,0 +1,220 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+
+public class ParallelGzipInputStreamTest
+{
+	/**
+	 * Write one gzip member, optionally with a BGZF size field.
+	 */
+	private static void writeMember(ByteArrayOutputStream out, byte[] data, int from, int to, int level, boolean bgzf)
+	{
+		Deflater deflater = new Deflater(level, true);
+		deflater.setInput(data, from, to - from);
+		deflater.finish();
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+
+		while (!deflater.finished())
+			compressed.write(buffer, 0, deflater.deflate(buffer));
+
+		deflater.end();
+
+		CRC32 crc = new CRC32();
+		crc.update(data, from, to - from);
+
+		if (bgzf)
+		{
+			int blockSize = 18 + compressed.size() + 8;
+			out.write(new byte[] { 0x1F, (byte) 0x8B, 8, 4, 0, 0, 0, 0, 0, (byte) 0xFF, 6, 0, 'B', 'C', 2, 0,
+					(byte) (blockSize - 1), (byte) ((blockSize - 1) >> 8) }, 0, 18);
+		}
+		else
+		{
+			out.write(new byte[] { 0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, 3 }, 0, 10);
+		}
+
+		out.write(compressed.toByteArray(), 0, compressed.size());
+		writeInt(out, crc.getValue());
+		writeInt(out, to - from);
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, long value)
+	{
+		for (int i = 0; i < 4; ++i)
+			out.write((int) (value >> (8 * i)));
+	}
+
+	private static byte[] document(Random random, int size)
+	{
+		StringBuilder builder = new StringBuilder("<records>");
+
+		while (builder.length() < size)
+			builder.append("<record id='").append(random.nextInt()).append("'/>");
+
+		return builder.append("</records>").toString().getBytes();
+	}
+
+	private static Path write(ByteArrayOutputStream out) throws IOException
+	{
+		File file = File.createTempFile("jaspxml", ".gz");
+		file.deleteOnExit();
+		Files.write(file.toPath(), out.toByteArray());
+
+		return file.toPath();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[5000];
+		int count;
+
+		while ((count = in.read(buffer)) >= 0)
+			out.write(buffer, 0, count);
+
+		in.close();
+
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testSingleMember01() throws IOException
+	{
+		byte[] data = document(new Random(1), 3000000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeMember(out, data, 0, data.length, Deflater.DEFAULT_COMPRESSION, false);
+
+		ParallelGzipInputStream in = new ParallelGzipInputStream(write(out), 4);
+		assertArrayEquals(data, readAll(in));
+		assertEquals(1, in.getMembers());
+	}
+
+	@Test
+	public void testMembers01() throws IOException
+	{
+		Random random = new Random(2);
+		byte[] data = document(random, 2000000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int members = 0;
+
+		for (int from = 0; from < data.length; ++members)
+		{
+			int to = Math.min(data.length, from + random.nextInt(200000));
+			writeMember(out, data, from, to, Deflater.BEST_SPEED, false);
+			from = to;
+		}
+
+		// Anything after the last member is ignored
+		out.write(new byte[] { 0, 0, 0 }, 0, 3);
+
+		ParallelGzipInputStream in = new ParallelGzipInputStream(write(out), 3);
+		assertArrayEquals(data, readAll(in));
+		assertEquals(members, in.getMembers() - in.getDiscardedMembers());
+	}
+
+	@Test
+	public void testBGZF01() throws IOException
+	{
+		byte[] data = document(new Random(3), 1000000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		for (int from = 0; from < data.length; from += 65280)
+			writeMember(out, data, from, Math.min(data.length, from + 65280), Deflater.DEFAULT_COMPRESSION, true);
+
+		// BGZF end of file marker
+		writeMember(out, data, 0, 0, Deflater.DEFAULT_COMPRESSION, true);
+
+		ParallelGzipInputStream in = new ParallelGzipInputStream(write(out), 4);
+		assertArrayEquals(data, readAll(in));
+		assertEquals(0, in.getDiscardedMembers());
+	}
+
+	@Test
+	public void testFalseHeaders01() throws IOException
+	{
+		// Uncompressed members contain the data as is, so headers in the data look like members
+		byte[] header = { 0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, 3 };
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+		for (int i = 0; i < 5000; ++i)
+		{
+			data.write(header, 0, header.length);
+			data.write(i);
+		}
+
+		byte[] bytes = data.toByteArray();
+
+		// Nothing is started speculatively inside a member that runs to the end of the file
+		ByteArrayOutputStream single = new ByteArrayOutputStream();
+		writeMember(single, bytes, 0, bytes.length, Deflater.NO_COMPRESSION, false);
+
+		ParallelGzipInputStream in = new ParallelGzipInputStream(write(single), 2);
+		assertArrayEquals(bytes, readAll(in));
+		assertEquals(1, in.getMembers());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeMember(out, bytes, 0, bytes.length / 2, Deflater.NO_COMPRESSION, false);
+		writeMember(out, bytes, bytes.length / 2, bytes.length, Deflater.NO_COMPRESSION, false);
+
+		in = new ParallelGzipInputStream(write(out), 2);
+		assertArrayEquals(bytes, readAll(in));
+		assertTrue(in.getDiscardedMembers() > 0);
+	}
+
+	@Test
+	public void testErrors01() throws IOException
+	{
+		byte[] data = document(new Random(4), 100000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeMember(out, data, 0, data.length, Deflater.DEFAULT_COMPRESSION, false);
+
+		byte[] corrupt = out.toByteArray();
+		corrupt[corrupt.length - 5] ^= 1;
+		out.reset();
+		out.write(corrupt, 0, corrupt.length);
+
+		try
+		{
+			readAll(new ParallelGzipInputStream(write(out)));
+			fail();
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getCause() instanceof ZipException);
+		}
+
+		out.reset();
+		out.write(data, 0, data.length);
+
+		try
+		{
+			new ParallelGzipInputStream(write(out));
+			fail();
+		}
+		catch (ZipException e)
+		{
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.TypeConversionException;
+
+public class CachingConverterTest
+{
+	@Test
+	public void testHits01() throws TypeConversionException
+	{
+		AtomicInteger conversions = new AtomicInteger();
+		CachingConverter<Integer> converter = new CachingConverter<Integer>(d -> {
+			conversions.incrementAndGet();
+			return d.equals("null") ? null : Integer.valueOf(d);
+		}, 10);
+
+		Integer first = converter.convert("1000");
+		assertSame(first, converter.convert(new String("1000")));
+		assertEquals(Integer.valueOf(2000), converter.convert("2000"));
+		assertNull(converter.convert("null"));
+		assertNull(converter.convert("null"));
+
+		assertEquals(3, conversions.get());
+		assertEquals(2, converter.getHits());
+		assertEquals(3, converter.getMisses());
+		assertEquals(0.4, converter.getHitRate(), 1e-9);
+		assertEquals(3, converter.size());
+
+		// Failed conversions are not cached
+		for (int i = 0; i < 2; ++i)
+		{
+			try
+			{
+				new CachingConverter<Integer>(TypeConverter.StringToInt, 1).convert("x");
+				fail();
+			}
+			catch (TypeConversionException e)
+			{
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testEviction01() throws TypeConversionException
+	{
+		CachingConverter<Integer> converter = new CachingConverter<Integer>(TypeConverter.StringToInt, 4);
+
+		for (int i = 0; i < 4; ++i)
+			converter.convert(Integer.toString(i));
+
+		// 0 and 1 are referenced, so 2 and 3 are evicted first
+		converter.convert("0");
+		converter.convert("1");
+		converter.convert("4");
+		converter.convert("5");
+
+		assertEquals(4, converter.size());
+		assertEquals(2, converter.getEvictions());
+
+		long misses = converter.getMisses();
+		converter.convert("0");
+		converter.convert("1");
+		converter.convert("4");
+		converter.convert("5");
+		assertEquals(misses, converter.getMisses());
+
+		converter.convert("2");
+		assertEquals(misses + 1, converter.getMisses());
+		assertEquals(4, converter.size());
+	}
+
+	@Test
+	public void testCanonical01() throws TypeConversionException
+	{
+		CachingConverter<String> converter = CachingConverter.canonical(16);
+		String a = new String("SEK");
+		String b = new String("SEK");
+
+		assertNotSame(a, b);
+		assertSame(a, converter.convert(a));
+		assertSame(a, converter.convert(b));
+
+		CachingConverter<Instant> instants = new CachingConverter<Instant>(TypeConverter.IsoInstant, 16);
+		assertSame(instants.convert("2024-01-01T00:00:00Z"), instants.convert("2024-01-01T00:00:00Z"));
+	}
+
+	@Test
+	public void testThreads01() throws Exception
+	{
+		CachingConverter<Integer> converter = new CachingConverter<Integer>(TypeConverter.StringToInt, 50);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+
+		try
+		{
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+			for (int t = 0; t < 8; ++t)
+			{
+				int seed = t;
+
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 20000; ++i)
+					{
+						int value = (i * 31 + seed) % 100;
+						assertEquals(Integer.valueOf(value), converter.convert(Integer.toString(value)));
+					}
+					return null;
+				}));
+			}
+
+			for (Future<Void> future : futures)
+				future.get();
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		assertEquals(8 * 20000, converter.getHits() + converter.getMisses());
+		assertEquals(50, converter.size());
+	}
+}
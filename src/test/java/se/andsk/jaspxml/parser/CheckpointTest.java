@@ -0,0 +1,154 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.InvalidParseCommandException;
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.io.ByteBufferByteSource;
+
+public class CheckpointTest
+{
+	private Random random;
+
+	private static XMLParserUTF8 resume(byte[] document, Checkpoint checkpoint) throws ParsingException, IOException
+	{
+		// Make sure that the checkpoint survives being saved
+		Checkpoint saved = Checkpoint.fromByteArray(checkpoint.toByteArray());
+
+		return XMLParserUTF8.resume(new ByteBufferByteSource(ByteBuffer.wrap(document)), saved);
+	}
+
+	private static void assertSameElement(Element expected, Element actual)
+	{
+		assertEquals(expected, actual);
+
+		if (expected != null)
+		{
+			assertEquals(expected.hasChildren(), actual.hasChildren());
+
+			if (!expected.isText())
+				assertEquals(expected.getName().getPrefix(), actual.getName().getPrefix());
+		}
+	}
+
+	/**
+	 * Apply the same random command to both parsers.
+	 */
+	private void step(XMLParser expected, XMLParser actual) throws ParsingException
+	{
+		int action = random.nextInt(10);
+
+		if (action < 3 && expected.getElement() != null)
+		{
+			boolean allowed = true;
+			int depth = 0;
+
+			try
+			{
+				depth = expected.down();
+			}
+			catch (InvalidParseCommandException e)
+			{
+				allowed = false;
+			}
+
+			try
+			{
+				assertEquals(depth, actual.down());
+				assertTrue(allowed);
+			}
+			catch (InvalidParseCommandException e)
+			{
+				assertTrue(!allowed);
+			}
+		}
+		else if (action < 4)
+		{
+			assertEquals(expected.up(), actual.up());
+			assertSameElement(expected.getElement(), actual.getElement());
+		}
+		else
+		{
+			assertSameElement(expected.next(), actual.next());
+
+			// The parsing depth may differ after up, if the original parser has read further into the subtree
+			assertEquals(expected.getDepth(), actual.getDepth());
+		}
+	}
+
+	/**
+	 * Walk through a document with random navigation. Every now and then a checkpoint is created, and from then on a
+	 * resumed parser must behave exactly like the original one.
+	 */
+	@Test
+	public void testResume01() throws ParsingException, IOException
+	{
+		random = new Random(1234);
+
+		for (int i = 0; i < 200; ++i)
+		{
+			String text = XMLParserUTF8ConformanceTest.generate(random);
+			byte[] document = text.getBytes("UTF-8");
+
+			try
+			{
+				XMLParserUTF8 original = new XMLParserUTF8(ByteBuffer.wrap(document));
+				XMLParserUTF8 resumed = resume(document, original.checkpoint());
+
+				for (int step = 0; step < 200; ++step)
+				{
+					if (random.nextInt(10) == 0)
+						resumed = resume(document, original.checkpoint());
+
+					step(original, resumed);
+				}
+			}
+			catch (AssertionError e)
+			{
+				fail("Document " + i + ": " + e.getMessage() + "\n" + text);
+			}
+		}
+	}
+
+	@Test
+	public void testResume02() throws ParsingException, IOException
+	{
+		String text = "<?xml version=\"1.0\"?>\n<root xmlns:a=\"urn:a\">\n  <a:list n=\"1\">\n"
+				+ "    <a:item>1</a:item>\n    <a:item>2</a:item>\n  </a:list>\n</root>";
+		byte[] document = text.getBytes("UTF-8");
+		XMLParserUTF8 parser = new XMLParserUTF8(ByteBuffer.wrap(document));
+
+		parser.next();
+		parser.down();
+		parser.next();
+		parser.down();
+		assertEquals(new QName("urn:a", "item"), parser.next().getName());
+
+		Checkpoint checkpoint = parser.checkpoint();
+		assertEquals(2, checkpoint.getDepth());
+		assertEquals(text.indexOf("<a:item>"), checkpoint.getOffset());
+
+		XMLParserUTF8 resumed = resume(document, checkpoint);
+		assertEquals(new QName("urn:a", "item"), resumed.getElement().getName());
+		resumed.down();
+		assertEquals("1", resumed.next().getText());
+		resumed.up();
+		assertEquals(new QName("urn:a", "item"), resumed.next().getName());
+		assertEquals(1, resumed.up());
+		assertEquals("1", resumed.getElement().getAttribute(new QName("n")));
+		assertEquals(null, resumed.next());
+	}
+}
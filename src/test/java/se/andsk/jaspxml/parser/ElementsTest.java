@@ -0,0 +1,140 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.exceptions.UncheckedParsingException;
+
+public class ElementsTest
+{
+	private static final String DOCUMENT = "<root><a><b/>text<c><d/></c></a><e/><f>more</f></root>";
+
+	private static XMLParser parse(String document)
+	{
+		return new XMLParserUTF8(ByteBuffer.wrap(document.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static String describe(Element element)
+	{
+		return element.isText() ? element.getText() : element.getName().getLocalPart();
+	}
+
+	@Test
+	public void testDepthFirst01()
+	{
+		List<String> names = new ArrayList<String>();
+		Iterator<Element> elements = Elements.depthFirst(parse(DOCUMENT));
+
+		while (elements.hasNext())
+			names.add(describe(elements.next()));
+
+		assertEquals("[root, a, b, text, c, d, e, f, more]", names.toString());
+		assertFalse(elements.hasNext());
+
+		try
+		{
+			elements.next();
+			fail();
+		}
+		catch (NoSuchElementException e)
+		{
+			// Expected
+		}
+	}
+
+	@Test
+	public void testDepthFirst02() throws ParsingException
+	{
+		// Start inside the document and stop at the end of the current depth
+		XMLParser parser = parse(DOCUMENT);
+		parser.next();
+		parser.down();
+		parser.next();
+		parser.down();
+		parser.next();
+
+		String names = Elements.depthFirstStream(parser).map(ElementsTest::describe).collect(Collectors.joining(","));
+
+		assertEquals("text,c,d", names);
+		assertEquals(1, parser.up());
+		assertEquals("e", describe(parser.next()));
+	}
+
+	@Test
+	public void testSiblings01() throws ParsingException
+	{
+		XMLParser parser = parse(DOCUMENT);
+		parser.next();
+		parser.down();
+
+		Iterator<Element> siblings = Elements.siblings(parser);
+		assertEquals("a", describe(siblings.next()));
+		assertEquals("e", describe(siblings.next()));
+		assertTrue(siblings.hasNext());
+		assertEquals("f", describe(siblings.next()));
+		assertFalse(siblings.hasNext());
+
+		parser = parse(DOCUMENT);
+		parser.next();
+		parser.down();
+
+		assertEquals(2, Elements.siblingStream(parser).filter(e -> !e.hasChildren() || e.getName().getLocalPart()
+				.equals("f")).count());
+		assertNull(parser.next());
+	}
+
+	@Test
+	public void testSpliterator01()
+	{
+		Spliterator<Element> spliterator = Elements.depthFirstSpliterator(parse(DOCUMENT));
+
+		assertTrue(spliterator.hasCharacteristics(Spliterator.ORDERED));
+		assertTrue(spliterator.hasCharacteristics(Spliterator.NONNULL));
+		assertFalse(spliterator.hasCharacteristics(Spliterator.SIZED));
+		assertNull(spliterator.trySplit());
+
+		List<String> names = new ArrayList<String>();
+		assertTrue(spliterator.tryAdvance(e -> names.add(describe(e))));
+		spliterator.forEachRemaining(e -> names.add(describe(e)));
+		assertFalse(spliterator.tryAdvance(e -> fail()));
+
+		assertEquals(9, names.size());
+		assertEquals("root", names.get(0));
+	}
+
+	@Test
+	public void testErrors01()
+	{
+		Iterator<Element> elements = Elements.depthFirst(parse("<root><a x=1/></root>"));
+
+		try
+		{
+			while (elements.hasNext())
+				elements.next();
+
+			fail();
+		}
+		catch (UncheckedParsingException e)
+		{
+			assertTrue(e.getCause() instanceof ParsingException);
+		}
+	}
+}
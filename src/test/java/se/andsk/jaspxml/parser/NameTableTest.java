@@ -0,0 +1,84 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+public class NameTableTest
+{
+	@Test
+	public void testIds01()
+	{
+		QName a = new QName("a");
+		NameTable table = new NameTable(a, new QName("urn:x", "b", "x"));
+
+		assertEquals(0, table.getId(new QName("a")));
+		assertEquals(1, table.getId(new QName("urn:x", "b", "y")));
+		assertEquals(-1, table.lookup(new QName("c")));
+		assertEquals(2, table.getId(new QName("c")));
+		assertEquals(2, table.lookup(new QName("c")));
+		assertEquals(3, table.size());
+
+		// The first instance is canonical, including its prefix
+		assertSame(a, table.intern(new QName("a")));
+		assertEquals("x", table.intern(new QName("urn:x", "b")).getPrefix());
+
+		try
+		{
+			table.getName(3);
+			fail();
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+			// Expected
+		}
+	}
+
+	@Test
+	public void testShared01() throws InterruptedException
+	{
+		NameTable table = new NameTable();
+		List<Thread> threads = new ArrayList<Thread>();
+		AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		for (int t = 0; t < 4; ++t)
+		{
+			Thread thread = new Thread(() -> {
+				try
+				{
+					for (int i = 0; i < 1000; ++i)
+					{
+						QName name = new QName("n" + i);
+						assertEquals(name, table.getName(table.getId(name)));
+					}
+				}
+				catch (Throwable e)
+				{
+					error.set(e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals(null, error.get());
+		assertEquals(1000, table.size());
+
+		for (int i = 0; i < 1000; ++i)
+			assertEquals(i, table.getId(table.getName(i)));
+	}
+}
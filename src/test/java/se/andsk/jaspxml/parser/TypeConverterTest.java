@@ -0,0 +1,257 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.Random;
+
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.TypeConversionException;
+
+public class TypeConverterTest
+{
+	private static void assertInvalidDouble(TypeConverter.ToDouble converter, String s)
+	{
+		try
+		{
+			converter.convert(s);
+			fail(s);
+		}
+		catch (TypeConversionException e)
+		{
+			// Expected
+		}
+	}
+
+	@Test
+	public void testInt01() throws TypeConversionException
+	{
+		assertEquals(0, TypeConverter.ParseInt.convert("0"));
+		assertEquals(-17, TypeConverter.ParseInt.convert(" -17\n"));
+		assertEquals(Integer.MAX_VALUE, TypeConverter.ParseInt.convert("+2147483647"));
+		assertEquals(Integer.MIN_VALUE, TypeConverter.ParseInt.convert("-2147483648"));
+		assertEquals(Long.MIN_VALUE, TypeConverter.ParseLong.convert("-9223372036854775808"));
+
+		assertEquals(Long.MAX_VALUE, TypeConverter.ParseLong.convert("00000009223372036854775807"));
+		assertEquals(-123456789012345678L, TypeConverter.ParseLong.convert("-123456789012345678"));
+
+		for (String s : new String[] { "", " ", "-", "2147483648", "-2147483649", "1.0", "1 2", "0x10", "1_0" })
+		{
+			try
+			{
+				TypeConverter.ParseInt.convert(s);
+				fail(s);
+			}
+			catch (TypeConversionException e)
+			{
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testDouble01() throws TypeConversionException
+	{
+		String[] values = { "0", "-0", "1", "2.5", "-2.5e-3", "0.1", "123456789012345", "1234567890123456789",
+				"3.141592653589793", "1e22", "1e23", "1E-300", "4.9e-324", "1.7976931348623157e308", "1e400", ".5",
+				"5.", "0.000000000000000000001", "+7", "NaN", "-Infinity", "1.5d", "0x1p3" };
+
+		for (String value : values)
+			assertEquals(value, Double.parseDouble(value), TypeConverter.ParseDouble.convert(value), 0);
+
+		assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(TypeConverter.ParseDouble.convert("-0")));
+		assertEquals(Double.POSITIVE_INFINITY, TypeConverter.ParseDouble.convert("INF"), 0);
+		assertEquals(Double.NEGATIVE_INFINITY, TypeConverter.ParseDouble.convert("-INF"), 0);
+		assertEquals(9.9, TypeConverter.ParseDouble.convert("\n  9.9  \n"), 0);
+
+		for (String value : new String[] { "", ".", "-", "e5", "1e", "1.2.3", "1 2", "abc" })
+			assertInvalidDouble(TypeConverter.ParseDouble, value);
+	}
+
+	@Test
+	public void testLong01()
+	{
+		for (String s : new String[] { "9223372036854775808", "-9223372036854775809", "99999999999999999999", "1a" })
+		{
+			try
+			{
+				TypeConverter.ParseLong.convert(s);
+				fail(s);
+			}
+			catch (TypeConversionException e)
+			{
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testDouble02() throws TypeConversionException
+	{
+		// Compare with the JDK for random doubles, random decimal strings and values halfway between two doubles
+		Random random = new Random(42);
+
+		for (int i = 0; i < 50000; ++i)
+		{
+			String s;
+
+			switch (i % 4)
+			{
+				case 0:
+					s = Double.toString(Double.longBitsToDouble(random.nextLong() & Long.MAX_VALUE));
+					break;
+				case 1:
+					s = Float.toString(Float.intBitsToFloat(random.nextInt() & Integer.MAX_VALUE));
+					break;
+				case 2:
+					StringBuilder builder = new StringBuilder();
+					int digits = 1 + random.nextInt(25);
+
+					for (int j = 0; j < digits; ++j)
+						builder.append((char) ('0' + random.nextInt(10)));
+
+					builder.insert(random.nextInt(digits + 1), '.').append('e').append(random.nextInt(700) - 350);
+					s = builder.toString();
+					break;
+				default:
+					double d = Double.longBitsToDouble(random.nextLong() & 0x7FEFFFFFFFFFFFFFL);
+					s = new BigDecimal(d).add(new BigDecimal(Math.nextUp(d))).divide(BigDecimal.valueOf(2)).toString();
+			}
+
+			if (s.startsWith(".e") || s.equals("."))
+				continue;
+
+			assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)),
+					Double.doubleToLongBits(TypeConverter.ParseDouble.convert(s)));
+		}
+	}
+
+	@Test
+	public void testDateTime01() throws TypeConversionException
+	{
+		String[] instants = { "2024-02-29T12:45:00Z", "2024-02-29T13:45:00.5+01:00", "1969-12-31T23:59:59.999999999Z",
+				"1900-03-01T00:00-05:30", "0001-01-01T00:00:00Z", "-0044-03-15T12:00:00+18:00", "+99999-01-01T00:00Z" };
+
+		for (String s : instants)
+		{
+			OffsetDateTime expected = OffsetDateTime.parse(s);
+
+			if (s.startsWith("+"))
+			{
+				// Years with more than four digits don't have a sign in XML
+				s = s.substring(1);
+			}
+
+			assertEquals(s, expected.toInstant(), TypeConverter.IsoInstant.convert(s));
+			assertEquals(s, expected, TypeConverter.IsoOffsetDateTime.convert(s));
+			assertEquals(s, expected.toInstant().toEpochMilli(), TypeConverter.IsoEpochMillis.convert(s));
+		}
+
+		assertEquals(LocalDateTime.of(2000, 1, 2, 3, 4, 5, 600000000),
+				TypeConverter.IsoLocalDateTime.convert(" 2000-01-02T03:04:05.6 "));
+		assertEquals(LocalDateTime.of(2000, 1, 3, 0, 0), TypeConverter.IsoLocalDateTime.convert("2000-01-02T24:00:00"));
+		assertEquals(LocalDate.of(2000, 2, 29), TypeConverter.IsoLocalDate.convert("2000-02-29"));
+		assertEquals(Instant.ofEpochSecond(1700000000), TypeConverter.EpochSecondsToInstant.convert("1700000000"));
+		assertEquals(Instant.ofEpochMilli(-1), TypeConverter.EpochMillisToInstant.convert("-1"));
+
+		// Valid instants that don't fit in epoch milliseconds
+		for (String s : new String[] { "300000000-01-01T00:00:00Z", "-300000000-01-01T00:00:00Z" })
+		{
+			assertEquals(OffsetDateTime.parse((s.startsWith("-") ? "" : "+") + s).toInstant(),
+					TypeConverter.IsoInstant.convert(s));
+
+			try
+			{
+				TypeConverter.IsoEpochMillis.convert(s);
+				fail(s);
+			}
+			catch (TypeConversionException e)
+			{
+				// Expected
+			}
+		}
+
+		String[] invalid = { "", "2024-02-30T00:00Z", "1900-02-29", "2024-1-01", "2024-13-01", "2024-01-01T24:00:01Z",
+				"2024-01-01T12:60Z", "2024-01-01T12:00:00.Z", "2024-01-01T12:00:00", "2024-01-01T12:00:00+19:00",
+				"2024-01-01T12:00:00+0100", "02024-01-01T12:00Z", "2024-01-01Z", "2024-01-01T00:00Zx" };
+
+		for (String s : invalid)
+		{
+			try
+			{
+				if (s.length() == 10)
+					TypeConverter.IsoLocalDate.convert(s);
+				else
+					TypeConverter.IsoInstant.convert(s);
+
+				fail(s);
+			}
+			catch (TypeConversionException e)
+			{
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testBoolean01() throws TypeConversionException
+	{
+		assertTrue(TypeConverter.ParseBoolean.convert("true"));
+		assertTrue(TypeConverter.ParseBoolean.convert(" 1 "));
+		assertFalse(TypeConverter.ParseBoolean.convert("false"));
+		assertFalse(TypeConverter.ParseBoolean.convert("0"));
+
+		for (String s : new String[] { "", "TRUE", "yes", "10" })
+		{
+			try
+			{
+				TypeConverter.ParseBoolean.convert(s);
+				fail(s);
+			}
+			catch (TypeConversionException e)
+			{
+				// Expected
+			}
+		}
+	}
+
+	private static void assertInvalid(TypeConverter<String, ?> converter, String s)
+	{
+		try
+		{
+			converter.convert(s);
+			fail(s);
+		}
+		catch (TypeConversionException e)
+		{
+			// Expected
+		}
+	}
+
+	/**
+	 * The boxing converters keep the rules of {@link Integer#valueOf(String)} and {@link Double#valueOf(String)}.
+	 */
+	@Test
+	public void testStrict01() throws TypeConversionException
+	{
+		assertEquals(Integer.valueOf(42), TypeConverter.StringToInt.convert("42"));
+		assertEquals(Long.valueOf(-42), TypeConverter.StringToLong.convert("-42"));
+		assertEquals(Double.valueOf(Double.POSITIVE_INFINITY), TypeConverter.StringToDouble.convert("Infinity"));
+
+		assertInvalid(TypeConverter.StringToInt, " 42 ");
+		assertInvalid(TypeConverter.StringToLong, "42\n");
+		assertInvalid(TypeConverter.StringToDouble, "INF");
+		assertInvalid(TypeConverter.StringToDouble, "-INF");
+	}
+}
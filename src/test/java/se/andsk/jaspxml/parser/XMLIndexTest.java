@@ -0,0 +1,155 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.xml.namespace.QName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+
+public class XMLIndexTest
+{
+	private static final String NS1 = "urn:one";
+	private static final String NS2 = "urn:two";
+	private static final QName RECORD = new QName(NS1, "record");
+	private static final QName GROUP = new QName("group");
+	private static final QName ID = new QName("id");
+
+	private Path document;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root xmlns:n=\"" + NS1 + "\">\n");
+
+		// The second group binds the prefix to another namespace, so it has no matching records
+		for (int group = 0; group < 3; ++group)
+		{
+			xml.append("  <group id=\"g").append(group).append("\"");
+
+			if (group == 1)
+				xml.append(" xmlns:n=\"" + NS2 + "\"");
+
+			xml.append(">\n");
+
+			for (int i = 0; i < 10; ++i)
+			{
+				xml.append("    <n:record id=\"").append(group * 10 + i).append("\"><value>&lt;")
+						.append(i).append("&gt;</value></n:record>\n");
+			}
+
+			xml.append("    <other/>\n  </group>\n");
+		}
+
+		xml.append("</root>\n");
+
+		document = Files.createTempFile("index", ".xml");
+		Files.write(document, xml.toString().getBytes("UTF-8"));
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists(XMLIndex.getSidecar(document));
+		Files.delete(document);
+	}
+
+	private void assertRecord(XMLIndex index, int element, String id) throws ParsingException, IOException
+	{
+		XMLParserUTF8 parser = index.open(document, element);
+
+		try
+		{
+			Element e = parser.next();
+			assertEquals(RECORD, e.getName());
+			assertEquals(id, e.getAttribute(ID));
+
+			parser.down();
+			assertEquals(new QName("value"), parser.next().getName());
+			parser.down();
+			assertEquals("<" + id.charAt(id.length() - 1) + ">", parser.next().getText());
+			parser.up();
+			parser.up();
+
+			// The rest of the document can be parsed as usual
+			assertEquals(RECORD, parser.next().getName());
+			assertEquals(1, parser.up());
+			assertEquals(GROUP, parser.getElement().getName());
+			assertEquals(0, parser.up());
+			assertEquals(new QName("root"), parser.getElement().getName());
+		}
+		finally
+		{
+			parser.close();
+		}
+	}
+
+	@Test
+	public void testIndex01() throws ParsingException, IOException
+	{
+		XMLIndex index = XMLIndex.build(document, 2, RECORD);
+
+		assertEquals(20, index.size());
+		assertRecord(index, 0, "0");
+		assertRecord(index, 5, "5");
+		assertRecord(index, 12, "22");
+
+		// Offsets between records find the next record
+		assertEquals(6, index.find(index.getOffset(5) + 1));
+		assertEquals(20, index.find(Long.MAX_VALUE));
+
+		XMLParserUTF8 parser = index.openAt(document, index.getOffset(9) + 1);
+		assertEquals("20", parser.next().getAttribute(ID));
+		parser.close();
+	}
+
+	@Test
+	public void testIndex02() throws ParsingException, IOException
+	{
+		// All elements at depth 2
+		XMLIndex index = XMLIndex.build(document, 2);
+		assertEquals(33, index.size());
+
+		XMLParserUTF8 parser = index.open(document, 15);
+		Element e = parser.next();
+		assertEquals(new QName(NS2, "record"), e.getName());
+		assertEquals("n", e.getName().getPrefix());
+		assertEquals("14", e.getAttribute(ID));
+		assertEquals(1, parser.up());
+		assertEquals("g1", parser.getElement().getAttribute(ID));
+		assertEquals("g2", parser.next().getAttribute(ID));
+		parser.close();
+	}
+
+	@Test
+	public void testSidecar01() throws ParsingException, IOException
+	{
+		XMLIndex built = XMLIndex.load(document, 2, RECORD);
+		assertTrue(Files.exists(XMLIndex.getSidecar(document)));
+
+		XMLIndex read = XMLIndex.load(document, 2, RECORD);
+		assertEquals(built.size(), read.size());
+
+		for (int i = 0; i < read.size(); ++i)
+			assertEquals(built.getOffset(i), read.getOffset(i));
+
+		assertRecord(read, 0, "0");
+		assertRecord(read, 15, "25");
+
+		// A sidecar for other elements is replaced
+		assertEquals(33, XMLIndex.load(document, 2, null).size());
+		assertEquals(33, XMLIndex.read(XMLIndex.getSidecar(document)).size());
+	}
+}
@@ -0,0 +1,126 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.xml.namespace.QName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+
+public class XMLParallelParserTest
+{
+	private static final String NS = "http://www.example.com/records";
+
+	private Path file;
+	private ForkJoinPool pool = new ForkJoinPool(4);
+
+	@Before
+	public void setUp() throws IOException
+	{
+		StringBuilder document = new StringBuilder();
+		document.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		document.append("<r:root xmlns:r=\"" + NS + "\">\n  <r:header><r:count>1000</r:count></r:header>\n  <r:data>\n");
+
+		for (int i = 0; i < 1000; ++i)
+		{
+			document.append("    <r:record id=\"").append(i).append("\"");
+
+			if (i % 7 == 0)
+				document.append("/>\n");
+			else
+				document.append("><r:value>").append(i * 2).append("</r:value><!-- comment --></r:record>\n");
+		}
+
+		document.append("  </r:data>\n</r:root>\n");
+
+		file = Files.createTempFile("records", ".xml");
+		Files.write(file, document.toString().getBytes("UTF-8"));
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		Files.delete(file);
+		pool.shutdown();
+	}
+
+	private static final RecordMapper<Integer> ID = new RecordMapper<Integer>()
+	{
+		@Override
+		public Integer map(XMLParser parser, Element record) throws ParsingException
+		{
+			int id = Integer.parseInt(record.getAttribute(new QName("id")));
+
+			if (record.hasChildren())
+			{
+				// Leave the parser inside the record
+				parser.down();
+				assertEquals(new QName(NS, "value"), parser.next().getName());
+				parser.down();
+				assertEquals(String.valueOf(2 * id), parser.next().getText());
+			}
+
+			return id;
+		}
+	};
+
+	private List<Integer> parse(long rangeSize, boolean ordered) throws ParsingException, IOException
+	{
+		final List<Integer> result = new ArrayList<Integer>();
+		XMLParallelParser parser = new XMLParallelParser(file, new QName(NS, "record"), 2, pool, rangeSize);
+
+		parser.parse(ID, new RecordConsumer<Integer>()
+		{
+			@Override
+			public void accept(Integer id)
+			{
+				result.add(id);
+			}
+		}, ordered);
+
+		return result;
+	}
+
+	private static List<Integer> expected(int from, int to)
+	{
+		List<Integer> result = new ArrayList<Integer>();
+
+		for (int i = from; i < to; ++i)
+			result.add(i);
+
+		return result;
+	}
+
+	@Test
+	public void testOrdered01() throws ParsingException, IOException
+	{
+		List<Integer> all = expected(0, 1000);
+
+		assertEquals(all, parse(1 << 20, true));
+		assertEquals(all, parse(100, true));
+		assertEquals(all, parse(30, true));
+	}
+
+	@Test
+	public void testUnordered01() throws ParsingException, IOException
+	{
+		List<Integer> result = parse(200, false);
+		Collections.sort(result);
+
+		assertEquals(expected(0, 1000), result);
+	}
+}
@@ -0,0 +1,33 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Runs all tests in {@link XMLParserStAXTest} against memory mapped files, using a small window so that the file is
+ * mapped several times.
+ */
+public class XMLParserMappedTest extends XMLParserStAXTest
+{
+	@Override
+	protected XMLParser createParser(File file)
+	{
+		try
+		{
+			return XMLParsers.open(file.toPath(), 32);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected long getSkippedElements()
+	{
+		return ((XMLParserUTF8) parser).getSkippedElements();
+	}
+}
@@ -0,0 +1,136 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.io.ReadAheadByteSource;
+
+/**
+ * Runs all tests in {@link XMLParserStAXTest} against {@link XMLParserUTF8} reading through a
+ * {@link ReadAheadByteSource}, using small chunks so that tokens are split between chunks.
+ */
+public class XMLParserReadAheadTest extends XMLParserStAXTest
+{
+	@Override
+	protected XMLParser createParser(InputStream in)
+	{
+		return new XMLParserUTF8(new ReadAheadByteSource(in, 16, 2));
+	}
+
+	@Override
+	protected long getSkippedElements()
+	{
+		return ((XMLParserUTF8) parser).getSkippedElements();
+	}
+
+	@Test
+	public void testCompressed01() throws IOException, ParsingException
+	{
+		File file = File.createTempFile("jaspxml", ".xml.gz");
+		file.deleteOnExit();
+
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file.toPath())))
+		{
+			out.write("<records>".getBytes(StandardCharsets.UTF_8));
+
+			for (int i = 0; i < 10000; ++i)
+				out.write(("<record id='" + i + "'>value " + i + "</record>").getBytes(StandardCharsets.UTF_8));
+
+			out.write("</records>".getBytes(StandardCharsets.UTF_8));
+		}
+
+		try (XMLParserUTF8 parser = XMLParsers.openCompressed(file.toPath()))
+		{
+			parser.next();
+			parser.down();
+
+			int count = 0;
+			Element record;
+
+			while ((record = parser.next()) != null)
+			{
+				assertEquals(Integer.toString(count), record.getAttribute(new javax.xml.namespace.QName("id")));
+				++count;
+			}
+
+			assertEquals(10000, count);
+		}
+	}
+
+	@Test
+	public void testStatistics01() throws IOException, ParsingException
+	{
+		StringBuilder document = new StringBuilder("<a>");
+
+		for (int i = 0; i < 1000; ++i)
+			document.append("<b/>");
+
+		byte[] data = document.append("</a>").toString().getBytes(StandardCharsets.UTF_8);
+		ReadAheadByteSource source = new ReadAheadByteSource(new ByteArrayInputStream(data), 64, 4);
+		XMLParserUTF8 parser = new XMLParserUTF8(source);
+
+		parser.next();
+		parser.down();
+
+		while (parser.next() != null)
+		{
+		}
+
+		assertEquals(4, source.getChunkCount());
+		assertEquals((data.length + 63) / 64, source.getChunksRead());
+		assertEquals(0, source.getQueuedChunks());
+		assertTrue(source.getAverageQueuedChunks() >= 0 && source.getAverageQueuedChunks() <= 4);
+		assertTrue(source.getParserWaits() <= source.getChunksRead() + 1);
+
+		parser.close();
+	}
+
+	@Test
+	public void testError01() throws IOException
+	{
+		// The parser gets the bytes that were read before the failure
+		InputStream failing = new InputStream()
+		{
+			@Override
+			public int read() throws IOException
+			{
+				throw new IOException("Broken");
+			}
+		};
+		InputStream in = new SequenceInputStream(new ByteArrayInputStream("<a><b/>".getBytes(StandardCharsets.UTF_8)),
+				failing);
+		XMLParserUTF8 parser = new XMLParserUTF8(new ReadAheadByteSource(in, 16, 2));
+
+		try
+		{
+			assertEquals("a", parser.next().getName().getLocalPart());
+			parser.down();
+			parser.next();
+			parser.next();
+			fail();
+		}
+		catch (ParsingException e)
+		{
+			// Expected
+		}
+
+		parser.close();
+	}
+}
@@ -0,0 +1,84 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+
+/**
+ * Runs all tests in {@link XMLParserStAXTest} against {@link XMLParserStAXCursor} with reused elements.
+ */
+public class XMLParserStAXCursorReuseTest extends XMLParserStAXCursorTest
+{
+	@Override
+	protected XMLParser createParser(InputStream in) throws XMLStreamException
+	{
+		XMLParserStAXCursor parser = (XMLParserStAXCursor) super.createParser(in);
+		parser.setReuseElements(true);
+
+		return parser;
+	}
+
+	@Test
+	public void testReuse01() throws ParsingException, FileNotFoundException, XMLStreamException
+	{
+		setUp("/test01.xml");
+
+		Element root = parser.next();
+		parser.down();
+
+		Element first = parser.next();
+		Element snapshot = parser.next().snapshot();
+		Element third = parser.next();
+
+		// Two elements are used in turn at each depth, and the ancestors are kept
+		assertSame(first, third);
+		assertEquals("level1_text", third.getName().getLocalPart());
+		assertEquals(new QName("level1_2"), snapshot.getName());
+		assertEquals("a", snapshot.getAttribute(new QName("a")));
+		assertSame(snapshot, snapshot.snapshot());
+
+		parser.up();
+		assertSame(root, parser.getElement());
+		assertEquals("2.3", root.getAttribute(new QName("b")));
+	}
+
+	@Test
+	public void testReuse02() throws ParsingException, FileNotFoundException, XMLStreamException
+	{
+		setUp("/test01.xml");
+
+		parser.next();
+		parser.down();
+
+		List<Element> batch = new ArrayList<Element>();
+		assertEquals(6, parser.nextBatch(10, batch));
+
+		// The batch holds snapshots
+		assertEquals("[level1_1, level1_2, level1_text, level1_3, level1_copy, level1_copy]",
+				names(batch).toString());
+	}
+
+	private static List<String> names(List<Element> elements)
+	{
+		List<String> names = new ArrayList<String>();
+
+		for (Element element : elements)
+			names.add(element.getName().getLocalPart());
+
+		return names;
+	}
+}
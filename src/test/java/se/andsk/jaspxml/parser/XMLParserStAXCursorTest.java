@@ -0,0 +1,31 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Runs all tests in {@link XMLParserStAXTest} against {@link XMLParserStAXCursor}.
+ */
+public class XMLParserStAXCursorTest extends XMLParserStAXTest
+{
+	@Override
+	protected XMLParser createParser(InputStream in) throws XMLStreamException
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		XMLStreamReader reader = factory.createXMLStreamReader(in);
+
+		return new XMLParserStAXCursor(reader);
+	}
+
+	@Override
+	protected long getSkippedElements()
+	{
+		return ((XMLParserStAXCursor) parser).getSkippedElements();
+	}
+}
@@ -8,11 +8,16 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.namespace.QName;
@@ -26,23 +31,49 @@ import se.andsk.jaspxml.exceptions.InvalidParseCommandException;
 import se.andsk.jaspxml.exceptions.ParsingException;
 import se.andsk.jaspxml.exceptions.TypeConversionException;
 import se.andsk.jaspxml.parser.Element;
-import se.andsk.jaspxml.parser.ElementStAX;
 import se.andsk.jaspxml.parser.XMLParser;
 
 public class XMLParserStAXTest
 {
 	
-	private XMLParser parser;
+	protected XMLParser parser;
 
 	public void setUp(String fileName) throws XMLStreamException, FileNotFoundException
 	{
 		URL url = this.getClass().getResource(fileName);
 		File file = new File(url.getFile());
-		InputStream in = new FileInputStream(file);
+
+		parser = createParser(file);
+	}
+
+	/**
+	 * Create the parser under test for a file. By default the file is opened as a stream and passed to
+	 * {@link #createParser(InputStream)}.
+	 * 
+	 * @param file XML document
+	 * @return a parser reading from {@code file}
+	 * @throws XMLStreamException
+	 * @throws FileNotFoundException
+	 */
+	protected XMLParser createParser(File file) throws XMLStreamException, FileNotFoundException
+	{
+		return createParser(new FileInputStream(file));
+	}
+
+	/**
+	 * Create the parser under test. Other implementations of {@link XMLParser} can reuse all tests in this class by
+	 * overriding this method.
+	 * 
+	 * @param in XML document
+	 * @return a parser reading from {@code in}
+	 * @throws XMLStreamException
+	 */
+	protected XMLParser createParser(InputStream in) throws XMLStreamException
+	{
 		XMLInputFactory factory = XMLInputFactory.newInstance();
 		XMLEventReader eventReader = factory.createXMLEventReader(in);
 
-		parser = new XMLParserStAX(eventReader);
+		return new XMLParserStAX(eventReader);
 	}
 
 	/**
@@ -243,21 +274,82 @@ public class XMLParserStAXTest
 		assertEquals(null, parser.getElement());
 	}
 	
+	/**
+	 * Returns the number of elements that the parser under test has skipped.
+	 */
+	protected long getSkippedElements()
+	{
+		return ((XMLParserStAX) parser).getSkippedElements();
+	}
+
+	/**
+	 * Skip subtrees of different depths and make sure that the parser ends up at the right siblings.
+	 * 
+	 * @throws ParsingException
+	 * @throws FileNotFoundException
+	 * @throws XMLStreamException
+	 */
+	@Test
+	public void testSkip01() throws ParsingException, FileNotFoundException, XMLStreamException
+	{
+		setUp("/test01.xml");
+
+		parser.next();
+		parser.down();
+
+		assertEquals("level1_1", parser.next().getName().getLocalPart());
+		assertEquals("level1_2", parser.next().getName().getLocalPart());
+		assertEquals("level1_text", parser.next().getName().getLocalPart());
+		assertEquals("level1_3", parser.next().getName().getLocalPart());
+		assertEquals(0, getSkippedElements());
+
+		// Skip all five descendants of level1_3
+		assertEquals("level1_copy", parser.next().getName().getLocalPart());
+		assertEquals(5, getSkippedElements());
+
+		parser.next();
+		assertEquals(null, parser.next());
+		assertEquals(0, parser.up());
+
+		// Skipping from inside the tree does not count the elements that are left at the current depth.
+		setUp("/test01.xml");
+
+		parser.next();
+		parser.down();
+		parser.next();
+		parser.next();
+		parser.next();
+		parser.next();
+		parser.down();
+		assertEquals("level2_1", parser.next().getName().getLocalPart());
+		assertEquals("level2_2", parser.next().getName().getLocalPart());
+		parser.down();
+		assertEquals("level3_1", parser.next().getName().getLocalPart());
+		parser.up();
+		parser.up();
+		parser.up();
+
+		assertEquals(null, parser.next());
+		assertEquals(0, parser.getDepth());
+		assertEquals(4, getSkippedElements());
+	}
+
 	@Test
 	public void testCompare01() throws ParsingException, FileNotFoundException, XMLStreamException
 	{
 		setUp("/test01.xml");
 		
-		ElementStAX l0 = (ElementStAX) parser.next();
+		// Elements are kept, which requires snapshots if the parser reuses them
+		Element l0 = parser.next().snapshot();
 
 		parser.down();
 
-		ElementStAX l1_1 = (ElementStAX) parser.next();
-		ElementStAX l1_2 = (ElementStAX) parser.next();
-		ElementStAX l1_text = (ElementStAX) parser.next();
-		ElementStAX l1_3 = (ElementStAX) parser.next();
-		ElementStAX l1_copy1 = (ElementStAX) parser.next();
-		ElementStAX l1_copy2 = (ElementStAX) parser.next();
+		Element l1_1 = parser.next().snapshot();
+		Element l1_2 = parser.next().snapshot();
+		Element l1_text = parser.next().snapshot();
+		Element l1_3 = parser.next().snapshot();
+		Element l1_copy1 = parser.next().snapshot();
+		Element l1_copy2 = parser.next().snapshot();
 		
 		assertFalse(l0.equals(l1_1));
 		assertFalse(l0.hashCode() == l1_1.hashCode());
@@ -502,4 +594,375 @@ public class XMLParserStAXTest
 		assertEquals(1, parser.up());
 		assertEquals(0, parser.up());
 	}
+
+	/**
+	 * Skip elements and text with a filter.
+	 * 
+	 * @throws FileNotFoundException
+	 * @throws XMLStreamException
+	 * @throws ParsingException
+	 */
+	@Test
+	public void testFilter01() throws FileNotFoundException, XMLStreamException, ParsingException
+	{
+		String n1 = "http://www.example.com/namespace1";
+		String n2 = "http://www.example.com/namespace2";
+
+		// Both elements at depth 2 have the same local name
+		setUp("/namespace.xml");
+		parser.setFilter(new ElementFilter().acceptAt(1, new QName(n1, "level1.2")).acceptAt(2,
+				new QName(n2, "level2.1")));
+
+		assertEquals("level0", parser.next().getName().getLocalPart());
+		parser.down();
+		assertEquals(new QName(n1, "level1.2"), parser.next().getName());
+		assertEquals(2, getSkippedElements());
+		parser.down();
+		assertEquals(new QName(n2, "level2.1"), parser.next().getName());
+		assertEquals(null, parser.next());
+
+		setUp("/namespace.xml");
+		parser.setFilter(new ElementFilter().acceptAt(2, new QName(n1, "level2.1")));
+		parser.next();
+		parser.down();
+		parser.next();
+		parser.down();
+		assertEquals(new QName(n1, "level2.1"), parser.next().getName());
+		parser.up();
+		parser.next();
+		parser.down();
+		assertEquals(null, parser.next());
+		assertEquals(2, getSkippedElements());
+
+		// Skip text
+		setUp("/mixed.xml");
+		parser.setFilter(new ElementFilter().acceptAt(1, new QName("tag2"), new QName("tag3")).skipText());
+
+		assertEquals("mixed", parser.next().getName().getLocalPart());
+		parser.down();
+		assertEquals("tag2", parser.next().getName().getLocalPart());
+		assertEquals(1, getSkippedElements());
+		parser.down();
+		assertEquals(null, parser.next());
+		parser.up();
+		assertEquals("tag3", parser.next().getName().getLocalPart());
+		assertEquals(null, parser.next());
+
+		// Without a filter everything is returned again
+		parser.setFilter(null);
+		parser.up();
+		assertEquals(null, parser.next());
+	}
+
+	/**
+	 * Read siblings in batches, with and without their children.
+	 * 
+	 * @throws FileNotFoundException
+	 * @throws XMLStreamException
+	 * @throws ParsingException
+	 */
+	@Test
+	public void testBatch01() throws FileNotFoundException, XMLStreamException, ParsingException
+	{
+		setUp("/test01.xml");
+
+		List<Element> batch = new ArrayList<Element>();
+		List<List<Element>> children = new ArrayList<List<Element>>();
+
+		parser.next();
+		parser.down();
+
+		assertEquals(0, parser.nextBatch(0, batch));
+		assertEquals(3, parser.nextBatch(3, batch));
+		assertEquals("level1_1", batch.get(0).getName().getLocalPart());
+		assertEquals("level1_2", batch.get(1).getName().getLocalPart());
+		assertEquals("level1_text", batch.get(2).getName().getLocalPart());
+		assertEquals(batch.get(2), parser.getElement());
+
+		batch.clear();
+		assertEquals(3, parser.nextBatch(10, batch, children));
+		assertEquals(3, children.size());
+		assertEquals("level1_3", batch.get(0).getName().getLocalPart());
+		assertEquals(3, children.get(0).size());
+		assertEquals("level2_1", children.get(0).get(0).getName().getLocalPart());
+		assertEquals("level2_2", children.get(0).get(1).getName().getLocalPart());
+		assertTrue(children.get(0).get(1).hasChildren());
+		assertEquals("level2_3", children.get(0).get(2).getName().getLocalPart());
+		assertEquals("level1_copy", batch.get(2).getName().getLocalPart());
+		assertEquals(0, children.get(2).size());
+		assertEquals(null, parser.getElement());
+
+		assertEquals(0, parser.nextBatch(10, batch));
+		assertEquals(null, parser.next());
+		assertEquals(0, parser.up());
+		assertEquals(null, parser.next());
+
+		// The children of the last element have already been read
+		setUp("/mixed.xml");
+		batch.clear();
+		children.clear();
+
+		assertEquals(1, parser.nextBatch(1, batch, children));
+		assertEquals("mixed", parser.getElement().getName().getLocalPart());
+		assertTrue(children.get(0).get(0).isText());
+		assertEquals("tag1", children.get(0).get(1).getName().getLocalPart());
+
+		try
+		{
+			parser.down();
+			fail();
+		}
+		catch (InvalidParseCommandException e)
+		{
+			// Expected
+		}
+
+		assertEquals(null, parser.next());
+	}
+
+	/**
+	 * Look ahead with peek and hasNext.
+	 * 
+	 * @throws FileNotFoundException
+	 * @throws XMLStreamException
+	 * @throws ParsingException
+	 */
+	@Test
+	public void testPeek01() throws FileNotFoundException, XMLStreamException, ParsingException
+	{
+		setUp("/test01.xml");
+
+		Element root = parser.peek();
+		assertEquals("level0", root.getName().getLocalPart());
+		assertEquals(null, parser.getElement());
+		assertTrue(parser.hasNext());
+		assertEquals(root, parser.next());
+		assertEquals(root, parser.getElement());
+		assertFalse(parser.hasNext());
+
+		setUp("/test01.xml");
+		parser.next();
+		assertEquals(1, parser.down());
+		assertEquals("level1_1", parser.peek().getName().getLocalPart());
+		assertEquals("level1_1", parser.next().getName().getLocalPart());
+		parser.next();
+		parser.next();
+
+		// The children of the current element are skipped by peek
+		Element current = parser.next();
+		assertEquals("level1_3", current.getName().getLocalPart());
+		assertEquals("level1_copy", parser.peek().getName().getLocalPart());
+		assertEquals(current, parser.getElement());
+
+		try
+		{
+			parser.down();
+			fail();
+		}
+		catch (InvalidParseCommandException e)
+		{
+			// Expected
+		}
+
+		assertEquals("level1_copy", parser.next().getName().getLocalPart());
+		assertTrue(parser.hasNext());
+		parser.next();
+		assertFalse(parser.hasNext());
+		assertEquals(null, parser.peek());
+		assertEquals(null, parser.next());
+
+		// A peeked element is skipped when stepping up
+		setUp("/test01.xml");
+		parser.next();
+		parser.down();
+		parser.peek();
+		assertEquals(0, parser.up());
+		assertEquals(null, parser.next());
+	}
+
+	@Test
+	public void testAttributes01() throws XMLStreamException, ParsingException, TypeConversionException
+	{
+		// Few and many attributes are looked up in different ways
+		StringBuilder document = new StringBuilder("<root xmlns:p='urn:p'><none/><few a='1' p:a='2'/><many");
+
+		for (int i = 0; i < 20; ++i)
+			document.append(" a").append(i).append("='").append(i).append("'");
+
+		document.append("/></root>");
+
+		parser = createParser(new ByteArrayInputStream(document.toString().getBytes(StandardCharsets.UTF_8)));
+		parser.next();
+		parser.down();
+
+		// The map of an element without attributes can be added to, as before the attributes were stored in arrays
+		Element none = parser.next();
+		none.getAllAttributes().put(new QName("a"), "1");
+		assertEquals(1, none.getAllAttributes().size());
+
+		Element few = parser.next();
+		assertEquals("1", few.getAttribute(new QName("a")));
+		assertEquals("2", few.getAttribute(new QName("urn:p", "a")));
+		assertTrue(few.hasAttribute(new QName("urn:p", "a")));
+		assertFalse(few.hasAttribute(new QName("b")));
+		assertEquals(null, few.getAttribute(new QName("b")));
+		assertEquals(2, few.getAllAttributes().size());
+		assertEquals(Integer.valueOf(2), few.getAllAttributes(Integer::valueOf).get(new QName("urn:p", "a")));
+
+		Element many = parser.next();
+		assertEquals(20, many.getAllAttributes().size());
+		assertEquals("19", many.getAttribute(new QName("a19")));
+		assertTrue(many.hasAttribute(new QName("a0")));
+		assertFalse(many.hasAttribute(new QName("a20")));
+		assertEquals(Integer.valueOf(7), many.getAllAttributes(Integer::valueOf).get(new QName("a7")));
+	}
+
+	@Test
+	public void testNameTable01() throws FileNotFoundException, XMLStreamException, ParsingException
+	{
+		final int LEVEL1_COPY = 0;
+		final int B = 1;
+		NameTable names = new NameTable(new QName("level1_copy"), new QName("b"));
+
+		setUp("/test01.xml");
+		parser.setNameTable(names);
+		parser.next();
+		assertEquals(2, parser.getElement().getNameId());
+		assertEquals(new QName("level0"), names.getName(2));
+		assertEquals("2.3", parser.getElement().getAttribute(B));
+		parser.down();
+
+		int copies = 0;
+		Element element;
+		QName first = null;
+
+		while ((element = parser.next()) != null)
+		{
+			switch (element.getNameId())
+			{
+			case LEVEL1_COPY:
+				++copies;
+				assertEquals("b", element.getAttribute(B));
+				assertTrue(element.hasAttribute(B));
+
+				// The same name instance is used for all elements
+				if (first == null)
+					first = element.getName();
+				else
+					assertTrue(first == element.getName());
+				break;
+			case -1:
+				assertTrue(element.isText());
+				break;
+			default:
+				assertFalse(element.hasAttribute(B));
+				assertEquals(null, element.getAttribute(B));
+			}
+		}
+
+		assertEquals(2, copies);
+
+		// Without a table there are no IDs
+		setUp("/test01.xml");
+		assertEquals(-1, parser.next().getNameId());
+		assertEquals(null, parser.getElement().getAttribute(B));
+	}
+
+	@Test
+	public void testSequence01() throws XMLStreamException, ParsingException
+	{
+		String document = "<root a='plain' b='x &amp; y' c='line\nbreak'><t>plain text</t><t>line\r\nend</t>"
+				+ "<t>caf\u00e9</t><t>cd<![CDATA[]]></t></root>";
+
+		parser = createParser(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)));
+		Element root = parser.next();
+
+		assertEquals("plain", root.getAttributeSequence(new QName("a")).toString());
+		assertEquals("x & y", root.getAttributeSequence(new QName("b")).toString());
+		assertEquals(null, root.getAttributeSequence(new QName("d")));
+		assertTrue(root.attributeEquals(new QName("a"), "plain"));
+		assertFalse(root.attributeEquals(new QName("a"), "plai"));
+		assertFalse(root.attributeEquals(new QName("a"), "plainer"));
+		assertTrue(root.attributeStartsWith(new QName("a"), "pl"));
+		assertTrue(root.attributeEquals(new QName("b"), "x & y"));
+		assertTrue(root.attributeStartsWith(new QName("b"), "x &"));
+		assertTrue(root.attributeEquals(new QName("c"), "line break"));
+		assertFalse(root.attributeEquals(new QName("d"), ""));
+		assertFalse(root.textEquals(""));
+		assertEquals(null, root.getTextSequence());
+
+		parser.down();
+		String[] texts = { "plain text", "line\nend", "caf\u00e9", "cd" };
+
+		for (String text : texts)
+		{
+			parser.next();
+			parser.down();
+
+			Element element = parser.next();
+			CharSequence sequence = element.getTextSequence();
+
+			assertEquals(text, sequence.toString());
+			assertEquals(text.length(), sequence.length());
+			assertEquals(text.charAt(1), sequence.charAt(1));
+			assertEquals(text.substring(1, 2), sequence.subSequence(1, 2).toString());
+			assertTrue(element.textEquals(text));
+			assertTrue(element.textStartsWith(text.substring(0, 2)));
+			assertFalse(element.textEquals(text.substring(1)));
+			assertFalse(element.textStartsWith(text + "!"));
+
+			parser.up();
+		}
+	}
+
+	@Test
+	public void testPrimitive01() throws XMLStreamException, ParsingException, TypeConversionException
+	{
+		String document = "<root i='-42' l='9000000000' d='2.5e-3' b='true' x='abc' t='2024-02-29T12:00:00Z'>"
+				+ "<t> 17 </t><t>1</t></root>";
+
+		parser = createParser(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)));
+		Element root = parser.next();
+
+		assertEquals(-42, root.getIntAttribute(new QName("i"), 0));
+		assertEquals(7, root.getIntAttribute(new QName("missing"), 7));
+		assertEquals(9000000000L, root.getLongAttribute(new QName("l"), 0));
+		assertEquals(0.0025, root.getDoubleAttribute(new QName("d"), 0), 0);
+		assertEquals(-42.0, root.getDoubleAttribute(new QName("i"), 0), 0);
+		assertTrue(root.getBooleanAttribute(new QName("b"), false));
+		assertEquals(3, root.getIntAttribute(new QName("x"), CharSequence::length, 0));
+		assertEquals(1709208000000L, root.getLongAttribute(new QName("t"), TypeConverter.IsoEpochMillis, 0));
+		assertEquals(Instant.ofEpochSecond(1709208000), root.getAttribute(new QName("t"), TypeConverter.IsoInstant));
+
+		try
+		{
+			root.getIntAttribute(new QName("l"), 0);
+			fail();
+		}
+		catch (TypeConversionException e)
+		{
+			// Expected
+		}
+
+		try
+		{
+			root.getIntText();
+			fail();
+		}
+		catch (TypeConversionException e)
+		{
+			// Expected
+		}
+
+		parser.down();
+		parser.next();
+		parser.down();
+		assertEquals(17, parser.next().getIntText());
+		assertEquals(17.0, parser.getElement().getDoubleText(), 0);
+		parser.up();
+		parser.next();
+		parser.down();
+		assertTrue(parser.next().getBooleanText());
+		assertEquals(1L, parser.getElement().getLongText(TypeConverter.ParseLong));
+	}
 }
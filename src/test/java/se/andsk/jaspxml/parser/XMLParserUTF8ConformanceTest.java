@@ -0,0 +1,221 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.InvalidParseCommandException;
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.io.InputStreamByteSource;
+
+/**
+ * Compares {@link XMLParserUTF8} with {@link XMLParserStAXCursor} on randomly generated documents, using random
+ * navigation.
+ */
+public class XMLParserUTF8ConformanceTest
+{
+	private static final String[] NAMES = { "a", "b", "record", "n1:a", "n1:b", "n2:c", "lång" };
+	private static final String[] TEXTS = { "text", "1.5", " some words ", "&amp;", "&lt;tag&gt;", "&#229;&#x10437;",
+			"\"quoted\" 'single'", "line\r\nbreak", "åäö ✓ 𐐷", "<![CDATA[<cdata> & ]]>", "<![CDATA[ ]]>", "a > b" };
+	private static final String[] VALUES = { "", "1", "x y", "&amp;&quot;&apos;", "a\tb\nc", "&lt;&#60;>", "ö", "'",
+			"2.5e10" };
+
+	private Random random;
+
+	/**
+	 * Generate a random document.
+	 */
+	static String generate(Random random)
+	{
+		StringBuilder document = new StringBuilder();
+
+		if (random.nextBoolean())
+			document.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		if (random.nextInt(4) == 0)
+			document.append("<!-- prolog -->\n");
+
+		document.append("<root xmlns:n1=\"urn:one\" xmlns:n2=\"urn:two\">");
+		generateChildren(random, document, 1);
+		document.append("</root>\n");
+
+		return document.toString();
+	}
+
+	private static void generateChildren(Random random, StringBuilder document, int depth)
+	{
+		int children = random.nextInt(depth < 5 ? 7 : 2);
+
+		for (int i = 0; i < children; ++i)
+		{
+			switch (random.nextInt(8))
+			{
+			case 0:
+				document.append(TEXTS[random.nextInt(TEXTS.length)]);
+				break;
+			case 1:
+				document.append(random.nextBoolean() ? "\n  " : " ");
+				break;
+			case 2:
+				document.append(random.nextBoolean() ? "<!-- comment > -->" : "<?pi data?>");
+				break;
+			default:
+				generateElement(random, document, depth);
+			}
+		}
+	}
+
+	private static void generateElement(Random random, StringBuilder document, int depth)
+	{
+		String name = NAMES[random.nextInt(NAMES.length)];
+		boolean redeclare = random.nextInt(6) == 0;
+
+		document.append('<').append(name);
+
+		if (redeclare)
+			document.append(" xmlns:n1=\"urn:other\"");
+		if (random.nextInt(8) == 0)
+			document.append(" xmlns=\"urn:default\"");
+
+		int attributes = random.nextInt(4);
+
+		for (int i = 0; i < attributes; ++i)
+		{
+			char quote = random.nextBoolean() ? '"' : '\'';
+			String value = VALUES[random.nextInt(VALUES.length)];
+
+			if (value.indexOf(quote) >= 0)
+				quote = quote == '"' ? '\'' : '"';
+
+			// Attribute names are unique within the element
+			document.append(random.nextBoolean() ? " " : "\n\t").append(i % 2 == 0 ? "x" : "n2:x").append(i)
+					.append(random.nextBoolean() ? "=" : " = ").append(quote).append(value).append(quote);
+		}
+
+		if (random.nextInt(4) == 0)
+		{
+			document.append(random.nextBoolean() ? "/>" : " />");
+		}
+		else
+		{
+			document.append('>');
+			generateChildren(random, document, depth + 1);
+			document.append("</").append(name).append(random.nextBoolean() ? ">" : " >");
+		}
+	}
+
+	private static void assertSameElement(Element expected, Element actual)
+	{
+		if (expected == null)
+		{
+			assertEquals(null, actual);
+			return;
+		}
+
+		assertNotNull(actual);
+		assertEquals(expected.isText(), actual.isText());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.hasChildren(), actual.hasChildren());
+
+		if (expected.isText())
+		{
+			assertEquals(expected.getText(), actual.getText());
+		}
+		else
+		{
+			assertEquals(expected.getName().getPrefix(), actual.getName().getPrefix());
+			assertEquals(expected.getAllAttributes(), actual.getAllAttributes());
+		}
+
+		assertTrue(expected.equals(actual));
+		assertEquals(expected.hashCode(), actual.hashCode());
+	}
+
+	/**
+	 * Walk through a document with random navigation and make sure that both parsers agree on everything.
+	 */
+	private void compare(String document, int bufferSize) throws XMLStreamException, ParsingException,
+			UnsupportedEncodingException
+	{
+		byte[] bytes = document.getBytes("UTF-8");
+
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		XMLParser expected = new XMLParserStAXCursor(factory.createXMLStreamReader(new ByteArrayInputStream(bytes)));
+		XMLParser actual = new XMLParserUTF8(new InputStreamByteSource(new ByteArrayInputStream(bytes), bufferSize));
+
+		for (int step = 0; step < 200; ++step)
+		{
+			int action = random.nextInt(10);
+			Element current = expected.getElement();
+
+			if (action < 3 && current != null)
+			{
+				boolean allowed = true;
+				int depth = 0;
+
+				try
+				{
+					depth = expected.down();
+				}
+				catch (InvalidParseCommandException e)
+				{
+					allowed = false;
+				}
+
+				try
+				{
+					assertEquals(depth, actual.down());
+					assertTrue(allowed);
+				}
+				catch (InvalidParseCommandException e)
+				{
+					assertTrue(!allowed);
+				}
+			}
+			else if (action < 4)
+			{
+				assertEquals(expected.up(), actual.up());
+				assertSameElement(expected.getElement(), actual.getElement());
+			}
+			else
+			{
+				assertSameElement(expected.next(), actual.next());
+			}
+
+			assertEquals(expected.getDepth(), actual.getDepth());
+		}
+	}
+
+	@Test
+	public void testRandomDocuments01() throws XMLStreamException, ParsingException, UnsupportedEncodingException
+	{
+		random = new Random(4711);
+
+		for (int i = 0; i < 300; ++i)
+		{
+			String document = generate(random);
+
+			try
+			{
+				compare(document, i % 3 == 0 ? 16 : 4096);
+			}
+			catch (AssertionError e)
+			{
+				fail("Document " + i + ": " + e.getMessage() + "\n" + document);
+			}
+		}
+	}
+}
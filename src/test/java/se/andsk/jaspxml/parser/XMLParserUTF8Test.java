@@ -0,0 +1,270 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.ParsingException;
+import se.andsk.jaspxml.io.ByteSource;
+import se.andsk.jaspxml.io.InputStreamByteSource;
+
+/**
+ * Runs all tests in {@link XMLParserStAXTest} against {@link XMLParserUTF8}, using a small buffer so that tokens are
+ * split between reads.
+ */
+public class XMLParserUTF8Test extends XMLParserStAXTest
+{
+	@Override
+	protected XMLParser createParser(InputStream in) throws XMLStreamException
+	{
+		return new XMLParserUTF8(new InputStreamByteSource(in, 16));
+	}
+
+	@Override
+	protected long getSkippedElements()
+	{
+		return ((XMLParserUTF8) parser).getSkippedElements();
+	}
+
+	private XMLParser parse(String document) throws UnsupportedEncodingException
+	{
+		return new XMLParserUTF8(new InputStreamByteSource(new ByteArrayInputStream(document.getBytes("UTF-8")), 16));
+	}
+
+	@Test
+	public void testReferences01() throws ParsingException, UnsupportedEncodingException
+	{
+		XMLParser p = parse("<?xml version='1.0' encoding='utf-8'?><!DOCTYPE a [<!ELEMENT a ANY>]>"
+				+ "<a x='1 &lt; 2&#x20;&#65;' y=\"a\r\nb\tc\"><![CDATA[<b>]]> &amp; text&#xE5;\r\n</a>");
+
+		Element e = p.next();
+		assertEquals("1 < 2 A", e.getAttribute(new QName("x")));
+		assertEquals("a b c", e.getAttribute(new QName("y")));
+		assertTrue(e.hasChildren());
+
+		p.down();
+		e = p.next();
+		assertEquals("<b> & textå\n", e.getText());
+		assertEquals(null, p.next());
+	}
+
+	@Test
+	public void testEncoding01() throws UnsupportedEncodingException
+	{
+		XMLParser p = parse("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a/>");
+
+		try
+		{
+			p.next();
+			fail("Should throw exception");
+		}
+		catch (ParsingException e) {}
+	}
+
+	@Test
+	public void testSkippedBytes01() throws ParsingException, UnsupportedEncodingException
+	{
+		XMLParser p = parse("<a><b><c>skipped</c></b><d/></a>");
+
+		p.next();
+		p.down();
+		assertEquals("b", p.next().getName().getLocalPart());
+		assertEquals("d", p.next().getName().getLocalPart());
+		assertEquals(1, ((XMLParserUTF8) p).getSkippedElements());
+		assertEquals("<c>skipped</c></b>".length(), ((XMLParserUTF8) p).getSkippedBytes());
+	}
+
+	private static String readAll(Reader reader, int chunkSize) throws IOException
+	{
+		StringBuilder builder = new StringBuilder();
+		char[] chars = new char[chunkSize];
+		int count;
+
+		while ((count = reader.read(chars)) >= 0)
+			builder.append(chars, 0, count);
+
+		return builder.toString();
+	}
+
+	@Test
+	public void testText01() throws ParsingException, IOException
+	{
+		String document = "<a><b>x</b><![CDATA[<b>]]]]> &amp; &unknown; text&#xE5;\r\n\ud83d\ude00&#x1F600;\r</a>";
+		String expected = "<b>]] & &unknown; text\u00e5\n\ud83d\ude00\ud83d\ude00\n";
+
+		for (int chunkSize : new int[] { 1, 2, 1024 })
+		{
+			XMLParserUTF8 p = (XMLParserUTF8) parse(document);
+			p.next();
+			p.down();
+
+			// Elements are returned as by next
+			assertEquals(null, p.nextText());
+			assertEquals("b", p.getElement().getName().getLocalPart());
+
+			Reader reader = p.nextText();
+			assertEquals(null, p.getElement());
+			assertEquals(expected, readAll(reader, chunkSize));
+			assertEquals(null, p.nextText());
+			assertEquals(null, p.getElement());
+		}
+	}
+
+	@Test
+	public void testText02() throws ParsingException, IOException
+	{
+		// Text that isn't read is skipped
+		XMLParserUTF8 p = (XMLParserUTF8) parse("<a><b>first &amp; second</b><c/></a>");
+		p.next();
+		p.down();
+		p.next();
+		p.down();
+
+		Reader reader = p.nextText();
+		assertEquals('f', reader.read());
+		assertEquals(null, p.next());
+		assertEquals(1, p.up());
+		assertEquals("c", p.next().getName().getLocalPart());
+
+		try
+		{
+			reader.read();
+			fail();
+		}
+		catch (IOException e)
+		{
+			// Expected
+		}
+
+		// Peeked text has already been read
+		p = (XMLParserUTF8) parse("<a>text</a>");
+		p.next();
+		p.down();
+		p.peek();
+		assertEquals("text", readAll(p.nextText(), 16));
+	}
+
+	@Test
+	public void testBase64() throws ParsingException, IOException
+	{
+		byte[] data = new byte[100000];
+
+		for (int i = 0; i < data.length; ++i)
+			data[i] = (byte) (i * 31 + i / 7);
+
+		for (int length : new int[] { 1, 2, 3, data.length })
+		{
+			String encoded = Base64.getMimeEncoder().encodeToString(Arrays.copyOf(data, length));
+			XMLParserUTF8 p = (XMLParserUTF8) parse("<a><data>\n" + encoded + "\n</data></a>");
+			p.next();
+			p.down();
+			p.next();
+			p.down();
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(length, p.nextBase64(Channels.newChannel(out)));
+			assertTrue(Arrays.equals(Arrays.copyOf(data, length), out.toByteArray()));
+		}
+
+		for (String invalid : new String[] { "QQ=A", "Q", "QQ=", "Q!==", "QQ===" })
+		{
+			XMLParserUTF8 p = (XMLParserUTF8) parse("<a>" + invalid + "</a>");
+			p.next();
+			p.down();
+
+			try
+			{
+				p.nextBase64(Channels.newChannel(new ByteArrayOutputStream()));
+				fail(invalid);
+			}
+			catch (ParsingException e)
+			{
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testBase64Memory() throws ParsingException, IOException
+	{
+		// Decode 12 MB from a document that is never held in memory, and check that the window stays small
+		final long groups = 4 * 1024 * 1024;
+		InputStream document = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+				new ByteArrayInputStream("<a>".getBytes(StandardCharsets.UTF_8)), new InputStream()
+				{
+					private long remaining = 4 * groups;
+
+					@Override
+					public int read()
+					{
+						return remaining-- > 0 ? "AQID".charAt((int) (remaining % 4)) : -1;
+					}
+				}, new ByteArrayInputStream("</a>".getBytes(StandardCharsets.UTF_8)))));
+
+		final int[] maxAvailable = new int[1];
+		ByteSource source = new InputStreamByteSource(document, 4096)
+		{
+			@Override
+			public ByteBuffer read(long offset, int available) throws IOException
+			{
+				maxAvailable[0] = Math.max(maxAvailable[0], available);
+				return super.read(offset, available);
+			}
+		};
+
+		XMLParserUTF8 p = new XMLParserUTF8(source);
+		p.next();
+		p.down();
+
+		final long[] written = new long[1];
+		long count = p.nextBase64(new WritableByteChannel()
+		{
+			@Override
+			public int write(ByteBuffer src)
+			{
+				int n = src.remaining();
+				src.position(src.limit());
+				written[0] += n;
+				return n;
+			}
+
+			@Override
+			public boolean isOpen()
+			{
+				return true;
+			}
+
+			@Override
+			public void close()
+			{
+			}
+		});
+
+		assertEquals(3 * groups, count);
+		assertEquals(3 * groups, written[0]);
+		assertTrue(maxAvailable[0] < 16);
+	}
+}
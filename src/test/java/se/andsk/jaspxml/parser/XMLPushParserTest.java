@@ -0,0 +1,385 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import se.andsk.jaspxml.exceptions.NeedMoreInputException;
+import se.andsk.jaspxml.exceptions.ParsingException;
+
+public class XMLPushParserTest
+{
+	private static byte[] load(String fileName) throws IOException
+	{
+		try (InputStream in = XMLPushParserTest.class.getResourceAsStream(fileName))
+		{
+			return in.readAllBytes();
+		}
+	}
+
+	private static String describe(Element element)
+	{
+		if (element.isText())
+			return element.getText();
+
+		return element.getName() + element.getAllAttributes().toString() + (element.hasChildren() ? "+" : "");
+	}
+
+	/**
+	 * Feeds a document to a push parser in chunks of a fixed size.
+	 */
+	private static class Feeder
+	{
+		private final XMLPushParser parser;
+		private final byte[] document;
+		private final int chunkSize;
+		private int fed = 0;
+		private int requests = 0;
+
+		Feeder(XMLPushParser parser, byte[] document, int chunkSize)
+		{
+			this.parser = parser;
+			this.document = document;
+			this.chunkSize = chunkSize;
+		}
+
+		void feed()
+		{
+			++requests;
+
+			if (fed == document.length)
+				fail("Asked for more input after the end of the input");
+
+			int count = Math.min(chunkSize, document.length - fed);
+			parser.feed(ByteBuffer.wrap(document, fed, count));
+			fed += count;
+
+			if (fed == document.length)
+				parser.endOfInput();
+		}
+
+		Element next() throws ParsingException
+		{
+			while (true)
+			{
+				try
+				{
+					return parser.next();
+				}
+				catch (NeedMoreInputException e)
+				{
+					feed();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Walk a document depth first, using {@code next} to read each element.
+	 */
+	private interface Reader
+	{
+		Element next() throws ParsingException;
+	}
+
+	private static String walk(XMLParser parser, Reader reader) throws ParsingException
+	{
+		StringBuilder builder = new StringBuilder();
+		int depth = 0;
+
+		while (true)
+		{
+			Element element = reader.next();
+
+			if (element == null)
+			{
+				if (depth == 0)
+					return builder.toString();
+
+				parser.up();
+				--depth;
+				continue;
+			}
+
+			builder.append(depth).append(' ').append(describe(element)).append('\n');
+
+			if (element.hasChildren())
+			{
+				parser.down();
+				++depth;
+			}
+		}
+	}
+
+	@Test
+	public void testChunks01() throws ParsingException, IOException
+	{
+		for (String fileName : new String[] { "/test01.xml", "/namespace.xml", "/mixed.xml" })
+		{
+			byte[] document = load(fileName);
+			XMLParserUTF8 expectedParser = new XMLParserUTF8(ByteBuffer.wrap(document));
+			String expected = walk(expectedParser, expectedParser::next);
+
+			for (int chunkSize : new int[] { 1, 2, 7, 64, document.length })
+			{
+				XMLPushParser parser = new XMLPushParser();
+				Feeder feeder = new Feeder(parser, document, chunkSize);
+
+				assertEquals(fileName + " in chunks of " + chunkSize, expected, walk(parser, feeder::next));
+				assertTrue(feeder.requests > 0);
+			}
+		}
+	}
+
+	@Test
+	public void testPoll01() throws ParsingException
+	{
+		XMLPushParser parser = new XMLPushParser();
+
+		assertEquals(XMLPushParser.Status.NEED_INPUT, parser.poll());
+
+		parser.feed(ByteBuffer.wrap("<root><a x='1'/><b".getBytes(StandardCharsets.UTF_8)));
+		assertEquals(XMLPushParser.Status.ELEMENT, parser.poll());
+		assertEquals("root", parser.getElement().getName().getLocalPart());
+		assertEquals(1, parser.down());
+		assertEquals(XMLPushParser.Status.ELEMENT, parser.poll());
+		assertEquals("1", parser.getElement().getAttribute(new QName("x")));
+
+		// The parser is unchanged until the start tag of b has ended
+		assertEquals(XMLPushParser.Status.NEED_INPUT, parser.poll());
+		assertEquals("a", parser.getElement().getName().getLocalPart());
+		assertEquals(XMLPushParser.Status.NEED_INPUT, parser.poll());
+
+		parser.feed(ByteBuffer.wrap(">text</b></ro".getBytes(StandardCharsets.UTF_8)));
+		assertEquals(XMLPushParser.Status.ELEMENT, parser.poll());
+		assertEquals("b", parser.getElement().getName().getLocalPart());
+		assertEquals(2, parser.down());
+		assertEquals(XMLPushParser.Status.ELEMENT, parser.poll());
+		assertEquals("text", parser.getElement().getText());
+		assertEquals(XMLPushParser.Status.END, parser.poll());
+		assertEquals(1, parser.up());
+		assertEquals(XMLPushParser.Status.END, parser.poll());
+		assertEquals(0, parser.up());
+
+		// Whitespace or comments may follow the root element until the end of the input
+		assertEquals(XMLPushParser.Status.NEED_INPUT, parser.poll());
+		parser.feed(ByteBuffer.wrap("ot>\n".getBytes(StandardCharsets.UTF_8)));
+		assertEquals(XMLPushParser.Status.NEED_INPUT, parser.poll());
+		parser.endOfInput();
+		assertEquals(XMLPushParser.Status.END, parser.poll());
+		assertNull(parser.getElement());
+	}
+
+	@Test
+	public void testPeek01() throws ParsingException
+	{
+		XMLPushParser parser = new XMLPushParser();
+		parser.feed(ByteBuffer.wrap("<root><a/><b/".getBytes(StandardCharsets.UTF_8)));
+
+		parser.next();
+		parser.down();
+		assertEquals("a", parser.peek().getName().getLocalPart());
+		assertNull(parser.getElement());
+		assertEquals("a", parser.next().getName().getLocalPart());
+
+		try
+		{
+			parser.hasNext();
+			fail();
+		}
+		catch (NeedMoreInputException e)
+		{
+			// Expected
+		}
+
+		assertEquals("a", parser.getElement().getName().getLocalPart());
+
+		parser.feed(ByteBuffer.wrap("></root>".getBytes(StandardCharsets.UTF_8)));
+		parser.endOfInput();
+		assertTrue(parser.hasNext());
+		assertEquals("b", parser.next().getName().getLocalPart());
+		assertNull(parser.next());
+	}
+
+	@Test
+	public void testBatch01() throws ParsingException
+	{
+		XMLPushParser parser = new XMLPushParser();
+		parser.feed(ByteBuffer.wrap("<root><a/><b/><c/><d".getBytes(StandardCharsets.UTF_8)));
+		parser.next();
+		parser.down();
+
+		List<Element> batch = new ArrayList<Element>();
+
+		try
+		{
+			parser.nextBatch(10, batch);
+			fail();
+		}
+		catch (NeedMoreInputException e)
+		{
+			// The whole batch is read again
+			assertTrue(batch.isEmpty());
+		}
+
+		assertEquals(3, parser.nextBatch(3, batch));
+		assertEquals("c", parser.getElement().getName().getLocalPart());
+
+		parser.feed(ByteBuffer.wrap("/></root>".getBytes(StandardCharsets.UTF_8)));
+		parser.endOfInput();
+		assertEquals(1, parser.nextBatch(10, batch));
+		assertEquals(4, batch.size());
+		assertEquals("d", batch.get(3).getName().getLocalPart());
+	}
+
+	@Test
+	public void testInterleaved01() throws ParsingException, IOException
+	{
+		// One thread parses several documents, feeding each one whenever it needs input
+		byte[] document = load("/test01.xml");
+		XMLParserUTF8 expectedParser = new XMLParserUTF8(ByteBuffer.wrap(document));
+		String expected = walk(expectedParser, expectedParser::next);
+
+		int count = 20;
+		List<XMLPushParser> parsers = new ArrayList<XMLPushParser>();
+		List<StringBuilder> results = new ArrayList<StringBuilder>();
+		int[] fed = new int[count];
+		int[] depths = new int[count];
+		boolean[] done = new boolean[count];
+		int remaining = count;
+
+		for (int i = 0; i < count; ++i)
+		{
+			parsers.add(new XMLPushParser());
+			results.add(new StringBuilder());
+		}
+
+		while (remaining > 0)
+		{
+			for (int i = 0; i < count; ++i)
+			{
+				if (done[i])
+					continue;
+
+				XMLPushParser parser = parsers.get(i);
+				int chunk = Math.min(i + 1, document.length - fed[i]);
+
+				if (chunk > 0)
+				{
+					parser.feed(ByteBuffer.wrap(document, fed[i], chunk));
+					fed[i] += chunk;
+
+					if (fed[i] == document.length)
+						parser.endOfInput();
+				}
+
+				XMLPushParser.Status status;
+
+				while ((status = parser.poll()) != XMLPushParser.Status.NEED_INPUT)
+				{
+					if (status == XMLPushParser.Status.END)
+					{
+						if (depths[i] == 0)
+						{
+							done[i] = true;
+							--remaining;
+							break;
+						}
+
+						parser.up();
+						--depths[i];
+						continue;
+					}
+
+					Element element = parser.getElement();
+					results.get(i).append(depths[i]).append(' ').append(describe(element)).append('\n');
+
+					if (element.hasChildren())
+					{
+						parser.down();
+						++depths[i];
+					}
+				}
+			}
+		}
+
+		for (StringBuilder result : results)
+			assertEquals(expected, result.toString());
+	}
+
+	@Test
+	public void testChannel01() throws ParsingException, IOException
+	{
+		Pipe pipe = Pipe.open();
+		pipe.source().configureBlocking(false);
+
+		XMLPushParser parser = new XMLPushParser();
+
+		assertEquals(0, parser.feed(pipe.source()));
+		assertEquals(XMLPushParser.Status.NEED_INPUT, parser.poll());
+
+		pipe.sink().write(ByteBuffer.wrap("<root>text</root>".getBytes(StandardCharsets.UTF_8)));
+		pipe.sink().close();
+
+		while (parser.feed(pipe.source()) >= 0)
+		{
+		}
+
+		assertEquals(XMLPushParser.Status.ELEMENT, parser.poll());
+		parser.down();
+		assertEquals("text", parser.next().getText());
+		assertNull(parser.next());
+
+		try
+		{
+			parser.feed(ByteBuffer.allocate(1));
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+	}
+
+	@Test
+	public void testError01() throws ParsingException
+	{
+		XMLPushParser parser = new XMLPushParser();
+		parser.feed(ByteBuffer.wrap("<root><a".getBytes(StandardCharsets.UTF_8)));
+		parser.next();
+		parser.down();
+		assertEquals(XMLPushParser.Status.NEED_INPUT, parser.poll());
+
+		parser.endOfInput();
+
+		try
+		{
+			parser.next();
+			fail();
+		}
+		catch (NeedMoreInputException e)
+		{
+			fail();
+		}
+		catch (ParsingException e)
+		{
+			// Expected
+		}
+	}
+}
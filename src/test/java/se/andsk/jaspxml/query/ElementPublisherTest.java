@@ -0,0 +1,192 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import se.andsk.jaspxml.parser.Element;
+import se.andsk.jaspxml.parser.XMLParserUTF8;
+
+public class ElementPublisherTest
+{
+	/**
+	 * Collects everything it receives, and requests one element at a time when {@code auto} is set.
+	 */
+	private static class Collector implements Flow.Subscriber<Element>
+	{
+		final List<String> ids = new ArrayList<String>();
+		final CountDownLatch finished = new CountDownLatch(1);
+		final boolean auto;
+
+		Flow.Subscription subscription;
+		Throwable error;
+		boolean completed = false;
+
+		Collector(boolean auto)
+		{
+			this.auto = auto;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription)
+		{
+			this.subscription = subscription;
+
+			if (auto)
+				subscription.request(1);
+		}
+
+		@Override
+		public synchronized void onNext(Element item)
+		{
+			ids.add(item.getAttribute(new QName("id")));
+
+			if (auto)
+				subscription.request(1);
+		}
+
+		@Override
+		public void onError(Throwable throwable)
+		{
+			error = throwable;
+			finished.countDown();
+		}
+
+		@Override
+		public void onComplete()
+		{
+			completed = true;
+			finished.countDown();
+		}
+
+		synchronized int count()
+		{
+			return ids.size();
+		}
+	}
+
+	private static XMLParserUTF8 parse(int records)
+	{
+		StringBuilder document = new StringBuilder("<records>");
+
+		for (int i = 0; i < records; ++i)
+			document.append("<record id='").append(i).append("'><value>").append(i).append("</value></record>");
+
+		document.append("</records>");
+
+		return new XMLParserUTF8(ByteBuffer.wrap(document.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void testBackpressure01() throws Exception
+	{
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		XMLParserUTF8 parser = parse(100);
+		Collector collector = new Collector(false);
+
+		ElementPublisher.atDepth(parser, 1, executor).subscribe(collector);
+		collector.subscription.request(3);
+		executor.submit(() -> {
+		}).get(10, TimeUnit.SECONDS);
+
+		assertEquals(3, collector.count());
+
+		// Nothing after the third record has been parsed
+		long offset = parser.getOffset();
+		assertTrue(offset < 3 * 50 + 20);
+
+		collector.subscription.request(Long.MAX_VALUE);
+		assertTrue(collector.finished.await(10, TimeUnit.SECONDS));
+		assertTrue(collector.completed);
+		assertEquals(100, collector.count());
+		assertEquals("99", collector.ids.get(99));
+
+		executor.shutdown();
+	}
+
+	@Test
+	public void testMultiplexing01() throws InterruptedException
+	{
+		// Many documents on two threads, one element at a time
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		List<Collector> collectors = new ArrayList<Collector>();
+
+		for (int i = 0; i < 20; ++i)
+		{
+			Collector collector = new Collector(true);
+			new ElementPublisher(parse(500), PathQuery.compile("records/record[@id!='7']"), executor)
+					.subscribe(collector);
+			collectors.add(collector);
+		}
+
+		for (Collector collector : collectors)
+		{
+			assertTrue(collector.finished.await(10, TimeUnit.SECONDS));
+			assertTrue(collector.completed);
+			assertEquals(499, collector.count());
+			assertFalse(collector.ids.contains("7"));
+		}
+
+		executor.shutdown();
+	}
+
+	@Test
+	public void testErrors01() throws Exception
+	{
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		// Invalid request
+		Collector collector = new Collector(false);
+		ElementPublisher publisher = ElementPublisher.atDepth(parse(10), 1, executor);
+		publisher.subscribe(collector);
+		collector.subscription.request(0);
+		assertTrue(collector.finished.await(10, TimeUnit.SECONDS));
+		assertTrue(collector.error instanceof IllegalArgumentException);
+
+		// Only one subscriber
+		Collector second = new Collector(false);
+		publisher.subscribe(second);
+		assertTrue(second.error instanceof IllegalStateException);
+
+		// Cancelled
+		Collector cancelled = new Collector(false);
+		ElementPublisher.atDepth(parse(10), 1, executor).subscribe(cancelled);
+		cancelled.subscription.request(2);
+		executor.submit(() -> {
+		}).get(10, TimeUnit.SECONDS);
+		cancelled.subscription.cancel();
+		cancelled.subscription.request(5);
+		executor.submit(() -> {
+		}).get(10, TimeUnit.SECONDS);
+		assertEquals(2, cancelled.count());
+		assertFalse(cancelled.completed);
+		assertEquals(null, cancelled.error);
+
+		// Parsing error
+		Collector failing = new Collector(true);
+		new ElementPublisher(new XMLParserUTF8(ByteBuffer.wrap("<a><b id='1'/><b id=2/></a>".getBytes(
+				StandardCharsets.UTF_8))), PathQuery.compile("a/b"), executor).subscribe(failing);
+		assertTrue(failing.finished.await(10, TimeUnit.SECONDS));
+		assertEquals(1, failing.count());
+		assertTrue(failing.error instanceof se.andsk.jaspxml.exceptions.ParsingException);
+
+		executor.shutdown();
+	}
+}
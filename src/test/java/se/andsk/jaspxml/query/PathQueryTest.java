@@ -0,0 +1,258 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package se.andsk.jaspxml.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import se.andsk.jaspxml.parser.Element;
+import se.andsk.jaspxml.parser.XMLParser;
+import se.andsk.jaspxml.parser.XMLParserUTF8;
+
+public class PathQueryTest
+{
+	private static final String[] NAMES = { "a", "b", "c", "n1:a", "n2:b" };
+
+	/**
+	 * Pairs of queries and equivalent XPath expressions
+	 */
+	private static final String[][] QUERIES = { { "/root/a", "/root/a" }, { "//a", "//a" }, { "//n1:a", "//n1:a" },
+			{ "//*[2]", "//*[2]" }, { "/root/*/b", "/root/*/b" }, { "//a//b", "//a//b" }, { "a/a/a", "/a/a/a" },
+			{ "//*[@x0]", "//*[@x0]" }, { "//b[@x0='1']", "//b[@x0='1']" }, { "//*[@x1!='2']", "//*[@x1!='2']" },
+			{ "//n1:*[1]", "//n1:*[1]" }, { "//a[@x0][2]", "//a[@x0][2]" }, { "/root//b[1]/a", "/root//b[1]/a" },
+			{ "//{urn:two}b/*", "//n2:b/*" }, { "//c[3]//a[@n2:y]", "//c[3]//a[@n2:y]" },
+			{ "root/*[1][@x0]", "/root/*[1][@x0]" } };
+
+	private static final Map<String, String> NAMESPACES = new HashMap<String, String>();
+
+	static
+	{
+		NAMESPACES.put("n1", "urn:one");
+		NAMESPACES.put("n2", "urn:two");
+	}
+
+	private static XMLParser parse(String document) throws Exception
+	{
+		return new XMLParserUTF8(ByteBuffer.wrap(document.getBytes("UTF-8")));
+	}
+
+	private static void generate(Random random, StringBuilder document, int depth)
+	{
+		int children = random.nextInt(depth < 4 ? 5 : 1);
+
+		for (int i = 0; i < children; ++i)
+		{
+			if (random.nextInt(5) == 0)
+			{
+				document.append("text");
+				continue;
+			}
+
+			String name = NAMES[random.nextInt(NAMES.length)];
+			document.append('<').append(name);
+
+			for (int j = 0; j < 2; ++j)
+			{
+				if (random.nextBoolean())
+					document.append(" x").append(j).append("='").append(random.nextInt(3)).append("'");
+			}
+			if (random.nextInt(4) == 0)
+				document.append(" n2:y=''");
+
+			document.append('>');
+			generate(random, document, depth + 1);
+			document.append("</").append(name).append('>');
+		}
+	}
+
+	private static String describe(Element element)
+	{
+		Map<String, String> attributes = new TreeMap<String, String>();
+
+		for (Map.Entry<QName, String> attribute : element.getAllAttributes().entrySet())
+			attributes.put(attribute.getKey().toString(), attribute.getValue());
+
+		return element.getName() + " " + attributes;
+	}
+
+	private static String describe(Node node)
+	{
+		Map<String, String> attributes = new TreeMap<String, String>();
+		NamedNodeMap map = node.getAttributes();
+
+		for (int i = 0; i < map.getLength(); ++i)
+		{
+			Attr attribute = (Attr) map.item(i);
+
+			if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI()))
+			{
+				String uri = attribute.getNamespaceURI() == null ? "" : attribute.getNamespaceURI();
+				attributes.put(new QName(uri, attribute.getLocalName()).toString(), attribute.getValue());
+			}
+		}
+
+		String uri = node.getNamespaceURI() == null ? "" : node.getNamespaceURI();
+
+		return new QName(uri, node.getLocalName()) + " " + attributes;
+	}
+
+	/**
+	 * Compare the matches with the result of XPath on randomly generated documents.
+	 */
+	@Test
+	public void testRandomDocuments01() throws Exception
+	{
+		Random random = new Random(42);
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		XPath xpath = XPathFactory.newInstance().newXPath();
+
+		xpath.setNamespaceContext(new NamespaceContext()
+		{
+			@Override
+			public String getNamespaceURI(String prefix)
+			{
+				return NAMESPACES.get(prefix);
+			}
+
+			@Override
+			public String getPrefix(String namespaceURI)
+			{
+				return null;
+			}
+
+			@Override
+			public Iterator<String> getPrefixes(String namespaceURI)
+			{
+				return null;
+			}
+		});
+
+		for (int i = 0; i < 100; ++i)
+		{
+			StringBuilder builder = new StringBuilder("<root xmlns:n1='urn:one' xmlns:n2='urn:two'>");
+			generate(random, builder, 1);
+			String document = builder.append("</root>").toString();
+			org.w3c.dom.Document dom = factory.newDocumentBuilder().parse(
+					new ByteArrayInputStream(document.getBytes("UTF-8")));
+
+			for (String[] query : QUERIES)
+			{
+				List<String> expected = new ArrayList<String>();
+				NodeList nodes = (NodeList) xpath.evaluate(query[1], dom, XPathConstants.NODESET);
+
+				for (int j = 0; j < nodes.getLength(); ++j)
+					expected.add(describe(nodes.item(j)));
+
+				List<String> actual = new ArrayList<String>();
+				Iterator<Element> matches = PathQuery.compile(query[0], NAMESPACES).select(parse(document));
+
+				while (matches.hasNext())
+					actual.add(describe(matches.next()));
+
+				if (!expected.equals(actual))
+					fail(query[0] + " in document " + i + ": expected " + expected + " but was " + actual + "\n"
+							+ document);
+			}
+		}
+	}
+
+	@Test
+	public void testMatcher01() throws Exception
+	{
+		String document = "<root><skip><a><b>1</b></a></skip><item id='1'><name>first</name><a/></item>"
+				+ "<item id='2'><name>second</name></item><item id='3'><name>third</name></item></root>";
+		XMLParserUTF8 parser = (XMLParserUTF8) parse(document);
+		PathMatcher matcher = PathQuery.compile("/root/item[2]").matcher(parser);
+
+		Element item = matcher.next();
+		assertEquals("2", item.getAttribute(new QName("id")));
+
+		// The caller may read the children of a match
+		parser.down();
+		assertEquals(new QName("name"), parser.next().getName());
+		parser.down();
+		assertEquals("second", parser.next().getText());
+		parser.up();
+		parser.up();
+
+		assertEquals(null, matcher.next());
+		assertEquals(null, matcher.next());
+
+		// Nothing inside skip, or after the second item, was parsed
+		assertEquals(6, parser.getSkippedElements());
+	}
+
+	@Test
+	public void testMatcher02() throws Exception
+	{
+		XMLParser parser = parse("<root><a><a><b/></a></a><b/></root>");
+		PathMatcher matcher = PathQuery.compile("//a").matcher(parser);
+
+		// Nested matches are found when the caller doesn't read the children
+		assertEquals(new QName("a"), matcher.next().getName());
+		Element nested = matcher.next();
+		assertEquals(new QName("a"), nested.getName());
+		assertTrue(nested.hasChildren());
+		assertEquals(null, matcher.next());
+
+		// Queries are relative to the current position
+		parser = parse("<root><a><b id='1'/></a><a><b id='2'/></a></root>");
+		parser.next();
+		parser.down();
+		parser.next();
+		parser.down();
+
+		Iterator<Element> matches = PathQuery.compile("b").select(parser);
+		assertEquals("1", matches.next().getAttribute(new QName("id")));
+		assertFalse(matches.hasNext());
+		assertEquals(1, parser.up());
+		assertEquals(new QName("a"), parser.next().getName());
+	}
+
+	@Test
+	public void testCompile01()
+	{
+		String[] invalid = { "", "/", "a/", "a[", "a[@]", "a[0]", "a[@b=c]", "p:a", "a//", "a[@b='c'" };
+
+		for (String query : invalid)
+		{
+			try
+			{
+				PathQuery.compile(query);
+				fail(query);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// Expected
+			}
+		}
+	}
+}